@@ -0,0 +1,117 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.benchmark;
+
+import alfio.manager.UploadedResourceManager;
+import alfio.manager.i18n.MessageSourceManager;
+import alfio.model.*;
+import alfio.model.transaction.PaymentProxy;
+import alfio.model.user.Organization;
+import alfio.repository.UploadedResourceRepository;
+import alfio.repository.system.ConfigurationRepository;
+import alfio.util.CustomResourceBundleMessageSource;
+import alfio.util.TemplateManager;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.ZonedDateTime;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Sample data and lightweight collaborators shared by the benchmarks.
+ */
+final class BenchmarkFixtures {
+
+    static final int EVENT_ID = 1;
+    static final int ORGANIZATION_ID = 1;
+    static final String CURRENCY = "CHF";
+    static final String RESERVATION_ID = "d3b0b5b4-4a3f-4c43-9c35-5c1c2a6e07b1";
+
+    private BenchmarkFixtures() {
+    }
+
+    static Event event(PriceContainer.VatStatus vatStatus) {
+        var begin = ZonedDateTime.now().plusMonths(1);
+        return new Event(EVENT_ID, Event.EventType.INTERNAL, "benchmark", "Benchmark Event", "Zurich", "47.3769", "8.5417",
+            begin, begin.plusHours(8), "Europe/Zurich", "https://alf.io", null, null, "https://alf.io/terms", null, null,
+            CURRENCY, new BigDecimal("7.70"), "STRIPE,OFFLINE", "private-key", ORGANIZATION_ID, ContentLanguage.ALL_LANGUAGES_IDENTIFIER,
+            10000, vatStatus, "2.0.0", Event.Status.PUBLIC);
+    }
+
+    static Organization organization() {
+        return new Organization(ORGANIZATION_ID, "Benchmark Organization", "organization used by the benchmarks", "org@alf.io");
+    }
+
+    static TicketCategory category(int id) {
+        return new TicketCategory(id, ZonedDateTime.now().minusDays(1), ZonedDateTime.now().plusDays(10), 100, "Category " + id,
+            false, TicketCategory.Status.ACTIVE, EVENT_ID, true, 10000, null, null, null, null, null, CURRENCY, id, null);
+    }
+
+    static List<Ticket> tickets(int count, int categories) {
+        return IntStream.range(0, count)
+            .mapToObj(i -> new Ticket(i, "ticket-" + i, ZonedDateTime.now(), i % categories, Ticket.TicketStatus.ACQUIRED.name(), EVENT_ID,
+                RESERVATION_ID, "Attendee " + i, "Attendee", String.valueOf(i), "attendee" + i + "@alf.io", false, "en",
+                10000, 10000, 715, 0, null, CURRENCY))
+            .collect(Collectors.toList());
+    }
+
+    static TicketReservation reservation(Integer promoCodeId, PriceContainer.VatStatus vatStatus) {
+        return new TicketReservation(RESERVATION_ID, new Date(), TicketReservation.TicketReservationStatus.COMPLETE,
+            "Buyer Name", "Buyer", "Name", "buyer@alf.io", "billing address", ZonedDateTime.now(), null,
+            PaymentProxy.STRIPE, false, promoCodeId, false, "en", false, null, null, vatStatus, null,
+            "CH", false, new BigDecimal("7.70"), vatStatus == PriceContainer.VatStatus.INCLUDED,
+            ZonedDateTime.now().minusMinutes(5), null, ZonedDateTime.now(), 0, 0, 0, 0, CURRENCY);
+    }
+
+    static PromoCodeDiscount percentagePromoCode(int id) {
+        return new PromoCodeDiscount(id, "BENCHMARK", EVENT_ID, null, ZonedDateTime.now().minusDays(1), ZonedDateTime.now().plusDays(1),
+            10, PromoCodeDiscount.DiscountType.PERCENTAGE, null, null, null, null, PromoCodeDiscount.CodeType.DISCOUNT, null);
+    }
+
+    static AdditionalService donation(int id) {
+        return new AdditionalService(id, EVENT_ID, false, 0, -1, 1, ZonedDateTime.now().minusDays(1), ZonedDateTime.now().plusDays(10),
+            null, AdditionalService.VatType.INHERITED, 0, AdditionalService.AdditionalServiceType.DONATION,
+            AdditionalService.SupplementPolicy.OPTIONAL_UNLIMITED_AMOUNT, CURRENCY);
+    }
+
+    static AdditionalServiceItem additionalServiceItem(int id, int additionalServiceId) {
+        return new AdditionalServiceItem(id, "item-" + id, ZonedDateTime.now(), null, RESERVATION_ID, additionalServiceId,
+            AdditionalServiceItem.AdditionalServiceItemStatus.ACQUIRED, EVENT_ID, 2000, 2000, 143, 0, CURRENCY);
+    }
+
+    static MessageSourceManager messageSourceManager() {
+        var source = new CustomResourceBundleMessageSource();
+        source.setBasenames("alfio.i18n.public", "alfio.i18n.admin");
+        source.setDefaultEncoding(StandardCharsets.UTF_8.displayName());
+        source.setFallbackToSystemLocale(false);
+        source.setAlwaysUseMessageFormat(true);
+        var configurationRepository = InMemoryRepositories.fake(ConfigurationRepository.class,
+            Map.of("getEventOverrideMessages", args -> Map.of()));
+        return new MessageSourceManager(source, configurationRepository);
+    }
+
+    static TemplateManager templateManager(MessageSourceManager messageSourceManager) {
+        // no uploaded overrides, templates are always loaded from the classpath
+        var uploadedResourceRepository = InMemoryRepositories.fake(UploadedResourceRepository.class,
+            Map.of("hasResource", args -> false));
+        return new TemplateManager(messageSourceManager, new UploadedResourceManager(uploadedResourceRepository));
+    }
+}
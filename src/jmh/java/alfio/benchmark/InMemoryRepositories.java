@@ -0,0 +1,64 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.benchmark;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Creates in-memory implementations of the npjt repository interfaces, so that the benchmarks can exercise
+ * the managers without a database and without the overhead of a mocking library.
+ */
+final class InMemoryRepositories {
+
+    private static final Object[] NO_ARGS = new Object[0];
+
+    private InMemoryRepositories() {
+    }
+
+    /**
+     * Builds an implementation of the given repository which answers using the functions registered by method name.
+     * Every other method, including the default ones, throws {@link UnsupportedOperationException}, so that
+     * a benchmark never silently measures an unexpected code path.
+     *
+     * @param repository the repository interface
+     * @param answers the method implementations, by method name. The function receives the invocation arguments
+     * @return the in-memory repository
+     */
+    static <T> T fake(Class<T> repository, Map<String, Function<Object[], Object>> answers) {
+        InvocationHandler handler = (proxy, method, args) -> {
+            if(method.getDeclaringClass() == Object.class) {
+                switch(method.getName()) {
+                    case "equals":
+                        return proxy == args[0];
+                    case "hashCode":
+                        return System.identityHashCode(proxy);
+                    default:
+                        return "in-memory " + repository.getSimpleName();
+                }
+            }
+            var answer = answers.get(method.getName());
+            if(answer == null) {
+                throw new UnsupportedOperationException(repository.getSimpleName() + "." + method.getName() + " is not supported");
+            }
+            return answer.apply(args == null ? NO_ARGS : args);
+        };
+        return repository.cast(Proxy.newProxyInstance(repository.getClassLoader(), new Class<?>[] { repository }, handler));
+    }
+}
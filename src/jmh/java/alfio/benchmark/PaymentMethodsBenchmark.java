@@ -0,0 +1,124 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.benchmark;
+
+import alfio.manager.PaymentManager;
+import alfio.manager.TicketReservationManager;
+import alfio.manager.payment.PaymentSpecification;
+import alfio.manager.support.PaymentResult;
+import alfio.manager.system.ConfigurationManager;
+import alfio.manager.system.ExternalConfiguration;
+import alfio.model.Event;
+import alfio.model.PriceContainer;
+import alfio.model.transaction.PaymentContext;
+import alfio.model.transaction.PaymentMethod;
+import alfio.model.transaction.PaymentProvider;
+import alfio.model.transaction.Transaction;
+import alfio.repository.system.ConfigurationRepository;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Measures the resolution of the payment methods offered for a reservation, with and without the cache of
+ * {@link PaymentManager#getActivePaymentMethods(Event, java.util.Collection)}.
+ * The configuration is served by in-memory repositories: the database round trips saved by the cache are not part
+ * of the measurement.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PaymentMethodsBenchmark {
+
+    @Param({"1", "5"})
+    private int categories;
+
+    private ConfigurationManager configurationManager;
+    private PaymentManager paymentManager;
+    private Event event;
+    private List<Integer> categoryIds;
+
+    @Setup
+    public void setUp() {
+        event = BenchmarkFixtures.event(PriceContainer.VatStatus.INCLUDED);
+        categoryIds = IntStream.rangeClosed(1, categories).boxed().collect(Collectors.toList());
+        var configurationRepository = InMemoryRepositories.fake(ConfigurationRepository.class, Map.of(
+            "findByEventAndKeys", args -> List.of(),
+            "getAllCategoriesAndValueWith", args -> Map.of(),
+            "findByKeyAtCategoryLevel", args -> Optional.empty()));
+        configurationManager = new ConfigurationManager(configurationRepository, null, null, new ExternalConfiguration());
+        paymentManager = new PaymentManager(null, configurationManager, null, null, null, List.of(
+            new BenchmarkPaymentProvider(PaymentMethod.CREDIT_CARD, Map.of("stripe_p_key", "pk_benchmark")),
+            new BenchmarkPaymentProvider(PaymentMethod.BANK_TRANSFER, Map.of())));
+    }
+
+    /**
+     * Resolution performed by the reservation API for every request, before the result was cached
+     */
+    @Benchmark
+    public Map<PaymentMethod, Map<String, ?>> resolveOnEveryRequest() {
+        var blacklisted = configurationManager.getBlacklistedMethodsForReservation(event, categoryIds);
+        return paymentManager.getPaymentMethods(event).stream()
+            .filter(p -> !blacklisted.contains(p.getPaymentMethod()))
+            .filter(p -> TicketReservationManager.isValidPaymentMethod(p, event, configurationManager))
+            .collect(Collectors.toMap(PaymentManager.PaymentMethodDTO::getPaymentMethod, p -> paymentManager.loadModelOptionsFor(List.of(p.getPaymentProxy()), event)));
+    }
+
+    @Benchmark
+    public List<PaymentManager.ActivePaymentMethod> getActivePaymentMethods() {
+        return paymentManager.getActivePaymentMethods(event, categoryIds);
+    }
+
+    private static class BenchmarkPaymentProvider implements PaymentProvider {
+
+        private final PaymentMethod paymentMethod;
+        private final Map<String, ?> options;
+
+        private BenchmarkPaymentProvider(PaymentMethod paymentMethod, Map<String, ?> options) {
+            this.paymentMethod = paymentMethod;
+            this.options = options;
+        }
+
+        @Override
+        public boolean accept(PaymentMethod paymentMethod, PaymentContext context) {
+            return this.paymentMethod == paymentMethod;
+        }
+
+        @Override
+        public boolean accept(Transaction transaction) {
+            return false;
+        }
+
+        @Override
+        public PaymentResult doPayment(PaymentSpecification spec) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Map<String, ?> getModelOptions(PaymentContext context) {
+            return options;
+        }
+    }
+}
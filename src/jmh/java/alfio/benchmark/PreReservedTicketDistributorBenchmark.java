@@ -0,0 +1,59 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.benchmark;
+
+import alfio.model.TicketCategoryStatisticView;
+import alfio.util.PreReservedTicketDistributor;
+import org.apache.commons.lang3.tuple.Pair;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Measures the distribution of the pre-reserved tickets among the available categories, as done by the waiting queue.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PreReservedTicketDistributorBenchmark {
+
+    @Param({"5", "50"})
+    private int categories;
+
+    @Param({"10", "1000"})
+    private int requestedTickets;
+
+    private List<Pair<Integer, TicketCategoryStatisticView>> availableSeats;
+
+    @Setup
+    public void setUp() {
+        availableSeats = IntStream.range(0, categories)
+            .mapToObj(i -> Pair.of(20 + i, new TicketCategoryStatisticView(i, 100, true, false, BenchmarkFixtures.EVENT_ID, 0, 0, 80 - i, 20 + i, 0, 0, false, false)))
+            .collect(Collectors.toList());
+    }
+
+    @Benchmark
+    public List<Pair<Integer, TicketCategoryStatisticView>> distribute() {
+        return availableSeats.stream().collect(new PreReservedTicketDistributor(requestedTickets));
+    }
+}
@@ -0,0 +1,95 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.benchmark;
+
+import alfio.manager.TicketReservationManager;
+import alfio.model.*;
+import alfio.repository.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the price calculation of a reservation and the generation of its order summary, backed by in-memory repositories.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReservationPricingBenchmark {
+
+    private static final int PROMO_CODE_ID = 1;
+    private static final int ADDITIONAL_SERVICE_ID = 1;
+
+    @Param({"1", "10", "100"})
+    private int tickets;
+
+    @Param({"false", "true"})
+    private boolean withPromoCode;
+
+    @Param({"INCLUDED", "NOT_INCLUDED"})
+    private PriceContainer.VatStatus vatStatus;
+
+    private TicketReservationManager ticketReservationManager;
+    private TicketReservation reservation;
+    private Event event;
+
+    @Setup
+    public void setUp() {
+        event = BenchmarkFixtures.event(vatStatus);
+        reservation = BenchmarkFixtures.reservation(withPromoCode ? PROMO_CODE_ID : null, vatStatus);
+        List<Ticket> ticketList = BenchmarkFixtures.tickets(tickets, 3);
+        var promoCode = BenchmarkFixtures.percentagePromoCode(PROMO_CODE_ID);
+        var additionalService = BenchmarkFixtures.donation(ADDITIONAL_SERVICE_ID);
+        var additionalServiceItems = List.of(BenchmarkFixtures.additionalServiceItem(1, ADDITIONAL_SERVICE_ID));
+        var title = new AdditionalServiceText(1, ADDITIONAL_SERVICE_ID, "en", AdditionalServiceText.TextType.TITLE, "Donation");
+
+        var eventRepository = InMemoryRepositories.fake(EventRepository.class, Map.of("findByReservationId", args -> event));
+        var ticketRepository = InMemoryRepositories.fake(TicketRepository.class, Map.of("findTicketsInReservation", args -> ticketList));
+        var ticketCategoryRepository = InMemoryRepositories.fake(TicketCategoryRepository.class,
+            Map.of("getByIdAndActive", args -> BenchmarkFixtures.category((Integer) args[0])));
+        var promoCodeDiscountRepository = InMemoryRepositories.fake(PromoCodeDiscountRepository.class, Map.of("findById", args -> promoCode));
+        var additionalServiceRepository = InMemoryRepositories.fake(AdditionalServiceRepository.class, Map.of("getById", args -> additionalService));
+        var additionalServiceItemRepository = InMemoryRepositories.fake(AdditionalServiceItemRepository.class,
+            Map.of("findByReservationUuid", args -> additionalServiceItems));
+        var additionalServiceTextRepository = InMemoryRepositories.fake(AdditionalServiceTextRepository.class,
+            Map.of("findBestMatchByLocaleAndType", args -> title));
+        var auditingRepository = InMemoryRepositories.fake(AuditingRepository.class, Map.of("countAuditsOfTypeForReservation", args -> 0));
+
+        // only the collaborators involved in the price calculation are provided
+        ticketReservationManager = new TicketReservationManager(eventRepository, null, ticketRepository, null,
+            ticketCategoryRepository, null, null, null, promoCodeDiscountRepository, null,
+            null, null, null, null, null, null,
+            null, additionalServiceRepository, additionalServiceItemRepository, additionalServiceTextRepository,
+            null, auditingRepository, null, null, null,
+            null, null, null, null, promoCodeDiscountRepository, null);
+    }
+
+    @Benchmark
+    public TotalPrice totalReservationCostWithVAT() {
+        return ticketReservationManager.totalReservationCostWithVAT(reservation);
+    }
+
+    @Benchmark
+    public OrderSummary orderSummaryForReservation() {
+        return ticketReservationManager.orderSummaryForReservation(reservation, event);
+    }
+}
@@ -0,0 +1,87 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.benchmark;
+
+import alfio.model.Event;
+import alfio.model.PriceContainer;
+import alfio.util.TemplateManager;
+import alfio.util.TemplateResource;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.MessageSource;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.util.StreamUtils;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Measures the rendering of the templates used for emails and PDFs, and the {@code {{#i18n}}} parser.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TemplateBenchmark {
+
+    @Param({"CONFIRMATION_EMAIL", "TICKET_EMAIL", "INVOICE_PDF"})
+    private TemplateResource templateResource;
+
+    @Param({"en", "de"})
+    private String language;
+
+    private TemplateManager templateManager;
+    private MessageSource messageSource;
+    private Event event;
+    private Locale locale;
+    private Map<String, Object> model;
+    private Function<Map<String, Object>, String> compiledTemplate;
+    private String rawTemplate;
+
+    @Setup
+    public void setUp() throws IOException {
+        var messageSourceManager = BenchmarkFixtures.messageSourceManager();
+        templateManager = BenchmarkFixtures.templateManager(messageSourceManager);
+        event = BenchmarkFixtures.event(PriceContainer.VatStatus.INCLUDED);
+        messageSource = messageSourceManager.getMessageSourceForEvent(event);
+        locale = Locale.forLanguageTag(language);
+        model = templateResource.prepareSampleModel(BenchmarkFixtures.organization(), event, Optional.empty());
+        compiledTemplate = templateManager.compileTemplate(event, templateResource, locale);
+        rawTemplate = StreamUtils.copyToString(new ClassPathResource(templateResource.classPath()).getInputStream(), StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public String renderTemplate() {
+        return templateManager.renderTemplate(event, templateResource, model, locale);
+    }
+
+    @Benchmark
+    public String renderCompiledTemplate() {
+        return compiledTemplate.apply(model);
+    }
+
+    @Benchmark
+    public String translate() {
+        return TemplateManager.translate(rawTemplate, locale, messageSource);
+    }
+}
@@ -0,0 +1,83 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.benchmark;
+
+import alfio.controller.form.UpdateTicketOwnerForm;
+import alfio.model.Event;
+import alfio.model.PriceContainer;
+import alfio.model.TicketFieldConfiguration;
+import alfio.model.result.ValidationResult;
+import alfio.util.Validator;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.validation.BeanPropertyBindingResult;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Measures the validation of the attendee data, which runs for every ticket at each assignment.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ValidatorBenchmark {
+
+    private static final String RESTRICTED_VALUES = "[\"small\",\"medium\",\"large\",\"x-large\"]";
+
+    @Param({"0", "10", "50"})
+    private int additionalFields;
+
+    private Event event;
+    private List<TicketFieldConfiguration> fieldConfigurations;
+    private UpdateTicketOwnerForm form;
+
+    @Setup
+    public void setUp() {
+        event = BenchmarkFixtures.event(PriceContainer.VatStatus.INCLUDED);
+        fieldConfigurations = IntStream.range(0, additionalFields)
+            .mapToObj(i -> i % 2 == 0
+                ? new TicketFieldConfiguration(i, BenchmarkFixtures.EVENT_ID, "text" + i, i, "input:text", 255, 2, true, true, null, TicketFieldConfiguration.Context.ATTENDEE, null, null, null)
+                : new TicketFieldConfiguration(i, BenchmarkFixtures.EVENT_ID, "select" + i, i, "select", null, null, false, true, RESTRICTED_VALUES, TicketFieldConfiguration.Context.ATTENDEE, null, null, null))
+            .collect(Collectors.toList());
+        form = new UpdateTicketOwnerForm();
+        form.setEmail("attendee@alf.io");
+        form.setFullName("Attendee Name");
+        form.setUserLanguage("en");
+        Map<String, List<String>> additional = new HashMap<>();
+        fieldConfigurations.forEach(f -> additional.put(f.getName(), List.of(f.isSelectField() ? "medium" : "some value")));
+        form.setAdditional(additional);
+    }
+
+    @Benchmark
+    public ValidationResult validateTicketAssignment() {
+        var errors = new BeanPropertyBindingResult(form, "form");
+        return Validator.validateTicketAssignment(form, fieldConfigurations, Optional.of(errors), event, "", null);
+    }
+
+    @Benchmark
+    public boolean isEmailValid() {
+        return Validator.isEmailValid(form.getEmail());
+    }
+}
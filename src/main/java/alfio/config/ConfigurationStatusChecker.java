@@ -82,13 +82,7 @@ public class ConfigurationStatusChecker implements ApplicationListener<ContextRe
             ofNullable(System.getProperty("recaptcha.secret")).ifPresent(clientApiKey -> configurationManager.saveSystemConfiguration(RECAPTCHA_SECRET, clientApiKey));
 
         }
-        log.info("performing migration from previous version, if any");
-        try {
-            dataMigrator.migrateEventsToCurrentVersion();
-            log.info("done.");
-            log.info("initialized alf.io version {} ", version);
-        } catch (Exception e) {
-            log.error("unable to perform data migration. Please report this issue.", e);
-        }
+        dataMigrator.migrateEventsToCurrentVersionInBackground();
+        log.info("initialized alf.io version {} ", version);
     }
 }
@@ -19,14 +19,20 @@ package alfio.config;
 import alfio.config.support.ArrayColumnMapper;
 import alfio.config.support.JSONColumnMapper;
 import alfio.config.support.PlatformProvider;
+import alfio.config.support.ReplicaRoutingDataSource;
 import alfio.job.Jobs;
 import alfio.job.executor.ReservationJobExecutor;
 import alfio.manager.*;
 import alfio.manager.i18n.MessageSourceManager;
+import alfio.manager.support.CustomMessageManager;
 import alfio.manager.system.AdminJobManager;
+import alfio.manager.system.DataMigrator;
 import alfio.manager.system.ConfigurationManager;
+import alfio.manager.user.OrganizationMembershipCache;
 import alfio.repository.EventDeleterRepository;
 import alfio.repository.EventRepository;
+import alfio.repository.support.IdentityMapTransactionManager;
+import alfio.repository.support.RepositoryIdentityMap;
 import alfio.repository.system.AdminJobQueueRepository;
 import alfio.repository.system.ConfigurationRepository;
 import alfio.repository.user.OrganizationRepository;
@@ -39,6 +45,10 @@ import ch.digitalfondue.npjt.EnableNpjt;
 import ch.digitalfondue.npjt.mapper.ColumnMapperFactory;
 import ch.digitalfondue.npjt.mapper.ParameterConverter;
 import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.aop.TimedAspect;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.prometheus.PrometheusConfig;
+import io.micrometer.prometheus.PrometheusMeterRegistry;
 import lombok.extern.log4j.Log4j2;
 import org.flywaydb.core.Flyway;
 import org.flywaydb.core.api.MigrationVersion;
@@ -48,7 +58,7 @@ import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.namedparam.EmptySqlParameterSource;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 import org.springframework.jdbc.datasource.AbstractDataSource;
-import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
 import org.springframework.scheduling.annotation.EnableAsync;
 import org.springframework.scheduling.annotation.EnableScheduling;
 import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
@@ -91,16 +101,9 @@ public class DataSourceConfiguration {
         if(platform == PlatformProvider.CLOUD_FOUNDRY) {
             return new FakeCFDataSource();
         } else {
-            HikariDataSource dataSource = new HikariDataSource();
-            dataSource.setJdbcUrl(platform.getUrl(env));
-            dataSource.setUsername(platform.getUsername(env));
-            dataSource.setPassword(platform.getPassword(env));
-            dataSource.setDriverClassName("org.postgresql.Driver");
-            dataSource.setMaximumPoolSize(platform.getMaxActive(env));
-            dataSource.setMinimumIdle(platform.getMinIdle(env));
-            dataSource.setConnectionTimeout(1000L);
-
-            log.debug("Connection pool properties: max active {}, initial size {}", dataSource.getMaximumPoolSize(), dataSource.getMinimumIdle());
+            String replicaUrl = env.getProperty("datasource.replica.url");
+            HikariDataSource dataSource = createPool(replicaUrl != null ? "primary" : null, platform.getUrl(env),
+                platform.getUsername(env), platform.getPassword(env), platform.getMaxActive(env), platform.getMinIdle(env));
 
             // check
             boolean isSuperAdmin = Boolean.TRUE.equals(new NamedParameterJdbcTemplate(dataSource)
@@ -112,15 +115,42 @@ public class DataSourceConfiguration {
                 log.warn("You're accessing the database using a superuser. This is highly discouraged since it will disable the row security policy checks.");
             }
 
-            //
-            return dataSource;
+            if(replicaUrl == null) {
+                return dataSource;
+            }
+            // read-only transactions and @ReadReplica methods are executed on the replica
+            HikariDataSource replica = createPool("replica", replicaUrl,
+                env.getProperty("datasource.replica.username", dataSource.getUsername()),
+                env.getProperty("datasource.replica.password", dataSource.getPassword()),
+                env.getProperty("datasource.replica.connections.max-active", Integer.class, dataSource.getMaximumPoolSize()),
+                env.getProperty("datasource.replica.connections.min-idle", Integer.class, dataSource.getMinimumIdle()));
+            long maxLag = env.getProperty("datasource.replica.max-lag-ms", Long.class, 1000L);
+            log.info("Read replica configured, max lag {}ms", maxLag);
+            return new LazyConnectionDataSourceProxy(new ReplicaRoutingDataSource(dataSource, replica, maxLag));
         }
     }
 
+    private static HikariDataSource createPool(String poolName, String url, String username, String password, int maxActive, int minIdle) {
+        HikariDataSource dataSource = new HikariDataSource();
+        if(poolName != null) {
+            dataSource.setPoolName(poolName);
+        }
+        dataSource.setJdbcUrl(url);
+        dataSource.setUsername(username);
+        dataSource.setPassword(password);
+        dataSource.setDriverClassName("org.postgresql.Driver");
+        dataSource.setMaximumPoolSize(maxActive);
+        dataSource.setMinimumIdle(minIdle);
+        dataSource.setConnectionTimeout(1000L);
+        dataSource.setMetricRegistry(Metrics.globalRegistry);
+
+        log.debug("Connection pool properties: max active {}, initial size {}", dataSource.getMaximumPoolSize(), dataSource.getMinimumIdle());
+        return dataSource;
+    }
+
     @Bean
-    @Profile("!"+Initializer.PROFILE_SPRING_BOOT)
     public PlatformTransactionManager platformTransactionManager(DataSource dataSource) {
-        return new DataSourceTransactionManager(dataSource);
+        return new IdentityMapTransactionManager(dataSource);
     }
 
     @Bean
@@ -195,10 +225,32 @@ public class DataSourceConfiguration {
         return new FileDownloadManager(httpClient);
     }
 
+    @Bean
+    public static RepositoryIdentityMap repositoryIdentityMap() {
+        return new RepositoryIdentityMap();
+    }
+
+    @Bean
+    public ReadReplicaAspect getReadReplicaAspect() {
+        return new ReadReplicaAspect();
+    }
+
     @Bean
     public RoleAndOrganizationsAspect getRoleAndOrganizationsAspect(NamedParameterJdbcTemplate namedParameterJdbcTemplate,
-                                                                    OrganizationRepository organizationRepository) {
-        return new RoleAndOrganizationsAspect(namedParameterJdbcTemplate, organizationRepository);
+                                                                    OrganizationMembershipCache organizationMembershipCache) {
+        return new RoleAndOrganizationsAspect(namedParameterJdbcTemplate, organizationMembershipCache);
+    }
+
+    @Bean
+    public PrometheusMeterRegistry prometheusMeterRegistry() {
+        var registry = new PrometheusMeterRegistry(PrometheusConfig.DEFAULT);
+        Metrics.addRegistry(registry);
+        return registry;
+    }
+
+    @Bean
+    public TimedAspect timedAspect() {
+        return new TimedAspect(Metrics.globalRegistry);
     }
 
     @Bean
@@ -211,12 +263,18 @@ public class DataSourceConfiguration {
                      WaitingQueueSubscriptionProcessor waitingQueueSubscriptionProcessor,
                      TicketReservationManager ticketReservationManager,
                      AdminJobQueueRepository adminJobQueueRepository,
-                     PlatformTransactionManager platformTransactionManager
+                     PlatformTransactionManager platformTransactionManager,
+                     CustomMessageManager customMessageManager,
+                     InvoiceArchiveManager invoiceArchiveManager,
+                     PromoCodeRequestManager promoCodeRequestManager,
+                     ReservationAdmissionManager reservationAdmissionManager,
+                     DataMigrator dataMigrator
                      ) {
         return new Jobs(adminReservationRequestManager, fileUploadManager,
             notificationManager, specialPriceTokenGenerator, ticketReservationManager,
             waitingQueueSubscriptionProcessor,
-            adminJobManager(adminJobQueueRepository, platformTransactionManager, ticketReservationManager));
+            adminJobManager(adminJobQueueRepository, platformTransactionManager, ticketReservationManager),
+            customMessageManager, invoiceArchiveManager, promoCodeRequestManager, reservationAdmissionManager, dataMigrator);
     }
 
     @Bean
@@ -16,7 +16,7 @@
  */
 package alfio.config;
 
-import alfio.repository.user.OrganizationRepository;
+import alfio.manager.user.OrganizationMembershipCache;
 import lombok.extern.log4j.Log4j2;
 import org.aspectj.lang.ProceedingJoinPoint;
 import org.aspectj.lang.annotation.Around;
@@ -87,14 +87,14 @@ public class RoleAndOrganizationsAspect {
     }
 
     private final NamedParameterJdbcTemplate jdbcTemplate;
-    private final OrganizationRepository organizationRepository;
+    private final OrganizationMembershipCache organizationMembershipCache;
 
 
 
     public RoleAndOrganizationsAspect(NamedParameterJdbcTemplate namedParameterJdbcTemplate,
-                                      OrganizationRepository organizationRepository) {
+                                      OrganizationMembershipCache organizationMembershipCache) {
         this.jdbcTemplate = namedParameterJdbcTemplate;
-        this.organizationRepository = organizationRepository;
+        this.organizationMembershipCache = organizationMembershipCache;
     }
 
     @Around("within(alfio.manager..*) && (@target(org.springframework.transaction.annotation.Transactional) || " +
@@ -116,7 +116,7 @@ public class RoleAndOrganizationsAspect {
                     if (DataSourceUtils.isConnectionTransactional(connection, dataSource)) {
                         jdbcTemplate.update("reset alfio.checkRowAccess", new EmptySqlParameterSource());
                         jdbcTemplate.update("reset alfio.currentUserOrgs", new EmptySqlParameterSource());
-                        Set<Integer> orgIds = new TreeSet<>(organizationRepository.findAllOrganizationIdForUser(SecurityContextHolder.getContext().getAuthentication().getName()));
+                        Set<Integer> orgIds = new TreeSet<>(organizationMembershipCache.getMembership(SecurityContextHolder.getContext().getAuthentication().getName()).getOrganizationIds());
                         if (orgIds.isEmpty()) {
                             log.warn("orgIds is empty, was not able to apply currentUserOrgs at join point: {}", joinPoint);
                         } else {
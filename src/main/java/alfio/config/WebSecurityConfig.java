@@ -43,6 +43,7 @@ import org.springframework.security.config.annotation.web.configurers.CsrfConfig
 import org.springframework.security.config.http.SessionCreationPolicy;
 import org.springframework.security.core.GrantedAuthority;
 import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.core.userdetails.UsernameNotFoundException;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.security.web.authentication.UsernamePasswordAuthenticationFilter;
 import org.springframework.security.web.authentication.preauth.AbstractPreAuthenticatedProcessingFilter;
@@ -198,12 +199,56 @@ public class WebSecurityConfig {
         return authorization != null && authorization.toLowerCase(Locale.ENGLISH).startsWith("apikey ");
     }
 
+    private static boolean isBasicAuthentication(HttpServletRequest request) {
+        String authorization = request.getHeader("Authorization");
+        return authorization != null && authorization.toLowerCase(Locale.ENGLISH).startsWith("basic ");
+    }
 
     /**
-     * Default form based configuration.
+     * HTTP basic authentication for the metrics endpoint, so that it can be scraped (e.g. by Prometheus, using
+     * {@code basic_auth}) with the credentials of an administrator. The metrics cover the whole installation,
+     * therefore they are not available to the API keys, which belong to a single organization.
      */
     @Configuration
     @Order(1)
+    public static class MetricsWebSecurity extends WebSecurityConfigurerAdapter {
+
+        @Autowired
+        private UserRepository userRepository;
+
+        @Autowired
+        private AuthorityRepository authorityRepository;
+
+        @Autowired
+        private PasswordEncoder passwordEncoder;
+
+        @Override
+        public void configure(AuthenticationManagerBuilder auth) throws Exception {
+            auth.userDetailsService(username -> {
+                String password = userRepository.findPasswordByUsername(username).orElseThrow(() -> new UsernameNotFoundException(username));
+                var authorities = authorityRepository.findRoles(username).stream().map(SimpleGrantedAuthority::new).collect(Collectors.toList());
+                return new org.springframework.security.core.userdetails.User(username, password, authorities);
+            }).passwordEncoder(passwordEncoder);
+        }
+
+        @Override
+        protected void configure(HttpSecurity http) throws Exception {
+            RequestMatcher metrics = new AntPathRequestMatcher(ADMIN_API + "/metrics", HttpMethod.GET.name());
+            http.requestMatcher(request -> metrics.matches(request) && isBasicAuthentication(request))
+                .sessionManagement().sessionCreationPolicy(SessionCreationPolicy.STATELESS)
+                .and().csrf().disable()
+                .authorizeRequests()
+                .anyRequest().hasRole(ADMIN)
+                .and().httpBasic();
+        }
+    }
+
+
+    /**
+     * Default form based configuration.
+     */
+    @Configuration
+    @Order(2)
     public static class FormBasedWebSecurity extends WebSecurityConfigurerAdapter {
 
         @Autowired
@@ -292,7 +337,7 @@ public class WebSecurityConfig {
                 .and()
                 .authorizeRequests()
                 .antMatchers(ADMIN_API + "/configuration/**", ADMIN_API + "/users/**").hasAnyRole(ADMIN, OWNER)
-                .antMatchers(ADMIN_API + "/organizations/new").hasRole(ADMIN)
+                .antMatchers(ADMIN_API + "/organizations/new", ADMIN_API + "/metrics").hasRole(ADMIN)
                 .antMatchers(ADMIN_API + "/check-in/**").hasAnyRole(ADMIN, OWNER, SUPERVISOR)
                 .antMatchers(HttpMethod.GET, ownershipRequired).hasAnyRole(ADMIN, OWNER)
                 .antMatchers(HttpMethod.GET, ADMIN_API + "/**").hasAnyRole(ADMIN, OWNER, SUPERVISOR)
@@ -0,0 +1,155 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.config.support;
+
+import alfio.manager.system.ApplicationMetrics;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Metrics;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.sql.DataSource;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Routes the connections to a read replica for read-only transactions and for the methods annotated with
+ * {@link ReadReplica}, and to the primary database for everything else.
+ * <p>
+ * The decision is taken when the connection is requested, so this must be wrapped by a
+ * {@link org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy}: the transaction manager opens the connection
+ * before the read-only flag of the transaction is exposed.
+ * <p>
+ * The replica lag is checked at most once per second, by comparing the heartbeat written on the primary database
+ * with the one seen by the replica (see the {@code replica_heartbeat} table). If it is above {@code maxLagMillis},
+ * or the replica is not reachable, the connections are routed to the primary database.
+ */
+@Log4j2
+public class ReplicaRoutingDataSource extends AbstractRoutingDataSource {
+
+    private static final String PRIMARY = "primary";
+    private static final String REPLICA = "replica";
+    private static final long LAG_CHECK_INTERVAL = TimeUnit.SECONDS.toNanos(1);
+    private static final String HEARTBEAT_MILLIS = "(extract(epoch from ts) * 1000)::bigint";
+    private static final String NOW_MILLIS = "(extract(epoch from now()) * 1000)::bigint";
+    private static final ThreadLocal<Boolean> READ_REPLICA = ThreadLocal.withInitial(() -> false);
+
+    private final JdbcTemplate primaryJdbcTemplate;
+    private final JdbcTemplate replicaJdbcTemplate;
+    private final long maxLagMillis;
+    private final AtomicBoolean lagCheckRunning = new AtomicBoolean();
+    private final Counter primaryConnections;
+    private final Counter replicaConnections;
+    private final Counter fallbacks;
+    private volatile long lastLagCheck;
+    private volatile long replicaLag;
+
+    public ReplicaRoutingDataSource(DataSource primary, DataSource replica, long maxLagMillis) {
+        this.primaryJdbcTemplate = new JdbcTemplate(primary);
+        this.replicaJdbcTemplate = new JdbcTemplate(replica);
+        this.maxLagMillis = maxLagMillis;
+        this.lastLagCheck = System.nanoTime() - LAG_CHECK_INTERVAL;
+        setTargetDataSources(Map.of(PRIMARY, primary, REPLICA, replica));
+        setDefaultTargetDataSource(primary);
+        afterPropertiesSet();
+        var registry = Metrics.globalRegistry;
+        this.primaryConnections = Counter.builder(ApplicationMetrics.DATASOURCE_CONNECTIONS).tag("pool", PRIMARY)
+            .description("connections requested to the pool").register(registry);
+        this.replicaConnections = Counter.builder(ApplicationMetrics.DATASOURCE_CONNECTIONS).tag("pool", REPLICA)
+            .description("connections requested to the pool").register(registry);
+        this.fallbacks = Counter.builder(ApplicationMetrics.DATASOURCE_REPLICA_FALLBACK)
+            .description("connections routed to the primary database because the replica was lagging or not available")
+            .register(registry);
+        Gauge.builder(ApplicationMetrics.DATASOURCE_REPLICA_LAG, this, ds -> ds.replicaLag)
+            .description("replication lag of the read replica, in milliseconds")
+            .register(registry);
+    }
+
+    /**
+     * Sets the routing for the current thread, see {@link ReadReplica}.
+     *
+     * @return the previous value
+     */
+    public static boolean setReadReplica(boolean readReplica) {
+        boolean previous = READ_REPLICA.get();
+        READ_REPLICA.set(readReplica);
+        return previous;
+    }
+
+    @Override
+    protected Object determineCurrentLookupKey() {
+        if(!isReplicaRequested()) {
+            primaryConnections.increment();
+            return PRIMARY;
+        }
+        if(!isReplicaUpToDate()) {
+            fallbacks.increment();
+            primaryConnections.increment();
+            return PRIMARY;
+        }
+        replicaConnections.increment();
+        return REPLICA;
+    }
+
+    private static boolean isReplicaRequested() {
+        if(TransactionSynchronizationManager.isCurrentTransactionReadOnly()) {
+            return true;
+        }
+        return !TransactionSynchronizationManager.isActualTransactionActive() && READ_REPLICA.get();
+    }
+
+    private boolean isReplicaUpToDate() {
+        long now = System.nanoTime();
+        if(now - lastLagCheck >= LAG_CHECK_INTERVAL && lagCheckRunning.compareAndSet(false, true)) {
+            try {
+                replicaLag = loadReplicaLag();
+            } catch (Exception e) {
+                log.warn("cannot determine the lag of the read replica, falling back to primary", e);
+                replicaLag = Long.MAX_VALUE;
+            } finally {
+                lastLagCheck = now;
+                lagCheckRunning.set(false);
+            }
+        }
+        return replicaLag <= maxLagMillis;
+    }
+
+    /**
+     * Compares the last heartbeat written on the primary database with the one seen by the replica, then writes
+     * a new heartbeat. All the timestamps are generated by the primary database, so the clocks of the two servers
+     * don't need to be in sync. This doesn't rely on the WAL positions, which aren't available on a logical subscriber
+     * and don't move while the replica is disconnected from the primary.
+     *
+     * @return 0 if the replica has replayed the last heartbeat, otherwise the time elapsed since the heartbeat seen
+     * by the replica has been written, in milliseconds
+     */
+    long loadReplicaLag() {
+        var primaryHeartbeat = primaryJdbcTemplate.queryForObject("select " + HEARTBEAT_MILLIS + ", " + NOW_MILLIS + " from replica_heartbeat where id = 1",
+            (rs, rowNum) -> new long[] { rs.getLong(1), rs.getLong(2) });
+        Long replicaHeartbeat = replicaJdbcTemplate.queryForObject("select " + HEARTBEAT_MILLIS + " from replica_heartbeat where id = 1", Long.class);
+        primaryJdbcTemplate.update("update replica_heartbeat set ts = now() where id = 1");
+        if(Objects.requireNonNull(replicaHeartbeat) >= Objects.requireNonNull(primaryHeartbeat)[0]) {
+            return 0;
+        }
+        return primaryHeartbeat[1] - replicaHeartbeat;
+    }
+}
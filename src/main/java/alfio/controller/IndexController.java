@@ -18,6 +18,7 @@ package alfio.controller;
 
 import alfio.config.Initializer;
 import alfio.config.WebSecurityConfig;
+import alfio.manager.EventMetadataCache;
 import alfio.manager.i18n.MessageSourceManager;
 import alfio.manager.system.ConfigurationLevel;
 import alfio.manager.system.ConfigurationManager;
@@ -28,7 +29,6 @@ import alfio.model.FileBlobMetadata;
 import alfio.model.TicketReservationStatusAndValidation;
 import alfio.model.system.ConfigurationKeys;
 import alfio.repository.EventDescriptionRepository;
-import alfio.repository.EventRepository;
 import alfio.repository.FileUploadRepository;
 import alfio.repository.TicketReservationRepository;
 import alfio.repository.user.OrganizationRepository;
@@ -89,7 +89,7 @@ public class IndexController {
     }
 
     private final ConfigurationManager configurationManager;
-    private final EventRepository eventRepository;
+    private final EventMetadataCache eventMetadataCache;
     private final Environment environment;
     private final UserManager userManager;
     private final TemplateManager templateManager;
@@ -153,7 +153,7 @@ public class IndexController {
         response.setCharacterEncoding(UTF_8);
         var nonce = addCspHeader(response);
 
-        if (eventShortName != null && RequestUtils.isSocialMediaShareUA(userAgent) && eventRepository.existsByShortName(eventShortName)) {
+        if (eventShortName != null && RequestUtils.isSocialMediaShareUA(userAgent) && eventMetadataCache.existsByShortName(eventShortName)) {
             try (var os = response.getOutputStream()) {
                 var res = getOpenGraphPage((Document) OPEN_GRAPH_PAGE.cloneNode(true), eventShortName, request, lang);
                 os.write(res);
@@ -169,7 +169,7 @@ public class IndexController {
 
     @GetMapping("/event/{eventShortName}/reservation/{reservationId}")
     public String redirectToReservation(@PathVariable(value = "eventShortName") String eventShortName, @PathVariable(value = "reservationId") String reservationId) {
-        if (eventRepository.existsByShortName(eventShortName)) {
+        if (eventMetadataCache.existsByShortName(eventShortName)) {
             var reservationStatusUrlSegment = ticketReservationRepository.findOptionalStatusAndValidationById(reservationId)
                 .map(status -> reservationStatusToUrlMapping(status)).orElse("not-found");
 
@@ -200,7 +200,7 @@ public class IndexController {
     // see https://github.com/alfio-event/alf.io/issues/708
     // use ngrok to test the preview
     private byte[] getOpenGraphPage(Document eventOpenGraph, String eventShortName, ServletWebRequest request, String lang) {
-        var event = eventRepository.findByShortName(eventShortName);
+        var event = eventMetadataCache.findByShortName(eventShortName).orElseThrow();
         var locale = RequestUtils.getMatchingLocale(request, event);
         if (lang != null && event.getContentLanguages().stream().map(ContentLanguage::getLanguage).anyMatch(lang::equalsIgnoreCase)) {
             locale = Locale.forLanguageTag(lang);
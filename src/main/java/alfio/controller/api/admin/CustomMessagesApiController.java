@@ -17,10 +17,12 @@
 package alfio.controller.api.admin;
 
 import alfio.manager.support.CustomMessageManager;
+import alfio.model.CustomMessageCampaign;
 import alfio.model.modification.MessageModification;
 import lombok.extern.log4j.Log4j2;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
 import java.security.Principal;
@@ -56,11 +58,23 @@ public class CustomMessagesApiController {
     }
 
     @PostMapping("/send")
-    public void send(@PathVariable("eventName") String eventName,
+    public long send(@PathVariable("eventName") String eventName,
                     @RequestParam(required = false, value = "categoryId") Integer categoryId,
                     @RequestBody List<MessageModification> messageModifications,
                     Principal principal) {
-        customMessageManager.sendMessages(eventName, Optional.ofNullable(categoryId), messageModifications, principal.getName());
+        return customMessageManager.sendMessages(eventName, Optional.ofNullable(categoryId), messageModifications, principal.getName());
+    }
+
+    @GetMapping("/campaigns")
+    public List<CustomMessageCampaign> getCampaigns(@PathVariable("eventName") String eventName, Principal principal) {
+        return customMessageManager.findCampaigns(eventName, principal.getName());
+    }
+
+    @GetMapping("/campaigns/{campaignId}")
+    public ResponseEntity<CustomMessageCampaign> getCampaign(@PathVariable("eventName") String eventName,
+                                                             @PathVariable("campaignId") long campaignId,
+                                                             Principal principal) {
+        return ResponseEntity.of(customMessageManager.findCampaign(eventName, campaignId, principal.getName()));
     }
 
 }
@@ -16,10 +16,10 @@
  */
 package alfio.controller.api.admin;
 
+import alfio.config.support.ReadReplica;
 import alfio.controller.api.support.EventListItem;
 import alfio.controller.api.support.PageAndContent;
 import alfio.controller.api.support.TicketHelper;
-import alfio.controller.support.TemplateProcessor;
 import alfio.manager.*;
 import alfio.manager.i18n.I18nManager;
 import alfio.manager.system.ConfigurationManager;
@@ -30,11 +30,9 @@ import alfio.model.modification.*;
 import alfio.model.result.ValidationResult;
 import alfio.model.transaction.Transaction;
 import alfio.model.user.Organization;
-import alfio.model.user.Role;
 import alfio.model.user.User;
 import alfio.repository.DynamicFieldTemplateRepository;
 import alfio.repository.EventDescriptionRepository;
-import alfio.repository.SponsorScanRepository;
 import alfio.repository.TicketFieldRepository;
 import alfio.util.*;
 import com.opencsv.CSVReader;
@@ -47,12 +45,10 @@ import org.apache.commons.collections4.CollectionUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.Validate;
 import org.apache.commons.lang3.time.DateUtils;
-import org.apache.commons.lang3.tuple.Pair;
 import org.apache.commons.lang3.tuple.Triple;
 import org.springframework.dao.DataAccessException;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
-import org.springframework.util.StreamUtils;
 import org.springframework.validation.Errors;
 import org.springframework.web.bind.annotation.*;
 
@@ -60,7 +56,6 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.io.OutputStream;
 import java.math.BigDecimal;
 import java.security.Principal;
 import java.text.DateFormat;
@@ -73,8 +68,6 @@ import java.util.function.Function;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
 
 import static alfio.util.Validator.*;
 import static alfio.util.Wrappers.optionally;
@@ -98,12 +91,10 @@ public class EventApiController {
     private final TicketHelper ticketHelper;
     private final DynamicFieldTemplateRepository dynamicFieldTemplateRepository;
     private final UserManager userManager;
-    private final SponsorScanRepository sponsorScanRepository;
+    private final AttendeeManager attendeeManager;
     private final PaymentManager paymentManager;
-    private final TemplateManager templateManager;
-    private final FileUploadManager fileUploadManager;
     private final ConfigurationManager configurationManager;
-    private final ExtensionManager extensionManager;
+    private final InvoiceArchiveManager invoiceArchiveManager;
 
 
     @ExceptionHandler(DataAccessException.class)
@@ -286,6 +277,7 @@ public class EventApiController {
     private static final List<String> ITALIAN_E_INVOICING_FIELDS = List.of("Fiscal Code", "Reference Type", "Addressee Code", "PEC");
 
     @GetMapping("/events/{eventName}/export")
+    @ReadReplica
     public void downloadAllTicketsCSV(@PathVariable("eventName") String eventName, @RequestParam(name = "format", defaultValue = "excel") String format, HttpServletRequest request, HttpServletResponse response, Principal principal) throws IOException {
         List<String> fields = Arrays.asList(Optional.ofNullable(request.getParameterValues("fields")).orElse(new String[] {}));
         Event event = loadEvent(eventName, principal);
@@ -327,7 +319,8 @@ public class EventApiController {
         var username = principal.getName();
         var eInvoicingEnabled = configurationManager.isItalianEInvoicingEnabled(eventManager.getEventAndOrganizationId(eventName, username));
 
-        return eventManager.findAllConfirmedTicketsForCSV(eventName, username).stream().map(trs -> {
+        return eventManager.findAllConfirmedTicketsForCSV(eventName, username).stream().map(p -> {
+            var trs = p.getLeft();
             Ticket t = trs.getTicket();
             var currencyCode = t.getCurrencyCode();
             TicketReservation reservation = trs.getTicketReservation();
@@ -367,8 +360,7 @@ public class EventApiController {
                 if(fields.contains("PEC")) {line.add(optionalInvoicingData.map(ItalianEInvoicing::getPec).orElse(""));}
             }
 
-            //obviously not optimized
-            Map<String, String> additionalValues = ticketFieldRepository.findAllValuesForTicketId(t.getId());
+            Map<String, String> additionalValues = p.getRight();
 
             Predicate<String> contains = FIXED_FIELDS::contains;
 
@@ -382,6 +374,7 @@ public class EventApiController {
     }
 
     @GetMapping("/events/{eventName}/sponsor-scan/export")
+    @ReadReplica
     public void downloadSponsorScanExport(@PathVariable("eventName") String eventName, @RequestParam(name = "format", defaultValue = "excel") String format, HttpServletResponse response, Principal principal) throws IOException {
         var event = eventManager.getSingleEvent(eventName, principal.getName());
         List<TicketFieldConfiguration> fields = ticketFieldRepository.findAdditionalFieldsForEvent(event.getId());
@@ -395,30 +388,22 @@ public class EventApiController {
         header.add("Sponsor notes");
         header.addAll(fields.stream().map(TicketFieldConfiguration::getName).collect(toList()));
 
-        Stream<String[]> sponsorScans = userManager.findAllEnabledUsers(principal.getName()).stream()
-            .map(u -> Pair.of(u, userManager.getUserRole(u)))
-            .filter(p -> p.getRight() == Role.SPONSOR)
-            .flatMap(p -> sponsorScanRepository.loadSponsorData(event.getId(), p.getKey().getId(), SponsorScanRepository.DEFAULT_TIMESTAMP)
-                .stream()
-                .map(v -> Pair.of(v, ticketFieldRepository.findAllValuesForTicketId(v.getTicket().getId()))))
-            .map(p -> {
-                DetailedScanData data = p.getLeft();
-                Map<String, String> descriptions = p.getRight();
-                return Pair.of(data, fields.stream().map(x -> descriptions.getOrDefault(x.getName(), "")).collect(toList()));
-            }).map(p -> {
-            List<String> line = new ArrayList<>();
-            Ticket ticket = p.getLeft().getTicket();
-            SponsorScan sponsorScan = p.getLeft().getSponsorScan();
-            User user = userManager.findUser(sponsorScan.getUserId());
-            line.add(user.getUsername());
-            line.add(user.getDescription());
-            line.add(sponsorScan.getTimestamp().toString());
-            line.add(ticket.getFullName());
-            line.add(ticket.getEmail());
-            line.add(sponsorScan.getNotes());
-            line.addAll(p.getRight());
-            return line.toArray(new String[0]);
-        });
+        Stream<String[]> sponsorScans = attendeeManager.findSponsorScansForExport(event.getId(), principal.getName()).stream()
+            .map(t -> {
+                List<String> line = new ArrayList<>();
+                Ticket ticket = t.getLeft().getTicket();
+                SponsorScan sponsorScan = t.getLeft().getSponsorScan();
+                User user = t.getMiddle();
+                Map<String, String> descriptions = t.getRight();
+                line.add(user.getUsername());
+                line.add(user.getDescription());
+                line.add(sponsorScan.getTimestamp().toString());
+                line.add(ticket.getFullName());
+                line.add(ticket.getEmail());
+                line.add(sponsorScan.getNotes());
+                line.addAll(fields.stream().map(x -> descriptions.getOrDefault(x.getName(), "")).collect(toList()));
+                return line.toArray(new String[0]);
+            });
 
         if ("excel".equals(format)) {
             exportSponsorScanExcel(event.getShortName(), header, sponsorScans, response);
@@ -591,26 +576,39 @@ public class EventApiController {
     }
 
     @GetMapping("/events/{eventName}/all-invoices")
+    @ReadReplica
     public void getAllInvoices(@PathVariable("eventName") String eventName, HttpServletResponse response, Principal principal) throws  IOException {
         Event event = loadEvent(eventName, principal);
 
         response.setContentType("application/zip");
         response.setHeader("Content-Disposition", "attachment; filename=" + event.getShortName() + "-invoices.zip");
+        invoiceArchiveManager.writeArchive(event, response.getOutputStream());
+    }
 
-        try(OutputStream os = response.getOutputStream(); ZipOutputStream zipOS = new ZipOutputStream(os)) {
-            for (Pair<TicketReservation, BillingDocument> pair : ticketReservationManager.findAllInvoices(event.getId())) {
-                TicketReservation reservation = pair.getLeft();
-                BillingDocument document = pair.getRight();
-                Map<String, Object> reservationModel = document.getModel();
-                Optional<byte[]> pdf = TemplateProcessor.buildInvoicePdf(event, fileUploadManager, LocaleUtil.forLanguageTag(reservation.getUserLanguage()), templateManager, reservationModel, extensionManager);
-
-                if(pdf.isPresent()) {
-                    String fileName = FileUtil.getBillingDocumentFileName(event.getShortName(), reservation.getId(), document);
-                    zipOS.putNextEntry(new ZipEntry(fileName));
-                    StreamUtils.copy(pdf.get(), zipOS);
-                }
-            }
+    @PostMapping("/events/{eventName}/invoice-archives")
+    public long scheduleInvoiceArchive(@PathVariable("eventName") String eventName, Principal principal) {
+        return invoiceArchiveManager.scheduleArchive(eventName, principal.getName());
+    }
+
+    @GetMapping("/events/{eventName}/invoice-archives")
+    public List<InvoiceArchive> getInvoiceArchives(@PathVariable("eventName") String eventName, Principal principal) {
+        return invoiceArchiveManager.findArchives(eventName, principal.getName());
+    }
+
+    @GetMapping("/events/{eventName}/invoice-archives/{archiveId}/download")
+    public void downloadInvoiceArchive(@PathVariable("eventName") String eventName,
+                                       @PathVariable("archiveId") long archiveId,
+                                       HttpServletResponse response,
+                                       Principal principal) throws IOException {
+        Event event = loadEvent(eventName, principal);
+        var archive = invoiceArchiveManager.findCompletedArchive(event, archiveId);
+        if(archive.isEmpty()) {
+            response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+            return;
         }
+        response.setContentType("application/zip");
+        response.setHeader("Content-Disposition", "attachment; filename=" + event.getShortName() + "-invoices.zip");
+        invoiceArchiveManager.writeCompletedArchive(event, archive.get(), response.getOutputStream());
     }
 
     @GetMapping("/events-all-languages")
@@ -18,6 +18,7 @@ package alfio.controller.api.v2.model;
 
 import alfio.manager.system.ConfigurationManager;
 import alfio.model.system.ConfigurationKeys;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import lombok.AllArgsConstructor;
 import lombok.Getter;
 import org.apache.commons.codec.digest.DigestUtils;
@@ -38,11 +39,26 @@ public class AnalyticsConfiguration {
 
 
     public static AnalyticsConfiguration build(Map<ConfigurationKeys, ConfigurationManager.MaybeConfiguration> conf, HttpSession session) {
+        return build(conf).forSession(session);
+    }
+
+    /**
+     * Builds the session independent part of the configuration. See {@link #forSession(HttpSession)}.
+     */
+    public static AnalyticsConfiguration build(Map<ConfigurationKeys, ConfigurationManager.MaybeConfiguration> conf) {
         var googAnalyticsKey = StringUtils.trimToNull(conf.get(GOOGLE_ANALYTICS_KEY).getValueOrDefault(null));
         var googAnalyticsScrambled = conf.get(GOOGLE_ANALYTICS_ANONYMOUS_MODE).getValueAsBooleanOrDefault(true);
+        return new AnalyticsConfiguration(googAnalyticsKey, googAnalyticsScrambled, null);
+    }
+
+    @JsonIgnore
+    public boolean isSessionDependent() {
+        return googleAnalyticsKey != null && googleAnalyticsScrambledInfo;
+    }
 
+    public AnalyticsConfiguration forSession(HttpSession session) {
         var sessionId = session.getId();
-        var clientId = googAnalyticsKey != null && googAnalyticsScrambled && sessionId != null ? DigestUtils.sha256Hex(sessionId) : null;
-        return new AnalyticsConfiguration(googAnalyticsKey, googAnalyticsScrambled, clientId);
+        var clientId = isSessionDependent() && sessionId != null ? DigestUtils.sha256Hex(sessionId) : null;
+        return new AnalyticsConfiguration(googleAnalyticsKey, googleAnalyticsScrambledInfo, clientId);
     }
 }
@@ -19,6 +19,7 @@ package alfio.controller.api.v2.model;
 import alfio.controller.api.support.CurrencyDescriptor;
 import alfio.model.Event;
 import alfio.model.user.Organization;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import lombok.AllArgsConstructor;
 import lombok.Getter;
 import org.joda.money.CurrencyUnit;
@@ -68,6 +69,8 @@ public class EventWithAdditionalInfo implements DateValidity {
 
     private final Integer availableTicketsCount;
 
+    private final boolean displayTicketsLeftIndicator;
+
     public String getShortName() {
         return event.getShortName();
     }
@@ -88,6 +91,26 @@ public class EventWithAdditionalInfo implements DateValidity {
         return availableTicketsCount;
     }
 
+    @JsonIgnore
+    public int getEventId() {
+        return event.getId();
+    }
+
+    @JsonIgnore
+    public boolean isDisplayTicketsLeftIndicator() {
+        return displayTicketsLeftIndicator;
+    }
+
+    /**
+     * @return a copy of this object, completed with the information that cannot be shared between requests
+     */
+    public EventWithAdditionalInfo withRequestData(AnalyticsConfiguration analyticsConfiguration, Integer availableTicketsCount) {
+        return new EventWithAdditionalInfo(event, mapUrl, organization, description, bankAccount, bankAccountOwner,
+            formattedBeginDate, formattedBeginTime, formattedEndDate, formattedEndTime,
+            invoicingConfiguration, captchaConfiguration, assignmentConfiguration, promotionsConfiguration,
+            analyticsConfiguration, i18nOverride, availableTicketsCount, displayTicketsLeftIndicator);
+    }
+
     public CurrencyDescriptor getCurrencyDescriptor() {
         if(event.isFreeOfCharge()) {
             return null;
@@ -24,6 +24,8 @@ import alfio.controller.decorator.SaleableAdditionalService;
 import alfio.controller.decorator.SaleableTicketCategory;
 import alfio.controller.form.ReservationForm;
 import alfio.controller.form.WaitingQueueSubscriptionForm;
+import alfio.config.support.ReadReplica;
+import alfio.controller.support.CatalogueSnapshots;
 import alfio.controller.support.Formatters;
 import alfio.manager.*;
 import alfio.manager.i18n.I18nManager;
@@ -62,7 +64,6 @@ import java.util.function.Function;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
-import static alfio.model.PromoCodeDiscount.categoriesOrNull;
 import static alfio.model.system.ConfigurationKeys.*;
 import static java.util.stream.Collectors.partitioningBy;
 import static java.util.stream.Collectors.toList;
@@ -73,8 +74,10 @@ import static java.util.stream.Collectors.toList;
 @AllArgsConstructor
 public class EventApiV2Controller {
 
+    public static final String ADMISSION_TOKEN_HEADER = "Alfio-Admission-Token";
+
     private final EventManager eventManager;
-    private final EventRepository eventRepository;
+    private final EventMetadataCache eventMetadataCache;
     private final ConfigurationManager configurationManager;
     private final OrganizationRepository organizationRepository;
     private final EventDescriptionRepository eventDescriptionRepository;
@@ -92,14 +95,23 @@ public class EventApiV2Controller {
     private final EventStatisticsManager eventStatisticsManager;
     private final RecaptchaService recaptchaService;
     private final PromoCodeRequestManager promoCodeRequestManager;
+    private final CatalogueSnapshots catalogueSnapshots;
+    private final ReservationAdmissionManager reservationAdmissionManager;
+    private final EventRepository eventRepository;
 
 
     @GetMapping("events")
+    @ReadReplica
     public ResponseEntity<List<BasicEventInfo>> listEvents() {
+        var snapshot = catalogueSnapshots.get("events", this::loadPublishedEvents).orElseThrow();
+        return ResponseEntity.ok().headers(getCorsHeaders()).eTag(snapshot.getEtag()).body(snapshot.getPayload());
+    }
+
+    private List<BasicEventInfo> loadPublishedEvents() {
 
         var contentLanguages = i18nManager.getSupportedLanguages();
 
-        var events = eventManager.getPublishedEvents()
+        return eventManager.getPublishedEvents()
             .stream()
             .map(e -> {
                 var messageSource = messageSourceManager.getMessageSourceForEvent(e);
@@ -108,12 +120,32 @@ public class EventApiV2Controller {
                     e.getTimeZone(), DatesWithTimeZoneOffset.fromEvent(e), e.getSameDay(), formattedDates.beginDate, formattedDates.beginTime,
                     formattedDates.endDate, formattedDates.endTime);
             })
-            .collect(Collectors.toList());
-        return new ResponseEntity<>(events, getCorsHeaders(), HttpStatus.OK);
+            .collect(Collectors.toUnmodifiableList());
     }
 
     @GetMapping("event/{eventName}")
+    @ReadReplica
     public ResponseEntity<EventWithAdditionalInfo> getEvent(@PathVariable("eventName") String eventName, HttpSession session) {
+        return catalogueSnapshots.get("event/" + eventName, () -> loadEvent(eventName))
+            .map(snapshot -> {
+                var eventInfo = snapshot.getPayload();
+                var analyticsConf = eventInfo.getAnalyticsConfiguration();
+                if(!analyticsConf.isSessionDependent() && !eventInfo.isDisplayTicketsLeftIndicator()) {
+                    return ResponseEntity.ok().headers(getCorsHeaders()).eTag(snapshot.getEtag()).body(eventInfo);
+                }
+                // the response depends on the current session or on the sold tickets, so it cannot be validated by an ETag
+                Integer availableTicketsCount = null;
+                if(eventInfo.isDisplayTicketsLeftIndicator()) {
+                    availableTicketsCount = ticketRepository.countFreeTicketsForPublicStatistics(eventInfo.getEventId());
+                }
+                return new ResponseEntity<>(eventInfo.withRequestData(analyticsConf.forSession(session), availableTicketsCount), getCorsHeaders(), HttpStatus.OK);
+            })
+            .orElseGet(() -> ResponseEntity.notFound().headers(getCorsHeaders()).build());
+    }
+
+    private EventWithAdditionalInfo loadEvent(String eventName) {
+        // the snapshot is validated against the catalogue version, so the event must not come from EventMetadataCache,
+        // which could return an entry older than the version
         return eventRepository.findOptionalByShortName(eventName).filter(e -> e.getStatus() != Event.Status.DISABLED)//
             .map(event -> {
                 //
@@ -208,35 +240,27 @@ public class EventApiV2Controller {
                 var promoConf = new EventWithAdditionalInfo.PromotionsConfiguration(hasAccessPromotions, usePartnerCode);
                 //
 
-                //analytics configuration
-                var analyticsConf = AnalyticsConfiguration.build(configurationsValues, session);
+                //analytics configuration, the client id is added on each request
+                var analyticsConf = AnalyticsConfiguration.build(configurationsValues);
                 //
 
-                Integer availableTicketsCount = null;
-                if(configurationsValues.get(DISPLAY_TICKETS_LEFT_INDICATOR).getValueAsBooleanOrDefault(false)) {
-                    availableTicketsCount = ticketRepository.countFreeTicketsForPublicStatistics(event.getId());
-                }
+                boolean displayTicketsLeftIndicator = configurationsValues.get(DISPLAY_TICKETS_LEFT_INDICATOR).getValueAsBooleanOrDefault(false);
 
-                return new ResponseEntity<>(new EventWithAdditionalInfo(event, locationDescriptor.getMapUrl(), organization, descriptions,
+                return new EventWithAdditionalInfo(event, locationDescriptor.getMapUrl(), organization, descriptions,
                     bankAccount, bankAccountOwner,
                     formattedDates.beginDate, formattedDates.beginTime,
                     formattedDates.endDate, formattedDates.endTime,
                     invoicingConf, captchaConf, assignmentConf, promoConf, analyticsConf,
-                    i18nOverride, availableTicketsCount), getCorsHeaders(), HttpStatus.OK);
+                    i18nOverride, null, displayTicketsLeftIndicator);
             })
-            .orElseGet(() -> ResponseEntity.notFound().headers(getCorsHeaders()).build());
+            .orElse(null);
     }
 
     private List<PaymentProxy> getActivePaymentMethods(Event event) {
-        if(!event.isFreeOfCharge()) {
-            return paymentManager.getPaymentMethods(event)
-                .stream()
-                .filter(p -> TicketReservationManager.isValidPaymentMethod(p, event, configurationManager))
-                .map(PaymentManager.PaymentMethodDTO::getPaymentProxy)
-                .collect(toList());
-        } else {
-            return Collections.emptyList();
-        }
+        return paymentManager.getActivePaymentMethods(event, List.of())
+            .stream()
+            .map(PaymentManager.ActivePaymentMethod::getPaymentProxy)
+            .collect(toList());
     }
 
     private static Map<String, String> applyCommonMark(Map<String, String> in) {
@@ -256,7 +280,7 @@ public class EventApiV2Controller {
                                                                              @RequestBody WaitingQueueSubscriptionForm subscription,
                                                                              BindingResult bindingResult) {
 
-        Optional<ResponseEntity<ValidatedResponse<Boolean>>> res = eventRepository.findOptionalByShortName(eventName).map(event -> {
+        Optional<ResponseEntity<ValidatedResponse<Boolean>>> res = eventMetadataCache.findByShortName(eventName).map(event -> {
             Validator.validateWaitingQueueSubscription(subscription, bindingResult, event);
             if (bindingResult.hasErrors()) {
                 return ResponseEntity.status(HttpStatus.UNPROCESSABLE_ENTITY).body(ValidatedResponse.toResponse(bindingResult, null));
@@ -273,7 +297,7 @@ public class EventApiV2Controller {
     public ResponseEntity<ItemsByCategory> getTicketCategories(@PathVariable("eventName") String eventName, @RequestParam(value = "code", required = false) String code) {
 
         //
-        return eventRepository.findOptionalByShortName(eventName).filter(e -> e.getStatus() != Event.Status.DISABLED).map(event -> {
+        return eventMetadataCache.findByShortName(eventName).filter(e -> e.getStatus() != Event.Status.DISABLED).map(event -> {
 
             var configurations = configurationManager.getFor(List.of(DISPLAY_TICKETS_LEFT_INDICATOR, MAX_AMOUNT_OF_TICKETS_BY_RESERVATION, DISPLAY_EXPIRED_CATEGORIES), ConfigurationLevel.event(event));
             var ticketCategoryLevelConfiguration = configurationManager.getAllCategoriesAndValueWith(event, MAX_AMOUNT_OF_TICKETS_BY_RESERVATION);
@@ -283,6 +307,7 @@ public class EventApiV2Controller {
 
             Optional<SpecialPrice> specialCode = appliedPromoCode.getValue().getLeft();
             Optional<PromoCodeDiscount> promoCodeDiscount = appliedPromoCode.getValue().getRight();
+            Optional<Integer> promoCodeUsage = promoCodeDiscount.filter(promoCode -> promoCode.getMaxUsage() != null).map(promoCodeRequestManager::countUsage);
 
             final ZonedDateTime now = ZonedDateTime.now(event.getZoneId());
             //hide access restricted ticket categories
@@ -296,7 +321,7 @@ public class EventApiV2Controller {
                     if (specialCode.isPresent()) {
                         maxTickets = Math.min(1, maxTickets);
                     } else if (filteredPromoCode != null && filteredPromoCode.getMaxUsage() != null) {
-                        maxTickets = filteredPromoCode.getMaxUsage() - promoCodeRepository.countConfirmedPromoCode(filteredPromoCode.getId(), categoriesOrNull(filteredPromoCode), null, categoriesOrNull(filteredPromoCode) != null ? "X" : null);
+                        maxTickets = filteredPromoCode.getMaxUsage() - promoCodeUsage.orElse(0);
                     }
                     return new SaleableTicketCategory(m,
                         now, event, ticketReservationManager.countAvailableTickets(event, m), maxTickets,
@@ -384,7 +409,7 @@ public class EventApiV2Controller {
                             @RequestParam(value = "ticketId", required = false) String ticketId,
                             HttpServletResponse response) {
 
-        eventRepository.findOptionalByShortName(eventName).ifPresentOrElse((ev -> {
+        eventMetadataCache.findByShortName(eventName).ifPresentOrElse((ev -> {
             var description = eventDescriptionRepository.findDescriptionByEventIdTypeAndLocale(ev.getId(), EventDescription.EventDescriptionType.DESCRIPTION, locale).orElse("");
             var category = ticketRepository.findOptionalByUUID(ticketId).map(t -> ticketCategoryRepository.getById(t.getCategoryId())).orElse(null);
             if ("google".equals(calendarType)) {
@@ -411,6 +436,8 @@ public class EventApiV2Controller {
 
     /**
      * Create a new reservation.
+     * If too many reservations are being created for the event, the request is queued and a 429 is returned,
+     * along with a token in the {@value #ADMISSION_TOKEN_HEADER} header.
      *
      * @param eventName
      * @param lang
@@ -426,42 +453,73 @@ public class EventApiV2Controller {
                                                                     BindingResult bindingResult,
                                                                     ServletWebRequest request) {
 
+        Optional<ResponseEntity<ValidatedResponse<String>>> r = eventMetadataCache.findByShortName(eventName).map(event -> {
 
+            var admission = reservationAdmissionManager.admit(event, request.getHeader(ADMISSION_TOKEN_HEADER));
+            if(!admission.isAdmitted()) {
+                bindingResult.reject(ErrorsCode.STEP_1_QUEUED);
+                var headers = getCorsHeaders();
+                headers.add(ADMISSION_TOKEN_HEADER, admission.getToken());
+                headers.add(HttpHeaders.RETRY_AFTER, "2");
+                return new ResponseEntity<>(ValidatedResponse.toResponse(bindingResult, admission.getToken()), headers, HttpStatus.TOO_MANY_REQUESTS);
+            }
+            try {
+                return reserveTickets(event, lang, reservation, bindingResult, request);
+            } finally {
+                reservationAdmissionManager.release(event, admission);
+            }
+        });
 
-        Optional<ResponseEntity<ValidatedResponse<String>>> r = eventRepository.findOptionalByShortName(eventName).map(event -> {
+        return r.orElseGet(() -> ResponseEntity.notFound().build());
+    }
 
-            Locale locale = LocaleUtil.forLanguageTag(lang, event);
+    private ResponseEntity<ValidatedResponse<String>> reserveTickets(Event event,
+                                                                     String lang,
+                                                                     ReservationForm reservation,
+                                                                     BindingResult bindingResult,
+                                                                     ServletWebRequest request) {
+        Locale locale = LocaleUtil.forLanguageTag(lang, event);
 
-            Optional<ValidatedResponse<Pair<Optional<SpecialPrice>, Optional<PromoCodeDiscount>>>> codeCheck = Optional.empty();
+        Optional<ValidatedResponse<Pair<Optional<SpecialPrice>, Optional<PromoCodeDiscount>>>> codeCheck = Optional.empty();
 
-            if(StringUtils.trimToNull(reservation.getPromoCode()) != null) {
-                var resCheck = promoCodeRequestManager.checkCode(event, reservation.getPromoCode());
-                if(!resCheck.isSuccess()) {
-                    bindingResult.reject(ErrorsCode.STEP_1_CODE_NOT_FOUND, ErrorsCode.STEP_1_CODE_NOT_FOUND);
-                }
-                codeCheck = Optional.of(resCheck);
+        if(StringUtils.trimToNull(reservation.getPromoCode()) != null) {
+            var resCheck = promoCodeRequestManager.checkCode(event, reservation.getPromoCode());
+            if(!resCheck.isSuccess()) {
+                bindingResult.reject(ErrorsCode.STEP_1_CODE_NOT_FOUND, ErrorsCode.STEP_1_CODE_NOT_FOUND);
             }
+            codeCheck = Optional.of(resCheck);
+        }
 
-            Optional<String> promoCodeDiscount = codeCheck.map(ValidatedResponse::getValue).flatMap(Pair::getRight).map(PromoCodeDiscount::getPromoCode);
-            var configurationValues = configurationManager.getFor(List.of(
-                ENABLE_CAPTCHA_FOR_TICKET_SELECTION,
-                RECAPTCHA_API_KEY), ConfigurationLevel.event(event));
+        Optional<String> promoCodeDiscount = codeCheck.map(ValidatedResponse::getValue).flatMap(Pair::getRight).map(PromoCodeDiscount::getPromoCode);
+        var configurationValues = configurationManager.getFor(List.of(
+            ENABLE_CAPTCHA_FOR_TICKET_SELECTION,
+            RECAPTCHA_API_KEY), ConfigurationLevel.event(event));
 
-            if (isCaptchaInvalid(reservation.getCaptcha(), request.getRequest(), configurationValues)) {
-                bindingResult.reject(ErrorsCode.STEP_2_CAPTCHA_VALIDATION_FAILED);
-            }
+        if (isCaptchaInvalid(reservation.getCaptcha(), request.getRequest(), configurationValues)) {
+            bindingResult.reject(ErrorsCode.STEP_2_CAPTCHA_VALIDATION_FAILED);
+        }
 
-            Optional<String> reservationIdRes = createTicketReservation(reservation, bindingResult, event, locale, promoCodeDiscount);
+        Optional<String> reservationIdRes = createTicketReservation(reservation, bindingResult, event, locale, promoCodeDiscount);
 
-            if (bindingResult.hasErrors()) {
-                return new ResponseEntity<>(ValidatedResponse.toResponse(bindingResult, null), getCorsHeaders(), HttpStatus.UNPROCESSABLE_ENTITY);
-            } else {
-                var reservationIdentifier = reservationIdRes.orElseThrow(IllegalStateException::new);
-                return ResponseEntity.ok(new ValidatedResponse<>(ValidationResult.success(), reservationIdentifier));
-            }
-        });
+        if (bindingResult.hasErrors()) {
+            return new ResponseEntity<>(ValidatedResponse.toResponse(bindingResult, null), getCorsHeaders(), HttpStatus.UNPROCESSABLE_ENTITY);
+        } else {
+            var reservationIdentifier = reservationIdRes.orElseThrow(IllegalStateException::new);
+            return ResponseEntity.ok(new ValidatedResponse<>(ValidationResult.success(), reservationIdentifier));
+        }
+    }
 
-        return r.orElseGet(() -> ResponseEntity.notFound().build());
+    /**
+     * Position of a reservation request queued by {@link #reserveTickets(String, String, ReservationForm, BindingResult, ServletWebRequest)}.
+     * Once admitted, the request must be sent again with the same token in the {@value #ADMISSION_TOKEN_HEADER} header.
+     * The signed token contains a dot, which must not be interpreted as the beginning of a file extension.
+     */
+    @GetMapping("event/{eventName}/admission/{token:.+}")
+    public ResponseEntity<AdmissionStatus> getAdmissionStatus(@PathVariable("eventName") String eventName, @PathVariable("token") String token) {
+        return eventMetadataCache.findByShortName(eventName)
+            .flatMap(event -> reservationAdmissionManager.checkStatus(event, token))
+            .map(admission -> new ResponseEntity<>(new AdmissionStatus(admission.isAdmitted(), admission.getPosition()), getCorsHeaders(), HttpStatus.OK))
+            .orElseGet(() -> ResponseEntity.notFound().headers(getCorsHeaders()).build());
     }
 
     private Optional<String> createTicketReservation(ReservationForm reservation,
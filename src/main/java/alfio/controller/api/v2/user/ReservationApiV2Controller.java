@@ -24,7 +24,6 @@ import alfio.controller.api.v2.model.ReservationPaymentResult;
 import alfio.controller.api.v2.model.ReservationStatusInfo;
 import alfio.controller.form.ContactAndTicketsForm;
 import alfio.controller.form.PaymentForm;
-import alfio.controller.support.TemplateProcessor;
 import alfio.manager.*;
 import alfio.manager.i18n.MessageSourceManager;
 import alfio.manager.payment.PaymentSpecification;
@@ -38,7 +37,6 @@ import alfio.model.*;
 import alfio.model.system.ConfigurationKeys;
 import alfio.model.transaction.*;
 import alfio.repository.AdditionalServiceItemRepository;
-import alfio.repository.EventRepository;
 import alfio.repository.TicketFieldRepository;
 import alfio.repository.TicketReservationRepository;
 import alfio.util.*;
@@ -49,6 +47,7 @@ import org.apache.commons.lang3.tuple.Pair;
 import org.springframework.context.MessageSourceResolvable;
 import org.springframework.context.support.DefaultMessageSourceResolvable;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.GrantedAuthority;
@@ -57,6 +56,7 @@ import org.springframework.validation.BindingResult;
 import org.springframework.validation.Errors;
 import org.springframework.validation.ValidationUtils;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -64,6 +64,7 @@ import java.io.IOException;
 import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
 import java.util.function.BiFunction;
 import java.util.function.Function;
 import java.util.stream.Collectors;
@@ -79,21 +80,24 @@ import static java.util.stream.Collectors.toMap;
 @Log4j2
 public class ReservationApiV2Controller {
 
+    private static final long STATUS_STREAM_TIMEOUT = TimeUnit.MINUTES.toMillis(5);
+
     private final EventManager eventManager;
-    private final EventRepository eventRepository;
+    private final EventMetadataCache eventMetadataCache;
+    private final ReservationViewLoader reservationViewLoader;
     private final TicketReservationManager ticketReservationManager;
     private final TicketReservationRepository ticketReservationRepository;
     private final TicketFieldRepository ticketFieldRepository;
     private final MessageSourceManager messageSourceManager;
     private final ConfigurationManager configurationManager;
     private final PaymentManager paymentManager;
-    private final FileUploadManager fileUploadManager;
-    private final TemplateManager templateManager;
+    private final BillingDocumentPdfManager billingDocumentPdfManager;
     private final ExtensionManager extensionManager;
     private final TicketHelper ticketHelper;
     private final EuVatChecker vatChecker;
     private final RecaptchaService recaptchaService;
     private final AdditionalServiceItemRepository additionalServiceItemRepository;
+    private final ReservationStatusNotifier reservationStatusNotifier;
 
     /**
      * Note: now it will return for any states of the reservation.
@@ -106,71 +110,38 @@ public class ReservationApiV2Controller {
     public ResponseEntity<ReservationInfo> getReservationInfo(@PathVariable("eventName") String eventName,
                                                               @PathVariable("reservationId") String reservationId) {
 
-        Optional<ReservationInfo> res = eventRepository.findOptionalByShortName(eventName).flatMap(event -> ticketReservationManager.findById(reservationId).flatMap(reservation -> {
-
-            var orderSummary = ticketReservationManager.orderSummaryForReservationId(reservationId, event);
-
-            var tickets = ticketReservationManager.findTicketsInReservation(reservationId);
+        Optional<ReservationInfo> res = eventMetadataCache.findByShortName(eventName).flatMap(event -> reservationViewLoader.load(event, reservationId).map(view -> {
 
-            var ticketIds = tickets.stream().map(Ticket::getId).collect(Collectors.toSet());
-
-            var descriptionsByTicketFieldId = ticketFieldRepository.findDescriptions(event.getShortName())
-                .stream()
-                .collect(Collectors.groupingBy(TicketFieldDescription::getTicketFieldConfigurationId));
-
-            var valuesByTicketIds = ticketFieldRepository.findAllValuesByTicketIds(ticketIds)
-                .stream()
-                .collect(Collectors.groupingBy(TicketFieldValue::getTicketId));
-
-            // check if the user can cancel ticket
-            boolean hasPaidSupplement = ticketReservationManager.hasPaidSupplements(reservationId);
-            //
+            var reservation = view.getReservation();
+            var orderSummary = ticketReservationManager.orderSummaryForReservation(reservation, event);
 
-            var ticketFieldsFilterer = getTicketFieldsFilterer(reservationId, event);
+            var ticketFieldsFilterer = view.getTicketFieldsFilterer();
+            var categoriesById = view.getCategoriesById();
 
-            var ticketsByCategory = tickets.stream().collect(Collectors.groupingBy(Ticket::getCategoryId));
-            //TODO: cleanup this transformation, we most likely don't need to fully load the ticket category
+            var ticketsByCategory = view.getTickets().stream().collect(Collectors.groupingBy(Ticket::getCategoryId));
             var ticketsInReservation = ticketsByCategory
                 .entrySet()
                 .stream()
                 .map(e -> {
-                    var tc = eventManager.getTicketCategoryById(e.getKey(), event.getId());
-                    var ts = e.getValue().stream().map(t -> {//
-
-
-                        // TODO: n+1, should be cleaned up! see TicketDecorator.getCancellationEnabled
-                        boolean cancellationEnabled = t.getFinalPriceCts() == 0 &&
-                            (!hasPaidSupplement && configurationManager.getFor(ALLOW_FREE_TICKETS_CANCELLATION, ConfigurationLevel.ticketCategory(event, t.getCategoryId())).getValueAsBooleanOrDefault(false)) && // freeCancellationEnabled
-                            eventManager.checkTicketCancellationPrerequisites().apply(t); // cancellationPrerequisitesMet
-                        //
-                        return toBookingInfoTicket(t, cancellationEnabled, ticketFieldsFilterer.getFieldsForTicket(t.getUuid()), descriptionsByTicketFieldId, valuesByTicketIds.getOrDefault(t.getId(), Collections.emptyList()));
-                    }).collect(Collectors.toList());
+                    var tc = categoriesById.get(e.getKey());
+                    var ts = e.getValue().stream()
+                        .map(t -> toBookingInfoTicket(t, view.isCancellationEnabled(t), ticketFieldsFilterer.getFieldsForTicket(t.getUuid()), view.getDescriptionsByTicketFieldId(), view.getValuesByTicketId().getOrDefault(t.getId(), Collections.emptyList())))
+                        .collect(Collectors.toList());
                     return new TicketsByTicketCategory(tc.getName(), ts);
                 })
                 .collect(Collectors.toList());
 
-            //
-            var additionalInfo = ticketReservationRepository.getAdditionalInfo(reservationId);
-
-            var italianInvoicing = additionalInfo.getInvoicingAdditionalInfo().getItalianEInvoicing() == null ?
-                new TicketReservationInvoicingAdditionalInfo.ItalianEInvoicing(null, null, null, null) :
-                additionalInfo.getInvoicingAdditionalInfo().getItalianEInvoicing();
-            //
-
+            var additionalInfo = view.getAdditionalInfo();
 
             var shortReservationId =  ticketReservationManager.getShortReservationID(event, reservation);
 
             var formattedExpirationDate = reservation.getValidity() != null ? formatDateForLocales(event, ZonedDateTime.ofInstant(reservation.getValidity().toInstant(), event.getZoneId()), "datetime.pattern") : null;
 
-            var paymentToken = paymentManager.getPaymentToken(reservationId);
+            var paymentToken = view.getPaymentToken();
             boolean tokenAcquired = paymentToken.isPresent();
             PaymentProxy selectedPaymentProxy = paymentToken.map(PaymentToken::getPaymentProvider).orElse(null);
 
-            //
-            var containsCategoriesLinkedToGroups = ticketReservationManager.containsCategoriesLinkedToGroups(reservationId, event.getId());
-            //
-
-            return Optional.of(new ReservationInfo(reservation.getId(), shortReservationId,
+            return new ReservationInfo(reservation.getId(), shortReservationId,
                 reservation.getFirstName(), reservation.getLastName(), reservation.getEmail(),
                 reservation.getValidity().getTime(),
                 ticketsInReservation, new ReservationInfo.ReservationInfoOrderSummary(orderSummary), reservation.getStatus(),
@@ -189,9 +160,9 @@ public class ReservationApiV2Controller {
                 reservation.getBillingAddress(),
                 additionalInfo.getBillingDetails(),
                 //
-                containsCategoriesLinkedToGroups,
+                view.isContainsCategoriesLinkedToGroups(),
                 getActivePaymentMethods(event, ticketsByCategory.keySet())
-                ));
+                );
         }));
 
         //
@@ -199,16 +170,9 @@ public class ReservationApiV2Controller {
     }
 
     private Map<PaymentMethod, PaymentProxyWithParameters> getActivePaymentMethods(Event event, Collection<Integer> categoryIds) {
-        if(!event.isFreeOfCharge()) {
-            var blacklistedMethodsForReservation = configurationManager.getBlacklistedMethodsForReservation(event, categoryIds);
-            return paymentManager.getPaymentMethods(event)
-                .stream()
-                .filter(p -> !blacklistedMethodsForReservation.contains(p.getPaymentMethod()))
-                .filter(p -> TicketReservationManager.isValidPaymentMethod(p, event, configurationManager))
-                .collect(toMap(PaymentManager.PaymentMethodDTO::getPaymentMethod, pm -> new PaymentProxyWithParameters(pm.getPaymentProxy(), paymentManager.loadModelOptionsFor(List.of(pm.getPaymentProxy()), event))));
-        } else {
-            return Map.of();
-        }
+        return paymentManager.getActivePaymentMethods(event, categoryIds)
+            .stream()
+            .collect(toMap(PaymentManager.ActivePaymentMethod::getPaymentMethod, pm -> new PaymentProxyWithParameters(pm.getPaymentProxy(), pm.getOptions())));
     }
 
     private Validator.TicketFieldsFilterer getTicketFieldsFilterer(String reservationId, EventAndOrganizationId event) {
@@ -223,7 +187,7 @@ public class ReservationApiV2Controller {
                                                                       @PathVariable("reservationId") String reservationId) {
 
         Optional<ReservationStatusInfo> res = Optional.empty();
-        if (eventRepository.existsByShortName(eventName)) {
+        if (eventMetadataCache.existsByShortName(eventName)) {
             res = ticketReservationRepository.findOptionalStatusAndValidationById(reservationId)
                 .map(status -> new ReservationStatusInfo(status.getStatus(), Boolean.TRUE.equals(status.getValidated())));
         }
@@ -231,6 +195,41 @@ public class ReservationApiV2Controller {
         return res.map(ResponseEntity::ok).orElseGet(() -> ResponseEntity.notFound().build());
     }
 
+    /**
+     * Pushes the reservation status using Server-Sent Events, as an alternative to polling {@link #getReservationStatus(String, String)}.
+     * The current status is sent as soon as the connection is established, then each time it changes.
+     * The stream is closed when the reservation doesn't exist anymore.
+     */
+    @GetMapping(value = "/event/{eventName}/reservation/{reservationId}/status/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<SseEmitter> streamReservationStatus(@PathVariable("eventName") String eventName,
+                                                              @PathVariable("reservationId") String reservationId) {
+        if(!eventMetadataCache.existsByShortName(eventName) || ticketReservationRepository.findOptionalStatusAndValidationById(reservationId).isEmpty()) {
+            return ResponseEntity.notFound().build();
+        }
+        var emitter = new SseEmitter(STATUS_STREAM_TIMEOUT);
+        var unsubscribe = reservationStatusNotifier.subscribe(reservationId, status -> sendReservationStatus(emitter, status));
+        emitter.onCompletion(unsubscribe);
+        emitter.onTimeout(unsubscribe);
+        emitter.onError(e -> unsubscribe.run());
+        return ResponseEntity.ok()
+            .header("X-Accel-Buffering", "no")
+            .body(emitter);
+    }
+
+    private static void sendReservationStatus(SseEmitter emitter, Optional<TicketReservationStatusAndValidation> status) {
+        try {
+            if(status.isPresent()) {
+                var info = new ReservationStatusInfo(status.get().getStatus(), Boolean.TRUE.equals(status.get().getValidated()));
+                emitter.send(SseEmitter.event().name("status").data(info, MediaType.APPLICATION_JSON));
+            } else {
+                emitter.complete();
+            }
+        } catch (IOException e) {
+            // the client has gone away
+            emitter.completeWithError(e);
+        }
+    }
+
 
     @DeleteMapping("/event/{eventName}/reservation/{reservationId}")
     public ResponseEntity<Boolean> cancelPendingReservation(@PathVariable("eventName") String eventName,
@@ -442,7 +441,7 @@ public class ReservationApiV2Controller {
         }
 
         try {
-            Optional<VatDetail> vatDetail = eventRepository.findOptionalByShortName(eventName)
+            Optional<VatDetail> vatDetail = eventMetadataCache.findByShortName(eventName)
                 .flatMap(e -> ticketReservationRepository.findOptionalReservationById(reservationId).map(r -> Pair.of(e, r)))
                 .filter(e -> EnumSet.of(INCLUDED, NOT_INCLUDED).contains(e.getKey().getVatStatus()))
                 .filter(e -> vatChecker.isReverseChargeEnabledFor(e.getKey()))
@@ -471,13 +470,13 @@ public class ReservationApiV2Controller {
     }
 
     private Optional<Pair<Event, TicketReservation>> getReservation(String eventName, String reservationId) {
-        return eventRepository.findOptionalByShortName(eventName)
+        return eventMetadataCache.findByShortName(eventName)
             .flatMap(event -> ticketReservationManager.findById(reservationId)
                 .flatMap(reservation -> Optional.of(Pair.of(event, reservation))));
     }
 
     private Optional<Pair<Event, TicketReservation>> getReservationWithPendingStatus(String eventName, String reservationId) {
-        return eventRepository.findOptionalByShortName(eventName)
+        return eventMetadataCache.findByShortName(eventName)
             .flatMap(event -> ticketReservationManager.findById(reservationId)
                 .filter(reservation -> reservation.getStatus() == TicketReservation.TicketReservationStatus.PENDING)
                 .flatMap(reservation -> Optional.of(Pair.of(event, reservation))));
@@ -490,7 +489,7 @@ public class ReservationApiV2Controller {
 
 
 
-        var res = eventRepository.findOptionalByShortName(eventName).map(event ->
+        var res = eventMetadataCache.findByShortName(eventName).map(event ->
             ticketReservationManager.findById(reservationId).map(ticketReservation -> {
                 ticketReservationManager.sendConfirmationEmail(event, ticketReservation, LocaleUtil.forLanguageTag(lang, event));
                 return true;
@@ -526,7 +525,7 @@ public class ReservationApiV2Controller {
 
 
 
-        return eventRepository.findOptionalByShortName(eventName).map(event -> {
+        return eventMetadataCache.findByShortName(eventName).map(event -> {
                 if(canAccessReceiptOrInvoice(event, authentication)) {
                     return ticketReservationManager.findById(reservationId).map(ticketReservation -> with.apply(event, ticketReservation)).orElse(notFound);
                 } else {
@@ -555,10 +554,12 @@ public class ReservationApiV2Controller {
             BillingDocument billingDocument = ticketReservationManager.getOrCreateBillingDocument(event, reservation, null);
 
             try {
+                var pdf = billingDocumentPdfManager.getPdf(event, billingDocument, LocaleUtil.forLanguageTag(reservation.getUserLanguage()));
+                if(pdf.isEmpty()) {
+                    return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+                }
                 FileUtil.sendHeaders(response, event.getShortName(), reservation.getId(), billingDocument);
-                TemplateProcessor.buildReceiptOrInvoicePdf(event, fileUploadManager, LocaleUtil.forLanguageTag(reservation.getUserLanguage()),
-                    templateManager, billingDocument.getModel(), forInvoice ? TemplateResource.INVOICE_PDF : TemplateResource.RECEIPT_PDF,
-                    extensionManager, response.getOutputStream());
+                response.getOutputStream().write(pdf.get());
                 return ResponseEntity.ok().build();
             } catch (IOException ioe) {
                 return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
@@ -606,7 +607,7 @@ public class ReservationApiV2Controller {
     }
 
     private Optional<Pair<Event, TicketReservation>> getEventReservationPair(String eventName, String reservationId) {
-        return eventRepository.findOptionalByShortName(eventName)
+        return eventMetadataCache.findByShortName(eventName)
             .map(event -> Pair.of(event, ticketReservationManager.findById(reservationId)))
             .filter(pair -> pair.getRight().isPresent())
             .map(pair -> Pair.of(pair.getLeft(), pair.getRight().orElseThrow()));
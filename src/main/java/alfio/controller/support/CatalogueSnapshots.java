@@ -0,0 +1,100 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.controller.support;
+
+import alfio.repository.EventRepository;
+import alfio.util.Json;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import lombok.AccessLevel;
+import lombok.Getter;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Holds the precomputed payloads of the public event catalogue, together with a strong ETag computed on their JSON
+ * representation, so that unchanged content can be served (or validated with If-None-Match) without querying the database.
+ * <p>
+ * Each snapshot carries the catalogue version read before building it. The version is incremented by a statement trigger
+ * on every modification of events, descriptions, organizations, categories, promo codes and configuration, in the same
+ * transaction, therefore a snapshot is rebuilt as soon as the data changes, regardless of the node that modified it.
+ * The version is read again after building the payload, and the snapshot is cached only if it didn't change.
+ * Snapshots expire anyway after one minute, since the list of the published events depends on the current time.
+ */
+@Component
+public class CatalogueSnapshots {
+
+    private final EventRepository eventRepository;
+    private final Cache<String, Snapshot<?>> snapshots = Caffeine.newBuilder()
+        .maximumSize(1_000)
+        .expireAfterWrite(1, TimeUnit.MINUTES)
+        .build();
+
+    public CatalogueSnapshots(EventRepository eventRepository) {
+        this.eventRepository = eventRepository;
+    }
+
+    /**
+     * Returns the snapshot registered under the given key, or builds a new one if there is none or if the catalogue
+     * has been modified in the meantime. The payload must not be modified once it has been returned by the builder.
+     *
+     * @param key the snapshot key
+     * @param builder builds the payload, or returns {@code null} if there is nothing to publish. Empty results are not cached.
+     *                The data must be loaded from the database, not from caches which could be older than the version.
+     * @return the snapshot, if any
+     */
+    @SuppressWarnings("unchecked")
+    public <T> Optional<Snapshot<T>> get(String key, Supplier<T> builder) {
+        long version = eventRepository.getCatalogueVersion();
+        var existing = snapshots.getIfPresent(key);
+        // a read replica could return an older version
+        if(existing != null && existing.version >= version) {
+            return Optional.of((Snapshot<T>) existing);
+        }
+        // the payload is built outside of the map, so that concurrent requests for other keys are not blocked
+        var payload = builder.get();
+        if(payload == null) {
+            return Optional.empty();
+        }
+        var snapshot = new Snapshot<>(version, payload);
+        // each query can be routed to a different database if the read replica starts or stops lagging, so the payload
+        // could be older than the version read before. The snapshot is cached only if the version is still the same.
+        if(eventRepository.getCatalogueVersion() == version) {
+            snapshots.asMap().merge(key, snapshot, (current, built) -> current.version >= built.version ? current : built);
+        }
+        return Optional.of(snapshot);
+    }
+
+    @Getter
+    public static class Snapshot<T> {
+        @Getter(AccessLevel.NONE)
+        private final long version;
+        private final T payload;
+        private final String etag;
+
+        private Snapshot(long version, T payload) {
+            this.version = version;
+            this.payload = payload;
+            this.etag = "\"" + DigestUtils.sha256Hex(Json.toJson(payload).getBytes(StandardCharsets.UTF_8)) + "\"";
+        }
+    }
+}
@@ -19,6 +19,7 @@ package alfio.controller.support;
 import alfio.manager.ExtensionManager;
 import alfio.manager.FileUploadManager;
 import alfio.manager.support.PartialTicketTextGenerator;
+import alfio.manager.system.ApplicationMetrics;
 import alfio.model.*;
 import alfio.model.user.Organization;
 import alfio.util.TemplateManager;
@@ -32,6 +33,8 @@ import com.openhtmltopdf.extend.FSStream;
 import com.openhtmltopdf.extend.FSStreamFactory;
 import com.openhtmltopdf.pdfboxout.PdfBoxRenderer;
 import com.openhtmltopdf.pdfboxout.PdfRendererBuilder;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
 import lombok.extern.log4j.Log4j2;
 import org.apache.pdfbox.io.MemoryUsageSetting;
 import org.apache.pdfbox.pdmodel.PDDocument;
@@ -109,6 +112,15 @@ public final class TemplateProcessor {
     }
 
     public static void renderToPdf(String page, OutputStream os, ExtensionManager extensionManager, Event event) throws IOException {
+        Timer.Sample sample = Timer.start(Metrics.globalRegistry);
+        try {
+            doRenderToPdf(page, os, extensionManager, event);
+        } finally {
+            sample.stop(Metrics.timer(ApplicationMetrics.PDF_RENDER));
+        }
+    }
+
+    private static void doRenderToPdf(String page, OutputStream os, ExtensionManager extensionManager, Event event) throws IOException {
 
         if(extensionManager.handlePdfTransformation(page, event, os)) {
             return;
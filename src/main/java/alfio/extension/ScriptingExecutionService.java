@@ -17,10 +17,12 @@
 
 package alfio.extension;
 
+import alfio.manager.system.ApplicationMetrics;
 import alfio.util.Json;
 import com.github.benmanes.caffeine.cache.Cache;
 import com.github.benmanes.caffeine.cache.Caffeine;
 import com.github.benmanes.caffeine.cache.RemovalCause;
+import io.micrometer.core.instrument.Metrics;
 import lombok.extern.log4j.Log4j2;
 import org.springframework.stereotype.Service;
 
@@ -108,7 +110,7 @@ public class ScriptingExecutionService {
             engineScope.put("simpleHttpClient", simpleHttpClient);
             engineScope.put("returnClass", clazz);
             engineScope.putAll(params);
-            T res = (T) script.eval(newContext);
+            T res = (T) Metrics.timer(ApplicationMetrics.EXTENSION_SCRIPT, "name", name).recordCallable(() -> script.eval(newContext));
             extensionLogger.logSuccess("Script executed successfully");
             return res;
         } catch (Throwable ex) { //
@@ -18,8 +18,10 @@ package alfio.job;
 
 import alfio.config.Initializer;
 import alfio.manager.*;
+import alfio.manager.support.CustomMessageManager;
 import alfio.manager.system.AdminJobExecutor;
 import alfio.manager.system.AdminJobManager;
+import alfio.manager.system.DataMigrator;
 import lombok.AllArgsConstructor;
 import lombok.extern.log4j.Log4j2;
 import org.apache.commons.lang3.time.DateUtils;
@@ -49,6 +51,8 @@ public class Jobs {
     private static final int ONE_MINUTE = 1000 * 60;
     private static final int THIRTY_SECONDS = 1000 * 30;
     private static final int FIVE_SECONDS = 1000 * 5;
+    private static final int ONE_SECOND = 1000;
+    private static final int FIVE_MINUTES = 5 * ONE_MINUTE;
     private static final int THIRTY_MINUTES = 30 * ONE_MINUTE;
 
     private final AdminReservationRequestManager adminReservationRequestManager;
@@ -58,6 +62,11 @@ public class Jobs {
     private final TicketReservationManager ticketReservationManager;
     private final WaitingQueueSubscriptionProcessor waitingQueueSubscriptionProcessor;
     private final AdminJobManager adminJobManager;
+    private final CustomMessageManager customMessageManager;
+    private final InvoiceArchiveManager invoiceArchiveManager;
+    private final PromoCodeRequestManager promoCodeRequestManager;
+    private final ReservationAdmissionManager reservationAdmissionManager;
+    private final DataMigrator dataMigrator;
 
 
     //cron each minute: "0 0/1 * * * ?"
@@ -106,6 +115,64 @@ public class Jobs {
         }
     }
 
+    //campaigns are normally processed as soon as they're created. This resumes the ones interrupted by a restart
+    @Scheduled(fixedDelay = THIRTY_SECONDS)
+    public void processCustomMessageCampaigns() {
+        log.trace("running job processCustomMessageCampaigns");
+        try {
+            customMessageManager.processPendingCampaigns();
+        } finally {
+            log.trace("end job processCustomMessageCampaigns");
+        }
+    }
+
+    //same as above, for the invoice archives
+    @Scheduled(fixedDelay = THIRTY_SECONDS)
+    public void processInvoiceArchives() {
+        log.trace("running job processInvoiceArchives");
+        try {
+            invoiceArchiveManager.processPendingArchives();
+        } finally {
+            log.trace("end job processInvoiceArchives");
+        }
+    }
+
+    //the migration is started at boot. This resumes it if the node holding the lock has been stopped before completing it
+    @Scheduled(fixedDelay = FIVE_MINUTES, initialDelay = FIVE_MINUTES)
+    public void retryDataMigration() {
+        log.trace("running job retryDataMigration");
+        try {
+            dataMigrator.migrateEventsToCurrentVersionInBackground();
+        } finally {
+            log.trace("end job retryDataMigration");
+        }
+    }
+
+    //the counters are maintained by a trigger. This fixes the drift caused by tickets removed from confirmed reservations (e.g. refunds)
+    @Scheduled(fixedRate = FIVE_MINUTES)
+    public void reconcilePromoCodeUsage() {
+        log.trace("running job reconcilePromoCodeUsage");
+        try {
+            promoCodeRequestManager.reconcileUsageCounters();
+        } finally {
+            log.trace("end job reconcilePromoCodeUsage");
+        }
+    }
+
+    //the queues are cleaned up when they are accessed, this removes the entries of the events no longer requested
+    @Scheduled(fixedRate = ONE_MINUTE)
+    public void cleanupReservationAdmissions() {
+        log.trace("running job cleanupReservationAdmissions");
+        try {
+            int removed = reservationAdmissionManager.cleanupExpired();
+            if(removed > 0) {
+                log.debug("removed {} expired reservation admissions", removed);
+            }
+        } finally {
+            log.trace("end job cleanupReservationAdmissions");
+        }
+    }
+
     @Scheduled(fixedRate = FIVE_SECONDS)
     public void processReservationRequests() {
         log.trace("running job processReservationRequests");
@@ -157,7 +224,18 @@ public class Jobs {
     }
 
 
-    @Scheduled(fixedRate = THIRTY_SECONDS)
+    @Scheduled(fixedDelay = ONE_SECOND)
+    public void distributeReleasedSeats() {
+        log.trace("running job distributeReleasedSeats");
+        try {
+            waitingQueueSubscriptionProcessor.handleReleasedSeats();
+        } finally {
+            log.trace("end job distributeReleasedSeats");
+        }
+    }
+
+    //safety net: seats are distributed as soon as they're released (see distributeReleasedSeats)
+    @Scheduled(fixedRate = FIVE_MINUTES)
     public void processReleasedTickets() {
         log.trace("running job processReleasedTickets");
         try {
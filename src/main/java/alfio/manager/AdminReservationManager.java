@@ -16,7 +16,6 @@
  */
 package alfio.manager;
 
-import alfio.controller.support.TemplateProcessor;
 import alfio.manager.i18n.MessageSourceManager;
 import alfio.manager.payment.PaymentSpecification;
 import alfio.manager.support.DuplicateReferenceException;
@@ -52,6 +51,7 @@ import org.apache.commons.lang3.tuple.Pair;
 import org.apache.commons.lang3.tuple.Triple;
 import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 import org.springframework.stereotype.Component;
 import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.TransactionDefinition;
@@ -106,7 +106,9 @@ public class AdminReservationManager {
     private final UserRepository userRepository;
     private final ExtensionManager extensionManager;
     private final BillingDocumentRepository billingDocumentRepository;
-    private final FileUploadManager fileUploadManager;
+    private final BillingDocumentPdfManager billingDocumentPdfManager;
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+    private final WaitingQueueManager waitingQueueManager;
 
     //the following methods have an explicit transaction handling, therefore the @Transactional annotation is not helpful here
     public Result<Triple<TicketReservation, List<Ticket>, Event>> confirmReservation(String eventName, String reservationId, String username, Notification notification) {
@@ -225,13 +227,11 @@ public class AdminReservationManager {
     }
 
     private void sendTicketToAttendees(Event event, TicketReservation reservation, Predicate<Ticket> matcher) {
-        ticketRepository.findTicketsInReservation(reservation.getId())
+        var tickets = ticketRepository.findTicketsInReservation(reservation.getId())
             .stream()
             .filter(matcher)
-            .forEach(t -> {
-                Locale locale = LocaleUtil.forLanguageTag(t.getUserLanguage());
-                ticketReservationManager.sendTicketByEmail(t, locale, event, ticketReservationManager.getTicketEmailGenerator(event, reservation, locale));
-            });
+            .collect(toList());
+        ticketReservationManager.sendTicketsByEmail(tickets, event, reservation);
     }
 
     private Result<Boolean> performUpdate(String reservationId, Event event, TicketReservation r, AdminReservationModification arm, String username) {
@@ -408,9 +408,13 @@ public class AdminReservationManager {
         if(category.isAccessRestricted() && codes.size() < attendees.size()) {
             return Result.error(ErrorCode.CategoryError.NOT_ENOUGH_SEATS);
         }
-        assignTickets(event, attendees, categoryId, reservedForUpdate, codes, reservationId, arm.getLanguage(), category.getSrcPriceCts());
-        List<Ticket> tickets = reservedForUpdate.stream().map(id -> ticketRepository.findById(id, categoryId)).collect(toList());
-        return Result.success(tickets);
+        if(attendees.size() == 1) {
+            assignTickets(event, attendees, categoryId, reservedForUpdate, codes, reservationId, arm.getLanguage(), category.getSrcPriceCts());
+        } else {
+            bulkAssignTickets(event, attendees, categoryId, reservedForUpdate, codes, reservationId, arm.getLanguage(), category.getSrcPriceCts());
+        }
+        Map<Integer, Ticket> ticketsById = ticketRepository.findByIds(reservedForUpdate).stream().collect(toMap(Ticket::getId, Function.identity()));
+        return Result.success(reservedForUpdate.stream().map(ticketsById::get).collect(toList()));
     }
 
     private Result<List<Ticket>> reduceReservationResults(Result<List<Ticket>> r1, Result<List<Ticket>> r2) {
@@ -457,18 +461,20 @@ public class AdminReservationManager {
         specialPriceTokenGenerator.generatePendingCodesForCategory(categoryId);
         List<SpecialPrice> codes = specialPriceRepository.findActiveNotAssignedByCategoryId(categoryId, attendees.size());
 
-        codes.forEach(c -> specialPriceRepository.updateStatus(c.getId(), SpecialPrice.Status.PENDING.toString(), null, null));
+        if(!codes.isEmpty()) {
+            specialPriceRepository.batchUpdateStatus(codes.stream().map(SpecialPrice::getId).collect(toList()), SpecialPrice.Status.PENDING, null);
+        }
         return codes;
     }
 
-    private void assignTickets(Event event,
-                               List<Attendee> attendees,
-                               int categoryId,
-                               List<Integer> reservedForUpdate,
-                               List<SpecialPrice> codes,
-                               String reservationId,
-                               String userLanguage,
-                               int srcPriceCts) {
+    void assignTickets(Event event,
+                       List<Attendee> attendees,
+                       int categoryId,
+                       List<Integer> reservedForUpdate,
+                       List<SpecialPrice> codes,
+                       String reservationId,
+                       String userLanguage,
+                       int srcPriceCts) {
 
         Optional<Iterator<SpecialPrice>> specialPriceIterator = Optional.of(codes).filter(c -> !c.isEmpty()).map(Collection::iterator);
         for(int i=0; i<reservedForUpdate.size(); i++) {
@@ -487,6 +493,77 @@ public class AdminReservationManager {
         }
     }
 
+    /**
+     * Same as {@link #assignTickets}, but all the modifications are sent as JDBC batches. The result must be the same:
+     * see AdminReservationManagerIntegrationTest#testBulkAssignmentIsEquivalent
+     */
+    void bulkAssignTickets(Event event,
+                           List<Attendee> attendees,
+                           int categoryId,
+                           List<Integer> reservedForUpdate,
+                           List<SpecialPrice> codes,
+                           String reservationId,
+                           String userLanguage,
+                           int srcPriceCts) {
+
+        List<MapSqlParameterSource> owners = new ArrayList<>();
+        List<MapSqlParameterSource> references = new ArrayList<>();
+        List<MapSqlParameterSource> specialPrices = new ArrayList<>();
+        Map<Integer, Map<String, List<String>>> additionalInfo = new LinkedHashMap<>();
+        Optional<Iterator<SpecialPrice>> specialPriceIterator = Optional.of(codes).filter(c -> !c.isEmpty()).map(Collection::iterator);
+        for(int i=0; i<reservedForUpdate.size(); i++) {
+            Attendee attendee = attendees.get(i);
+            Integer ticketId = reservedForUpdate.get(i);
+            if(!attendee.isEmpty()) {
+                owners.add(new MapSqlParameterSource("id", ticketId)
+                    .addValue("email", attendee.getEmailAddress())
+                    .addValue("fullName", attendee.getFullName())
+                    .addValue("firstName", attendee.getFirstName())
+                    .addValue("lastName", attendee.getLastName()));
+                if(StringUtils.isNotBlank(attendee.getReference()) || attendee.isReassignmentForbidden()) {
+                    references.add(new MapSqlParameterSource("id", ticketId)
+                        .addValue("categoryId", categoryId)
+                        .addValue("extReference", StringUtils.trimToNull(attendee.getReference()))
+                        .addValue("lockedAssignment", attendee.isReassignmentForbidden()));
+                }
+                if(!attendee.getAdditionalInfo().isEmpty()) {
+                    additionalInfo.put(ticketId, attendee.getAdditionalInfo());
+                }
+            }
+            specialPriceIterator.map(Iterator::next).ifPresent(code -> specialPrices.add(new MapSqlParameterSource("reservationId", reservationId)
+                .addValue("ticketId", ticketId)
+                .addValue("specialCodeId", code.getId())
+                .addValue("userLanguage", userLanguage)
+                .addValue("srcPriceCts", srcPriceCts)
+                .addValue("currencyCode", event.getCurrency())));
+        }
+
+        jdbcTemplate.batchUpdate(ticketRepository.batchUpdateTicketOwnerById(), owners.toArray(MapSqlParameterSource[]::new));
+        if(!references.isEmpty()) {
+            checkDuplicateReferences(event, references);
+            try {
+                jdbcTemplate.batchUpdate(ticketRepository.batchUpdateExternalReferenceAndLocking(), references.toArray(MapSqlParameterSource[]::new));
+            } catch (DataIntegrityViolationException ex) {
+                log.warn("Duplicate found for external references in reservation "+reservationId);
+                throw new DuplicateReferenceException("Duplicated Reference", ex);
+            }
+        }
+        ticketFieldRepository.bulkUpdateOrInsert(additionalInfo, event.getId());
+        jdbcTemplate.batchUpdate(ticketRepository.batchReserveTicket(), specialPrices.toArray(MapSqlParameterSource[]::new));
+    }
+
+    private void checkDuplicateReferences(Event event, List<MapSqlParameterSource> references) {
+        // a failed batch doesn't tell which reference is duplicated, so we look for it in advance
+        List<String> values = references.stream().map(p -> (String) p.getValue("extReference")).filter(Objects::nonNull).collect(toList());
+        Set<String> seen = new HashSet<>();
+        Optional<String> duplicate = values.stream().filter(r -> !seen.add(r)).findFirst()
+            .or(() -> values.isEmpty() ? Optional.empty() : ticketRepository.findExistingExternalReferences(event.getId(), values).stream().findFirst());
+        duplicate.ifPresent(reference -> {
+            log.warn("Duplicate found for external reference: "+reference);
+            throw new DuplicateReferenceException("Duplicated Reference: "+reference, null);
+        });
+    }
+
     private void updateExtRefAndLocking(int categoryId, Attendee attendee, Integer ticketId) {
         try {
             ticketRepository.updateExternalReferenceAndLocking(ticketId, categoryId, StringUtils.trimToNull(attendee.getReference()), attendee.isReassignmentForbidden());
@@ -613,9 +690,7 @@ public class AdminReservationManager {
     public Result<Pair<BillingDocument, byte[]>> getSingleBillingDocumentAsPdf(String eventName, String reservationId, long documentId, String username) {
         return loadReservation(eventName, reservationId, username).map(res -> {
             BillingDocument billingDocument = billingDocumentRepository.findById(documentId, reservationId).orElseThrow(IllegalArgumentException::new);
-            Function<Map<String, Object>, Optional<byte[]>> pdfGenerator = model -> TemplateProcessor.buildBillingDocumentPdf(billingDocument.getType(), res.getRight(), fileUploadManager, LocaleUtil.forLanguageTag(res.getLeft().getUserLanguage()), templateManager, model, extensionManager);
-            Map<String, Object> billingModel = billingDocument.getModel();
-            return Pair.of(billingDocument, pdfGenerator.apply(billingModel).orElse(null));
+            return Pair.of(billingDocument, billingDocumentPdfManager.getPdf(res.getRight(), billingDocument, LocaleUtil.forLanguageTag(res.getLeft().getUserLanguage())).orElse(null));
         });
     }
 
@@ -728,6 +803,7 @@ public class AdminReservationManager {
         List<String> ticketUUIDs = ticketRepository.findUUIDs(ticketIds);
         int[] results = ticketRepository.batchReleaseTickets(reservationId, ticketIds, event);
         Validate.isTrue(Arrays.stream(results).sum() == ticketIds.size(), "Failed to update tickets");
+        waitingQueueManager.fireSeatsReleased(event.getId());
         if(!removeReservation) {
             if(forceInvoiceReceiptUpdate) {
                 auditingRepository.insert(reservationId, userId, event.getId(), FORCED_UPDATE_INVOICE, date, RESERVATION, reservationId);
@@ -27,21 +27,26 @@ import alfio.repository.EventRepository;
 import alfio.repository.user.UserRepository;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.log4j.Log4j2;
-import org.apache.commons.collections.CollectionUtils;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
 import org.apache.commons.lang3.tuple.Pair;
 import org.apache.commons.lang3.tuple.Triple;
 import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
 import org.springframework.stereotype.Component;
 import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.transaction.support.DefaultTransactionDefinition;
 import org.springframework.transaction.support.TransactionTemplate;
 
+import javax.annotation.PreDestroy;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.*;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -55,12 +60,21 @@ import static java.util.Optional.ofNullable;
 @RequiredArgsConstructor
 public class AdminReservationRequestManager {
 
+    private static final int PARALLELISM = 4;
+
     private final AdminReservationManager adminReservationManager;
     private final EventManager eventManager;
     private final UserRepository userRepository;
     private final AdminReservationRequestRepository adminReservationRequestRepository;
     private final EventRepository eventRepository;
     private final PlatformTransactionManager transactionManager;
+    private final ExecutorService requestProcessor = Executors.newFixedThreadPool(PARALLELISM,
+        new BasicThreadFactory.Builder().namingPattern("admin-reservation-request-%d").daemon(true).build());
+
+    @PreDestroy
+    public void shutdown() {
+        requestProcessor.shutdown();
+    }
 
     public Result<AdminReservationRequestStats> getRequestStatus(String requestId, String eventName, String username) {
         return eventManager.getOptionalEventAndOrganizationIdByName(eventName, username)
@@ -102,29 +116,70 @@ public class AdminReservationRequestManager {
             .orElseGet(() -> Result.error(ErrorCode.ReservationError.UPDATE_FAILED));
     }
 
-    //TODO: rewrite, and add test!
+    /**
+     * Processes the pending requests. Lookups are done once per event and user, then each request
+     * is processed in its own transaction on a bounded pool, so that the progress is immediately visible
+     * through {@link #getRequestStatus(String, String, String)}.
+     *
+     * @return successes and failures
+     */
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
     public Pair<Integer, Integer> processPendingReservations() {
-        Map<Boolean, List<MapSqlParameterSource>> result = adminReservationRequestRepository.findPendingForUpdate(1000)
+        List<AdminReservationRequest> pending = adminReservationRequestRepository.findPending(1000);
+        if(pending.isEmpty()) {
+            return Pair.of(0, 0);
+        }
+        Map<Long, Optional<Event>> events = pending.stream()
+            .map(AdminReservationRequest::getEventId)
+            .distinct()
+            .collect(Collectors.toMap(Function.identity(), id -> eventRepository.findOptionalById(id.intValue())));
+        Map<Long, User> users = userRepository.findByIds(pending.stream().map(r -> (int) r.getUserId()).collect(Collectors.toSet()))
             .stream()
-            .map(id -> {
-                AdminReservationRequest request = adminReservationRequestRepository.fetchCompleteById(id);
+            .collect(Collectors.toMap(u -> (long) u.getId(), Function.identity()));
 
-                Result<Triple<TicketReservation, List<Ticket>, Event>> reservationResult = Result.fromNullable(eventRepository.findOptionalById((int) request.getEventId()).orElse(null), ErrorCode.EventError.NOT_FOUND)
-                    .flatMap(e -> Result.fromNullable(userRepository.findOptionalById((int) request.getUserId()).map(u -> Pair.of(e, u)).orElse(null), ErrorCode.EventError.ACCESS_DENIED))
-                    .flatMap(p -> processReservation(request, p.getLeft(), p.getRight()));
-                return buildParameterSource(id, reservationResult);
-            }).collect(Collectors.partitioningBy(ps -> AdminReservationRequest.Status.SUCCESS.name().equals(ps.getValue("status"))));
+        List<Callable<Optional<Boolean>>> tasks = pending.stream()
+            .map(request -> (Callable<Optional<Boolean>>) () -> processRequest(request, events.get(request.getEventId()), users.get(request.getUserId())))
+            .collect(Collectors.toList());
 
-        result.values().forEach(list -> {
-            try {
-                adminReservationRequestRepository.updateStatus(list);
-            } catch(Exception e) {
-                log.fatal("cannot update the status of "+list.size()+" reservations", e);
+        int success = 0;
+        int failure = 0;
+        try {
+            for (Future<Optional<Boolean>> future : requestProcessor.invokeAll(tasks)) {
+                try {
+                    Optional<Boolean> outcome = future.get();
+                    if(outcome.isPresent()) {
+                        if(outcome.get()) {
+                            success++;
+                        } else {
+                            failure++;
+                        }
+                    }
+                } catch (ExecutionException e) {
+                    // the request is still PENDING and will be retried during the next run
+                    log.warn("cannot process reservation request", e.getCause());
+                }
             }
-        });
-
-        return Pair.of(CollectionUtils.size(result.get(true)), CollectionUtils.size(result.get(false)));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.warn("interrupted while processing reservation requests", e);
+        }
+        return Pair.of(success, failure);
+    }
 
+    /**
+     * @return the outcome of the request, or empty if the request has already been processed by another node
+     */
+    private Optional<Boolean> processRequest(AdminReservationRequest request, Optional<Event> event, User user) {
+        var template = new TransactionTemplate(transactionManager, new DefaultTransactionDefinition(TransactionDefinition.PROPAGATION_REQUIRES_NEW));
+        return template.execute(status -> {
+            if(adminReservationRequestRepository.lockPendingById(request.getId()).isEmpty()) {
+                return Optional.empty();
+            }
+            Result<Triple<TicketReservation, List<Ticket>, Event>> reservationResult = Result.fromNullable(event.orElse(null), ErrorCode.EventError.NOT_FOUND)
+                .flatMap(e -> user != null ? processReservation(request, e, user) : Result.error(ErrorCode.EventError.ACCESS_DENIED));
+            adminReservationRequestRepository.updateStatus(singletonList(buildParameterSource(request.getId(), reservationResult)));
+            return Optional.of(reservationResult.isSuccess());
+        });
     }
 
     private Result<Triple<TicketReservation, List<Ticket>, Event>> processReservation(AdminReservationRequest request, Event event, User user) {
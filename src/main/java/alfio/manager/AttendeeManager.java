@@ -22,21 +22,27 @@ import alfio.manager.support.SponsorAttendeeData;
 import alfio.manager.support.TicketAndCheckInResult;
 import alfio.manager.user.UserManager;
 import alfio.model.Event;
+import alfio.model.DetailedScanData;
 import alfio.model.EventAndOrganizationId;
 import alfio.model.Ticket;
 import alfio.model.TicketWithCategory;
 import alfio.model.result.ErrorCode;
 import alfio.model.result.Result;
 import alfio.model.support.TicketWithAdditionalFields;
+import alfio.model.user.Role;
+import alfio.model.user.User;
 import alfio.repository.*;
 import alfio.repository.user.UserRepository;
 import alfio.util.EventUtil;
 import lombok.AllArgsConstructor;
+import org.apache.commons.lang3.tuple.Triple;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.time.ZoneId;
 import java.time.ZonedDateTime;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.stream.Collectors;
 
@@ -103,6 +109,20 @@ public class AttendeeManager {
         return maybeEvent.map(event -> loadAttendeesData(event, userId, start));
     }
 
+    /**
+     * Loads the scans of all the sponsors of the organizations of the given user, together with the values of the
+     * additional fields of the scanned tickets. The export runs in a read-only transaction, so that it is executed on
+     * the read replica, if configured.
+     */
+    @Transactional(readOnly = true)
+    public List<Triple<DetailedScanData, User, Map<String, String>>> findSponsorScansForExport(int eventId, String username) {
+        return userManager.findAllEnabledUsers(username).stream()
+            .filter(u -> userManager.getUserRole(u) == Role.SPONSOR)
+            .flatMap(u -> sponsorScanRepository.loadSponsorData(eventId, u.getId(), SponsorScanRepository.DEFAULT_TIMESTAMP).stream()
+                .map(scan -> Triple.of(scan, u, ticketFieldRepository.findAllValuesForTicketId(scan.getTicket().getId()))))
+            .collect(Collectors.toList());
+    }
+
     private List<SponsorAttendeeData> loadAttendeesData(EventAndOrganizationId event, int userId, ZonedDateTime start) {
         return sponsorScanRepository.loadSponsorData(event.getId(), userId, start).stream()
             .map(scan -> {
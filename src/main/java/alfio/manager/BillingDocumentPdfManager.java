@@ -0,0 +1,127 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.manager;
+
+import alfio.controller.support.TemplateProcessor;
+import alfio.model.BillingDocument;
+import alfio.model.Event;
+import alfio.repository.BillingDocumentPdfRepository;
+import alfio.util.TemplateManager;
+import lombok.extern.log4j.Log4j2;
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.DefaultTransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PreDestroy;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
+
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Renders the PDF of billing documents. Since a VALID billing document is never modified, its PDF is stored
+ * after the first rendering and served from the database afterwards.
+ */
+@Component
+@Log4j2
+public class BillingDocumentPdfManager {
+
+    static final int PARALLELISM = Math.max(2, Runtime.getRuntime().availableProcessors() / 2);
+
+    private final BillingDocumentPdfRepository billingDocumentPdfRepository;
+    private final FileUploadManager fileUploadManager;
+    private final TemplateManager templateManager;
+    private final ExtensionManager extensionManager;
+    private final TransactionTemplate requiresNewTransactionTemplate;
+    private final ExecutorService renderExecutor = Executors.newFixedThreadPool(PARALLELISM,
+        new BasicThreadFactory.Builder().namingPattern("billing-document-pdf-%d").daemon(true).build());
+
+    public BillingDocumentPdfManager(BillingDocumentPdfRepository billingDocumentPdfRepository,
+                                     FileUploadManager fileUploadManager,
+                                     TemplateManager templateManager,
+                                     ExtensionManager extensionManager,
+                                     PlatformTransactionManager transactionManager) {
+        this.billingDocumentPdfRepository = billingDocumentPdfRepository;
+        this.fileUploadManager = fileUploadManager;
+        this.templateManager = templateManager;
+        this.extensionManager = extensionManager;
+        this.requiresNewTransactionTemplate = new TransactionTemplate(transactionManager, new DefaultTransactionDefinition(TransactionDefinition.PROPAGATION_REQUIRES_NEW));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        renderExecutor.shutdown();
+    }
+
+    public Optional<byte[]> getPdf(Event event, BillingDocument document, Locale locale) {
+        if(document.getStatus() == BillingDocument.Status.VALID) {
+            var stored = billingDocumentPdfRepository.findContent(document.getId());
+            if(stored.isPresent()) {
+                return stored;
+            }
+        }
+        return render(event, document, locale);
+    }
+
+    /**
+     * Returns the PDFs of the given documents, in the same order. Stored PDFs are loaded with a single query,
+     * the missing ones are rendered in the background by a bounded pool which is shared by all the callers.
+     */
+    public List<CompletableFuture<Optional<byte[]>>> getPdfs(Event event, List<BillingDocument> documents, Function<BillingDocument, Locale> localeResolver) {
+        var stored = billingDocumentPdfRepository.findContents(documents.stream()
+            .filter(d -> d.getStatus() == BillingDocument.Status.VALID)
+            .map(BillingDocument::getId)
+            .collect(toList()));
+        return documents.stream()
+            .map(document -> {
+                byte[] content = stored.get(document.getId());
+                if(content != null) {
+                    return CompletableFuture.completedFuture(Optional.of(content));
+                }
+                Locale locale = localeResolver.apply(document);
+                return CompletableFuture.supplyAsync(() -> render(event, document, locale), renderExecutor);
+            })
+            .collect(toList());
+    }
+
+    private Optional<byte[]> render(Event event, BillingDocument document, Locale locale) {
+        var pdf = TemplateProcessor.buildBillingDocumentPdf(document.getType(), event, fileUploadManager, locale, templateManager, document.getModel(), extensionManager);
+        if(pdf.isPresent() && document.getStatus() == BillingDocument.Status.VALID) {
+            store(event, document, pdf.get());
+        }
+        return pdf;
+    }
+
+    private void store(Event event, BillingDocument document, byte[] content) {
+        try {
+            // the caller could be in a read-only transaction
+            requiresNewTransactionTemplate.execute(status -> billingDocumentPdfRepository.insert(document.getId(), event.getOrganizationId(), content, ZonedDateTime.now(ZoneId.of("UTC"))));
+        } catch (Exception e) {
+            log.warn("cannot store PDF for billing document {}", document.getId(), e);
+        }
+    }
+}
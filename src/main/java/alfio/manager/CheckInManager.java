@@ -17,8 +17,10 @@
 package alfio.manager;
 
 import alfio.manager.support.*;
+import alfio.manager.system.ApplicationMetrics;
 import alfio.manager.system.ConfigurationLevel;
 import alfio.manager.system.ConfigurationManager;
+import alfio.manager.user.OrganizationMembershipCache;
 import alfio.model.*;
 import alfio.model.Ticket.TicketStatus;
 import alfio.model.audit.ScanAudit;
@@ -26,11 +28,11 @@ import alfio.model.support.CheckInOutputColorConfiguration;
 import alfio.model.transaction.PaymentProxy;
 import alfio.repository.*;
 import alfio.repository.audit.ScanAuditRepository;
-import alfio.repository.user.OrganizationRepository;
 import alfio.repository.user.UserRepository;
 import alfio.util.Json;
 import alfio.util.MonetaryUtil;
 import com.google.gson.reflect.TypeToken;
+import io.micrometer.core.annotation.Timed;
 import lombok.AllArgsConstructor;
 import lombok.extern.log4j.Log4j2;
 import org.apache.commons.codec.binary.Base64;
@@ -79,7 +81,7 @@ public class CheckInManager {
     private final ScanAuditRepository scanAuditRepository;
     private final AuditingRepository auditingRepository;
     private final ConfigurationManager configurationManager;
-    private final OrganizationRepository organizationRepository;
+    private final OrganizationMembershipCache organizationMembershipCache;
     private final UserRepository userRepository;
     private final TicketReservationManager ticketReservationManager;
     private final ExtensionManager extensionManager;
@@ -103,7 +105,7 @@ public class CheckInManager {
 
     public TicketAndCheckInResult confirmOnSitePayment(String eventName, String ticketIdentifier, Optional<String> ticketCode, String username, String auditUser) {
         return eventRepository.findOptionalByShortName(eventName)
-            .filter(EventManager.checkOwnership(username, organizationRepository))
+            .filter(EventManager.checkOwnership(username, organizationMembershipCache))
             .flatMap(e -> confirmOnSitePayment(ticketIdentifier).map((String s) -> Pair.of(s, e)))
             .map(p -> checkIn(p.getRight().getId(), ticketIdentifier, ticketCode, auditUser))
             .orElseGet(() -> new TicketAndCheckInResult(null, new DefaultCheckInResult(CheckInStatus.TICKET_NOT_FOUND, "")));
@@ -121,7 +123,7 @@ public class CheckInManager {
     public TicketAndCheckInResult checkIn(String eventShortName, String ticketIdentifier, Optional<String> ticketCode, String username, String auditUser,
                                           boolean automaticallyConfirmOnSitePayment) {
         return eventRepository.findOptionalByShortName(eventShortName)
-            .filter(EventManager.checkOwnership(username, organizationRepository))
+            .filter(EventManager.checkOwnership(username, organizationMembershipCache))
             .map(e -> {
                 if (automaticallyConfirmOnSitePayment && CheckInStatus.MUST_PAY == evaluateTicketStatus(eventShortName, ticketIdentifier, ticketCode).getResult().getStatus()) {
                     log.info("in event {} automaticallyConfirmOnSitePayment for {}", eventShortName, ticketIdentifier);
@@ -132,10 +134,12 @@ public class CheckInManager {
             .orElseGet(() -> new TicketAndCheckInResult(null, new DefaultCheckInResult(CheckInStatus.EVENT_NOT_FOUND, "event not found")));
     }
 
+    @Timed(value = ApplicationMetrics.CHECK_IN, histogram = true)
     public TicketAndCheckInResult checkIn(String shortName, String ticketIdentifier, Optional<String> ticketCode, String username, String auditUser) {
         return checkIn(shortName, ticketIdentifier, ticketCode, username, auditUser, false);
     }
 
+    @Timed(value = ApplicationMetrics.CHECK_IN, histogram = true)
     public TicketAndCheckInResult checkIn(int eventId, String ticketIdentifier, Optional<String> ticketCode, String user) {
         TicketAndCheckInResult descriptor = extractStatus(eventId, ticketRepository.findByUUIDForUpdate(ticketIdentifier), ticketIdentifier, ticketCode);
         var checkInStatus = descriptor.getResult().getStatus();
@@ -326,7 +330,7 @@ public class CheckInManager {
 
     public List<Integer> getAttendeesIdentifiers(EventAndOrganizationId ev, Date changedSince, String username) {
         return Optional.ofNullable(ev)
-            .filter(EventManager.checkOwnership(username, organizationRepository))
+            .filter(EventManager.checkOwnership(username, organizationMembershipCache))
             .filter(isOfflineCheckInEnabled())
             .map(event -> ticketRepository.findAllAssignedByEventId(event.getId(), changedSince))
             .orElseGet(Collections::emptyList);
@@ -334,14 +338,14 @@ public class CheckInManager {
 
     public List<Integer> getAttendeesIdentifiers(int eventId, Date changedSince, String username) {
         return eventRepository.findOptionalById(eventId)
-            .filter(EventManager.checkOwnership(username, organizationRepository))
+            .filter(EventManager.checkOwnership(username, organizationMembershipCache))
             .map(event -> ticketRepository.findAllAssignedByEventId(event.getId(), changedSince))
             .orElse(Collections.emptyList());
     }
 
     public List<FullTicketInfo> getAttendeesInformation(int eventId, List<Integer> ids, String username) {
         return eventRepository.findOptionalById(eventId)
-            .filter(EventManager.checkOwnership(username, organizationRepository))
+            .filter(EventManager.checkOwnership(username, organizationMembershipCache))
             .map(event -> ticketRepository.findAllFullTicketInfoAssignedByEventId(event.getId(), ids))
             .orElse(Collections.emptyList());
     }
@@ -480,7 +484,7 @@ public class CheckInManager {
     public CheckInStatistics getStatistics(String eventName, String username) {
         return eventRepository.findOptionalByShortName(eventName)
             .filter(this::areStatsEnabled)
-            .filter(EventManager.checkOwnership(username, organizationRepository))
+            .filter(EventManager.checkOwnership(username, organizationMembershipCache))
             .map(event -> eventRepository.retrieveCheckInStatisticsForEvent(event.getId()))
             .orElse(null);
     }
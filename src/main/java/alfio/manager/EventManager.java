@@ -20,6 +20,7 @@ import alfio.config.Initializer;
 import alfio.manager.support.CategoryEvaluator;
 import alfio.manager.system.ConfigurationLevel;
 import alfio.manager.system.ConfigurationManager;
+import alfio.manager.user.OrganizationMembershipCache;
 import alfio.manager.user.UserManager;
 import alfio.model.*;
 import alfio.model.PromoCodeDiscount.DiscountType;
@@ -37,7 +38,6 @@ import alfio.model.transaction.PaymentProxy;
 import alfio.model.user.Organization;
 import alfio.repository.*;
 import alfio.repository.system.ConfigurationRepository;
-import alfio.repository.user.OrganizationRepository;
 import alfio.util.Json;
 import alfio.util.MonetaryUtil;
 import ch.digitalfondue.npjt.AffectedRowCountAndKey;
@@ -47,6 +47,7 @@ import org.apache.commons.collections.CollectionUtils;
 import org.apache.commons.lang3.ObjectUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.Validate;
+import org.apache.commons.lang3.tuple.Pair;
 import org.apache.commons.lang3.tuple.Triple;
 import org.flywaydb.core.Flyway;
 import org.springframework.core.env.Environment;
@@ -102,12 +103,16 @@ public class EventManager {
     private final AdditionalServiceTextRepository additionalServiceTextRepository;
     private final Flyway flyway;
     private final Environment environment;
-    private final OrganizationRepository organizationRepository;
+    private final OrganizationMembershipCache organizationMembershipCache;
     private final AuditingRepository auditingRepository;
     private final ExtensionManager extensionManager;
     private final GroupRepository groupRepository;
     private final NamedParameterJdbcTemplate jdbcTemplate;
     private final ConfigurationRepository configurationRepository;
+    private final EventMetadataCache eventMetadataCache;
+    private final PromoCodeResolutionCache promoCodeResolutionCache;
+    private final PromoCodeUsageRepository promoCodeUsageRepository;
+    private final WaitingQueueManager waitingQueueManager;
 
 
     public Event getSingleEvent(String eventName, String username) {
@@ -120,40 +125,36 @@ public class EventManager {
 
     public Optional<Event> getOptionalByName(String eventName, String username) {
         return eventRepository.findOptionalByShortName(eventName)
-            .filter(checkOwnership(username, organizationRepository));
+            .filter(checkOwnership(username, organizationMembershipCache));
     }
 
     public Optional<EventAndOrganizationId> getOptionalEventAndOrganizationIdByName(String eventName, String username) {
         return eventRepository.findOptionalEventAndOrganizationIdByShortName(eventName)
-            .filter(checkOwnership(username, organizationRepository));
+            .filter(checkOwnership(username, organizationMembershipCache));
     }
 
     public Optional<EventAndOrganizationId> getOptionalEventIdAndOrganizationIdById(int eventId, String username) {
         return eventRepository.findOptionalEventAndOrganizationIdById(eventId)
-            .filter(checkOwnership(username, organizationRepository));
+            .filter(checkOwnership(username, organizationMembershipCache));
     }
 
     public Event getSingleEventById(int eventId, String username) {
         return eventRepository.findOptionalById(eventId)
-            .filter(checkOwnership(username, organizationRepository))
+            .filter(checkOwnership(username, organizationMembershipCache))
             .orElseThrow(IllegalStateException::new);
     }
 
     public void checkOwnership(EventAndOrganizationId event, String username, int organizationId) {
         Validate.isTrue(organizationId == event.getOrganizationId(), "invalid organizationId");
-        Validate.isTrue(checkOwnership(username, organizationRepository).test(event), "User is not authorized");
+        Validate.isTrue(checkOwnership(username, organizationMembershipCache).test(event), "User is not authorized");
     }
 
-    public static Predicate<EventAndOrganizationId> checkOwnership(String username, OrganizationRepository organizationRepository) {
-        return event -> checkOwnership(organizationRepository, username, event.getOrganizationId());
+    public static Predicate<EventAndOrganizationId> checkOwnership(String username, OrganizationMembershipCache organizationMembershipCache) {
+        return event -> organizationMembershipCache.isMemberOf(username, event.getOrganizationId());
     }
 
-    private static IntPredicate checkOwnershipByOrgId(String username, OrganizationRepository organizationRepository) {
-        return id -> checkOwnership(organizationRepository, username, id);
-    }
-
-    private static boolean checkOwnership(OrganizationRepository organizationRepository, String username, Integer orgId) {
-        return orgId != null && organizationRepository.findOrganizationForUser(username, orgId).isPresent();
+    private static IntPredicate checkOwnershipByOrgId(String username, OrganizationMembershipCache organizationMembershipCache) {
+        return id -> organizationMembershipCache.isMemberOf(username, id);
     }
 
     public List<TicketCategory> loadTicketCategories(EventAndOrganizationId event) {
@@ -196,6 +197,7 @@ public class EventManager {
         }
         Event.Status status = activate ? Event.Status.PUBLIC : Event.Status.DRAFT;
         eventRepository.updateEventStatus(id, status);
+        eventMetadataCache.invalidate(id);
         extensionManager.handleEventStatusChange(event, status);
     }
 
@@ -297,7 +299,7 @@ public class EventManager {
     }
 
     public void updateEventHeader(Event original, EventModification em, String username) {
-        IntPredicate ownershipChecker = checkOwnershipByOrgId(username, organizationRepository);
+        IntPredicate ownershipChecker = checkOwnershipByOrgId(username, organizationMembershipCache);
         boolean sameOrganization = original.getOrganizationId() == em.getOrganizationId();
         Validate.isTrue(ownershipChecker.test(original.getOrganizationId()) && (sameOrganization || ownershipChecker.test(em.getOrganizationId())), "Invalid organizationId");
         int eventId = original.getId();
@@ -313,6 +315,7 @@ public class EventManager {
         eventRepository.updateHeader(eventId, em.getDisplayName(), em.getWebsiteUrl(), em.getExternalUrl(), em.getTermsAndConditionsUrl(),
             em.getPrivacyPolicyUrl(), em.getImageUrl(), em.getFileBlobId(), em.getLocation(), latitude, longitude,
             begin, end, timeZone, em.getOrganizationId(), em.getLocales());
+        eventMetadataCache.invalidate(eventId);
 
         createOrUpdateEventDescription(eventId, em);
 
@@ -340,11 +343,13 @@ public class EventManager {
         String paymentProxies = collectPaymentProxies(em);
         BigDecimal vat = em.isFreeOfCharge() ? BigDecimal.ZERO : em.getVatPercentage();
         eventRepository.updatePrices(em.getCurrency(), em.getAvailableSeats(), em.isVatIncluded(), vat, paymentProxies, eventId, em.getVatStatus(), em.getPriceInCents());
+        eventMetadataCache.invalidate(eventId);
         if(seatsDifference != 0) {
             Event modified = eventRepository.findById(eventId);
             if(seatsDifference > 0) {
                 final MapSqlParameterSource[] params = generateEmptyTickets(modified, Date.from(ZonedDateTime.now(modified.getZoneId()).toInstant()), seatsDifference, TicketStatus.RELEASED).toArray(MapSqlParameterSource[]::new);
                 ticketRepository.bulkTicketInitialization(params);
+                waitingQueueManager.fireSeatsReleased(eventId);
             } else {
                 List<Integer> ids = ticketRepository.selectNotAllocatedTicketsForUpdate(eventId, Math.abs(seatsDifference), singletonList(TicketStatus.FREE.name()));
                 Validate.isTrue(ids.size() == Math.abs(seatsDifference), "cannot lock enough tickets for deletion.");
@@ -527,6 +532,15 @@ public class EventManager {
 
     MapSqlParameterSource[] prepareTicketsBulkInsertParameters(ZonedDateTime creation,
                                                                Event event, int requestedTickets, TicketStatus ticketStatus) {
+        return streamTicketsBulkInsertParameters(creation, event, requestedTickets, ticketStatus).getLeft().toArray(MapSqlParameterSource[]::new);
+    }
+
+    /**
+     * Lazily generates the tickets for the given event, so that they can be streamed to the database.
+     * @return the tickets and their count
+     */
+    private Pair<Stream<MapSqlParameterSource>, Integer> streamTicketsBulkInsertParameters(ZonedDateTime creation,
+                                                                                           Event event, int requestedTickets, TicketStatus ticketStatus) {
 
         //FIXME: the date should be inserted as ZonedDateTime !
         Date creationDate = Date.from(creation.toInstant());
@@ -540,10 +554,10 @@ public class EventManager {
                 .mapToInt(TicketCategory::getMaxTickets)
                 .sum();
         if(generatedTickets >= requestedTickets) {
-            return boundedTickets.toArray(MapSqlParameterSource[]::new);
+            return Pair.of(boundedTickets, generatedTickets);
         }
 
-        return Stream.concat(boundedTickets, generateEmptyTickets(event, creationDate, requestedTickets - generatedTickets, ticketStatus)).toArray(MapSqlParameterSource[]::new);
+        return Pair.of(Stream.concat(boundedTickets, generateEmptyTickets(event, creationDate, requestedTickets - generatedTickets, ticketStatus)), requestedTickets);
     }
 
     private Stream<MapSqlParameterSource> generateTicketsForCategory(TicketCategory tc,
@@ -579,6 +593,7 @@ public class EventManager {
                 toZonedDateTime(tc.getTicketValidityStart(), zoneId), toZonedDateTime(tc.getTicketValidityEnd(), zoneId), tc.getOrdinal(), Optional.ofNullable(tc.getTicketCheckInStrategy()).orElse(ONCE_PER_EVENT));
 
             insertOrUpdateTicketCategoryDescription(category.getKey(), tc, event);
+            promoCodeResolutionCache.invalidateAll();
 
             if (tc.isTokenGenerationRequested()) {
                 final TicketCategory ticketCategory = ticketCategoryRepository.getByIdAndActive(category.getKey(), event.getId());
@@ -598,6 +613,7 @@ public class EventManager {
             toZonedDateTime(tc.getTicketValidityStart(), zoneId),
             toZonedDateTime(tc.getTicketValidityEnd(), zoneId), tc.getOrdinal(),
             Optional.ofNullable(tc.getTicketCheckInStrategy()).orElse(ONCE_PER_EVENT));
+        promoCodeResolutionCache.invalidateAll();
         TicketCategory ticketCategory = ticketCategoryRepository.getByIdAndActive(category.getKey(), eventId);
         if(tc.isBounded()) {
             List<Integer> lockedTickets = ticketRepository.selectNotAllocatedTicketsForUpdate(eventId, ticketCategory.getMaxTickets(), asList(TicketStatus.FREE.name(), TicketStatus.RELEASED.name()));
@@ -607,6 +623,7 @@ public class EventManager {
                 ticketRepository.revertToFree(eventId, ticketCategory.getId(), lockedTickets);
             } else {
                 ticketRepository.resetTickets(lockedTickets);//reset to RELEASED
+                waitingQueueManager.fireSeatsReleased(eventId);
             }
         }
 
@@ -688,6 +705,7 @@ public class EventManager {
                 toZonedDateTime(tc.getTicketValidityStart(), zoneId),
                 toZonedDateTime(tc.getTicketValidityEnd(), zoneId),
                 Optional.ofNullable(tc.getTicketCheckInStrategy()).orElse(ONCE_PER_EVENT));
+        promoCodeResolutionCache.invalidateAll();
         TicketCategory updated = ticketCategoryRepository.getByIdAndActive(tc.getId(), eventId);
         int addedTickets = 0;
         if(original.isBounded() ^ tc.isBounded()) {
@@ -776,6 +794,7 @@ public class EventManager {
                 ticketRepository.revertToFree(event.getId(), updated.getId(), lockedTickets);
             } else if(!resetToFree) {
                 ticketRepository.resetTickets(lockedTickets);
+                waitingQueueManager.fireSeatsReleased(event.getId());
             }
 
         } else {
@@ -788,13 +807,14 @@ public class EventManager {
             ticketRepository.invalidateTickets(ids);
             final MapSqlParameterSource[] params = generateEmptyTickets(event, Date.from(ZonedDateTime.now(event.getZoneId()).toInstant()), absDifference, TicketStatus.RELEASED).toArray(MapSqlParameterSource[]::new);
             ticketRepository.bulkTicketInitialization(params);
+            waitingQueueManager.fireSeatsReleased(event.getId());
         }
     }
 
     private void createAllTicketsForEvent(Event event, EventModification em) {
         Validate.notNull(em.getAvailableSeats());
-        final MapSqlParameterSource[] params = prepareTicketsBulkInsertParameters(ZonedDateTime.now(event.getZoneId()), event, em.getAvailableSeats(), TicketStatus.FREE);
-        ticketRepository.bulkTicketInitialization(params);
+        var tickets = streamTicketsBulkInsertParameters(ZonedDateTime.now(event.getZoneId()), event, em.getAvailableSeats(), TicketStatus.FREE);
+        ticketRepository.bulkTicketInitialization(tickets.getLeft(), tickets.getRight());
     }
 
     private int insertEvent(EventModification em) {
@@ -883,10 +903,17 @@ public class EventManager {
         }
 
         promoCodeRepository.addPromoCode(promoCode, eventId, organizationId, start, end, discountAmount, discountType, Json.GSON.toJson(categoriesId), maxUsage, description, emailReference, codeType, hiddenCategoryId);
+        promoCodeResolutionCache.invalidateAll();
     }
     
     public void deletePromoCode(int promoCodeId) {
         promoCodeRepository.deletePromoCode(promoCodeId);
+        promoCodeResolutionCache.invalidateAll();
+    }
+
+    public void disablePromoCode(int promoCodeId) {
+        promoCodeRepository.updateEventPromoCodeEnd(promoCodeId, ZonedDateTime.now());
+        promoCodeResolutionCache.invalidateAll();
     }
 
     public void updatePromoCode(int promoCodeId, ZonedDateTime start, ZonedDateTime end, Integer maxUsage, List<Integer> categories, String description, String emailReference, Integer hiddenCategoryId) {
@@ -895,6 +922,9 @@ public class EventManager {
         String categoriesJson = CollectionUtils.isEmpty(categories) ? null : Json.toJson(categories);
 
         promoCodeRepository.updateEventPromoCode(promoCodeId, start, end, maxUsage, categoriesJson, description, emailReference, hiddenCategoryId);
+        // max usage and categories affect the counter
+        promoCodeUsageRepository.reconcileWithReservations(promoCodeId);
+        promoCodeResolutionCache.invalidateAll();
     }
     
     public List<PromoCodeDiscountWithFormattedTime> findPromoCodesInEvent(int eventId) {
@@ -912,10 +942,18 @@ public class EventManager {
         return StringUtils.removeEnd(baseUrl, "/") + "/event/" + event.getShortName() + "/";
     }
 
-    public List<TicketWithReservationAndTransaction> findAllConfirmedTicketsForCSV(String eventName, String username) {
+    /**
+     * Loads the confirmed tickets of the given event, together with the values of their additional fields.
+     * The export runs in a read-only transaction, so that it is executed on the read replica, if configured.
+     */
+    @Transactional(readOnly = true)
+    public List<Pair<TicketWithReservationAndTransaction, Map<String, String>>> findAllConfirmedTicketsForCSV(String eventName, String username) {
         EventAndOrganizationId event = getEventAndOrganizationId(eventName, username);
         checkOwnership(event, username, event.getOrganizationId());
-        return ticketRepository.findAllConfirmedForCSV(event.getId());
+        //obviously not optimized
+        return ticketRepository.findAllConfirmedForCSV(event.getId()).stream()
+            .map(trs -> Pair.of(trs, ticketFieldRepository.findAllValuesForTicketId(trs.getTicket().getId())))
+            .collect(toList());
     }
 
     public List<Event> getPublishedEvents() {
@@ -985,6 +1023,7 @@ public class EventManager {
 		final Event event = eventRepository.findById(eventId);
 		checkOwnership(event, username, event.getOrganizationId());
         eventDeleterRepository.deleteAllForEvent(eventId);
+        eventMetadataCache.invalidate(eventId);
     }
 
     public Optional<TicketCategory> getOptionalByIdAndActive(int ticketCategoryId, int eventId) {
@@ -1007,6 +1046,7 @@ public class EventManager {
             log.debug("cannot delete category. Expected result 1, got {}", result);
             throw new IllegalStateException("Cannot delete category");
         }
+        promoCodeResolutionCache.invalidateAll();
         if(category.isBounded()) {
             int ticketsCount = category.getMaxTickets();
             var ticketIds = ticketRepository.selectTicketInCategoryForUpdate(eventId, categoryId, ticketsCount, List.of(TicketStatus.FREE.name(), TicketStatus.RELEASED.name()));
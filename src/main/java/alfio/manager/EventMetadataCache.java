@@ -0,0 +1,157 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.manager;
+
+import alfio.model.Event;
+import alfio.model.EventAndOrganizationId;
+import alfio.model.EventMetadataVersion;
+import alfio.repository.EventRepository;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.dao.EmptyResultDataAccessException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * Caches the {@link Event} metadata, indexed by id and short name.
+ * <p>
+ * Each entry carries the value of event.metadata_version at the time it was loaded. The column is incremented by
+ * a trigger on every update, so the entries modified by other nodes are evicted by {@link #evictStaleEntries()}.
+ * Local modifications are evicted immediately through {@link #invalidate(int)}.
+ * <p>
+ * Only existing events are cached. Data which must be consistent with the current transaction
+ * (e.g. while updating the event) must still be loaded using the {@link EventRepository}.
+ */
+@Component
+@Log4j2
+public class EventMetadataCache {
+
+    private final EventRepository eventRepository;
+    private final Cache<Integer, CachedEvent> eventsById = Caffeine.newBuilder()
+        .maximumSize(1000)
+        .expireAfterAccess(1, TimeUnit.HOURS)
+        .build();
+    private final Map<String, Integer> idsByShortName = new ConcurrentHashMap<>();
+
+    public EventMetadataCache(EventRepository eventRepository) {
+        this.eventRepository = eventRepository;
+    }
+
+    public Optional<Event> findById(int eventId) {
+        var cached = eventsById.getIfPresent(eventId);
+        if(cached != null) {
+            return Optional.of(cached.event);
+        }
+        // the version must be read before the event: in case of concurrent modifications, we could only cache an
+        // older version number, which will be evicted during the next check.
+        return load(() -> eventRepository.findMetadataVersion(eventId), () -> eventRepository.findOptionalById(eventId));
+    }
+
+    public Event getById(int eventId) {
+        return findById(eventId).orElseThrow(() -> new EmptyResultDataAccessException(1));
+    }
+
+    public Optional<Event> findByShortName(String shortName) {
+        var eventId = idsByShortName.get(shortName);
+        var cached = eventId != null ? eventsById.getIfPresent(eventId) : null;
+        if(cached != null) {
+            return Optional.of(cached.event);
+        }
+        return load(() -> eventRepository.findMetadataVersionByShortName(shortName), () -> eventRepository.findOptionalByShortName(shortName));
+    }
+
+    public boolean existsByShortName(String shortName) {
+        return findByShortName(shortName).isPresent();
+    }
+
+    public EventAndOrganizationId getEventAndOrganizationIdById(int eventId) {
+        return getById(eventId);
+    }
+
+    public String getDisplayNameById(int eventId) {
+        return getById(eventId).getDisplayName();
+    }
+
+    /**
+     * Evicts the given event. If there is an active transaction, the event is evicted again after commit,
+     * in case it has been reloaded in the meantime.
+     *
+     * @param eventId the event id
+     */
+    public void invalidate(int eventId) {
+        evict(eventId);
+        if(TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCommit() {
+                    evict(eventId);
+                }
+            });
+        }
+    }
+
+    @Scheduled(fixedDelay = 5000)
+    public void evictStaleEntries() {
+        var cached = eventsById.asMap();
+        if(cached.isEmpty()) {
+            return;
+        }
+        Map<Integer, Long> versions = eventRepository.findMetadataVersions(new HashSet<>(cached.keySet())).stream()
+            .collect(Collectors.toMap(EventMetadataVersion::getId, EventMetadataVersion::getVersion));
+        cached.forEach((eventId, entry) -> {
+            if(!Objects.equals(versions.get(eventId), entry.version)) {
+                log.trace("evicting stale metadata for event {}", eventId);
+                evict(eventId);
+            }
+        });
+    }
+
+    private Optional<Event> load(Supplier<Optional<Long>> versionLoader, Supplier<Optional<Event>> eventLoader) {
+        return versionLoader.get().flatMap(version -> eventLoader.get().map(event -> {
+            eventsById.put(event.getId(), new CachedEvent(event, version));
+            idsByShortName.put(event.getShortName(), event.getId());
+            return event;
+        }));
+    }
+
+    private void evict(int eventId) {
+        eventsById.invalidate(eventId);
+        idsByShortName.values().removeIf(id -> id == eventId);
+    }
+
+    private static class CachedEvent {
+        private final Event event;
+        private final long version;
+
+        private CachedEvent(Event event, long version) {
+            this.event = event;
+            this.version = version;
+        }
+    }
+}
@@ -29,6 +29,7 @@ import alfio.model.system.ConfigurationKeys;
 import alfio.repository.EventRepository;
 import alfio.repository.TicketReservationRepository;
 import alfio.repository.TransactionRepository;
+import alfio.repository.support.RepositoryIdentityMap;
 import lombok.AllArgsConstructor;
 import lombok.extern.log4j.Log4j2;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
@@ -251,6 +252,8 @@ public class ExtensionManager {
         );
 
         syncCall(ExtensionEvent.RESERVATION_VALIDATION, event, event.getOrganizationId(), payload, Void.class);
+        // the script could have modified the reservation using the jdbcTemplate
+        RepositoryIdentityMap.evictAll();
     }
 
     void handleReservationsCreditNoteIssuedForEvent(Event event, List<String> reservationIds) {
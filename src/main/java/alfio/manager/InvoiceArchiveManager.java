@@ -0,0 +1,271 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.manager;
+
+import alfio.model.BillingDocument;
+import alfio.model.Event;
+import alfio.model.InvoiceArchive;
+import alfio.model.TicketReservation;
+import alfio.repository.BillingDocumentPdfRepository;
+import alfio.repository.BillingDocumentRepository;
+import alfio.repository.EventRepository;
+import alfio.repository.InvoiceArchiveRepository;
+import alfio.repository.TicketReservationRepository;
+import alfio.util.FileUtil;
+import alfio.util.LocaleUtil;
+import lombok.extern.log4j.Log4j2;
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
+import org.apache.commons.lang3.tuple.Pair;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.ZonedDateTime;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static alfio.manager.NotificationManager.UTC;
+import static java.util.stream.Collectors.toList;
+import static java.util.stream.Collectors.toMap;
+import static java.util.stream.Collectors.toSet;
+
+/**
+ * Builds the ZIP archive containing all the invoices of an event.
+ * <p>
+ * Invoices are read in pages, using the document id as cursor, and their PDFs are produced by {@link BillingDocumentPdfManager}.
+ * The archive can be streamed directly ({@link #writeArchive(Event, OutputStream)}) or prepared in background
+ * ({@link #scheduleArchive(String, String)}): in the latter case all the PDFs are rendered and stored in advance,
+ * so that the download ({@link #writeCompletedArchive(Event, InvoiceArchive, OutputStream)}) doesn't need to render anything.
+ */
+@Component
+@Log4j2
+public class InvoiceArchiveManager {
+
+    static final int PAGE_SIZE = 100;
+    // max number of PDFs kept in memory while waiting to be written in the archive
+    private static final int WINDOW_SIZE = BillingDocumentPdfManager.PARALLELISM * 4;
+
+    private final BillingDocumentRepository billingDocumentRepository;
+    private final TicketReservationRepository ticketReservationRepository;
+    private final InvoiceArchiveRepository invoiceArchiveRepository;
+    private final EventRepository eventRepository;
+    private final EventManager eventManager;
+    private final BillingDocumentPdfManager billingDocumentPdfManager;
+    private final BillingDocumentPdfRepository billingDocumentPdfRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final ExecutorService archiveExecutor = Executors.newSingleThreadExecutor(
+        new BasicThreadFactory.Builder().namingPattern("invoice-archive-%d").daemon(true).build());
+
+    public InvoiceArchiveManager(BillingDocumentRepository billingDocumentRepository,
+                                 TicketReservationRepository ticketReservationRepository,
+                                 InvoiceArchiveRepository invoiceArchiveRepository,
+                                 EventRepository eventRepository,
+                                 EventManager eventManager,
+                                 BillingDocumentPdfManager billingDocumentPdfManager,
+                                 BillingDocumentPdfRepository billingDocumentPdfRepository,
+                                 PlatformTransactionManager transactionManager) {
+        this.billingDocumentRepository = billingDocumentRepository;
+        this.ticketReservationRepository = ticketReservationRepository;
+        this.invoiceArchiveRepository = invoiceArchiveRepository;
+        this.eventRepository = eventRepository;
+        this.eventManager = eventManager;
+        this.billingDocumentPdfManager = billingDocumentPdfManager;
+        this.billingDocumentPdfRepository = billingDocumentPdfRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        archiveExecutor.shutdown();
+    }
+
+    /**
+     * Writes the latest valid invoice of each reservation in a ZIP archive, ordered by document id.
+     * PDFs are rendered in parallel, but at most {@link #WINDOW_SIZE} of them are kept in memory.
+     */
+    public void writeArchive(Event event, OutputStream os) throws IOException {
+        try(ZipOutputStream zipOS = new ZipOutputStream(os)) {
+            Deque<Pair<BillingDocument, CompletableFuture<Optional<byte[]>>>> pending = new ArrayDeque<>();
+            long lastId = 0;
+            List<BillingDocument> page;
+            do {
+                page = billingDocumentRepository.findLatestOfTypeForEventAfterId(BillingDocument.Type.INVOICE, event.getId(), lastId, PAGE_SIZE);
+                if(page.isEmpty()) {
+                    break;
+                }
+                var pdfs = billingDocumentPdfManager.getPdfs(event, page, localeResolver(page));
+                for(int i = 0; i < page.size(); i++) {
+                    pending.addLast(Pair.of(page.get(i), pdfs.get(i)));
+                    while(pending.size() > WINDOW_SIZE) {
+                        writeEntry(event, zipOS, pending.removeFirst());
+                    }
+                }
+                lastId = page.get(page.size() - 1).getId();
+            } while(page.size() == PAGE_SIZE);
+            while(!pending.isEmpty()) {
+                writeEntry(event, zipOS, pending.removeFirst());
+            }
+        }
+    }
+
+    /**
+     * Writes the documents of a completed archive, ordered by document id. Only the PDFs stored while preparing
+     * the archive are read, nothing is rendered.
+     */
+    public void writeCompletedArchive(Event event, InvoiceArchive archive, OutputStream os) throws IOException {
+        try(ZipOutputStream zipOS = new ZipOutputStream(os)) {
+            long lastId = 0;
+            List<BillingDocument> page;
+            do {
+                page = invoiceArchiveRepository.findDocumentsAfterId(archive.getId(), lastId, PAGE_SIZE);
+                if(page.isEmpty()) {
+                    break;
+                }
+                var pdfs = billingDocumentPdfRepository.findContents(page.stream().map(BillingDocument::getId).collect(toList()));
+                for(BillingDocument document : page) {
+                    writeEntry(event, zipOS, document, Optional.ofNullable(pdfs.get(document.getId())));
+                }
+                lastId = page.get(page.size() - 1).getId();
+            } while(page.size() == PAGE_SIZE);
+        }
+    }
+
+    /**
+     * Saves a new archive request. The PDFs of the invoices are then rendered in chunks by {@link #processPendingArchives()}.
+     *
+     * @return the id of the new archive
+     */
+    public long scheduleArchive(String eventName, String username) {
+        Event event = eventManager.getSingleEvent(eventName, username);
+        long archiveId = invoiceArchiveRepository.insert(event.getId(), event.getOrganizationId(),
+            billingDocumentRepository.countLatestOfTypeForEvent(BillingDocument.Type.INVOICE, event.getId()), username, ZonedDateTime.now(UTC)).getKey();
+        log.info("Scheduled invoice archive {} for event {}", archiveId, eventName);
+        if(TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCommit() {
+                    archiveExecutor.execute(InvoiceArchiveManager.this::processPendingArchives);
+                }
+            });
+        } else {
+            archiveExecutor.execute(this::processPendingArchives);
+        }
+        return archiveId;
+    }
+
+    public List<InvoiceArchive> findArchives(String eventName, String username) {
+        Event event = eventManager.getSingleEvent(eventName, username);
+        return invoiceArchiveRepository.findByEventId(event.getId());
+    }
+
+    public Optional<InvoiceArchive> findCompletedArchive(Event event, long archiveId) {
+        return invoiceArchiveRepository.findByIdAndEventId(archiveId, event.getId())
+            .filter(a -> a.getStatus() == InvoiceArchive.Status.COMPLETED);
+    }
+
+    /**
+     * Processes all the pending archives, one chunk at a time. The progress is committed after each chunk,
+     * so that an interrupted archive is resumed from where it was left.
+     * Archives which are being processed by another thread or node are skipped.
+     */
+    public void processPendingArchives() {
+        for (Long archiveId : invoiceArchiveRepository.findPendingIds()) {
+            try {
+                boolean hasMore;
+                do {
+                    hasMore = processNextChunk(archiveId);
+                } while (hasMore);
+            } catch (Exception e) {
+                log.error("Error while processing invoice archive {}", archiveId, e);
+                invoiceArchiveRepository.markAsFailed(archiveId, ZonedDateTime.now(UTC), e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * The next chunk is read while holding the lock on the archive, but the PDFs are rendered outside of the transaction,
+     * so that neither the lock nor a connection are held in the meantime. The result is then saved in a short transaction,
+     * unless the same chunk has been processed in the meantime by another thread or node.
+     *
+     * @return true if there are more documents to process
+     */
+    private boolean processNextChunk(long archiveId) {
+        var chunk = transactionTemplate.execute(status -> invoiceArchiveRepository.lockPendingById(archiveId)
+            .map(archive -> Pair.of(archive, billingDocumentRepository.findLatestOfTypeForEventAfterId(BillingDocument.Type.INVOICE,
+                archive.getEventId(), archive.getLastDocumentId(), PAGE_SIZE))));
+        if(chunk == null || chunk.isEmpty()) {
+            return false;
+        }
+        var archive = chunk.get().getLeft();
+        var documents = chunk.get().getRight();
+        if(!documents.isEmpty()) {
+            Event event = eventRepository.findById(archive.getEventId());
+            CompletableFuture.allOf(billingDocumentPdfManager.getPdfs(event, documents, localeResolver(documents)).toArray(CompletableFuture[]::new)).join();
+        }
+        return Boolean.TRUE.equals(transactionTemplate.execute(status -> saveChunk(archive, documents)));
+    }
+
+    private boolean saveChunk(InvoiceArchive archive, List<BillingDocument> documents) {
+        long archiveId = archive.getId();
+        long lastDocumentId = documents.isEmpty() ? archive.getLastDocumentId() : documents.get(documents.size() - 1).getId();
+        if(invoiceArchiveRepository.updateProgress(archiveId, archive.getLastDocumentId(), lastDocumentId, documents.size(), ZonedDateTime.now(UTC)) == 0) {
+            log.debug("Invoice archive {} has been updated by another node", archiveId);
+            return false;
+        }
+        if(!documents.isEmpty()) {
+            int added = invoiceArchiveRepository.addDocuments(archiveId, documents.stream().map(BillingDocument::getId).collect(toList()));
+            if(added < documents.size()) {
+                log.warn("{} document(s) of invoice archive {} could not be rendered", documents.size() - added, archiveId);
+            }
+        }
+        if(documents.size() < PAGE_SIZE) {
+            invoiceArchiveRepository.markAsCompleted(archiveId, ZonedDateTime.now(UTC));
+            log.info("Invoice archive {} completed", archiveId);
+            return false;
+        }
+        return true;
+    }
+
+    private Function<BillingDocument, Locale> localeResolver(List<BillingDocument> documents) {
+        Map<String, String> languages = ticketReservationRepository.findByIds(documents.stream().map(BillingDocument::getReservationId).collect(toSet()))
+            .stream()
+            .collect(toMap(TicketReservation::getId, TicketReservation::getUserLanguage));
+        return document -> LocaleUtil.forLanguageTag(languages.get(document.getReservationId()));
+    }
+
+    private static void writeEntry(Event event, ZipOutputStream zipOS, Pair<BillingDocument, CompletableFuture<Optional<byte[]>>> entry) throws IOException {
+        writeEntry(event, zipOS, entry.getLeft(), entry.getRight().join());
+    }
+
+    private static void writeEntry(Event event, ZipOutputStream zipOS, BillingDocument document, Optional<byte[]> pdf) throws IOException {
+        if(pdf.isPresent()) {
+            zipOS.putNextEntry(new ZipEntry(FileUtil.getBillingDocumentFileName(event.getShortName(), document.getReservationId(), document)));
+            zipOS.write(pdf.get());
+            zipOS.closeEntry();
+        }
+    }
+}
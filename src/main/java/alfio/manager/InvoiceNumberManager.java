@@ -0,0 +1,116 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.manager;
+
+import alfio.manager.system.ConfigurationLevel;
+import alfio.manager.system.ConfigurationManager;
+import alfio.model.Event;
+import alfio.repository.InvoiceSequencesRepository;
+import lombok.extern.log4j.Log4j2;
+import org.apache.commons.lang3.ObjectUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.DefaultTransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.Objects;
+
+import static alfio.model.system.ConfigurationKeys.ALLOW_GAPS_IN_INVOICE_NUMBERS;
+import static alfio.model.system.ConfigurationKeys.INVOICE_NUMBER_PATTERN;
+
+/**
+ * Assigns invoice numbers in a short, separate transaction, so that concurrent checkouts of the same organization
+ * don't have to wait for each other's payment confirmation.
+ * <p>
+ * By default numbers are gapless: a number is first <em>reserved</em> for the reservation (see
+ * {@link #reserveInvoiceNumber(Event, String)}) and then either {@link #confirm(String) confirmed} in the
+ * transaction which completes the reservation, or {@link #release(String) released} if the payment fails, in which
+ * case the next checkout will take it. If {@code ALLOW_GAPS_IN_INVOICE_NUMBERS} is enabled, numbers are taken from a
+ * database sequence instead, without any locking.
+ */
+@Component
+@Log4j2
+public class InvoiceNumberManager {
+
+    private final InvoiceSequencesRepository invoiceSequencesRepository;
+    private final ConfigurationManager configurationManager;
+    private final TransactionTemplate requiresNewTransactionTemplate;
+
+    public InvoiceNumberManager(InvoiceSequencesRepository invoiceSequencesRepository,
+                                ConfigurationManager configurationManager,
+                                PlatformTransactionManager transactionManager) {
+        this.invoiceSequencesRepository = invoiceSequencesRepository;
+        this.configurationManager = configurationManager;
+        this.requiresNewTransactionTemplate = new TransactionTemplate(transactionManager, new DefaultTransactionDefinition(TransactionDefinition.PROPAGATION_REQUIRES_NEW));
+    }
+
+    /**
+     * Reserves an invoice number for the given reservation and returns it formatted using {@code INVOICE_NUMBER_PATTERN}.
+     * Calling this method again for the same reservation returns the same number, until it has been confirmed.
+     */
+    public String reserveInvoiceNumber(Event event, String reservationId) {
+        int orgId = event.getOrganizationId();
+        boolean allowGaps = configurationManager.getFor(ALLOW_GAPS_IN_INVOICE_NUMBERS, ConfigurationLevel.organization(orgId))
+            .getValueAsBooleanOrDefault(false);
+        int sequence = Objects.requireNonNull(requiresNewTransactionTemplate.execute(status ->
+            allowGaps ? invoiceSequencesRepository.nextFromDatabaseSequence(orgId) : reserveGapless(orgId, reservationId)));
+        String pattern = configurationManager.getFor(INVOICE_NUMBER_PATTERN, ConfigurationLevel.event(event)).getValueOrDefault("%d");
+        return String.format(ObjectUtils.firstNonNull(StringUtils.trimToNull(pattern), "%d"), sequence);
+    }
+
+    /**
+     * Marks the number reserved for the given reservation as used. Must be called in the transaction which stores
+     * the invoice number in the reservation.
+     */
+    public void confirm(String reservationId) {
+        invoiceSequencesRepository.confirmReservedSequence(reservationId);
+    }
+
+    /**
+     * Gives back the number reserved for the given reservation, if any, so that the next checkout can use it.
+     */
+    public void release(String reservationId) {
+        requiresNewTransactionTemplate.execute(status -> {
+            int released = invoiceSequencesRepository.releaseReservedSequence(reservationId);
+            if(released > 0) {
+                log.debug("released invoice number reserved for {}", reservationId);
+            }
+            return null;
+        });
+    }
+
+    private int reserveGapless(int orgId, String reservationId) {
+        var alreadyReserved = invoiceSequencesRepository.findReservedSequence(reservationId);
+        if(alreadyReserved.isPresent()) {
+            return alreadyReserved.get();
+        }
+        var released = invoiceSequencesRepository.claimReleasedSequence(orgId, reservationId);
+        if(!released.isEmpty()) {
+            return released.get(0);
+        }
+        // the organization might have used the database sequence before. Its numbers must not be given again.
+        int floor = invoiceSequencesRepository.peekDatabaseSequence(orgId);
+        int sequence = invoiceSequencesRepository.incrementAndGet(orgId, floor).get(0);
+        invoiceSequencesRepository.reserveSequence(orgId, sequence, reservationId);
+        if(floor > 0) {
+            invoiceSequencesRepository.advanceDatabaseSequence(orgId, sequence);
+        }
+        return sequence;
+    }
+}
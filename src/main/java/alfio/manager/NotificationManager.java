@@ -35,12 +35,14 @@ import alfio.util.LocaleUtil;
 import alfio.util.TemplateManager;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.google.gson.*;
+import lombok.Data;
 import lombok.extern.log4j.Log4j2;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.time.DateUtils;
 import org.apache.commons.lang3.tuple.Pair;
 import org.apache.commons.lang3.tuple.Triple;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
 import org.springframework.security.crypto.codec.Hex;
 import org.springframework.stereotype.Component;
 import org.springframework.transaction.PlatformTransactionManager;
@@ -75,6 +77,7 @@ public class NotificationManager {
     private final EmailMessageRepository emailMessageRepository;
     private final TransactionTemplate tx;
     private final EventRepository eventRepository;
+    private final EventMetadataCache eventMetadataCache;
     private final OrganizationRepository organizationRepository;
     private final ConfigurationManager configurationManager;
     private final Gson gson;
@@ -98,11 +101,13 @@ public class NotificationManager {
                                TicketRepository ticketRepository,
                                TicketFieldRepository ticketFieldRepository,
                                AdditionalServiceItemRepository additionalServiceItemRepository,
-                               ExtensionManager extensionManager) {
+                               ExtensionManager extensionManager,
+                               EventMetadataCache eventMetadataCache) {
         this.messageSourceManager = messageSourceManager;
         this.mailer = mailer;
         this.emailMessageRepository = emailMessageRepository;
         this.eventRepository = eventRepository;
+        this.eventMetadataCache = eventMetadataCache;
         this.organizationRepository = organizationRepository;
         DefaultTransactionDefinition definition = new DefaultTransactionDefinition(TransactionDefinition.PROPAGATION_NESTED);
         this.tx = new TransactionTemplate(transactionManager, definition);
@@ -111,19 +116,19 @@ public class NotificationManager {
         builder.registerTypeAdapter(Mailer.Attachment.class, new AttachmentConverter());
         this.gson = builder.create();
         attachmentTransformer = new EnumMap<>(Mailer.AttachmentIdentifier.class);
-        attachmentTransformer.put(Mailer.AttachmentIdentifier.CALENDAR_ICS, generateICS(eventRepository, eventDescriptionRepository, ticketCategoryRepository));
-        attachmentTransformer.put(Mailer.AttachmentIdentifier.RECEIPT_PDF, receiptOrInvoiceFactory(eventRepository,
+        attachmentTransformer.put(Mailer.AttachmentIdentifier.CALENDAR_ICS, generateICS(eventMetadataCache, eventDescriptionRepository, ticketCategoryRepository));
+        attachmentTransformer.put(Mailer.AttachmentIdentifier.RECEIPT_PDF, receiptOrInvoiceFactory(eventMetadataCache,
             payload -> TemplateProcessor.buildReceiptPdf(payload.getLeft(), fileUploadManager, payload.getMiddle(), templateManager, payload.getRight(), extensionManager)));
-        attachmentTransformer.put(Mailer.AttachmentIdentifier.INVOICE_PDF, receiptOrInvoiceFactory(eventRepository,
+        attachmentTransformer.put(Mailer.AttachmentIdentifier.INVOICE_PDF, receiptOrInvoiceFactory(eventMetadataCache,
             payload -> TemplateProcessor.buildInvoicePdf(payload.getLeft(), fileUploadManager, payload.getMiddle(), templateManager, payload.getRight(), extensionManager)));
-        attachmentTransformer.put(Mailer.AttachmentIdentifier.CREDIT_NOTE_PDF, receiptOrInvoiceFactory(eventRepository,
+        attachmentTransformer.put(Mailer.AttachmentIdentifier.CREDIT_NOTE_PDF, receiptOrInvoiceFactory(eventMetadataCache,
             payload -> TemplateProcessor.buildCreditNotePdf(payload.getLeft(), fileUploadManager, payload.getMiddle(), templateManager, payload.getRight(), extensionManager)));
         attachmentTransformer.put(Mailer.AttachmentIdentifier.PASSBOOK, passKitManager::getPass);
         Function<Ticket, List<TicketFieldConfigurationDescriptionAndValue>> retrieveFieldValues = EventUtil.retrieveFieldValues(ticketRepository, ticketFieldRepository, additionalServiceItemRepository);
-        attachmentTransformer.put(Mailer.AttachmentIdentifier.TICKET_PDF, generateTicketPDF(eventRepository, organizationRepository, configurationManager, fileUploadManager, templateManager, ticketReservationRepository, retrieveFieldValues, extensionManager));
+        attachmentTransformer.put(Mailer.AttachmentIdentifier.TICKET_PDF, generateTicketPDF(eventMetadataCache, organizationRepository, configurationManager, fileUploadManager, templateManager, ticketReservationRepository, retrieveFieldValues, extensionManager));
     }
 
-    private static Function<Map<String, String>, byte[]> generateTicketPDF(EventRepository eventRepository,
+    private static Function<Map<String, String>, byte[]> generateTicketPDF(EventMetadataCache eventMetadataCache,
                                                                            OrganizationRepository organizationRepository,
                                                                            ConfigurationManager configurationManager,
                                                                            FileUploadManager fileUploadManager,
@@ -137,7 +142,7 @@ public class NotificationManager {
             try {
                 TicketReservation reservation = ticketReservationRepository.findReservationById(ticket.getTicketsReservationId());
                 TicketCategory ticketCategory = Json.fromJson(model.get("ticketCategory"), TicketCategory.class);
-                Event event = eventRepository.findById(ticket.getEventId());
+                Event event = eventMetadataCache.getById(ticket.getEventId());
                 Organization organization = organizationRepository.getById(Integer.valueOf(model.get("organizationId"), 10));
                 TemplateProcessor.renderPDFTicket(LocaleUtil.forLanguageTag(ticket.getUserLanguage()), event, reservation,
                     ticket, ticketCategory, organization, templateManager, fileUploadManager,
@@ -149,19 +154,19 @@ public class NotificationManager {
         };
     }
 
-    private static Function<Map<String, String>, byte[]> generateICS(EventRepository eventRepository, EventDescriptionRepository eventDescriptionRepository, TicketCategoryRepository ticketCategoryRepository) {
+    private static Function<Map<String, String>, byte[]> generateICS(EventMetadataCache eventMetadataCache, EventDescriptionRepository eventDescriptionRepository, TicketCategoryRepository ticketCategoryRepository) {
         return model -> {
             Event event;
             Locale locale;
             Integer categoryId;
             if(model.containsKey("eventId")) {
                 //legacy branch, now we generate the ics as a reinterpreted ticket
-                event = eventRepository.findById(Integer.valueOf(model.get("eventId"), 10));
+                event = eventMetadataCache.getById(Integer.valueOf(model.get("eventId"), 10));
                 locale = Json.fromJson(model.get("locale"), Locale.class);
                 categoryId = null;
             } else {
                 Ticket ticket = Json.fromJson(model.get("ticket"), Ticket.class);
-                event = eventRepository.findById(ticket.getEventId());
+                event = eventMetadataCache.getById(ticket.getEventId());
                 locale = LocaleUtil.forLanguageTag(ticket.getUserLanguage());
                 categoryId = ticket.getCategoryId();
             }
@@ -171,10 +176,10 @@ public class NotificationManager {
         };
     }
 
-    private static Function<Map<String, String>, byte[]> receiptOrInvoiceFactory(EventRepository eventRepository, Function<Triple<Event, Locale, Map<String, Object>>, Optional<byte[]>> pdfGenerator) {
+    private static Function<Map<String, String>, byte[]> receiptOrInvoiceFactory(EventMetadataCache eventMetadataCache, Function<Triple<Event, Locale, Map<String, Object>>, Optional<byte[]>> pdfGenerator) {
         return model -> {
             String reservationId = model.get("reservationId");
-            Event event = eventRepository.findById(Integer.valueOf(model.get("eventId"), 10));
+            Event event = eventMetadataCache.getById(Integer.valueOf(model.get("eventId"), 10));
             Locale language = Json.fromJson(model.get("language"), Locale.class);
 
             Map<String, Object> reservationEmailModel = Json.fromJson(model.get("reservationEmailModel"), new TypeReference<>() {
@@ -191,27 +196,21 @@ public class NotificationManager {
     }
 
     public void sendTicketByEmail(Ticket ticket, EventAndOrganizationId event, Locale locale, PartialTicketTextGenerator textBuilder, TicketReservation reservation, TicketCategory ticketCategory) {
+        var message = buildTicketEmail(ticket, event, locale, textBuilder, reservation, ticketCategory, organizationRepository.getById(event.getOrganizationId()));
+        //TODO handle HTML
+        tx.execute(status -> emailMessageRepository.enqueue(toEnqueueParameters(event, message, ZonedDateTime.now(UTC))));
+    }
 
-        Organization organization = organizationRepository.getById(event.getOrganizationId());
-
-        List<Mailer.Attachment> attachments = new ArrayList<>();
-        attachments.add(CustomMessageManager.generateTicketAttachment(ticket, reservation, ticketCategory, organization));
-
-        String displayName = eventRepository.getDisplayNameById(event.getId());
-
-        String encodedAttachments = encodeAttachments(attachments.toArray(new Mailer.Attachment[0]));
+    /**
+     * Builds the message containing the ticket, without sending it. Use {@link #sendSimpleEmails(EventAndOrganizationId, List)}
+     * to send many tickets at once.
+     */
+    public SimpleEmail buildTicketEmail(Ticket ticket, EventAndOrganizationId event, Locale locale, PartialTicketTextGenerator textBuilder,
+                                        TicketReservation reservation, TicketCategory ticketCategory, Organization organization) {
+        List<Mailer.Attachment> attachments = List.of(CustomMessageManager.generateTicketAttachment(ticket, reservation, ticketCategory, organization));
+        String displayName = eventMetadataCache.getDisplayNameById(event.getId());
         String subject = messageSourceManager.getMessageSourceForEvent(event).getMessage("ticket-email-subject", new Object[]{displayName}, locale);
-        String text = textBuilder.generate(ticket);
-        String checksum = calculateChecksum(ticket.getEmail(), encodedAttachments, subject, text);
-        String recipient = ticket.getEmail();
-        //TODO handle HTML
-        tx.execute(status -> {
-            emailMessageRepository.findIdByEventIdAndChecksum(event.getId(), checksum).ifPresentOrElse(
-                id -> emailMessageRepository.updateStatus(event.getId(), WAITING.name(), id),
-                () -> emailMessageRepository.insert(event.getId(), reservation.getId(), recipient, null, subject, text, encodedAttachments, checksum, ZonedDateTime.now(UTC))
-            );
-            return null;
-        });
+        return new SimpleEmail(reservation.getId(), ticket.getEmail(), null, subject, textBuilder.generate(ticket), attachments);
     }
 
     public void sendSimpleEmail(EventAndOrganizationId event, String reservationId, String recipient, List<String> cc, String subject, TextTemplateGenerator textBuilder) {
@@ -236,17 +235,40 @@ public class NotificationManager {
     }
 
     public void sendSimpleEmail(EventAndOrganizationId event, String reservationId, String recipient, List<String> cc, String subject, TextTemplateGenerator textBuilder, List<Mailer.Attachment> attachments) {
+        var message = new SimpleEmail(reservationId, recipient, cc, subject, textBuilder.generate(), attachments);
+        //in order to minimize the database size, an identical message is re-sent instead of being inserted again
+        emailMessageRepository.enqueue(toEnqueueParameters(event, message, ZonedDateTime.now(UTC)));
+    }
 
-        String encodedAttachments = attachments.isEmpty() ? null : encodeAttachments(attachments.toArray(new Mailer.Attachment[0]));
-        String encodedCC = Json.toJson(cc);
-
-        String text = textBuilder.generate();
-        String checksum = calculateChecksum(recipient, encodedAttachments, subject, text);
-        //in order to minimize the database size, it is worth checking if there is already another message in the table
-        Optional<Integer> existing = emailMessageRepository.findIdByEventIdAndChecksum(event.getId(), checksum);
+    /**
+     * Enqueues many messages at once, using a single batch. As it happens for {@link #sendSimpleEmail(EventAndOrganizationId, String, String, List, String, TextTemplateGenerator, List)},
+     * messages which have already been sent are put back in the queue.
+     *
+     * @param event the event
+     * @param messages the messages to be sent
+     * @return the number of enqueued messages
+     */
+    public int sendSimpleEmails(EventAndOrganizationId event, List<SimpleEmail> messages) {
+        if(messages.isEmpty()) {
+            return 0;
+        }
+        var now = ZonedDateTime.now(UTC);
+        emailMessageRepository.bulkEnqueue(messages.stream().map(m -> toEnqueueParameters(event, m, now)).collect(Collectors.toList()));
+        return messages.size();
+    }
 
-        existing.ifPresentOrElse(id -> emailMessageRepository.updateStatus(event.getId(), WAITING.name(), id),
-            () -> emailMessageRepository.insert(event.getId(), reservationId, recipient, encodedCC, subject, text, encodedAttachments, checksum, ZonedDateTime.now(UTC)));
+    private MapSqlParameterSource toEnqueueParameters(EventAndOrganizationId event, SimpleEmail message, ZonedDateTime timestamp) {
+        String encodedAttachments = message.getAttachments().isEmpty() ? null : encodeAttachments(message.getAttachments().toArray(new Mailer.Attachment[0]));
+        String checksum = calculateChecksum(message.getRecipient(), encodedAttachments, message.getSubject(), message.getText());
+        return new MapSqlParameterSource("eventId", event.getId())
+            .addValue("reservationId", message.getReservationId())
+            .addValue("recipient", message.getRecipient())
+            .addValue("emailCC", message.getCc() != null ? Json.toJson(message.getCc()) : null)
+            .addValue("subject", message.getSubject())
+            .addValue("message", message.getText())
+            .addValue("attachments", encodedAttachments)
+            .addValue("checksum", checksum)
+            .addValue("timestamp", timestamp);
     }
 
     public Pair<Integer, List<LightweightMailMessage>> loadAllMessagesForEvent(int eventId, Integer page, String search) {
@@ -283,7 +305,7 @@ public class NotificationManager {
 
     private int processMessage(int messageId) {
         EmailMessage message = emailMessageRepository.findById(messageId);
-        EventAndOrganizationId event = eventRepository.findEventAndOrganizationIdById(message.getEventId());
+        EventAndOrganizationId event = eventMetadataCache.getEventAndOrganizationIdById(message.getEventId());
         if(message.getAttempts() >= configurationManager.getFor(ConfigurationKeys.MAIL_ATTEMPTS_COUNT, ConfigurationLevel.event(event)).getValueAsIntOrDefault(10)) {
             tx.execute(status -> emailMessageRepository.updateStatusAndAttempts(messageId, ERROR.name(), message.getAttempts(), Arrays.asList(IN_PROCESS.name(), WAITING.name(), RETRY.name())));
             log.warn("Message with id " + messageId + " will be discarded");
@@ -309,7 +331,7 @@ public class NotificationManager {
     }
 
     private void sendMessage(EventAndOrganizationId event, EmailMessage message) {
-        String displayName = eventRepository.getDisplayNameById(message.getEventId());
+        String displayName = eventMetadataCache.getDisplayNameById(message.getEventId());
         mailer.send(event, displayName, message.getRecipient(), message.getCc(), message.getSubject(), message.getMessage(), Optional.empty(), decodeAttachments(message.getAttachments()));
         emailMessageRepository.updateStatusToSent(message.getEventId(), message.getChecksum(), ZonedDateTime.now(UTC), Collections.singletonList(IN_PROCESS.name()));
     }
@@ -393,4 +415,14 @@ public class NotificationManager {
             return new Mailer.Attachment(filename, source, contentType, model, identifier);
         }
     }
+
+    @Data
+    public static class SimpleEmail {
+        private final String reservationId;
+        private final String recipient;
+        private final List<String> cc;
+        private final String subject;
+        private final String text;
+        private final List<Mailer.Attachment> attachments;
+    }
 }
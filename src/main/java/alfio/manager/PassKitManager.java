@@ -62,7 +62,7 @@ public class PassKitManager {
         .maximumSize(20)
         .expireAfterWrite(20, TimeUnit.MINUTES)
         .build();
-    private final EventRepository eventRepository;
+    private final EventMetadataCache eventMetadataCache;
     private final OrganizationRepository organizationRepository;
     private final ConfigurationManager configurationManager;
     private final FileUploadManager fileUploadManager;
@@ -76,7 +76,7 @@ public class PassKitManager {
         Organization organization = organizationRepository.getById(event.getOrganizationId());
         Map<ConfigurationKeys, String> passConf = getConfigurationKeys(event);
         if(!passConf.isEmpty()) {
-            buildPass(ticket, eventRepository.findById(event.getId()), organization, passConf, out);
+            buildPass(ticket, eventMetadataCache.getById(event.getId()), organization, passConf, out);
             return true;
         } else {
             log.trace("Cannot generate Pass. Missing configuration keys, check if all 5 are presents");
@@ -88,7 +88,7 @@ public class PassKitManager {
         try {
             Ticket ticket = Json.fromJson(model.get("ticket"), Ticket.class);
             int eventId = ticket.getEventId();
-            Event event = eventRepository.findById(eventId);
+            Event event = eventMetadataCache.getById(eventId);
             Organization organization = organizationRepository.getById(Integer.valueOf(model.get("organizationId"), 10));
 
             Map<ConfigurationKeys, String> passConf = getConfigurationKeys(event);
@@ -241,7 +241,7 @@ public class PassKitManager {
             return Optional.empty();
         }
 
-        var eventOptional = eventRepository.findOptionalEventAndOrganizationIdByShortName(eventName);
+        var eventOptional = eventMetadataCache.findByShortName(eventName);
         if(eventOptional.isEmpty()) {
             log.trace("event {} not found", eventName);
             return Optional.empty();
@@ -255,7 +255,7 @@ public class PassKitManager {
         }
         return ticketRepository.findOptionalByUUID(ticketUuid)
             .filter(t -> t.getEventId() == event.getId())
-            .filter(t -> buildAuthenticationToken(t, event, eventRepository.getPrivateKey(event.getId())).equals(token))
+            .filter(t -> buildAuthenticationToken(t, event, event.getPrivateKey()).equals(token))
             .map(t -> Pair.of(event, t));
     }
 
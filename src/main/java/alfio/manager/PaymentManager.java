@@ -29,12 +29,16 @@ import alfio.model.transaction.capabilities.RefundRequest;
 import alfio.repository.AuditingRepository;
 import alfio.repository.TransactionRepository;
 import alfio.repository.user.UserRepository;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.extern.log4j.Log4j2;
 import org.springframework.stereotype.Component;
 
+import java.time.ZonedDateTime;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -53,6 +57,12 @@ public class PaymentManager {
 
     private final List<PaymentProvider> paymentProviders; // injected by Spring
 
+    // the validity of offline payments depends on the current date, so we cannot keep entries for too long
+    private final Cache<ActivePaymentMethodsKey, List<ActivePaymentMethod>> activePaymentMethods = Caffeine.newBuilder()
+        .maximumSize(10_000)
+        .expireAfterWrite(1, TimeUnit.MINUTES)
+        .build();
+
     public Optional<PaymentProvider> lookupProviderByMethod(PaymentMethod paymentMethod, PaymentContext context) {
         return compatibleStream(paymentMethod, context).findFirst();
     }
@@ -106,6 +116,33 @@ public class PaymentManager {
         return getPaymentMethods(new PaymentContext(null, ConfigurationLevel.organization(organizationId)));
     }
 
+    /**
+     * Resolves the payment methods which can be used to pay for a reservation containing the given categories.
+     * The result is cached until either the configuration or the event is modified.
+     *
+     * @param event the event
+     * @param categoryIds the categories included in the reservation
+     * @return the active payment methods, together with the options to be sent to the frontend
+     */
+    public List<ActivePaymentMethod> getActivePaymentMethods(Event event, Collection<Integer> categoryIds) {
+        if(event.isFreeOfCharge()) {
+            return List.of();
+        }
+        var key = new ActivePaymentMethodsKey(event.getId(), new TreeSet<>(categoryIds), event.getAllowedPaymentProxies(),
+            event.getCurrency(), event.getBegin(), configurationManager.getConfigurationVersion());
+        return activePaymentMethods.get(key, k -> resolveActivePaymentMethods(event, categoryIds));
+    }
+
+    private List<ActivePaymentMethod> resolveActivePaymentMethods(Event event, Collection<Integer> categoryIds) {
+        var blacklistedMethodsForReservation = configurationManager.getBlacklistedMethodsForReservation(event, categoryIds);
+        return getPaymentMethods(event)
+            .stream()
+            .filter(p -> !blacklistedMethodsForReservation.contains(p.getPaymentMethod()))
+            .filter(p -> TicketReservationManager.isValidPaymentMethod(p, event, configurationManager))
+            .map(p -> new ActivePaymentMethod(p.getPaymentMethod(), p.getPaymentProxy(), loadModelOptionsFor(List.of(p.getPaymentProxy()), event)))
+            .collect(Collectors.toUnmodifiableList());
+    }
+
     public boolean refund(TicketReservation reservation, Event event, Integer amount, String username) {
         Transaction transaction = transactionRepository.loadByReservationId(reservation.getId());
 
@@ -248,4 +285,21 @@ public class PaymentManager {
             return paymentProxy.getPaymentMethod();
         }
     }
+
+    @Data
+    public static final class ActivePaymentMethod {
+        private final PaymentMethod paymentMethod;
+        private final PaymentProxy paymentProxy;
+        private final Map<String, ?> options;
+    }
+
+    @Data
+    private static final class ActivePaymentMethodsKey {
+        private final int eventId;
+        private final Set<Integer> categoryIds;
+        private final List<PaymentProxy> allowedPaymentProxies;
+        private final String currency;
+        private final ZonedDateTime eventBegin;
+        private final long configurationVersion;
+    }
 }
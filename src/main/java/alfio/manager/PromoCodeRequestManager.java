@@ -25,15 +25,18 @@ import alfio.model.modification.TicketReservationModification;
 import alfio.model.result.ValidationResult;
 import alfio.repository.EventRepository;
 import alfio.repository.PromoCodeDiscountRepository;
+import alfio.repository.PromoCodeUsageRepository;
 import alfio.repository.SpecialPriceRepository;
-import alfio.repository.TicketCategoryRepository;
 import alfio.util.ErrorsCode;
 import alfio.util.RequestUtils;
 import lombok.AllArgsConstructor;
+import lombok.extern.log4j.Log4j2;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.tuple.Pair;
 import org.apache.commons.lang3.tuple.Triple;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.validation.BeanPropertyBindingResult;
 import org.springframework.validation.BindingResult;
 import org.springframework.web.context.request.ServletWebRequest;
@@ -50,14 +53,17 @@ import static alfio.model.PromoCodeDiscount.categoriesOrNull;
 
 @Component
 @AllArgsConstructor
+@Log4j2
 public class PromoCodeRequestManager {
 
     private SpecialPriceRepository specialPriceRepository;
     private PromoCodeDiscountRepository promoCodeRepository;
-    private TicketCategoryRepository ticketCategoryRepository;
     private EventManager eventManager;
     private EventRepository eventRepository;
     private TicketReservationManager ticketReservationManager;
+    private PromoCodeResolutionCache promoCodeResolutionCache;
+    private PromoCodeUsageRepository promoCodeUsageRepository;
+    private PlatformTransactionManager transactionManager;
 
     enum PromoCodeType {
         SPECIAL_PRICE, PROMO_CODE_DISCOUNT, TICKET_CATEGORY_CODE, NOT_FOUND
@@ -87,7 +93,7 @@ public class PromoCodeRequestManager {
                 queryStringHandler.accept("code", trimmedCode);
                 return Optional.empty();
             } else if(codeType == PromoCodeType.TICKET_CATEGORY_CODE) {
-                var category = ticketCategoryRepository.findCodeInEvent(e.getId(), trimmedCode).orElseThrow();
+                var category = promoCodeResolutionCache.findCategoryCodeInEvent(e.getId(), trimmedCode).orElseThrow();
                 if(!category.isAccessRestricted()) {
                     var res = makeSimpleReservation(e, category.getId(), trimmedCode, request, maybePromoCodeDiscount);
                     return handleErrors.apply(res);
@@ -131,7 +137,7 @@ public class PromoCodeRequestManager {
         ZonedDateTime now = ZonedDateTime.now(eventZoneId);
         Optional<String> maybeSpecialCode = Optional.ofNullable(StringUtils.trimToNull(promoCode));
         Optional<SpecialPrice> specialCode = maybeSpecialCode.flatMap(specialPriceRepository::getByCode);
-        Optional<PromoCodeDiscount> promotionCodeDiscount = maybeSpecialCode.flatMap((trimmedCode) -> promoCodeRepository.findPromoCodeInEventOrOrganization(event.getId(), trimmedCode));
+        Optional<PromoCodeDiscount> promotionCodeDiscount = maybeSpecialCode.flatMap((trimmedCode) -> promoCodeResolutionCache.findPromoCodeInEventOrOrganization(event.getId(), trimmedCode));
 
         var result = Pair.of(specialCode, promotionCodeDiscount);
 
@@ -165,9 +171,9 @@ public class PromoCodeRequestManager {
             return PromoCodeType.NOT_FOUND;
         }  else if(specialPriceRepository.getByCode(trimmedCode).isPresent()) {
             return PromoCodeType.SPECIAL_PRICE;
-        } else if (promoCodeRepository.findPromoCodeInEventOrOrganization(eventId, trimmedCode).isPresent()) {
+        } else if (promoCodeResolutionCache.findPromoCodeInEventOrOrganization(eventId, trimmedCode).isPresent()) {
             return PromoCodeType.PROMO_CODE_DISCOUNT;
-        } else if (ticketCategoryRepository.findCodeInEvent(eventId, trimmedCode).isPresent()) {
+        } else if (promoCodeResolutionCache.findCategoryCodeInEvent(eventId, trimmedCode).isPresent()) {
             return PromoCodeType.TICKET_CATEGORY_CODE;
         } else {
             return PromoCodeType.NOT_FOUND;
@@ -175,7 +181,37 @@ public class PromoCodeRequestManager {
     }
 
     private boolean isDiscountCodeUsageExceeded(PromoCodeDiscount discount) {
-        return discount.getMaxUsage() != null && discount.getMaxUsage() <= promoCodeRepository.countConfirmedPromoCode(discount.getId(), categoriesOrNull(discount), null, categoriesOrNull(discount) != null ? "X" : null);
+        return discount.getMaxUsage() != null && discount.getMaxUsage() <= countUsage(discount);
+    }
+
+    /**
+     * Returns the number of tickets confirmed using the given promo code, as tracked by the promo_code_usage counter.
+     * The counter can be slightly off until the next reconciliation, so the final check during the payment
+     * must still use {@link PromoCodeDiscountRepository#countConfirmedPromoCode}.
+     *
+     * @param discount a promo code having a max usage
+     * @return the number of confirmed tickets
+     */
+    public int countUsage(PromoCodeDiscount discount) {
+        return promoCodeUsageRepository.findUsedCount(discount.getId()).orElseGet(() -> {
+            // the counter is created the first time a max usage is defined. We create it here
+            // in case the code has been updated by an older node.
+            new TransactionTemplate(transactionManager).executeWithoutResult(status -> promoCodeUsageRepository.reconcileWithReservations(discount.getId()));
+            return promoCodeUsageRepository.findUsedCount(discount.getId())
+                .orElseGet(() -> promoCodeRepository.countConfirmedPromoCode(discount.getId(), categoriesOrNull(discount), null, categoriesOrNull(discount) != null ? "X" : null));
+        });
+    }
+
+    public void reconcileUsageCounters() {
+        // each counter is locked while it is recomputed, so that the concurrent reservations wait for it
+        var transactionTemplate = new TransactionTemplate(transactionManager);
+        long fixed = promoCodeUsageRepository.findAllWithMaxUsage().stream()
+            .filter(id -> Boolean.TRUE.equals(transactionTemplate.execute(status -> promoCodeUsageRepository.reconcileWithReservations(id))))
+            .count();
+        int removed = promoCodeUsageRepository.deleteUnlimited();
+        if(fixed > 0 || removed > 0) {
+            log.info("promo code usage: fixed {} counters, removed {}", fixed, removed);
+        }
     }
 
     private Pair<Optional<String>, BindingResult> makeSimpleReservation(Event event,
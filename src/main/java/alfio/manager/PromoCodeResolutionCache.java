@@ -0,0 +1,95 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.manager;
+
+import alfio.model.PromoCodeDiscount;
+import alfio.model.TicketCategory;
+import alfio.repository.PromoCodeDiscountRepository;
+import alfio.repository.TicketCategoryRepository;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import lombok.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Caches the resolution of the codes entered on the public pages, indexed by event and code.
+ * <p>
+ * Local modifications are evicted through {@link #invalidateAll()}, while modifications made by other nodes become
+ * visible once the entries expire. The validity of the resolved code (dates, usage) is still checked on each request,
+ * and the payment process always reloads the promo code from the database.
+ */
+@Component
+public class PromoCodeResolutionCache {
+
+    private final PromoCodeDiscountRepository promoCodeRepository;
+    private final TicketCategoryRepository ticketCategoryRepository;
+    private final Cache<EventCode, Optional<PromoCodeDiscount>> promoCodes = newCache();
+    private final Cache<EventCode, Optional<TicketCategory>> categoryCodes = newCache();
+
+    public PromoCodeResolutionCache(PromoCodeDiscountRepository promoCodeRepository,
+                                    TicketCategoryRepository ticketCategoryRepository) {
+        this.promoCodeRepository = promoCodeRepository;
+        this.ticketCategoryRepository = ticketCategoryRepository;
+    }
+
+    public Optional<PromoCodeDiscount> findPromoCodeInEventOrOrganization(int eventId, String code) {
+        return promoCodes.get(new EventCode(eventId, code), k -> promoCodeRepository.findPromoCodeInEventOrOrganization(eventId, code));
+    }
+
+    public Optional<TicketCategory> findCategoryCodeInEvent(int eventId, String code) {
+        return categoryCodes.get(new EventCode(eventId, code), k -> ticketCategoryRepository.findCodeInEvent(eventId, code));
+    }
+
+    /**
+     * Evicts all the entries. If there is an active transaction, the entries are evicted again after commit,
+     * in case they have been reloaded in the meantime.
+     */
+    public void invalidateAll() {
+        evictAll();
+        if(TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCommit() {
+                    evictAll();
+                }
+            });
+        }
+    }
+
+    private void evictAll() {
+        promoCodes.invalidateAll();
+        categoryCodes.invalidateAll();
+    }
+
+    private static <T> Cache<EventCode, T> newCache() {
+        return Caffeine.newBuilder()
+            .maximumSize(10_000)
+            .expireAfterWrite(1, TimeUnit.MINUTES)
+            .build();
+    }
+
+    @Value
+    private static class EventCode {
+        int eventId;
+        String code;
+    }
+}
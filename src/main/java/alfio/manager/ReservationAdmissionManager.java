@@ -0,0 +1,213 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.manager;
+
+import alfio.manager.system.ConfigurationLevel;
+import alfio.manager.system.ConfigurationManager;
+import alfio.model.Event;
+import alfio.model.ReservationAdmission;
+import alfio.repository.ReservationAdmissionRepository;
+import lombok.Value;
+import org.apache.commons.codec.digest.HmacAlgorithms;
+import org.apache.commons.codec.digest.HmacUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Base64;
+import java.util.Optional;
+import java.util.UUID;
+
+import static alfio.model.system.ConfigurationKeys.RESERVATION_ADMISSION_CONCURRENCY;
+
+/**
+ * Limits the number of reservation requests processed at the same time for an event, so that during a sale opening
+ * the requests are queued here instead of waiting for connections and row locks on the database.
+ * <p>
+ * When the limit (see {@link alfio.model.system.ConfigurationKeys#RESERVATION_ADMISSION_CONCURRENCY}) is reached,
+ * the request is put in a queue and the client receives a signed token, which can be used for checking the position
+ * and, once admitted, for sending the request again. Waiting requests are admitted in arrival order. An admitted token
+ * can be used by one request only.
+ * <p>
+ * The queue is stored in the reservation_admission table and the decisions are serialized by an advisory lock on the
+ * event, so that the limit is enforced across all the nodes.
+ */
+@Component
+public class ReservationAdmissionManager {
+
+    /**
+     * Time given to an admitted request for creating the reservation. It covers also requests interrupted by a crash.
+     */
+    static final long ADMISSION_VALIDITY_SECONDS = 60;
+    /**
+     * A waiting request is removed from the queue if its position has not been checked for this amount of time
+     */
+    static final long WAITING_VALIDITY_SECONDS = 30;
+
+    private final ReservationAdmissionRepository reservationAdmissionRepository;
+    private final ConfigurationManager configurationManager;
+    private final TransactionTemplate transactionTemplate;
+
+    public ReservationAdmissionManager(ReservationAdmissionRepository reservationAdmissionRepository,
+                                       ConfigurationManager configurationManager,
+                                       PlatformTransactionManager transactionManager) {
+        this.reservationAdmissionRepository = reservationAdmissionRepository;
+        this.configurationManager = configurationManager;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    /**
+     * Admits the request, or puts it in the queue if the limit for the event has been reached.
+     *
+     * @param event the event
+     * @param signedToken the token received by a previous call, if any. Invalid, expired or already used tokens are ignored.
+     * @return the result of the admission. Admitted requests must call {@link #release(Event, Admission)} once done.
+     */
+    public Admission admit(Event event, String signedToken) {
+        int concurrency = getConcurrency(event);
+        if(concurrency <= 0) {
+            return Admission.NOT_REQUIRED;
+        }
+        int eventId = event.getId();
+        return transactionTemplate.execute(status -> {
+            var existing = lockAndLoad(event, signedToken).filter(admission -> admission.getStatus() != ReservationAdmission.Status.IN_USE);
+            if(existing.isPresent()) {
+                var refreshed = refresh(event, existing.get(), concurrency);
+                if(!refreshed.isAdmitted()) {
+                    return refreshed;
+                }
+                if(reservationAdmissionRepository.markInUse(refreshed.getId()) == 1) {
+                    return refreshed;
+                }
+            }
+            boolean slotAvailable = reservationAdmissionRepository.countByStatus(eventId, ReservationAdmission.Status.WAITING) == 0
+                && reservationAdmissionRepository.countActive(eventId) < concurrency;
+            var admissionStatus = slotAvailable ? ReservationAdmission.Status.IN_USE : ReservationAdmission.Status.WAITING;
+            return toAdmission(event, reservationAdmissionRepository.insert(eventId, UUID.randomUUID().toString(), admissionStatus));
+        });
+    }
+
+    /**
+     * @return the current status of a queued request, or empty if the token is not valid, has expired or has already been used
+     */
+    public Optional<Admission> checkStatus(Event event, String signedToken) {
+        int concurrency = getConcurrency(event);
+        if(concurrency <= 0) {
+            return Optional.of(Admission.NOT_REQUIRED);
+        }
+        int eventId = event.getId();
+        var existing = verifyToken(event, signedToken).flatMap(token -> reservationAdmissionRepository.findByToken(eventId, token))
+            .filter(admission -> admission.getStatus() != ReservationAdmission.Status.IN_USE);
+        if(existing.isEmpty() || existing.get().getStatus() == ReservationAdmission.Status.ADMITTED) {
+            return existing.map(admission -> toAdmission(event, admission));
+        }
+        // waiting requests poll frequently, so the event is locked only if there's a free slot
+        if(reservationAdmissionRepository.countValidAdmissions(eventId, ADMISSION_VALIDITY_SECONDS) >= concurrency) {
+            reservationAdmissionRepository.touch(existing.get().getId());
+            return existing.map(admission -> toAdmission(event, admission));
+        }
+        return transactionTemplate.execute(status -> lockAndLoad(event, signedToken)
+            .filter(admission -> admission.getStatus() != ReservationAdmission.Status.IN_USE)
+            .map(admission -> refresh(event, admission, concurrency)));
+    }
+
+    /**
+     * Frees the slot used by the given admission and admits the next waiting requests
+     */
+    public void release(Event event, Admission admission) {
+        if(admission.getId() == null) {
+            return;
+        }
+        transactionTemplate.execute(status -> {
+            reservationAdmissionRepository.lockEvent(event.getId());
+            reservationAdmissionRepository.delete(admission.getId());
+            admitWaiting(event.getId(), getConcurrency(event));
+            return null;
+        });
+    }
+
+    public int cleanupExpired() {
+        return reservationAdmissionRepository.deleteAllExpired(ADMISSION_VALIDITY_SECONDS, WAITING_VALIDITY_SECONDS);
+    }
+
+    private Optional<ReservationAdmission> lockAndLoad(Event event, String signedToken) {
+        int eventId = event.getId();
+        reservationAdmissionRepository.lockEvent(eventId);
+        reservationAdmissionRepository.deleteExpired(eventId, ADMISSION_VALIDITY_SECONDS, WAITING_VALIDITY_SECONDS);
+        return verifyToken(event, signedToken).flatMap(token -> reservationAdmissionRepository.findByToken(eventId, token));
+    }
+
+    private Admission refresh(Event event, ReservationAdmission admission, int concurrency) {
+        if(admission.getStatus() == ReservationAdmission.Status.ADMITTED) {
+            return toAdmission(event, admission);
+        }
+        reservationAdmissionRepository.touch(admission.getId());
+        admitWaiting(event.getId(), concurrency);
+        return toAdmission(event, reservationAdmissionRepository.findByToken(event.getId(), admission.getToken()).orElseThrow());
+    }
+
+    private void admitWaiting(int eventId, int concurrency) {
+        int slots = concurrency - reservationAdmissionRepository.countActive(eventId);
+        if(slots > 0) {
+            reservationAdmissionRepository.admitWaiting(eventId, slots);
+        }
+    }
+
+    private Admission toAdmission(Event event, ReservationAdmission admission) {
+        var signedToken = admission.getToken() + "." + sign(event, admission.getToken());
+        if(admission.getStatus() != ReservationAdmission.Status.WAITING) {
+            return new Admission(true, admission.getId(), signedToken, 0);
+        }
+        int position = reservationAdmissionRepository.countWaitingBefore(event.getId(), admission.getId()) + 1;
+        return new Admission(false, admission.getId(), signedToken, position);
+    }
+
+    private int getConcurrency(Event event) {
+        return configurationManager.getFor(RESERVATION_ADMISSION_CONCURRENCY, ConfigurationLevel.event(event)).getValueAsIntOrDefault(0);
+    }
+
+    static Optional<String> verifyToken(Event event, String signedToken) {
+        int separator = StringUtils.lastIndexOf(signedToken, '.');
+        if(separator <= 0) {
+            return Optional.empty();
+        }
+        var token = signedToken.substring(0, separator);
+        var signature = signedToken.substring(separator + 1);
+        boolean valid = MessageDigest.isEqual(sign(event, token).getBytes(StandardCharsets.UTF_8), signature.getBytes(StandardCharsets.UTF_8));
+        return valid ? Optional.of(token) : Optional.empty();
+    }
+
+    private static String sign(Event event, String token) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(new HmacUtils(HmacAlgorithms.HMAC_SHA_256, event.getPrivateKey()).hmac(token));
+    }
+
+    @Value
+    public static class Admission {
+        static final Admission NOT_REQUIRED = new Admission(true, null, null, 0);
+
+        boolean admitted;
+        Long id;
+        String token;
+        /**
+         * position in the queue, starting from 1. 0 if the request has been admitted
+         */
+        int position;
+    }
+}
@@ -0,0 +1,159 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.manager;
+
+import alfio.model.TicketReservationIdStatusAndValidation;
+import alfio.model.TicketReservationStatusAndValidation;
+import alfio.repository.TicketReservationRepository;
+import lombok.extern.log4j.Log4j2;
+import org.apache.commons.collections4.ListUtils;
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.annotation.PreDestroy;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Pushes the status of a reservation to the subscribers (i.e. the buyers waiting on the payment page),
+ * so that they don't have to poll for it.
+ * <p>
+ * Status transitions done on this node are dispatched right after commit, while the ones done on other nodes
+ * are detected by {@link #checkSubscribedReservations()}, which loads the status of all the subscribed
+ * reservations using a single query.
+ */
+@Component
+@Log4j2
+public class ReservationStatusNotifier {
+
+    private static final int CHUNK_SIZE = 1000;
+
+    private final TicketReservationRepository ticketReservationRepository;
+    private final Map<String, Set<Subscription>> subscriptions = new ConcurrentHashMap<>();
+    private final ExecutorService notificationExecutor = Executors.newSingleThreadExecutor(
+        new BasicThreadFactory.Builder().namingPattern("reservation-status-notifier-%d").daemon(true).build());
+
+    public ReservationStatusNotifier(TicketReservationRepository ticketReservationRepository) {
+        this.ticketReservationRepository = ticketReservationRepository;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        notificationExecutor.shutdown();
+    }
+
+    /**
+     * Subscribes to the status of the given reservation. The current status is sent immediately, then the listener
+     * is notified only if the status changes. An empty value means that the reservation doesn't exist anymore.
+     *
+     * @param reservationId the reservation id
+     * @param listener the listener
+     * @return a callback that removes the subscription
+     */
+    public Runnable subscribe(String reservationId, Consumer<Optional<TicketReservationStatusAndValidation>> listener) {
+        var subscription = new Subscription(listener);
+        subscriptions.computeIfAbsent(reservationId, k -> ConcurrentHashMap.newKeySet()).add(subscription);
+        subscription.update(ticketReservationRepository.findOptionalStatusAndValidationById(reservationId).map(Function.identity()));
+        return () -> subscriptions.computeIfPresent(reservationId, (k, set) -> {
+            set.remove(subscription);
+            return set.isEmpty() ? null : set;
+        });
+    }
+
+    /**
+     * Notifies the local subscribers after the current transaction has been committed.
+     *
+     * @param reservationId the reservation id
+     */
+    public void fireStatusChanged(String reservationId) {
+        if(!subscriptions.containsKey(reservationId)) {
+            return;
+        }
+        if(TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCommit() {
+                    notificationExecutor.execute(() -> dispatch(List.of(reservationId)));
+                }
+            });
+        } else {
+            notificationExecutor.execute(() -> dispatch(List.of(reservationId)));
+        }
+    }
+
+    @Scheduled(fixedDelay = 5000)
+    public void checkSubscribedReservations() {
+        var reservationIds = new ArrayList<>(subscriptions.keySet());
+        if(!reservationIds.isEmpty()) {
+            ListUtils.partition(reservationIds, CHUNK_SIZE).forEach(this::dispatch);
+        }
+    }
+
+    int countSubscriptions() {
+        return subscriptions.values().stream().mapToInt(Set::size).sum();
+    }
+
+    private void dispatch(List<String> reservationIds) {
+        try {
+            var statuses = ticketReservationRepository.findStatusAndValidationByIds(reservationIds).stream()
+                .collect(Collectors.toMap(TicketReservationIdStatusAndValidation::getId, Function.identity()));
+            reservationIds.forEach(id -> subscriptions.getOrDefault(id, Set.of())
+                .forEach(subscription -> subscription.update(Optional.ofNullable(statuses.get(id)))));
+        } catch (Exception e) {
+            log.warn("error while loading reservation status", e);
+        }
+    }
+
+    private static class Subscription {
+        private final Consumer<Optional<TicketReservationStatusAndValidation>> listener;
+        private TicketReservationStatusAndValidation lastStatus;
+        private boolean notified;
+
+        private Subscription(Consumer<Optional<TicketReservationStatusAndValidation>> listener) {
+            this.listener = listener;
+        }
+
+        private synchronized void update(Optional<TicketReservationStatusAndValidation> status) {
+            var current = status.orElse(null);
+            if(notified && isSameStatus(lastStatus, current)) {
+                return;
+            }
+            notified = true;
+            lastStatus = current;
+            try {
+                listener.accept(status);
+            } catch (Exception e) {
+                log.debug("cannot notify reservation status", e);
+            }
+        }
+
+        private static boolean isSameStatus(TicketReservationStatusAndValidation a, TicketReservationStatusAndValidation b) {
+            if(a == null || b == null) {
+                return a == b;
+            }
+            return a.getStatus() == b.getStatus() && Objects.equals(a.getValidated(), b.getValidated());
+        }
+    }
+}
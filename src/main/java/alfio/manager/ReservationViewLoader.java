@@ -0,0 +1,147 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.manager;
+
+import alfio.manager.system.ConfigurationManager;
+import alfio.model.*;
+import alfio.model.group.LinkedGroup;
+import alfio.model.transaction.PaymentToken;
+import alfio.repository.*;
+import alfio.util.Validator;
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static alfio.model.system.ConfigurationKeys.ALLOW_FREE_TICKETS_CANCELLATION;
+
+/**
+ * Loads everything needed to display a reservation using a fixed number of set-based queries,
+ * regardless of the number of tickets and categories in it.
+ */
+@Component
+@AllArgsConstructor
+public class ReservationViewLoader {
+
+    private final TicketReservationRepository ticketReservationRepository;
+    private final TicketRepository ticketRepository;
+    private final TicketCategoryRepository ticketCategoryRepository;
+    private final TicketFieldRepository ticketFieldRepository;
+    private final AdditionalServiceItemRepository additionalServiceItemRepository;
+    private final ConfigurationManager configurationManager;
+    private final PaymentManager paymentManager;
+    private final GroupManager groupManager;
+
+    public Optional<ReservationView> load(Event event, String reservationId) {
+        return ticketReservationRepository.findOptionalReservationById(reservationId)
+            .map(reservation -> load(event, reservation));
+    }
+
+    private ReservationView load(Event event, TicketReservation reservation) {
+        var reservationId = reservation.getId();
+        var tickets = ticketRepository.findTicketsInReservation(reservationId);
+        var categoryIds = tickets.stream().map(Ticket::getCategoryId).collect(Collectors.toCollection(LinkedHashSet::new));
+        Map<Integer, TicketCategory> categoriesById = categoryIds.isEmpty() ? Map.of() : ticketCategoryRepository.findByIds(categoryIds).stream()
+            .filter(tc -> tc.getEventId() == event.getId())
+            .collect(Collectors.toMap(TicketCategory::getId, Function.identity()));
+
+        var descriptionsByTicketFieldId = ticketFieldRepository.findDescriptions(event.getShortName())
+            .stream()
+            .collect(Collectors.groupingBy(TicketFieldDescription::getTicketFieldConfigurationId));
+
+        Map<Integer, List<TicketFieldValue>> valuesByTicketId = tickets.isEmpty() ? Map.of() : ticketFieldRepository.findAllValuesByTicketIds(tickets.stream().map(Ticket::getId).collect(Collectors.toSet()))
+            .stream()
+            .collect(Collectors.groupingBy(TicketFieldValue::getTicketId));
+
+        // tickets are already sorted, so the first one is the same returned by TicketRepository.findFirstTicketInReservation
+        var categoryIdsByTicketUuid = tickets.stream().collect(Collectors.toMap(Ticket::getUuid, Ticket::getCategoryId));
+        var ticketFieldsFilterer = new Validator.TicketFieldsFilterer(ticketFieldRepository.findAdditionalFieldsForEvent(event.getId()),
+            categoryIdsByTicketUuid::get,
+            new HashSet<>(additionalServiceItemRepository.findAdditionalServiceIdsByReservationUuid(reservationId)),
+            tickets.stream().findFirst());
+
+        var cancellableTicketIds = findCancellableTickets(event, tickets, categoriesById, reservationId);
+
+        var links = groupManager.getLinksForEvent(event.getId());
+        boolean containsCategoriesLinkedToGroups = tickets.stream()
+            .anyMatch(t -> links.stream().anyMatch(lg -> isLinkedTo(lg, t)));
+
+        return new ReservationView(reservation,
+            tickets,
+            categoriesById,
+            descriptionsByTicketFieldId,
+            valuesByTicketId,
+            ticketFieldsFilterer,
+            cancellableTicketIds,
+            ticketReservationRepository.getAdditionalInfo(reservationId),
+            paymentManager.getPaymentToken(reservationId),
+            containsCategoriesLinkedToGroups);
+    }
+
+    /**
+     * see {@link alfio.manager.support.CategoryEvaluator#ticketCancellationAvailabilityChecker(TicketCategoryRepository)}
+     */
+    private Set<Integer> findCancellableTickets(Event event, List<Ticket> tickets, Map<Integer, TicketCategory> categoriesById, String reservationId) {
+        var freeTickets = tickets.stream()
+            .filter(t -> t.getFinalPriceCts() == 0 && t.getStatus() == Ticket.TicketStatus.ACQUIRED)
+            .collect(Collectors.toList());
+        if(freeTickets.isEmpty() || additionalServiceItemRepository.hasPaidSupplements(reservationId)) {
+            return Set.of();
+        }
+        var freeCancellationEnabled = configurationManager.getBooleanForCategories(event,
+            freeTickets.stream().map(Ticket::getCategoryId).collect(Collectors.toSet()), ALLOW_FREE_TICKETS_CANCELLATION, false);
+        boolean restrictedCategoriesPresent = freeTickets.stream()
+            .map(t -> categoriesById.get(t.getCategoryId()))
+            .anyMatch(tc -> tc != null && tc.isAccessRestricted());
+        boolean unboundedCategoriesPresent = restrictedCategoriesPresent && ticketCategoryRepository.countUnboundedCategoriesByEventId(event.getId()) > 0;
+        return freeTickets.stream()
+            .filter(t -> freeCancellationEnabled.getOrDefault(t.getCategoryId(), false))
+            .filter(t -> {
+                var category = categoriesById.get(t.getCategoryId());
+                return category != null && (!category.isAccessRestricted() || unboundedCategoriesPresent);
+            })
+            .map(Ticket::getId)
+            .collect(Collectors.toSet());
+    }
+
+    private static boolean isLinkedTo(LinkedGroup linkedGroup, Ticket ticket) {
+        return linkedGroup.getTicketCategoryId() == null || linkedGroup.getTicketCategoryId().equals(ticket.getCategoryId());
+    }
+
+    @Getter
+    @AllArgsConstructor(access = AccessLevel.PRIVATE)
+    public static class ReservationView {
+        private final TicketReservation reservation;
+        private final List<Ticket> tickets;
+        private final Map<Integer, TicketCategory> categoriesById;
+        private final Map<Integer, List<TicketFieldDescription>> descriptionsByTicketFieldId;
+        private final Map<Integer, List<TicketFieldValue>> valuesByTicketId;
+        private final Validator.TicketFieldsFilterer ticketFieldsFilterer;
+        private final Set<Integer> cancellableTicketIds;
+        private final TicketReservationAdditionalInfo additionalInfo;
+        private final Optional<PaymentToken> paymentToken;
+        private final boolean containsCategoriesLinkedToGroups;
+
+        public boolean isCancellationEnabled(Ticket ticket) {
+            return cancellableTicketIds.contains(ticket.getId());
+        }
+    }
+}
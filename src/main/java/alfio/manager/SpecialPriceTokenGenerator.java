@@ -26,12 +26,23 @@ import alfio.repository.EventRepository;
 import alfio.repository.SpecialPriceRepository;
 import alfio.repository.TicketCategoryRepository;
 import lombok.extern.log4j.Log4j2;
+import org.apache.commons.collections4.ListUtils;
 import org.apache.commons.lang3.RandomStringUtils;
 import org.apache.commons.lang3.time.StopWatch;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DuplicateKeyException;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.DefaultTransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 /**
  * Class SpecialPriceTokenGenerator.
@@ -51,57 +62,90 @@ public class SpecialPriceTokenGenerator {
             '5', '6', '7', '8', '9'
     };
 
+    private static final int CHUNK_SIZE = 5000;
+    private static final int MAX_ATTEMPTS = 10;
+
     private final SpecialPriceRepository specialPriceRepository;
     private final TicketCategoryRepository ticketCategoryRepository;
     private final EventRepository eventRepository;
     private final ConfigurationManager configurationManager;
+    private final TransactionTemplate nestedTransactionTemplate;
 
     @Autowired
     public SpecialPriceTokenGenerator(ConfigurationManager configurationManager,
                                       SpecialPriceRepository specialPriceRepository,
                                       TicketCategoryRepository ticketCategoryRepository,
-                                      EventRepository eventRepository) {
+                                      EventRepository eventRepository,
+                                      PlatformTransactionManager transactionManager) {
         this.specialPriceRepository = specialPriceRepository;
         this.configurationManager = configurationManager;
         this.ticketCategoryRepository = ticketCategoryRepository;
         this.eventRepository = eventRepository;
+        this.nestedTransactionTemplate = new TransactionTemplate(transactionManager, new DefaultTransactionDefinition(TransactionDefinition.PROPAGATION_NESTED));
     }
 
     public void generatePendingCodes() {
         StopWatch stopWatch = new StopWatch();
         log.trace("start pending codes generation");
         stopWatch.start();
-        specialPriceRepository.findWaitingElements().forEach(this::generateCode);
+        generateCodes(specialPriceRepository.findWaitingElements());
         stopWatch.stop();
         log.trace("end. Took {} ms", stopWatch.getTime());
     }
 
     public void generatePendingCodesForCategory(int categoryId) {
-        specialPriceRepository.findWaitingElementsForCategory(categoryId).forEach(this::generateCode);
+        generateCodes(specialPriceRepository.findWaitingElementsForCategory(categoryId));
     }
 
-    private void generateCode(SpecialPrice.SpecialPriceTicketCategoryId specialPrice) {
+    private void generateCodes(List<SpecialPrice.SpecialPriceTicketCategoryId> waitingElements) {
+        if(waitingElements.isEmpty()) {
+            return;
+        }
+        // codes generated during this run, so that we don't assign the same code twice
+        Set<String> generatedCodes = new HashSet<>();
+        waitingElements.stream()
+            .collect(Collectors.groupingBy(SpecialPrice.SpecialPriceTicketCategoryId::getTicketCategoryId))
+            .forEach((categoryId, elements) -> {
+                TicketCategory ticketCategory = ticketCategoryRepository.getByIdAndActive(categoryId).orElseThrow(IllegalStateException::new);
+                EventAndOrganizationId event = eventRepository.findEventAndOrganizationIdById(ticketCategory.getEventId());
+                int maxLength = configurationManager.getFor(ConfigurationKeys.SPECIAL_PRICE_CODE_LENGTH, ConfigurationLevel.ticketCategory(event, categoryId)).getValueAsIntOrDefault(6);
+                log.trace("generate {} codes for category {}", elements.size(), categoryId);
+                ListUtils.partition(elements, CHUNK_SIZE).forEach(chunk -> assignCodes(chunk, maxLength, generatedCodes));
+            });
+    }
 
-        TicketCategory ticketCategory = ticketCategoryRepository.getByIdAndActive(specialPrice.getTicketCategoryId()).orElseThrow(IllegalStateException::new);
-        EventAndOrganizationId event = eventRepository.findEventAndOrganizationIdById(ticketCategory.getEventId());
-        int maxLength = configurationManager.getFor(ConfigurationKeys.SPECIAL_PRICE_CODE_LENGTH, ConfigurationLevel.ticketCategory(event, ticketCategory.getId())).getValueAsIntOrDefault(6);
+    private void assignCodes(List<SpecialPrice.SpecialPriceTicketCategoryId> elements, int maxLength, Set<String> generatedCodes) {
+        Map<Integer, String> codes = elements.stream()
+            .collect(Collectors.toMap(SpecialPrice.SpecialPriceTicketCategoryId::getId, sp -> nextCode(maxLength, generatedCodes)));
+        int attempt = 1;
+        while (!tryUpdateCodes(codes)) {
+            if(attempt++ >= MAX_ATTEMPTS) {
+                throw new IllegalStateException("cannot generate unique codes after " + MAX_ATTEMPTS + " attempts");
+            }
+            // a code has been generated in the meantime (or was already present). We replace only the duplicates
+            Set<String> existing = new HashSet<>(specialPriceRepository.findExistingCodes(codes.values()));
+            log.warn("got {} duplicate(s). Retrying...", existing.size());
+            codes.replaceAll((id, code) -> existing.contains(code) ? nextCode(maxLength, generatedCodes) : code);
+        }
+    }
 
-        while (true) {
+    private boolean tryUpdateCodes(Map<Integer, String> codes) {
+        return Boolean.TRUE.equals(nestedTransactionTemplate.execute(status -> {
+            var savepoint = status.createSavepoint();
             try {
-                log.trace("generate code for special price with id {}", specialPrice.getId());
-                specialPriceRepository.updateCode(nextValidCode(maxLength), specialPrice.getId());
-                log.trace("done.");
-                return;
-            } catch (DataAccessException e) {
-                log.warn("got a duplicate. Retrying...", e);
+                specialPriceRepository.bulkUpdateCodes(codes);
+                return true;
+            } catch (DuplicateKeyException e) {
+                status.rollbackToSavepoint(savepoint);
+                return false;
             }
-        }
+        }));
     }
 
-    private String nextValidCode(int maxLength) {
+    private String nextCode(int maxLength, Set<String> generatedCodes) {
         while (true) {
             String code = generateRandomCode(maxLength);
-            if (specialPriceRepository.countByCode(code) == 0) {
+            if (generatedCodes.add(code)) {
                 return code;
             }
         }
@@ -23,6 +23,7 @@ import alfio.manager.i18n.MessageSourceManager;
 import alfio.manager.payment.BankTransferManager;
 import alfio.manager.payment.PaymentSpecification;
 import alfio.manager.support.*;
+import alfio.manager.system.ApplicationMetrics;
 import alfio.manager.system.ConfigurationLevel;
 import alfio.manager.system.ConfigurationManager;
 import alfio.manager.system.Mailer;
@@ -54,8 +55,9 @@ import alfio.repository.user.OrganizationRepository;
 import alfio.repository.user.UserRepository;
 import alfio.util.*;
 import ch.digitalfondue.npjt.AffectedRowCountAndKey;
+import io.micrometer.core.annotation.Timed;
+import io.micrometer.core.instrument.Metrics;
 import lombok.extern.log4j.Log4j2;
-import org.apache.commons.lang3.ObjectUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.Validate;
 import org.apache.commons.lang3.time.DateUtils;
@@ -79,6 +81,7 @@ import java.time.ZonedDateTime;
 import java.time.temporal.ChronoUnit;
 import java.util.*;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
@@ -110,6 +113,7 @@ public class TicketReservationManager {
     public static final String NOT_YET_PAID_TRANSACTION_ID = "not-paid";
     private static final String STUCK_TICKETS_MSG = "there are stuck tickets for the event %s. Please check admin area.";
     private static final String STUCK_TICKETS_SUBJECT = "warning: stuck tickets found";
+    private static final int REMINDER_CHUNK_SIZE = 200;
 
     private final EventRepository eventRepository;
     private final OrganizationRepository organizationRepository;
@@ -133,7 +137,7 @@ public class TicketReservationManager {
     private final AdditionalServiceRepository additionalServiceRepository;
     private final AdditionalServiceItemRepository additionalServiceItemRepository;
     private final AdditionalServiceTextRepository additionalServiceTextRepository;
-    private final InvoiceSequencesRepository invoiceSequencesRepository;
+    private final InvoiceNumberManager invoiceNumberManager;
     private final AuditingRepository auditingRepository;
     private final UserRepository userRepository;
     private final ExtensionManager extensionManager;
@@ -143,6 +147,7 @@ public class TicketReservationManager {
     private final NamedParameterJdbcTemplate jdbcTemplate;
     private final Json json;
     private final PromoCodeDiscountRepository promoCodeRepository;
+    private final ReservationStatusNotifier reservationStatusNotifier;
 
     public static class NotEnoughTicketsException extends RuntimeException {
 
@@ -184,7 +189,7 @@ public class TicketReservationManager {
                                     AdditionalServiceRepository additionalServiceRepository,
                                     AdditionalServiceItemRepository additionalServiceItemRepository,
                                     AdditionalServiceTextRepository additionalServiceTextRepository,
-                                    InvoiceSequencesRepository invoiceSequencesRepository,
+                                    InvoiceNumberManager invoiceNumberManager,
                                     AuditingRepository auditingRepository,
                                     UserRepository userRepository,
                                     ExtensionManager extensionManager, TicketSearchRepository ticketSearchRepository,
@@ -192,7 +197,8 @@ public class TicketReservationManager {
                                     BillingDocumentRepository billingDocumentRepository,
                                     NamedParameterJdbcTemplate jdbcTemplate,
                                     Json json,
-                                    PromoCodeDiscountRepository promoCodeRepository) {
+                                    PromoCodeDiscountRepository promoCodeRepository,
+                                    ReservationStatusNotifier reservationStatusNotifier) {
         this.eventRepository = eventRepository;
         this.organizationRepository = organizationRepository;
         this.ticketRepository = ticketRepository;
@@ -217,7 +223,7 @@ public class TicketReservationManager {
         this.additionalServiceRepository = additionalServiceRepository;
         this.additionalServiceItemRepository = additionalServiceItemRepository;
         this.additionalServiceTextRepository = additionalServiceTextRepository;
-        this.invoiceSequencesRepository = invoiceSequencesRepository;
+        this.invoiceNumberManager = invoiceNumberManager;
         this.auditingRepository = auditingRepository;
         this.userRepository = userRepository;
         this.extensionManager = extensionManager;
@@ -227,6 +233,7 @@ public class TicketReservationManager {
         this.jdbcTemplate = jdbcTemplate;
         this.json = json;
         this.promoCodeRepository = promoCodeRepository;
+        this.reservationStatusNotifier = reservationStatusNotifier;
     }
 
     /**
@@ -239,6 +246,7 @@ public class TicketReservationManager {
      * @param forWaitingQueue
      * @return
      */
+    @Timed(value = ApplicationMetrics.RESERVATION_CREATE, histogram = true)
     public String createTicketReservation(Event event,
                                           List<TicketReservationWithOptionalCodeModification> list,
                                           List<ASReservationWithOptionalCodeModification> additionalServices,
@@ -258,7 +266,12 @@ public class TicketReservationManager {
             event.getVat(),
             event.isVatIncluded(),
             event.getCurrency());
-        list.forEach(t -> reserveTicketsForCategory(event, reservationId, t, locale, forWaitingQueue, discount.orElse(null)));
+        try {
+            list.forEach(t -> reserveTicketsForCategory(event, reservationId, t, locale, forWaitingQueue, discount.orElse(null)));
+        } catch (NotEnoughTicketsException e) {
+            Metrics.counter(ApplicationMetrics.RESERVATION_NOT_ENOUGH_TICKETS).increment();
+            throw e;
+        }
 
         int ticketCount = list
             .stream()
@@ -297,6 +310,7 @@ public class TicketReservationManager {
             + Math.abs(totalPrice.getDiscount());
     }
 
+    @Transactional(readOnly = true)
     public Pair<List<TicketReservation>, Integer> findAllReservationsInEvent(int eventId, Integer page, String search, List<TicketReservationStatus> status) {
         final int pageSize = 50;
         int offset = page == null ? 0 : page * pageSize;
@@ -462,6 +476,7 @@ public class TicketReservationManager {
         return specialPrice;
     }
 
+    @Timed(value = ApplicationMetrics.RESERVATION_PAYMENT, histogram = true)
     public PaymentResult performPayment(PaymentSpecification spec,
                                         TotalPrice reservationCost,
                                         Optional<PaymentProxy> method) {
@@ -552,8 +567,15 @@ public class TicketReservationManager {
     private void transitionToComplete(PaymentSpecification spec, TotalPrice reservationCost, PaymentProxy paymentProxy) {
         var status = ticketReservationRepository.findOptionalStatusAndValidationById(spec.getReservationId()).orElseThrow().getStatus();
         if(status != COMPLETE) {
-            generateInvoiceNumber(spec, reservationCost);
-            completeReservation(spec, paymentProxy, true, true);
+            try {
+                generateInvoiceNumber(spec, reservationCost);
+                completeReservation(spec, paymentProxy, true, true);
+                invoiceNumberManager.confirm(spec.getReservationId());
+            } catch (RuntimeException e) {
+                // give the invoice number back, otherwise there would be a gap in the sequence
+                invoiceNumberManager.release(spec.getReservationId());
+                throw e;
+            }
         }
     }
 
@@ -571,14 +593,7 @@ public class TicketReservationManager {
             auditingRepository.insert(reservationId, null, spec.getEvent().getId(), EXTERNAL_INVOICE_NUMBER, new Date(), RESERVATION, reservationId, modifications);
         });
 
-        String invoiceNumber = optionalInvoiceNumber.orElseGet(() -> {
-                int invoiceSequence = invoiceSequencesRepository.lockReservationForUpdate(spec.getEvent().getOrganizationId());
-                invoiceSequencesRepository.incrementSequenceFor(spec.getEvent().getOrganizationId());
-                String pattern = configurationManager
-                    .getFor(ConfigurationKeys.INVOICE_NUMBER_PATTERN, ConfigurationLevel.event(spec.getEvent()))
-                    .getValueOrDefault("%d");
-                return String.format(ObjectUtils.firstNonNull(StringUtils.trimToNull(pattern), "%d"), invoiceSequence);
-        });
+        String invoiceNumber = optionalInvoiceNumber.orElseGet(() -> invoiceNumberManager.reserveInvoiceNumber(spec.getEvent(), reservationId));
 
         ticketReservationRepository.setInvoiceNumber(reservationId, invoiceNumber);
     }
@@ -645,6 +660,7 @@ public class TicketReservationManager {
         return true;
     }
 
+    @Timed(value = ApplicationMetrics.RESERVATION_OFFLINE_PAYMENT_CONFIRM, histogram = true)
     public void confirmOfflinePayment(Event event, String reservationId, String username) {
         TicketReservation ticketReservation = findById(reservationId).orElseThrow(IllegalArgumentException::new);
         ticketReservationRepository.lockReservationForUpdate(reservationId);
@@ -915,6 +931,7 @@ public class TicketReservationManager {
                     spec.getCustomerName().getFirstName(), spec.getCustomerName().getLastName(),
                     spec.getLocale().getLanguage(), spec.getBillingAddress(),null, PaymentProxy.STRIPE.toString(), spec.getCustomerReference());
                 Validate.isTrue(updatedReservation == 1, "expected exactly one updated reservation, got " + updatedReservation);
+                reservationStatusNotifier.fireStatusChanged(spec.getReservationId());
             }
             return null;
         });
@@ -942,6 +959,7 @@ public class TicketReservationManager {
     private void reTransitionToPending(String reservationId) {
         int updatedReservation = ticketReservationRepository.updateReservationStatus(reservationId, TicketReservationStatus.PENDING.toString());
         Validate.isTrue(updatedReservation == 1, "expected exactly one updated reservation, got "+updatedReservation);
+        reservationStatusNotifier.fireStatusChanged(reservationId);
         // delete all pending transactions, if any
         transactionRepository.deleteForReservationsWithStatus(List.of(reservationId), Transaction.Status.PENDING);
     }
@@ -1029,6 +1047,7 @@ public class TicketReservationManager {
             customerName.getFullName(), customerName.getFirstName(), customerName.getLastName(), userLanguage, billingAddress, timestamp, paymentProxy.toString(), customerReference);
         Validate.isTrue(updatedReservation == 1, "expected exactly one updated reservation, got " + updatedReservation);
         waitingQueueManager.fireReservationConfirmed(reservationId);
+        reservationStatusNotifier.fireStatusChanged(reservationId);
         //we must notify the plugins about ticket assignment and send them by email
         TicketReservation reservation = findById(reservationId).orElseThrow(IllegalStateException::new);
         findTicketsInReservation(reservationId).stream()
@@ -1082,6 +1101,7 @@ public class TicketReservationManager {
             extensionManager.handleReservationsExpiredForEvent(event, reservationIds);
             billingDocumentRepository.deleteForReservations(reservationIds, eventId);
             transactionRepository.deleteForReservations(reservationIds);
+            waitingQueueManager.fireSeatsReleased(eventId);
         });
         //
         ticketReservationRepository.remove(expiredReservationIds);
@@ -1298,7 +1318,10 @@ public class TicketReservationManager {
     }
 
     String reservationUrl(TicketReservation reservation, Event event) {
-        var baseUrl = configurationManager.getFor(BASE_URL, ConfigurationLevel.event(event)).getRequiredValue();
+        return reservationUrl(configurationManager.getFor(BASE_URL, ConfigurationLevel.event(event)).getRequiredValue(), reservation, event);
+    }
+
+    public static String reservationUrl(String baseUrl, TicketReservation reservation, Event event) {
         return StringUtils.removeEnd(baseUrl, "/")
             + "/event/" + event.getShortName() + "/reservation/" + reservation.getId() + "?lang="+reservation.getUserLanguage();
     }
@@ -1312,9 +1335,12 @@ public class TicketReservationManager {
 
     public String ticketUpdateUrl(Event event, String ticketId) {
         Ticket ticket = ticketRepository.findByUUID(ticketId);
-        var baseUrl = configurationManager.getFor(BASE_URL, ConfigurationLevel.event(event)).getRequiredValue();
+        return ticketUpdateUrl(configurationManager.getFor(BASE_URL, ConfigurationLevel.event(event)).getRequiredValue(), event, ticketId, ticket.getUserLanguage());
+    }
+
+    public static String ticketUpdateUrl(String baseUrl, Event event, String ticketId, String userLanguage) {
         return StringUtils.removeEnd(baseUrl, "/")
-            + "/event/" + event.getShortName() + "/ticket/" + ticketId + "/update?lang="+ticket.getUserLanguage();
+            + "/event/" + event.getShortName() + "/ticket/" + ticketId + "/update?lang="+userLanguage;
     }
 
     public int maxAmountOfTicketsForCategory(EventAndOrganizationId eventAndOrganizationId, int ticketCategoryId, String promoCode) {
@@ -1334,16 +1360,6 @@ public class TicketReservationManager {
         return ticketReservationRepository.findOptionalReservationById(reservationId);
     }
 
-    private Optional<TicketReservation> findByIdForNotification(String reservationId, ZoneId eventZoneId, int quietPeriod) {
-        return findById(reservationId).filter(notificationNotSent(eventZoneId, quietPeriod));
-    }
-
-    private static Predicate<TicketReservation> notificationNotSent(ZoneId eventZoneId, int quietPeriod) {
-        return r -> r.latestNotificationTimestamp(eventZoneId)
-                .map(t -> t.truncatedTo(ChronoUnit.DAYS).plusDays(quietPeriod).isBefore(ZonedDateTime.now(eventZoneId).truncatedTo(ChronoUnit.DAYS)))
-                .orElse(true);
-    }
-
     public void cancelPendingReservation(String reservationId, boolean expired, String username) {
         cancelPendingReservation(ticketReservationRepository.findReservationById(reservationId), expired, username);
     }
@@ -1358,6 +1374,7 @@ public class TicketReservationManager {
         Event event = eventRepository.findByReservationId(reservationId);
         cleanupReferencesToReservation(expired, username, reservationId, event);
         removeReservation(event, reservation, expired, username);
+        reservationStatusNotifier.fireStatusChanged(reservationId);
     }
 
     private void creditReservation(TicketReservation reservation, String username) {
@@ -1382,6 +1399,9 @@ public class TicketReservationManager {
         Validate.isTrue(updatedTickets  + updatedAS > 0, "no items have been updated");
         transactionRepository.deleteForReservations(List.of(reservationId));
         waitingQueueManager.fireReservationExpired(reservationId);
+        if(updatedTickets > 0) {
+            waitingQueueManager.fireSeatsReleased(event.getId());
+        }
         auditingRepository.insert(reservationId, userRepository.nullSafeFindIdByUserName(username).orElse(null), event.getId(), expired ? Audit.EventType.CANCEL_RESERVATION_EXPIRED : Audit.EventType.CANCEL_RESERVATION, new Date(), Audit.EntityType.RESERVATION, reservationId);
     }
 
@@ -1513,6 +1533,24 @@ public class TicketReservationManager {
         return userDetails.flatMap(u -> u.getAuthorities().stream().map(a -> Role.fromRoleName(a.getAuthority())).filter(Role.ADMIN::equals).findFirst()).isPresent();
     }
 
+    /**
+     * Sends the given tickets to their holders, enqueueing all the messages at once.
+     */
+    void sendTicketsByEmail(List<Ticket> tickets, Event event, TicketReservation reservation) {
+        if(tickets.isEmpty()) {
+            return;
+        }
+        var organization = organizationRepository.getById(event.getOrganizationId());
+        var categories = ticketCategoryRepository.findByEventIdAsMap(event.getId());
+        var messages = tickets.stream()
+            .map(t -> {
+                Locale locale = LocaleUtil.forLanguageTag(t.getUserLanguage());
+                return notificationManager.buildTicketEmail(t, event, locale, getTicketEmailGenerator(event, reservation, locale), reservation, categories.get(t.getCategoryId()), organization);
+            })
+            .collect(toList());
+        notificationManager.sendSimpleEmails(event, messages);
+    }
+
     void sendTicketByEmail(Ticket ticket, Locale locale, EventAndOrganizationId event, PartialTicketTextGenerator confirmationTextBuilder) {
         TicketReservation reservation = ticketReservationRepository.findReservationById(ticket.getTicketsReservationId());
         TicketCategory ticketCategory = ticketCategoryRepository.getByIdAndActive(ticket.getCategoryId(), event.getId());
@@ -1550,27 +1588,37 @@ public class TicketReservationManager {
 
     public void sendReminderForOfflinePayments() {
         Date expiration = truncate(addHours(new Date(), configurationManager.getForSystem(OFFLINE_REMINDER_HOURS).getValueAsIntOrDefault(24)), Calendar.DATE);
-        ticketReservationRepository.findAllOfflinePaymentReservationForNotificationForUpdate(expiration).stream()
+        processReminderChunks("",
+            lastReservationId -> ticketReservationRepository.findOfflinePaymentReservationForNotificationForUpdate(expiration, lastReservationId, REMINDER_CHUNK_SIZE),
+            TicketReservation::getId,
+            this::sendOfflinePaymentReminders);
+    }
+
+    private void sendOfflinePaymentReminders(List<TicketReservation> candidates) {
+        Map<String, TicketReservation> reservationsById = candidates.stream().collect(toMap(TicketReservation::getId, Function.identity()));
+        Map<Integer, List<TicketReservation>> reservationsByEvent = ticketReservationRepository.getReservationIdAndEventId(reservationsById.keySet()).stream()
+            .collect(groupingBy(ReservationIdAndEventId::getEventId, mapping(r -> reservationsById.get(r.getId()), toList())));
+        eventRepository.findByIds(reservationsByEvent.keySet()).forEach(event -> {
+            Date expiration = truncate(addHours(new Date(), configurationManager.getFor(OFFLINE_REMINDER_HOURS, ConfigurationLevel.event(event)).getValueAsIntOrDefault(24)), Calendar.DATE);
+            List<TicketReservation> reservations = reservationsByEvent.get(event.getId()).stream()
+                .filter(r -> expiration.compareTo(r.getValidity()) >= 0)
+                .collect(toList());
+            if(reservations.isEmpty()) {
+                return;
+            }
+            ticketReservationRepository.flagAsOfflinePaymentReminderSent(reservations.stream().map(TicketReservation::getId).collect(toList()));
+            var messageSource = messageSourceManager.getMessageSourceForEvent(event);
+            var templates = compiledTemplates(event, TemplateResource.REMINDER_EMAIL);
+            var messages = reservations.stream()
                 .map(reservation -> {
-                    Optional<Ticket> ticket = ticketRepository.findFirstTicketInReservation(reservation.getId());
-                    Optional<Event> event = ticket.map(t -> eventRepository.findById(t.getEventId()));
-                    Optional<Locale> locale = ticket.map(t -> LocaleUtil.forLanguageTag(t.getUserLanguage()));
-                    return Triple.of(reservation, event, locale);
+                    Locale locale = getReservationLocale(reservation);
+                    return new NotificationManager.SimpleEmail(reservation.getId(), reservation.getEmail(), List.of(),
+                        messageSource.getMessage("reservation.reminder.mail.subject", new Object[]{getShortReservationID(event, reservation)}, locale),
+                        templates.apply(locale).apply(prepareModelForReservationEmail(event, reservation)), List.of());
                 })
-                .filter(p -> p.getMiddle().isPresent())
-                .filter(p -> {
-                    Event event = p.getMiddle().get();
-                    return truncate(addHours(new Date(), configurationManager.getFor(OFFLINE_REMINDER_HOURS, ConfigurationLevel.event(event)).getValueAsIntOrDefault(24)), Calendar.DATE).compareTo(p.getLeft().getValidity()) >= 0;
-                })
-                .map(p -> Triple.of(p.getLeft(), p.getMiddle().orElseThrow(), p.getRight().orElseThrow()))
-                .forEach(p -> {
-                    TicketReservation reservation = p.getLeft();
-                    Event event = p.getMiddle();
-                    Map<String, Object> model = prepareModelForReservationEmail(event, reservation);
-                    Locale locale = p.getRight();
-                    ticketReservationRepository.flagAsOfflinePaymentReminderSent(reservation.getId());
-                    notificationManager.sendSimpleEmail(event, reservation.getId(), reservation.getEmail(), messageSourceManager.getMessageSourceForEvent(event).getMessage("reservation.reminder.mail.subject", new Object[]{getShortReservationID(event, reservation)}, locale), () -> templateManager.renderTemplate(event, TemplateResource.REMINDER_EMAIL, model, locale));
-                });
+                .collect(toList());
+            notificationManager.sendSimpleEmails(event, messages);
+        });
     }
 
     //called each hour
@@ -1596,39 +1644,46 @@ public class TicketReservationManager {
     }
 
     public void sendReminderForTicketAssignment() {
-        getNotifiableEventsStream()
-                .map(e -> Pair.of(e, ticketRepository.findAllReservationsConfirmedButNotAssignedForUpdate(e.getId())))
-                .filter(p -> !p.getRight().isEmpty())
-                .forEach(p -> Wrappers.voidTransactionWrapper(this::sendAssignmentReminder, p));
+        getNotifiableEventsStream().forEach(this::sendAssignmentReminder);
     }
 
     public void sendReminderForOptionalData() {
         getNotifiableEventsStream()
                 .filter(e -> configurationManager.getFor(OPTIONAL_DATA_REMINDER_ENABLED, ConfigurationLevel.event(e)).getValueAsBooleanOrDefault(true))
                 .filter(e -> ticketFieldRepository.countAdditionalFieldsForEvent(e.getId()) > 0)
-                .map(e -> Pair.of(e, ticketRepository.findAllAssignedButNotYetNotifiedForUpdate(e.getId())))
-                .filter(p -> !p.getRight().isEmpty())
-                .forEach(p -> Wrappers.voidTransactionWrapper(this::sendOptionalDataReminder, p));
+                .forEach(this::sendOptionalDataReminder);
     }
 
-    private void sendOptionalDataReminder(Pair<Event, List<Ticket>> eventAndTickets) {
-        nestedTransactionTemplate.execute(ts -> {
-            Event event = eventAndTickets.getLeft();
+    private void sendOptionalDataReminder(Event event) {
+        try {
             var messageSource = messageSourceManager.getMessageSourceForEvent(event);
-            int daysBeforeStart = configurationManager.getFor(ASSIGNMENT_REMINDER_START, ConfigurationLevel.event(event)).getValueAsIntOrDefault(10);
-            List<Ticket> tickets = eventAndTickets.getRight().stream().filter(t -> !ticketFieldRepository.hasOptionalData(t.getId())).collect(toList());
-            Set<String> notYetNotifiedReservations = tickets.stream().map(Ticket::getTicketsReservationId).distinct().filter(rid -> findByIdForNotification(rid, event.getZoneId(), daysBeforeStart).isPresent()).collect(toSet());
-            tickets.stream()
-                    .filter(t -> notYetNotifiedReservations.contains(t.getTicketsReservationId()))
-                    .forEach(t -> {
-                        int result = ticketRepository.flagTicketAsReminderSent(t.getId());
-                        Validate.isTrue(result == 1);
-                        Map<String, Object> model = TemplateResource.prepareModelForReminderTicketAdditionalInfo(organizationRepository.getById(event.getOrganizationId()), event, t, ticketUpdateUrl(event, t.getUuid()));
-                        Locale locale = Optional.ofNullable(t.getUserLanguage()).map(LocaleUtil::forLanguageTag).orElseGet(() -> findReservationLanguage(t.getTicketsReservationId()));
-                        notificationManager.sendSimpleEmail(event, t.getTicketsReservationId(), t.getEmail(), messageSource.getMessage("reminder.ticket-additional-info.subject", new Object[]{event.getDisplayName()}, locale), () -> templateManager.renderTemplate(event, TemplateResource.REMINDER_TICKET_ADDITIONAL_INFO, model, locale));
-                    });
-            return null;
-        });
+            int quietPeriod = configurationManager.getFor(ASSIGNMENT_REMINDER_START, ConfigurationLevel.event(event)).getValueAsIntOrDefault(10);
+            ZonedDateTime notifiedBefore = reminderThreshold(event.getZoneId(), quietPeriod);
+            Organization organization = organizationRepository.getById(event.getOrganizationId());
+            String baseUrl = configurationManager.getFor(BASE_URL, ConfigurationLevel.event(event)).getRequiredValue();
+            var templates = compiledTemplates(event, TemplateResource.REMINDER_TICKET_ADDITIONAL_INFO);
+            processReminderChunks(0,
+                lastTicketId -> ticketRepository.findAssignedWithoutOptionalDataForUpdate(event.getId(), notifiedBefore, lastTicketId, REMINDER_CHUNK_SIZE),
+                Ticket::getId,
+                tickets -> {
+                    int flagged = ticketRepository.flagTicketsAsReminderSent(tickets.stream().map(Ticket::getId).collect(toList()));
+                    Validate.isTrue(flagged == tickets.size(), String.format("Expected %d tickets to be flagged, got %d", tickets.size(), flagged));
+                    Map<String, Locale> reservationLocales = new HashMap<>();
+                    var messages = tickets.stream()
+                        .map(t -> {
+                            Map<String, Object> model = TemplateResource.prepareModelForReminderTicketAdditionalInfo(organization, event, t, ticketUpdateUrl(baseUrl, event, t.getUuid(), t.getUserLanguage()));
+                            Locale locale = Optional.ofNullable(t.getUserLanguage()).map(LocaleUtil::forLanguageTag)
+                                .orElseGet(() -> reservationLocales.computeIfAbsent(t.getTicketsReservationId(), this::findReservationLanguage));
+                            return new NotificationManager.SimpleEmail(t.getTicketsReservationId(), t.getEmail(), List.of(),
+                                messageSource.getMessage("reminder.ticket-additional-info.subject", new Object[]{event.getDisplayName()}, locale),
+                                templates.apply(locale).apply(model), List.of());
+                        })
+                        .collect(toList());
+                    notificationManager.sendSimpleEmails(event, messages);
+                });
+        } catch (Exception ex) {
+            log.warn("cannot send reminder message", ex);
+        }
     }
 
     Stream<Event> getNotifiableEventsStream() {
@@ -1640,30 +1695,70 @@ public class TicketReservationManager {
                 });
     }
 
-    private void sendAssignmentReminder(Pair<Event, Set<String>> p) {
+    private void sendAssignmentReminder(Event event) {
         try {
-            nestedTransactionTemplate.execute(ts -> {
-                Event event = p.getLeft();
-                var messageSource = messageSourceManager.getMessageSourceForEvent(event);
-                ZoneId eventZoneId = event.getZoneId();
-                int quietPeriod = configurationManager.getFor(ASSIGNMENT_REMINDER_INTERVAL, ConfigurationLevel.event(event)).getValueAsIntOrDefault(3);
-                p.getRight().stream()
-                    .map(id -> findByIdForNotification(id, eventZoneId, quietPeriod))
-                    .filter(Optional::isPresent)
-                    .map(Optional::get)
-                    .forEach(reservation -> {
-                        Map<String, Object> model = prepareModelForReservationEmail(event, reservation);
-                        ticketReservationRepository.updateLatestReminderTimestamp(reservation.getId(), ZonedDateTime.now(eventZoneId));
-                        Locale locale = findReservationLanguage(reservation.getId());
-                        notificationManager.sendSimpleEmail(event, reservation.getId(), reservation.getEmail(), messageSource.getMessage("reminder.ticket-not-assigned.subject", new Object[]{event.getDisplayName()}, locale), () -> templateManager.renderTemplate(event, TemplateResource.REMINDER_TICKETS_ASSIGNMENT_EMAIL, model, locale));
-                    });
-                return null;
-            });
+            var messageSource = messageSourceManager.getMessageSourceForEvent(event);
+            ZoneId eventZoneId = event.getZoneId();
+            int quietPeriod = configurationManager.getFor(ASSIGNMENT_REMINDER_INTERVAL, ConfigurationLevel.event(event)).getValueAsIntOrDefault(3);
+            ZonedDateTime notifiedBefore = reminderThreshold(eventZoneId, quietPeriod);
+            var templates = compiledTemplates(event, TemplateResource.REMINDER_TICKETS_ASSIGNMENT_EMAIL);
+            processReminderChunks("",
+                lastReservationId -> ticketReservationRepository.findConfirmedButNotAssignedForUpdate(event.getId(), notifiedBefore, lastReservationId, REMINDER_CHUNK_SIZE),
+                TicketReservation::getId,
+                reservations -> {
+                    ticketReservationRepository.updateLatestReminderTimestamp(reservations.stream().map(TicketReservation::getId).collect(toList()), ZonedDateTime.now(eventZoneId));
+                    var messages = reservations.stream()
+                        .map(reservation -> {
+                            Locale locale = getReservationLocale(reservation);
+                            return new NotificationManager.SimpleEmail(reservation.getId(), reservation.getEmail(), List.of(),
+                                messageSource.getMessage("reminder.ticket-not-assigned.subject", new Object[]{event.getDisplayName()}, locale),
+                                templates.apply(locale).apply(prepareModelForReservationEmail(event, reservation)), List.of());
+                        })
+                        .collect(toList());
+                    notificationManager.sendSimpleEmails(event, messages);
+                });
         } catch (Exception ex) {
             log.warn("cannot send reminder message", ex);
         }
     }
 
+    /**
+     * Loads the reminder candidates in chunks, ordered by key, and hands each chunk to the given handler in its own transaction.
+     * Since the handler flags the candidates in the same transaction in which the emails are enqueued, an interrupted job
+     * resumes from the first chunk that was not committed.
+     */
+    private <T, K> void processReminderChunks(K firstKey, Function<K, List<T>> loader, Function<T, K> keyExtractor, Consumer<List<T>> handler) {
+        K lastKey = firstKey;
+        boolean hasMore = true;
+        while(hasMore) {
+            K key = lastKey;
+            List<T> chunk = requiresNewTransactionTemplate.execute(status -> {
+                List<T> candidates = loader.apply(key);
+                if(!candidates.isEmpty()) {
+                    handler.accept(candidates);
+                }
+                return candidates;
+            });
+            hasMore = chunk != null && chunk.size() == REMINDER_CHUNK_SIZE;
+            if(hasMore) {
+                lastKey = keyExtractor.apply(chunk.get(chunk.size() - 1));
+            }
+        }
+    }
+
+    private Function<Locale, Function<Map<String, Object>, String>> compiledTemplates(Event event, TemplateResource templateResource) {
+        Map<Locale, Function<Map<String, Object>, String>> templates = new HashMap<>();
+        return locale -> templates.computeIfAbsent(locale, l -> templateManager.compileTemplate(event, templateResource, l));
+    }
+
+    /**
+     * A reservation can be reminded again only if the latest reminder has been sent before the beginning of the day
+     * that is {@code quietPeriod} days before today, in the event time zone.
+     */
+    static ZonedDateTime reminderThreshold(ZoneId eventZoneId, int quietPeriod) {
+        return ZonedDateTime.now(eventZoneId).truncatedTo(ChronoUnit.DAYS).minusDays(quietPeriod);
+    }
+
     public TicketReservation findByPartialID(String reservationId) {
         Validate.notBlank(reservationId, "invalid reservationId");
         Validate.matchesPattern(reservationId, "^[^%]*$", "invalid character found");
@@ -1710,6 +1805,7 @@ public class TicketReservationManager {
         if(category.isAccessRestricted() || !category.isBounded()) {
             ticketRepository.unbindTicketsFromCategory(event.getId(), category.getId(), singletonList(ticket.getId()));
         }
+        waitingQueueManager.fireSeatsReleased(event.getId());
         Organization organization = organizationRepository.getById(event.getOrganizationId());
         Map<String, Object> model = TemplateResource.buildModelForTicketHasBeenCancelled(organization, event, ticket);
         Locale locale = LocaleUtil.forLanguageTag(Optional.ofNullable(ticket.getUserLanguage()).orElse("en"));
@@ -1762,14 +1858,6 @@ public class TicketReservationManager {
         return ticketReservationRepository.findAllReservationsWaitingForPaymentCountInEventId(eventId);
     }
 
-    public List<Pair<TicketReservation, BillingDocument>> findAllInvoices(int eventId) {
-        List<BillingDocument> documents = billingDocumentRepository.findAllOfTypeForEvent(BillingDocument.Type.INVOICE, eventId);
-        Map<String, BillingDocument> documentsByReservationId = documents.stream().collect(toMap(BillingDocument::getReservationId, Function.identity()));
-        return ticketReservationRepository.findByIds(documentsByReservationId.keySet()).stream()
-            .map(r -> Pair.of(r, documentsByReservationId.get(r.getId())))
-            .collect(toList());
-    }
-
     public Integer countInvoices(int eventId) {
         return ticketReservationRepository.countInvoices(eventId);
     }
@@ -1860,6 +1948,12 @@ public class TicketReservationManager {
     }
 
     public PaymentWebhookResult processTransactionWebhook(String body, String signature, PaymentMethod paymentMethod) {
+        var result = processSignedTransactionWebhook(body, signature, paymentMethod);
+        Metrics.counter(ApplicationMetrics.PAYMENT_WEBHOOK, "method", paymentMethod.name(), "result", result.getType().name()).increment();
+        return result;
+    }
+
+    private PaymentWebhookResult processSignedTransactionWebhook(String body, String signature, PaymentMethod paymentMethod) {
         //load the payment provider using system configuration
         var paymentProviderOptional = paymentManager.lookupProviderByMethod(paymentMethod, new PaymentContext())
             .filter(pp -> pp instanceof SignedWebhookHandler);
@@ -1904,6 +1998,7 @@ public class TicketReservationManager {
                             String status = WAITING_EXTERNAL_CONFIRMATION.name();
                             log.trace("Event {} received. Setting status {} for reservation {}", transactionPayload.getType(), status, reservation.getId());
                             ticketReservationRepository.updateReservationStatus(reservation.getId(), status);
+                            reservationStatusNotifier.fireStatusChanged(reservation.getId());
                         } else {
                             log.trace("Ignoring Event {}, as it cannot be applied for reservation {} ({})", transactionPayload.getType(), reservation.getId(), reservation.getStatus());
                         }
@@ -2024,6 +2119,7 @@ public class TicketReservationManager {
             return false;
         }
         ticketReservationRepository.updateReservationStatus(reservation.getId(), EXTERNAL_PROCESSING_PAYMENT.name());
+        reservationStatusNotifier.fireStatusChanged(reservation.getId());
         return true;
     }
 
@@ -40,9 +40,12 @@ import org.apache.commons.lang3.tuple.Pair;
 import org.apache.commons.lang3.tuple.Triple;
 import org.springframework.dao.DuplicateKeyException;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import java.time.ZonedDateTime;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.IntSupplier;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -66,6 +69,7 @@ public class WaitingQueueManager {
     private final OrganizationRepository organizationRepository;
     private final EventRepository eventRepository;
     private final ExtensionManager extensionManager;
+    private final Set<Integer> eventsWithReleasedSeats = ConcurrentHashMap.newKeySet();
 
     public boolean subscribe(Event event, CustomerName customerName, String email, Integer selectedCategoryId, Locale userLanguage) {
         try {
@@ -259,6 +263,38 @@ public class WaitingQueueManager {
         waitingQueueRepository.bulkUpdateExpiredReservations(Collections.singletonList(reservationId));
     }
 
+    /**
+     * Signals that some seats have been released for the given event, so that they can be assigned to the waiting list
+     * without waiting for the periodic sweep. If there is an active transaction, the signal is delivered after commit.
+     *
+     * @param eventId the event id
+     */
+    public void fireSeatsReleased(int eventId) {
+        if(TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCommit() {
+                    eventsWithReleasedSeats.add(eventId);
+                }
+            });
+        } else {
+            eventsWithReleasedSeats.add(eventId);
+        }
+    }
+
+    /**
+     * @return the ids of the events which have released seats since the last invocation
+     */
+    public Set<Integer> drainEventsWithReleasedSeats() {
+        Set<Integer> result = new HashSet<>();
+        Iterator<Integer> iterator = eventsWithReleasedSeats.iterator();
+        while(iterator.hasNext()) {
+            result.add(iterator.next());
+            iterator.remove();
+        }
+        return result;
+    }
+
     public void cleanExpiredReservations(List<String> reservationIds) {
         waitingQueueRepository.bulkUpdateExpiredReservations(reservationIds);
     }
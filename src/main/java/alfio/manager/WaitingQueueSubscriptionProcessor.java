@@ -25,6 +25,7 @@ import alfio.model.TicketInfo;
 import alfio.model.WaitingQueueSubscription;
 import alfio.model.modification.TicketReservationWithOptionalCodeModification;
 import alfio.model.user.Organization;
+import alfio.repository.EventRepository;
 import alfio.repository.TicketRepository;
 import alfio.repository.WaitingQueueRepository;
 import alfio.util.TemplateManager;
@@ -65,27 +66,45 @@ public class WaitingQueueSubscriptionProcessor {
     private final TemplateManager templateManager;
     private final TicketRepository ticketRepository;
     private final PlatformTransactionManager transactionManager;
+    private final EventRepository eventRepository;
 
     public void handleWaitingTickets() {
         Map<Boolean, List<Event>> activeEvents = eventManager.getActiveEvents().stream()
             .collect(Collectors.partitioningBy(this::isWaitingListFormEnabled));
-        activeEvents.get(true).forEach(event -> {
-            TransactionStatus transaction = transactionManager.getTransaction(new DefaultTransactionDefinition(TransactionDefinition.PROPAGATION_REQUIRES_NEW));
-            try {
-                ticketReservationManager.revertTicketsToFreeIfAccessRestricted(event.getId());
-                revertTicketToFreeIfCategoryIsExpired(event);
-                distributeAvailableSeats(event);
-                transactionManager.commit(transaction);
-            } catch(Exception ex) {
-                if(!(ex instanceof TransactionException)) {
-                    transactionManager.rollback(transaction);
-                }
-                log.error("cannot process waiting list for event {}", event.getShortName(), ex);
-            }
-        });
+        activeEvents.get(true).forEach(this::processEvent);
         activeEvents.get(false).forEach(eventManager::resetReleasedTickets);
     }
 
+    /**
+     * Distributes the seats released since the last run, only for the events which actually released them.
+     * The seats of the events without a waiting list are made available for sale again.
+     */
+    public void handleReleasedSeats() {
+        Set<Integer> eventIds = waitingQueueManager.drainEventsWithReleasedSeats();
+        if(eventIds.isEmpty()) {
+            return;
+        }
+        Map<Boolean, List<Event>> events = eventRepository.findByIds(eventIds).stream()
+            .collect(Collectors.partitioningBy(this::isWaitingListFormEnabled));
+        events.get(true).forEach(this::processEvent);
+        events.get(false).forEach(eventManager::resetReleasedTickets);
+    }
+
+    private void processEvent(Event event) {
+        TransactionStatus transaction = transactionManager.getTransaction(new DefaultTransactionDefinition(TransactionDefinition.PROPAGATION_REQUIRES_NEW));
+        try {
+            ticketReservationManager.revertTicketsToFreeIfAccessRestricted(event.getId());
+            revertTicketToFreeIfCategoryIsExpired(event);
+            distributeAvailableSeats(event);
+            transactionManager.commit(transaction);
+        } catch(Exception ex) {
+            if(!(ex instanceof TransactionException)) {
+                transactionManager.rollback(transaction);
+            }
+            log.error("cannot process waiting list for event {}", event.getShortName(), ex);
+        }
+    }
+
     public void revertTicketToFreeIfCategoryIsExpired(Event event) {
         int eventId = event.getId();
         List<TicketInfo> releasedButExpired = ticketRepository.findReleasedBelongingToExpiredCategories(eventId, ZonedDateTime.now(event.getZoneId()));
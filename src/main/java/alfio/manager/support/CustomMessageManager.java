@@ -19,108 +19,219 @@ package alfio.manager.support;
 import alfio.manager.EventManager;
 import alfio.manager.NotificationManager;
 import alfio.manager.TicketReservationManager;
+import alfio.manager.system.ConfigurationLevel;
+import alfio.manager.system.ConfigurationManager;
 import alfio.manager.system.Mailer;
 import alfio.model.*;
 import alfio.model.modification.MessageModification;
 import alfio.model.user.Organization;
-import alfio.repository.TicketCategoryRepository;
-import alfio.repository.TicketRepository;
+import alfio.repository.*;
+import alfio.repository.user.OrganizationRepository;
 import alfio.util.Json;
 import alfio.util.TemplateManager;
 import lombok.extern.log4j.Log4j2;
-import org.apache.commons.lang3.tuple.Triple;
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.ui.ExtendedModelMap;
 import org.springframework.ui.Model;
 
+import javax.annotation.PreDestroy;
+import java.time.ZonedDateTime;
 import java.util.*;
-import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
+import static alfio.manager.NotificationManager.UTC;
+import static alfio.model.system.ConfigurationKeys.*;
+import static java.util.stream.Collectors.*;
 import static org.apache.commons.lang3.StringUtils.isNotBlank;
 
 @Component
 @Log4j2
 public class CustomMessageManager {
 
+    static final int CHUNK_SIZE = 500;
+
     private final TemplateManager templateManager;
     private final EventManager eventManager;
+    private final EventRepository eventRepository;
+    private final OrganizationRepository organizationRepository;
     private final TicketRepository ticketRepository;
-    private final TicketReservationManager ticketReservationManager;
-    private final NotificationManager notificationManager;
+    private final TicketReservationRepository ticketReservationRepository;
     private final TicketCategoryRepository ticketCategoryRepository;
-    private final Executor sendMessagesExecutor = Executors.newSingleThreadExecutor();
+    private final CustomMessageCampaignRepository customMessageCampaignRepository;
+    private final NotificationManager notificationManager;
+    private final ConfigurationManager configurationManager;
+    private final TransactionTemplate transactionTemplate;
+    private final ExecutorService sendMessagesExecutor = Executors.newSingleThreadExecutor(
+        new BasicThreadFactory.Builder().namingPattern("custom-message-campaign-%d").daemon(true).build());
 
     @Autowired
     public CustomMessageManager(TemplateManager templateManager,
                                 EventManager eventManager,
+                                EventRepository eventRepository,
+                                OrganizationRepository organizationRepository,
                                 TicketRepository ticketRepository,
-                                TicketReservationManager ticketReservationManager,
+                                TicketReservationRepository ticketReservationRepository,
+                                TicketCategoryRepository ticketCategoryRepository,
+                                CustomMessageCampaignRepository customMessageCampaignRepository,
                                 NotificationManager notificationManager,
-                                TicketCategoryRepository ticketCategoryRepository) {
+                                ConfigurationManager configurationManager,
+                                PlatformTransactionManager transactionManager) {
         this.templateManager = templateManager;
         this.eventManager = eventManager;
+        this.eventRepository = eventRepository;
+        this.organizationRepository = organizationRepository;
         this.ticketRepository = ticketRepository;
-        this.ticketReservationManager = ticketReservationManager;
-        this.notificationManager = notificationManager;
+        this.ticketReservationRepository = ticketReservationRepository;
         this.ticketCategoryRepository = ticketCategoryRepository;
+        this.customMessageCampaignRepository = customMessageCampaignRepository;
+        this.notificationManager = notificationManager;
+        this.configurationManager = configurationManager;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        sendMessagesExecutor.shutdown();
     }
 
     public Map<String, Object> generatePreview(String eventName, Optional<Integer> categoryId, List<MessageModification> input, String username) {
         Map<String, Object> result = new HashMap<>();
         Event event = eventManager.getSingleEvent(eventName, username);
-        result.put("affectedUsers", categoryId.map(id -> ticketRepository.countAssignedTickets(event.getId(), id)).orElseGet(() -> ticketRepository.countAllAssigned(event.getId())));
+        result.put("affectedUsers", countRecipients(event, categoryId));
         result.put("preview", preview(event, input, username));
         return result;
     }
 
-    public void sendMessages(String eventName, Optional<Integer> categoryId, List<MessageModification> input, String username) {
+    /**
+     * Saves a new campaign. Messages are then generated in chunks by {@link #processPendingCampaigns()},
+     * so that the campaign can be resumed if the application is restarted.
+     *
+     * @return the id of the new campaign
+     */
+    public long sendMessages(String eventName, Optional<Integer> categoryId, List<MessageModification> input, String username) {
 
         Event event = eventManager.getSingleEvent(eventName, username);
         preview(event, input, username);//dry run for checking the syntax
-        Organization organization = eventManager.loadOrganizer(event, username);
-        AtomicInteger counter = new AtomicInteger();
-        Map<String, List<MessageModification>> byLanguage = input.stream().collect(Collectors.groupingBy(m -> m.getLocale().getLanguage()));
-
-        sendMessagesExecutor.execute(() -> {
-            categoryId.map(id -> ticketRepository.findConfirmedByCategoryId(event.getId(), id))
-                .orElseGet(() -> ticketRepository.findAllConfirmed(event.getId()))
-                .stream()
-                .filter(t -> isNotBlank(t.getFullName()) && isNotBlank(t.getEmail()))
-                .parallel()
-                .map(t -> {
-                    Model model = new ExtendedModelMap();
-                    model.addAttribute("eventName", eventName);
-                    model.addAttribute("fullName", t.getFullName());
-                    model.addAttribute("organizationName", organization.getName());
-                    model.addAttribute("organizationEmail", organization.getEmail());
-                    model.addAttribute("reservationURL", ticketReservationManager.reservationUrl(t.getTicketsReservationId(), event));
-                    model.addAttribute("reservationID", ticketReservationManager.getShortReservationID(event, t.getTicketsReservationId()));
-                    model.addAttribute("ticketURL", ticketReservationManager.ticketUpdateUrl(event, t.getUuid()));
-                    return Triple.of(t, t.getEmail(), model);
-                })
-                .forEach(triple -> {
-                    Ticket ticket = triple.getLeft();
-                    MessageModification m = Optional.ofNullable(byLanguage.get(ticket.getUserLanguage())).orElseGet(() -> byLanguage.get(byLanguage.keySet().stream().findFirst().orElseThrow(IllegalStateException::new))).get(0);
-                    Model model = triple.getRight();
-                    String subject = renderResource(m.getSubject(), event, model, m.getLocale(), templateManager);
-                    String text = renderResource(m.getText(), event, model, m.getLocale(), templateManager);
-                    List<Mailer.Attachment> attachments = new ArrayList<>();
-                    if(m.isAttachTicket()) {
-                        ticketReservationManager.findById(ticket.getTicketsReservationId()).ifPresent(reservation -> {
-                            ticketCategoryRepository.getByIdAndActive(ticket.getCategoryId()).ifPresent(ticketCategory -> {
-                                attachments.add(generateTicketAttachment(ticket, reservation, ticketCategory, organization));
-                            });
-                        });
-                    }
-                    counter.incrementAndGet();
-                    notificationManager.sendSimpleEmail(event, ticket.getTicketsReservationId(), triple.getMiddle(), subject, () -> text, attachments);
-                });
-        });
+        long campaignId = customMessageCampaignRepository.insert(event.getId(), event.getOrganizationId(), categoryId.orElse(null),
+            input, countRecipients(event, categoryId), username, ZonedDateTime.now(UTC)).getKey();
+        log.info("Scheduled custom message campaign {} for event {}", campaignId, eventName);
+
+        if(TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCommit() {
+                    sendMessagesExecutor.execute(CustomMessageManager.this::processPendingCampaigns);
+                }
+            });
+        } else {
+            sendMessagesExecutor.execute(this::processPendingCampaigns);
+        }
+        return campaignId;
+    }
+
+    public List<CustomMessageCampaign> findCampaigns(String eventName, String username) {
+        Event event = eventManager.getSingleEvent(eventName, username);
+        return customMessageCampaignRepository.findByEventId(event.getId());
+    }
 
+    public Optional<CustomMessageCampaign> findCampaign(String eventName, long campaignId, String username) {
+        Event event = eventManager.getSingleEvent(eventName, username);
+        return customMessageCampaignRepository.findByIdAndEventId(campaignId, event.getId());
+    }
+
+    /**
+     * Processes all the pending campaigns, one chunk at a time. Each chunk is committed together with the campaign progress,
+     * therefore messages are never enqueued twice, even if the processing is interrupted.
+     * Campaigns which are being processed by another thread or node are skipped.
+     */
+    public void processPendingCampaigns() {
+        for (Long campaignId : customMessageCampaignRepository.findPendingIds()) {
+            try {
+                boolean hasMore;
+                do {
+                    hasMore = Boolean.TRUE.equals(transactionTemplate.execute(status -> processNextChunk(campaignId)));
+                } while (hasMore);
+            } catch (Exception e) {
+                log.error("Error while processing custom message campaign {}", campaignId, e);
+                customMessageCampaignRepository.markAsFailed(campaignId, ZonedDateTime.now(UTC), e.getMessage());
+            }
+        }
+    }
+
+    private boolean processNextChunk(long campaignId) {
+        var lockedCampaign = customMessageCampaignRepository.lockPendingById(campaignId);
+        if(lockedCampaign.isEmpty()) {
+            return false;
+        }
+        var campaign = lockedCampaign.get();
+        var tickets = ticketRepository.findAssignedAfterId(campaign.getEventId(), campaign.getCategoryId(), campaign.getLastTicketId(), CHUNK_SIZE);
+        if(!tickets.isEmpty()) {
+            Event event = eventRepository.findById(campaign.getEventId());
+            var messages = generateMessages(event, campaign.getMessages(), tickets);
+            notificationManager.sendSimpleEmails(event, messages);
+            customMessageCampaignRepository.updateProgress(campaignId, tickets.get(tickets.size() - 1).getId(), messages.size(), ZonedDateTime.now(UTC));
+            log.debug("Campaign {}: enqueued {} messages", campaignId, messages.size());
+        }
+        if(tickets.size() < CHUNK_SIZE) {
+            customMessageCampaignRepository.markAsCompleted(campaignId, ZonedDateTime.now(UTC));
+            log.info("Custom message campaign {} completed", campaignId);
+            return false;
+        }
+        return true;
+    }
+
+    private List<NotificationManager.SimpleEmail> generateMessages(Event event, List<MessageModification> input, List<Ticket> tickets) {
+        var recipients = tickets.stream()
+            .filter(t -> isNotBlank(t.getFullName()) && isNotBlank(t.getEmail()))
+            .collect(toList());
+        if(recipients.isEmpty()) {
+            return List.of();
+        }
+        Organization organization = organizationRepository.getById(event.getOrganizationId());
+        var templatesByLanguage = input.stream()
+            .collect(toMap(m -> m.getLocale().getLanguage(), m -> new CompiledMessage(m, event, templateManager), (a, b) -> a, LinkedHashMap::new));
+        var defaultTemplate = templatesByLanguage.values().iterator().next();
+        var reservations = ticketReservationRepository.findByIds(recipients.stream().map(Ticket::getTicketsReservationId).collect(toSet()))
+            .stream()
+            .collect(toMap(TicketReservation::getId, Function.identity()));
+        var categories = input.stream().anyMatch(MessageModification::isAttachTicket) ? ticketCategoryRepository.findByEventIdAsMap(event.getId()) : Map.<Integer, TicketCategory>of();
+        var conf = configurationManager.getFor(Set.of(BASE_URL, USE_INVOICE_NUMBER_AS_ID, PARTIAL_RESERVATION_ID_LENGTH), ConfigurationLevel.event(event));
+        var baseUrl = conf.get(BASE_URL).getRequiredValue();
+
+        return recipients.stream()
+            .map(ticket -> {
+                var reservation = reservations.get(ticket.getTicketsReservationId());
+                Map<String, Object> model = new HashMap<>();
+                model.put("eventName", event.getShortName());
+                model.put("fullName", ticket.getFullName());
+                model.put("organizationName", organization.getName());
+                model.put("organizationEmail", organization.getEmail());
+                model.put("reservationURL", TicketReservationManager.reservationUrl(baseUrl, reservation, event));
+                model.put("reservationID", ConfigurationManager.getShortReservationID(conf, reservation));
+                model.put("ticketURL", TicketReservationManager.ticketUpdateUrl(baseUrl, event, ticket.getUuid(), ticket.getUserLanguage()));
+                var template = templatesByLanguage.getOrDefault(ticket.getUserLanguage(), defaultTemplate);
+                List<Mailer.Attachment> attachments = new ArrayList<>();
+                var ticketCategory = categories.get(ticket.getCategoryId());
+                if(template.attachTicket && ticketCategory != null) {
+                    attachments.add(generateTicketAttachment(ticket, reservation, ticketCategory, organization));
+                }
+                return new NotificationManager.SimpleEmail(ticket.getTicketsReservationId(), ticket.getEmail(), List.of(),
+                    template.subject.apply(model), template.text.apply(model), attachments);
+            })
+            .collect(toList());
+    }
+
+    private int countRecipients(Event event, Optional<Integer> categoryId) {
+        return categoryId.map(id -> ticketRepository.countAssignedTickets(event.getId(), id)).orElseGet(() -> ticketRepository.countAllAssigned(event.getId()));
     }
 
     private List<MessageModification> preview(Event event, List<MessageModification> input, String username) {
@@ -151,4 +262,16 @@ public class CustomMessageManager {
     private static String renderResource(String template, EventAndOrganizationId event, Model model, Locale locale, TemplateManager templateManager) {
         return templateManager.renderString(event, template, model.asMap(), locale, TemplateManager.TemplateOutput.TEXT);
     }
+
+    private static class CompiledMessage {
+        private final Function<Map<String, Object>, String> subject;
+        private final Function<Map<String, Object>, String> text;
+        private final boolean attachTicket;
+
+        private CompiledMessage(MessageModification message, EventAndOrganizationId event, TemplateManager templateManager) {
+            this.subject = templateManager.compileString(event, message.getSubject(), message.getLocale(), TemplateManager.TemplateOutput.TEXT);
+            this.text = templateManager.compileString(event, message.getText(), message.getLocale(), TemplateManager.TemplateOutput.TEXT);
+            this.attachTicket = message.isAttachTicket();
+        }
+    }
 }
@@ -0,0 +1,57 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.manager.system;
+
+import alfio.repository.AdminReservationRequestRepository;
+import alfio.repository.EmailMessageRepository;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import org.springframework.stereotype.Component;
+
+/**
+ * Application-wide metrics. Meters are registered on the global registry, so that they can be updated also
+ * from static contexts (e.g. PDF rendering). The registry exposed through the admin API is added to the global
+ * one when the application starts.
+ */
+@Component
+public class ApplicationMetrics {
+
+    public static final String RESERVATION_CREATE = "alfio.reservation.create";
+    public static final String RESERVATION_PAYMENT = "alfio.reservation.payment";
+    public static final String RESERVATION_OFFLINE_PAYMENT_CONFIRM = "alfio.reservation.offline_payment.confirm";
+    public static final String RESERVATION_NOT_ENOUGH_TICKETS = "alfio.reservation.not_enough_tickets";
+    public static final String PAYMENT_WEBHOOK = "alfio.payment.webhook";
+    public static final String CHECK_IN = "alfio.check_in";
+    public static final String PDF_RENDER = "alfio.pdf.render";
+    public static final String EXTENSION_SCRIPT = "alfio.extension.script";
+    public static final String MAIL_SEND = "alfio.mail.send";
+    public static final String DATASOURCE_CONNECTIONS = "alfio.datasource.connections";
+    public static final String DATASOURCE_REPLICA_FALLBACK = "alfio.datasource.replica.fallback";
+    public static final String DATASOURCE_REPLICA_LAG = "alfio.datasource.replica.lag";
+
+    public ApplicationMetrics(EmailMessageRepository emailMessageRepository,
+                              AdminReservationRequestRepository adminReservationRequestRepository) {
+        MeterRegistry registry = Metrics.globalRegistry;
+        Gauge.builder("alfio.email.queue", emailMessageRepository, EmailMessageRepository::countWaiting)
+            .description("emails waiting to be sent")
+            .register(registry);
+        Gauge.builder("alfio.admin_reservation_request.pending", adminReservationRequestRepository, AdminReservationRequestRepository::countPending)
+            .description("admin reservation requests waiting to be processed")
+            .register(registry);
+    }
+}
@@ -42,8 +42,11 @@ import org.apache.commons.lang3.builder.CompareToBuilder;
 import org.apache.commons.lang3.tuple.Pair;
 import org.springframework.stereotype.Component;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.function.Predicate;
@@ -70,6 +73,7 @@ public class ConfigurationManager {
     private final UserManager userManager;
     private final EventRepository eventRepository;
     private final ExternalConfiguration externalConfiguration;
+    private final AtomicLong configurationVersion = new AtomicLong();
 
     //TODO: refactor, not the most beautiful code, find a better solution...
     private Optional<Configuration> findByConfigurationPathAndKey(ConfigurationPath path, ConfigurationKeys key) {
@@ -149,6 +153,7 @@ public class ConfigurationManager {
         } else {
             configurationRepository.insertOrganizationLevel(organizationId, key, value.get(), ConfigurationKeys.fromString(key).getDescription());
         }
+        configurationChanged();
     }
 
     public void saveAllOrganizationConfiguration(int organizationId, List<ConfigurationModification> list, String username) {
@@ -168,6 +173,7 @@ public class ConfigurationManager {
         } else {
             configurationRepository.insertEventLevel(organizationId, eventId, key, value.get(), ConfigurationKeys.fromString(key).getDescription());
         }
+        configurationChanged();
     }
 
     public void saveAllEventConfiguration(int eventId, int organizationId, List<ConfigurationModification> list, String username) {
@@ -201,6 +207,7 @@ public class ConfigurationManager {
                     configurationRepository.insertTicketCategoryLevel(event.getOrganizationId(), eventId, categoryId, c.getKey(), value.get(), ConfigurationKeys.fromString(c.getKey()).getDescription());
                 }
             });
+        configurationChanged();
     }
 
     private Optional<String> evaluateValue(String key, String value) {
@@ -235,6 +242,7 @@ public class ConfigurationManager {
                 configurationRepository.update(key.getValue(), value);
             }
         }
+        configurationChanged();
     }
 
     /**
@@ -395,11 +403,13 @@ public class ConfigurationManager {
 
     public void deleteKey(String key) {
         configurationRepository.deleteByKey(key);
+        configurationChanged();
     }
 
     public void deleteOrganizationLevelByKey(String key, int organizationId, String username) {
         Validate.isTrue(userManager.isOwnerOfOrganization(userManager.findUserByUsername(username), organizationId), "User is not owner of the organization. Therefore, delete is not allowed.");
         configurationRepository.deleteOrganizationLevelByKey(key, organizationId);
+        configurationChanged();
     }
 
     public void deleteEventLevelByKey(String key, int eventId, String username) {
@@ -407,6 +417,7 @@ public class ConfigurationManager {
         Validate.notNull(event, "Wrong event id");
         Validate.isTrue(userManager.isOwnerOfOrganization(userManager.findUserByUsername(username), event.getOrganizationId()), "User is not owner of the organization. Therefore, delete is not allowed.");
         configurationRepository.deleteEventLevelByKey(key, eventId);
+        configurationChanged();
     }
 
     public void deleteCategoryLevelByKey(String key, int eventId, int categoryId, String username) {
@@ -414,6 +425,30 @@ public class ConfigurationManager {
         Validate.notNull(event, "Wrong event id");
         Validate.isTrue(userManager.isOwnerOfOrganization(userManager.findUserByUsername(username), event.getOrganizationId()), "User is not owner of the organization. Therefore, delete is not allowed.");
         configurationRepository.deleteCategoryLevelByKey(key, eventId, categoryId);
+        configurationChanged();
+    }
+
+    /**
+     * Returns a counter which is incremented every time a configuration value is modified through this instance.
+     * Components caching values derived from the configuration can use it to detect stale entries.
+     *
+     * @return the current configuration version
+     */
+    public long getConfigurationVersion() {
+        return configurationVersion.get();
+    }
+
+    private void configurationChanged() {
+        configurationVersion.incrementAndGet();
+        if(TransactionSynchronizationManager.isSynchronizationActive()) {
+            // concurrent readers could have cached values read before commit
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCommit() {
+                    configurationVersion.incrementAndGet();
+                }
+            });
+        }
     }
 
     private static Map<ConfigurationKeys.SettingCategory, List<Configuration>> collectConfigurationKeysByCategory(ConfigurationPathLevel pathLevel) {
@@ -425,7 +460,17 @@ public class ConfigurationManager {
     }
 
     public String getShortReservationID(EventAndOrganizationId event, TicketReservation reservation) {
-        var conf = getFor(Set.of(USE_INVOICE_NUMBER_AS_ID, PARTIAL_RESERVATION_ID_LENGTH), ConfigurationLevel.event(event));
+        return getShortReservationID(getFor(Set.of(USE_INVOICE_NUMBER_AS_ID, PARTIAL_RESERVATION_ID_LENGTH), ConfigurationLevel.event(event)), reservation);
+    }
+
+    /**
+     * Computes the short reservation ID using an already loaded configuration. Useful when processing many reservations at once.
+     *
+     * @param conf must contain {@link ConfigurationKeys#USE_INVOICE_NUMBER_AS_ID} and {@link ConfigurationKeys#PARTIAL_RESERVATION_ID_LENGTH}
+     * @param reservation the reservation
+     * @return the short reservation ID
+     */
+    public static String getShortReservationID(Map<ConfigurationKeys, MaybeConfiguration> conf, TicketReservation reservation) {
         if(conf.get(USE_INVOICE_NUMBER_AS_ID).getValueAsBooleanOrDefault(false) && reservation.getHasInvoiceNumber()) {
             return reservation.getInvoiceNumber();
         }
@@ -635,4 +680,21 @@ public class ConfigurationManager {
         return configurationRepository.getAllCategoriesAndValueWith(event.getOrganizationId(), event.getId(), key);
     }
 
+    /**
+     * Resolves a boolean setting for the given categories using a fixed number of queries, instead of
+     * calling {@link #getFor(ConfigurationKeys, ConfigurationLevel)} for each category.
+     *
+     * @return the value for each category, falling back to the event (and upper) levels if not defined
+     */
+    public Map<Integer, Boolean> getBooleanForCategories(EventAndOrganizationId event, Collection<Integer> categoryIds, ConfigurationKeys key, boolean defaultValue) {
+        if(categoryIds.isEmpty()) {
+            return Map.of();
+        }
+        boolean eventValue = getFor(key, ConfigurationLevel.event(event)).getValueAsBooleanOrDefault(defaultValue);
+        var categoryValues = getAllCategoriesAndValueWith(event, key);
+        return categoryIds.stream()
+            .distinct()
+            .collect(Collectors.toMap(Function.identity(), id -> Optional.ofNullable(categoryValues.get(id)).map(Boolean::parseBoolean).orElse(eventValue)));
+    }
+
 }
@@ -17,10 +17,10 @@
 package alfio.manager.system;
 
 import alfio.manager.TicketReservationManager;
+import alfio.manager.WaitingQueueManager;
 import alfio.model.*;
 import alfio.model.system.ConfigurationKeys;
 import alfio.model.system.EventMigration;
-import alfio.model.transaction.PaymentProxy;
 import alfio.repository.EventRepository;
 import alfio.repository.TicketCategoryRepository;
 import alfio.repository.TicketSearchRepository;
@@ -30,6 +30,7 @@ import alfio.util.MonetaryUtil;
 import lombok.extern.log4j.Log4j2;
 import org.apache.commons.collections4.ListUtils;
 import org.apache.commons.lang3.Validate;
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
 import org.apache.commons.lang3.tuple.Pair;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
@@ -46,6 +47,9 @@ import org.springframework.transaction.support.TransactionTemplate;
 import java.math.BigDecimal;
 import java.time.ZonedDateTime;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.IntStream;
@@ -62,6 +66,7 @@ public class DataMigrator {
 
     private static final Pattern VERSION_PATTERN = Pattern.compile("(\\d\\.)([0-9.]*)(-SNAPSHOT)?");
     private static final Map<String, String> PRICE_UPDATE_BY_KEY = new LinkedHashMap<>();
+    private static final int BILLING_DOCUMENTS_CHUNK_SIZE = 100;
     private final EventMigrationRepository eventMigrationRepository;
     private final EventRepository eventRepository;
     private final TicketCategoryRepository ticketCategoryRepository;
@@ -73,6 +78,11 @@ public class DataMigrator {
     private final NamedParameterJdbcTemplate jdbc;
     private final TicketReservationManager ticketReservationManager;
     private final TicketSearchRepository ticketSearchRepository;
+    private final WaitingQueueManager waitingQueueManager;
+    private final ExecutorService migrationExecutor = Executors.newSingleThreadExecutor(
+        new BasicThreadFactory.Builder().namingPattern("data-migrator-%d").daemon(true).build());
+    private final AtomicBoolean migrationRunning = new AtomicBoolean(false);
+    private volatile boolean migrationCompleted;
 
     static {
         PRICE_UPDATE_BY_KEY.put("event", "update event set src_price_cts = :srcPriceCts, vat_status = :vatStatus where id = :eventId");
@@ -92,7 +102,8 @@ public class DataMigrator {
                         ConfigurationRepository configurationRepository,
                         NamedParameterJdbcTemplate jdbc,
                         TicketReservationManager ticketReservationManager,
-                        TicketSearchRepository ticketSearchRepository) {
+                        TicketSearchRepository ticketSearchRepository,
+                        WaitingQueueManager waitingQueueManager) {
         this.eventMigrationRepository = eventMigrationRepository;
         this.eventRepository = eventRepository;
         this.ticketCategoryRepository = ticketCategoryRepository;
@@ -104,15 +115,58 @@ public class DataMigrator {
         this.transactionTemplate = new TransactionTemplate(transactionManager, new DefaultTransactionDefinition(TransactionDefinition.PROPAGATION_REQUIRES_NEW));
         this.ticketReservationManager = ticketReservationManager;
         this.ticketSearchRepository = ticketSearchRepository;
+        this.waitingQueueManager = waitingQueueManager;
     }
 
+    /**
+     * Migrates all the events whose migration data is stale, waiting for other nodes to complete their run, if any.
+     */
     public void migrateEventsToCurrentVersion() {
-        List<Event> events = eventRepository.findAll();
-        events.forEach(this::migrateEventToCurrentVersion);
-        fillReservationsLanguage();
-        fillDefaultOptions();
-        fixReservationPrice(events);
-        fixVatStatus();
+        migrateEventsToCurrentVersion(true);
+    }
+
+    /**
+     * Starts the migration on a background thread, so that the node can serve traffic in the meantime.
+     * If another node is already migrating the data, this node won't do anything. This method is called periodically
+     * until the migration has been completed by this node, so that the events left behind by a node stopped
+     * while holding the lock are migrated without waiting for the next boot.
+     */
+    public void migrateEventsToCurrentVersionInBackground() {
+        if(migrationCompleted || !migrationRunning.compareAndSet(false, true)) {
+            return;
+        }
+        migrationExecutor.execute(() -> {
+            try {
+                migrateEventsToCurrentVersion(false);
+            } catch (Exception e) {
+                log.error("unable to perform data migration. Please report this issue.", e);
+            } finally {
+                migrationRunning.set(false);
+            }
+        });
+    }
+
+    private void migrateEventsToCurrentVersion(boolean waitForLock) {
+        // the advisory lock is held by this transaction for the whole run, while the actual work is done
+        // in separate (and short) transactions. Therefore, if the node is stopped, the work done so far is not lost
+        transactionTemplate.execute(lockStatus -> {
+            if(waitForLock) {
+                eventMigrationRepository.lockMigration();
+            } else if(!eventMigrationRepository.tryLockMigration()) {
+                log.info("data migration is being performed by another node. Skipping.");
+                return null;
+            }
+            List<Event> events = eventRepository.findAllWithStaleMigration(currentVersionAsString, buildTimestamp);
+            log.info("performing migration from previous version for {} event(s)", events.size());
+            events.forEach(this::migrateEventToCurrentVersion);
+            fillReservationsLanguage();
+            fillDefaultOptions();
+            fixReservationPrice();
+            fixVatStatus();
+            migrationCompleted = true;
+            log.info("data migration completed.");
+            return null;
+        });
     }
 
     private void fixVatStatus() {
@@ -123,20 +177,20 @@ public class DataMigrator {
         });
     }
 
-    private void fixReservationPrice(List<Event> events) {
-        transactionTemplate.execute(ts -> {
-            Map<Integer, List<String>> candidates = jdbc.queryForList("select id, event_id_fk from tickets_reservation where src_price_cts = 0 and payment_method <> 'NONE' and status not in ('CANCELLED', 'CREDIT_NOTE_ISSUED') order by 2", Map.of())
-                .stream()
-                .map(m -> Pair.of((Integer) m.get("event_id_fk"), (String) m.get("id")))
-                .collect(groupingBy(Pair::getKey, mapping(Pair::getValue, toList())));
-
-            for(var entry : candidates.entrySet()) {
-                var event = events.stream().filter(e -> e.getId() == entry.getKey()).findFirst().orElseThrow();
-                ListUtils.partition(entry.getValue(), 1000) // limit query size and batch update size
-                    .forEach(reservations -> fixReservationsForEvent(event, reservations));
-            }
-            return null;
-        });
+    private void fixReservationPrice() {
+        Map<Integer, List<String>> candidates = jdbc.queryForList("select id, event_id_fk from tickets_reservation where src_price_cts = 0 and payment_method <> 'NONE' and status not in ('CANCELLED', 'CREDIT_NOTE_ISSUED') order by 2", Map.of())
+            .stream()
+            .map(m -> Pair.of((Integer) m.get("event_id_fk"), (String) m.get("id")))
+            .collect(groupingBy(Pair::getKey, mapping(Pair::getValue, toList())));
+
+        for(var entry : candidates.entrySet()) {
+            var event = eventRepository.findById(entry.getKey());
+            ListUtils.partition(entry.getValue(), 1000) // limit query size and batch update size
+                .forEach(reservations -> transactionTemplate.execute(ts -> {
+                    fixReservationsForEvent(event, reservations);
+                    return null;
+                }));
+        }
     }
 
     private void fixReservationsForEvent(Event event, List<String> reservations) {
@@ -180,45 +234,65 @@ public class DataMigrator {
     private void migrateEventToCurrentVersion(Event event) {
         Optional<EventMigration> optional = optionally(() -> eventMigrationRepository.loadEventMigration(event.getId()));
         boolean alreadyDefined = optional.isPresent();
-        if(!alreadyDefined || optional.filter(this::needsFixing).isPresent()) {
-            transactionTemplate.execute(s -> {
-                //optional.ifPresent(eventMigration -> eventMigrationRepository.lockEventMigrationForUpdate(eventMigration.getId()));
-                if(ZonedDateTime.now(event.getZoneId()).isBefore(event.getEnd())) {
-                    fixAvailableSeats(event);
-                    fillDescriptions(event);
-                    fixCategoriesSize(event);
-                }
+        if(alreadyDefined && !needsFixing(optional.get())) {
+            // the event has been migrated by a newer version
+            return;
+        }
+        transactionTemplate.execute(s -> {
+            if(ZonedDateTime.now(event.getZoneId()).isBefore(event.getEnd())) {
+                fixAvailableSeats(event);
+                fillDescriptions(event);
+                fixCategoriesSize(event);
+            }
 
-                //migrate prices to new structure. This should be done for all events, regardless of the expiration date.
-                migratePrices(event.getId());
-                fixStuckTickets(event.getId());
-                createBillingDocuments(event);
-
-                if(alreadyDefined) {
-                    EventMigration eventMigration = optional.get();
-                    int result = eventMigrationRepository.updateMigrationData(eventMigration.getId(), currentVersionAsString, buildTimestamp, EventMigration.Status.COMPLETE.name());
-                    Validate.isTrue(result == 1, "error during update " + result);
-                } else {
-                    eventMigrationRepository.insertMigrationData(event.getId(), currentVersionAsString, buildTimestamp, EventMigration.Status.COMPLETE.name());
-                }
+            //migrate prices to new structure. This should be done for all events, regardless of the expiration date.
+            migratePrices(event.getId());
+            fixStuckTickets(event.getId());
+            return null;
+        });
 
-                return null;
-            });
-        }
+        createBillingDocuments(event);
+
+        // the migration data is updated only at the end, so that an interrupted migration will be resumed on the next run
+        transactionTemplate.execute(s -> {
+            if(alreadyDefined) {
+                EventMigration eventMigration = optional.get();
+                int result = eventMigrationRepository.updateMigrationData(eventMigration.getId(), currentVersionAsString, buildTimestamp, EventMigration.Status.COMPLETE.name());
+                Validate.isTrue(result == 1, "error during update " + result);
+            } else {
+                eventMigrationRepository.insertMigrationData(event.getId(), currentVersionAsString, buildTimestamp, EventMigration.Status.COMPLETE.name());
+            }
+            return null;
+        });
     }
 
     private void createBillingDocuments(Event event) {
         if(event.getEnd().isAfter(ZonedDateTime.now(event.getZoneId()))) {
-            List<String> reservations = jdbc.queryForList("select id from tickets_reservation where event_id_fk = :eventId and status in ('OFFLINE_PAYMENT', 'COMPLETE') and invoice_number is not null and id not in(select distinct reservation_id_fk from billing_document where event_id_fk = :eventId)", new MapSqlParameterSource("eventId", event.getId()), String.class);
-            if(reservations.isEmpty()) {
-                return;
+            var params = new MapSqlParameterSource("eventId", event.getId()).addValue("chunkSize", BILLING_DOCUMENTS_CHUNK_SIZE);
+            String lastReservationId = "";
+            int count = 0;
+            while(true) {
+                List<String> reservations = jdbc.queryForList("select id from tickets_reservation where event_id_fk = :eventId and status in ('OFFLINE_PAYMENT', 'COMPLETE') and invoice_number is not null and id > :lastReservationId" +
+                    " and id not in(select distinct reservation_id_fk from billing_document where event_id_fk = :eventId) order by id limit :chunkSize", params.addValue("lastReservationId", lastReservationId), String.class);
+                if(reservations.isEmpty()) {
+                    break;
+                }
+                if(count == 0) {
+                    log.info("creating BillingDocument(s) for event {}", event.getDisplayName());
+                }
+                transactionTemplate.execute(s -> {
+                    for (String reservationId : reservations) {
+                        TicketReservation reservation = ticketReservationManager.findById(reservationId).orElseThrow(IllegalStateException::new);
+                        ticketReservationManager.getOrCreateBillingDocument(event, reservation, null);
+                    }
+                    return null;
+                });
+                count += reservations.size();
+                lastReservationId = reservations.get(reservations.size() - 1);
             }
-            log.info("creating BillingDocument(s) for event {}", event.getDisplayName());
-            for (String reservationId : reservations) {
-                TicketReservation reservation = ticketReservationManager.findById(reservationId).orElseThrow(IllegalStateException::new);
-                ticketReservationManager.getOrCreateBillingDocument(event, reservation, null);
+            if(count > 0) {
+                log.info("checked {} BillingDocument(s) for event {}", count, event.getDisplayName());
             }
-            log.info("checked {} BillingDocument(s) for event {}", reservations.size(), event.getDisplayName());
         }
     }
 
@@ -230,6 +304,7 @@ public class DataMigrator {
             int[] results = jdbc.batchUpdate("update ticket set status = 'RELEASED'," + RESET_TICKET + " where id = :ticketId", ticketIds.stream().map(id -> new MapSqlParameterSource("ticketId", id)).toArray(MapSqlParameterSource[]::new));
             int result = Arrays.stream(results).sum();
             Validate.isTrue(result == toBeFixed, "Error while fixing stuck tickets: expected "+toBeFixed+", got "+result);
+            waitingQueueManager.fireSeatsReleased(eventId);
         }
     }
 
@@ -270,8 +345,9 @@ public class DataMigrator {
      * in order to ensure backward compatibility
      */
     private void fixAvailableSeats(Event event) {
-        int availableSeats = eventRepository.countExistingTickets(event.getId());
-        eventRepository.updatePrices(event.getCurrency(), availableSeats, event.isVatIncluded(), event.getVat(), event.getAllowedPaymentProxies().stream().map(PaymentProxy::name).collect(joining(",")), event.getId(), event.getVatStatus(), event.getSrcPriceCts());
+        // the event could have been modified since it was loaded at the beginning of the run,
+        // so we update only the available seats in order not to overwrite those modifications
+        eventRepository.updateAvailableSeats(event.getId(), eventRepository.countExistingTickets(event.getId()));
     }
 
     boolean needsFixing(EventMigration eventMigration) {
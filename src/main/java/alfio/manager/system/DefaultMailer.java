@@ -17,6 +17,7 @@
 package alfio.manager.system;
 
 import alfio.model.EventAndOrganizationId;
+import io.micrometer.core.instrument.Metrics;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.core.env.Environment;
 import org.springframework.stereotype.Component;
@@ -51,13 +52,14 @@ public class DefaultMailer implements Mailer {
     public void send(EventAndOrganizationId event, String fromName, String to, List<String> cc, String subject, String text,
                      Optional<String> html, Attachment... attachments) {
 
-        subject = decorateSubjectIfDemo(subject, environment);
+        String decoratedSubject = decorateSubjectIfDemo(subject, environment);
 
         String mailerType = configurationManager.getFor(MAILER_TYPE, ConfigurationLevel.event(event))
             .getValueOrDefault("disabled").toLowerCase(Locale.ENGLISH);
 
-        mailers.getOrDefault(mailerType, defaultMailer)
-                .send(event, fromName, to, cc, subject, text, html, attachments);
+        Mailer mailer = mailers.getOrDefault(mailerType, defaultMailer);
+        Metrics.timer(ApplicationMetrics.MAIL_SEND, "type", mailerType)
+            .record(() -> mailer.send(event, fromName, to, cc, decoratedSubject, text, html, attachments));
     }
 
 }
\ No newline at end of file
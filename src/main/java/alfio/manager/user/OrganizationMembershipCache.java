@@ -0,0 +1,144 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.manager.user;
+
+import alfio.model.user.Role;
+import alfio.repository.user.AuthorityRepository;
+import alfio.repository.user.OrganizationRepository;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+/**
+ * Keeps track of the organizations and roles of a user.
+ * <p>
+ * The membership is resolved once per HTTP request, and then shared for a short amount of time between requests of
+ * the same user. Modifications done through the {@link UserManager} are visible immediately on the local node,
+ * while the other nodes will see them as soon as the entry expires.
+ */
+@Component
+public class OrganizationMembershipCache {
+
+    private static final String REQUEST_ATTRIBUTE_PREFIX = OrganizationMembershipCache.class.getName() + ".";
+
+    private final OrganizationRepository organizationRepository;
+    private final AuthorityRepository authorityRepository;
+    private final Cache<String, Membership> memberships = Caffeine.newBuilder()
+        .maximumSize(10_000)
+        .expireAfterWrite(30, TimeUnit.SECONDS)
+        .build();
+
+    public OrganizationMembershipCache(OrganizationRepository organizationRepository,
+                                       AuthorityRepository authorityRepository) {
+        this.organizationRepository = organizationRepository;
+        this.authorityRepository = authorityRepository;
+    }
+
+    public Membership getMembership(String username) {
+        var requestAttributes = RequestContextHolder.getRequestAttributes();
+        if(requestAttributes == null) {
+            return memberships.get(username, this::loadMembership);
+        }
+        String attributeName = REQUEST_ATTRIBUTE_PREFIX + username;
+        var membership = (Membership) requestAttributes.getAttribute(attributeName, RequestAttributes.SCOPE_REQUEST);
+        if(membership == null) {
+            membership = memberships.get(username, this::loadMembership);
+            requestAttributes.setAttribute(attributeName, membership, RequestAttributes.SCOPE_REQUEST);
+        }
+        return membership;
+    }
+
+    /**
+     * Checks if the given user is member of the given organization. Administrators are member of all the organizations.
+     *
+     * @param username the username
+     * @param organizationId the organization id
+     * @return {@code true} if the user is member of the organization
+     */
+    public boolean isMemberOf(String username, Integer organizationId) {
+        return organizationId != null && getMembership(username).getOrganizationIds().contains(organizationId);
+    }
+
+    /**
+     * Evicts the membership of the given user. If there is an active transaction, the membership is evicted
+     * again after commit, in case it has been reloaded in the meantime.
+     *
+     * @param username the username
+     */
+    public void invalidate(String username) {
+        afterCommit(() -> {
+            memberships.invalidate(username);
+            removeRequestAttributes(username::equals);
+        });
+    }
+
+    public void invalidateAll() {
+        afterCommit(() -> {
+            memberships.invalidateAll();
+            removeRequestAttributes(username -> true);
+        });
+    }
+
+    private static void afterCommit(Runnable eviction) {
+        eviction.run();
+        if(TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCommit() {
+                    eviction.run();
+                }
+            });
+        }
+    }
+
+    private static void removeRequestAttributes(Predicate<String> usernameFilter) {
+        var requestAttributes = RequestContextHolder.getRequestAttributes();
+        if(requestAttributes != null) {
+            Arrays.stream(requestAttributes.getAttributeNames(RequestAttributes.SCOPE_REQUEST))
+                .filter(name -> name.startsWith(REQUEST_ATTRIBUTE_PREFIX))
+                .filter(name -> usernameFilter.test(name.substring(REQUEST_ATTRIBUTE_PREFIX.length())))
+                .forEach(name -> requestAttributes.removeAttribute(name, RequestAttributes.SCOPE_REQUEST));
+        }
+    }
+
+    private Membership loadMembership(String username) {
+        return new Membership(Set.copyOf(organizationRepository.findAllOrganizationIdForUser(username)),
+            Set.copyOf(authorityRepository.findRoles(username)));
+    }
+
+    @Getter
+    @AllArgsConstructor
+    public static class Membership {
+        private final Set<Integer> organizationIds;
+        private final Set<String> roles;
+
+        public boolean hasRole(Role role) {
+            return roles.contains(role.getRoleName());
+        }
+    }
+}
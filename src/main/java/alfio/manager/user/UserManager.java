@@ -55,6 +55,7 @@ public class UserManager {
     private final UserRepository userRepository;
     private final PasswordEncoder passwordEncoder;
     private final InvoiceSequencesRepository invoiceSequencesRepository;
+    private final OrganizationMembershipCache organizationMembershipCache;
 
     private List<Authority> getUserAuthorities(User user) {
         return authorityRepository.findGrantedAuthorities(user.getUsername());
@@ -146,7 +147,8 @@ public class UserManager {
     }
 
     public boolean isOwnerOfOrganization(User user, int organizationId) {
-        return isAdmin(user) || (isOwner(user) && userOrganizationRepository.findByUserId(user.getId()).stream().anyMatch(uo -> uo.getOrganizationId() == organizationId));
+        var membership = organizationMembershipCache.getMembership(user.getUsername());
+        return membership.hasRole(Role.ADMIN) || (membership.hasRole(Role.OWNER) && membership.getOrganizationIds().contains(organizationId));
     }
 
     public boolean isOwnerOfOrganization(String username, int organizationId) {
@@ -164,6 +166,8 @@ public class UserManager {
         organizationRepository.create(name, description, email);
         int orgId = organizationRepository.getIdByName(name);
         invoiceSequencesRepository.initFor(orgId);
+        // administrators are implicitly member of all the organizations
+        organizationMembershipCache.invalidateAll();
         return orgId;
     }
 
@@ -194,6 +198,8 @@ public class UserManager {
             authorityRepository.revokeAll(username);
             authorityRepository.create(username, role.getRoleName());
         }
+        // the username could have been changed as well
+        organizationMembershipCache.invalidateAll();
     }
 
 
@@ -226,6 +232,7 @@ public class UserManager {
         AffectedRowCountAndKey<Integer> result = userRepository.create(username, passwordEncoder.encode(userPassword), firstName, lastName, emailAddress, true, userType, validTo, description);
         userOrganizationRepository.create(result.getKey(), organization.getId());
         authorityRepository.create(username, role.getRoleName());
+        organizationMembershipCache.invalidate(username);
         return new UserWithPassword(userRepository.findById(result.getKey()), userType != User.Type.API_KEY ? userPassword : "", UUID.randomUUID().toString());
     }
 
@@ -250,6 +257,7 @@ public class UserManager {
         User currentUser = userRepository.findEnabledByUsername(currentUsername).orElseThrow(IllegalArgumentException::new);
         Assert.isTrue(userId != currentUser.getId(), "sorry but you cannot delete your own account.");
         userRepository.deleteUserAndReferences(userId);
+        organizationMembershipCache.invalidateAll();
     }
 
     public void enable(int userId, String currentUsername, boolean status) {
@@ -257,6 +265,7 @@ public class UserManager {
         Assert.isTrue(userId != currentUser.getId(), "sorry but you cannot commit suicide");
 
         userRepository.toggleEnabled(userId, status);
+        organizationMembershipCache.invalidateAll();
     }
 
     public ValidationResult validateUser(Integer id, String username, String firstName, String lastName, String emailAddress) {
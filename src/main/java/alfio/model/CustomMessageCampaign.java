@@ -0,0 +1,88 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.model;
+
+import alfio.model.modification.MessageModification;
+import alfio.model.support.JSONData;
+import ch.digitalfondue.npjt.ConstructorAnnotationRowMapper.Column;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import lombok.Getter;
+
+import java.time.ZonedDateTime;
+import java.util.List;
+
+@Getter
+public class CustomMessageCampaign {
+
+    public enum Status {
+        WAITING, IN_PROGRESS, COMPLETED, FAILED
+    }
+
+    private final long id;
+    private final int eventId;
+    private final int organizationId;
+    private final Integer categoryId;
+    @JsonIgnore
+    private final List<MessageModification> messages;
+    private final Status status;
+    private final int recipientsCount;
+    private final int processedCount;
+    @JsonIgnore
+    private final int lastTicketId;
+    private final String createdBy;
+    private final ZonedDateTime creationTimestamp;
+    private final ZonedDateTime updateTimestamp;
+    private final ZonedDateTime completionTimestamp;
+    private final String failureMessage;
+
+    public CustomMessageCampaign(@Column("id") long id,
+                                 @Column("event_id_fk") int eventId,
+                                 @Column("organization_id_fk") int organizationId,
+                                 @Column("category_id_fk") Integer categoryId,
+                                 @Column("messages") @JSONData MessageModification[] messages,
+                                 @Column("status") Status status,
+                                 @Column("recipients_count") int recipientsCount,
+                                 @Column("processed_count") int processedCount,
+                                 @Column("last_ticket_id") int lastTicketId,
+                                 @Column("created_by") String createdBy,
+                                 @Column("creation_ts") ZonedDateTime creationTimestamp,
+                                 @Column("update_ts") ZonedDateTime updateTimestamp,
+                                 @Column("completion_ts") ZonedDateTime completionTimestamp,
+                                 @Column("failure_message") String failureMessage) {
+        this.id = id;
+        this.eventId = eventId;
+        this.organizationId = organizationId;
+        this.categoryId = categoryId;
+        this.messages = List.of(messages);
+        this.status = status;
+        this.recipientsCount = recipientsCount;
+        this.processedCount = processedCount;
+        this.lastTicketId = lastTicketId;
+        this.createdBy = createdBy;
+        this.creationTimestamp = creationTimestamp;
+        this.updateTimestamp = updateTimestamp;
+        this.completionTimestamp = completionTimestamp;
+        this.failureMessage = failureMessage;
+    }
+
+    public int getProgress() {
+        if(status == Status.COMPLETED || recipientsCount == 0) {
+            return 100;
+        }
+        return Math.min(99, processedCount * 100 / recipientsCount);
+    }
+}
@@ -0,0 +1,76 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.model;
+
+import ch.digitalfondue.npjt.ConstructorAnnotationRowMapper.Column;
+import lombok.Getter;
+
+import java.time.ZonedDateTime;
+
+@Getter
+public class InvoiceArchive {
+
+    public enum Status {
+        WAITING, IN_PROGRESS, COMPLETED, FAILED
+    }
+
+    private final long id;
+    private final int eventId;
+    private final int organizationId;
+    private final Status status;
+    private final int documentsCount;
+    private final int processedCount;
+    private final long lastDocumentId;
+    private final String createdBy;
+    private final ZonedDateTime creationTimestamp;
+    private final ZonedDateTime updateTimestamp;
+    private final ZonedDateTime completionTimestamp;
+    private final String failureMessage;
+
+    public InvoiceArchive(@Column("id") long id,
+                          @Column("event_id_fk") int eventId,
+                          @Column("organization_id_fk") int organizationId,
+                          @Column("status") Status status,
+                          @Column("documents_count") int documentsCount,
+                          @Column("processed_count") int processedCount,
+                          @Column("last_document_id") long lastDocumentId,
+                          @Column("created_by") String createdBy,
+                          @Column("creation_ts") ZonedDateTime creationTimestamp,
+                          @Column("update_ts") ZonedDateTime updateTimestamp,
+                          @Column("completion_ts") ZonedDateTime completionTimestamp,
+                          @Column("failure_message") String failureMessage) {
+        this.id = id;
+        this.eventId = eventId;
+        this.organizationId = organizationId;
+        this.status = status;
+        this.documentsCount = documentsCount;
+        this.processedCount = processedCount;
+        this.lastDocumentId = lastDocumentId;
+        this.createdBy = createdBy;
+        this.creationTimestamp = creationTimestamp;
+        this.updateTimestamp = updateTimestamp;
+        this.completionTimestamp = completionTimestamp;
+        this.failureMessage = failureMessage;
+    }
+
+    public int getProgress() {
+        if(status == Status.COMPLETED || documentsCount == 0) {
+            return 100;
+        }
+        return Math.min(99, processedCount * 100 / documentsCount);
+    }
+}
@@ -0,0 +1,51 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.model;
+
+import ch.digitalfondue.npjt.ConstructorAnnotationRowMapper.Column;
+import lombok.Getter;
+
+@Getter
+public class ReservationAdmission {
+
+    public enum Status {
+        WAITING,
+        /**
+         * the request can be sent again with the token
+         */
+        ADMITTED,
+        /**
+         * the token has been used by a request which is creating the reservation
+         */
+        IN_USE
+    }
+
+    private final long id;
+    private final int eventId;
+    private final String token;
+    private final Status status;
+
+    public ReservationAdmission(@Column("id") long id,
+                                @Column("event_id_fk") int eventId,
+                                @Column("token") String token,
+                                @Column("status") Status status) {
+        this.id = id;
+        this.eventId = eventId;
+        this.token = token;
+        this.status = status;
+    }
+}
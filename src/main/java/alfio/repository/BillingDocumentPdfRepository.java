@@ -0,0 +1,63 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.repository;
+
+import ch.digitalfondue.npjt.Bind;
+import ch.digitalfondue.npjt.Query;
+import ch.digitalfondue.npjt.QueryRepository;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+
+import java.time.ZonedDateTime;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Rendered PDFs of the billing documents, see {@link alfio.manager.BillingDocumentPdfManager}.
+ */
+@QueryRepository
+public interface BillingDocumentPdfRepository {
+
+    @Query("insert into billing_document_pdf(billing_document_id_fk, organization_id_fk, content, generation_ts)" +
+        " values(:billingDocumentId, :organizationId, :content, :generationTs) on conflict (billing_document_id_fk) do nothing")
+    int insert(@Bind("billingDocumentId") long billingDocumentId,
+               @Bind("organizationId") int organizationId,
+               @Bind("content") byte[] content,
+               @Bind("generationTs") ZonedDateTime generationTimestamp);
+
+    NamedParameterJdbcTemplate getNamedParameterJdbcTemplate();
+
+    default Optional<byte[]> findContent(long billingDocumentId) {
+        return Optional.ofNullable(findContents(List.of(billingDocumentId)).get(billingDocumentId));
+    }
+
+    default Map<Long, byte[]> findContents(Collection<Long> billingDocumentIds) {
+        Map<Long, byte[]> result = new HashMap<>();
+        if(billingDocumentIds.isEmpty()) {
+            return result;
+        }
+        getNamedParameterJdbcTemplate().query("select billing_document_id_fk, content from billing_document_pdf where billing_document_id_fk in (:ids)",
+            new MapSqlParameterSource("ids", billingDocumentIds),
+            rs -> {
+                result.put(rs.getLong("billing_document_id_fk"), rs.getBytes("content"));
+            });
+        return result;
+    }
+}
@@ -49,10 +49,20 @@ public interface BillingDocumentRepository {
                                         @Bind("generationTimestamp")ZonedDateTime generationTs,
                                         @Bind("organizationId") int organizationId);
 
-    @Query("select * from billing_document a inner join " +
-        "(select max(generation_ts) as time,reservation_id_fk from billing_document where status = 'VALID' and type = :type and event_id_fk = :eventId group by reservation_id_fk) b" +
-        " on a.generation_ts = b.time and a.reservation_id_fk = b.reservation_id_fk")
-    List<BillingDocument> findAllOfTypeForEvent(@Bind("type") BillingDocument.Type type, @Bind("eventId") int eventId);
+    String LATEST_VALID_OF_TYPE_FOR_EVENT = " from billing_document a where a.event_id_fk = :eventId and a.type = :type and a.status = 'VALID'" +
+        " and not exists(select 1 from billing_document b where b.reservation_id_fk = a.reservation_id_fk and b.type = a.type and b.status = 'VALID' and b.generation_ts > a.generation_ts)";
+
+    /**
+     * Pages through the latest valid document of the given type of each reservation, using the document id as cursor.
+     */
+    @Query("select *" + LATEST_VALID_OF_TYPE_FOR_EVENT + " and a.id > :lastId order by a.id limit :limit")
+    List<BillingDocument> findLatestOfTypeForEventAfterId(@Bind("type") BillingDocument.Type type,
+                                                          @Bind("eventId") int eventId,
+                                                          @Bind("lastId") long lastId,
+                                                          @Bind("limit") int limit);
+
+    @Query("select count(*)" + LATEST_VALID_OF_TYPE_FOR_EVENT)
+    int countLatestOfTypeForEvent(@Bind("type") BillingDocument.Type type, @Bind("eventId") int eventId);
 
     @Query("delete from billing_document where reservation_id_fk = :reservationId and event_id_fk = :eventId")
     int deleteForReservation(@Bind("reservationId") String reservationId, @Bind("eventId") int eventId);
@@ -0,0 +1,73 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.repository;
+
+import alfio.model.CustomMessageCampaign;
+import alfio.model.modification.MessageModification;
+import alfio.model.support.JSONData;
+import ch.digitalfondue.npjt.AffectedRowCountAndKey;
+import ch.digitalfondue.npjt.AutoGeneratedKey;
+import ch.digitalfondue.npjt.Bind;
+import ch.digitalfondue.npjt.Query;
+import ch.digitalfondue.npjt.QueryRepository;
+
+import java.time.ZonedDateTime;
+import java.util.List;
+import java.util.Optional;
+
+@QueryRepository
+public interface CustomMessageCampaignRepository {
+
+    @Query("insert into custom_message_campaign(event_id_fk, organization_id_fk, category_id_fk, messages, status, recipients_count, created_by, creation_ts)" +
+        " values(:eventId, :organizationId, :categoryId, to_json(:messages::json), 'WAITING', :recipientsCount, :createdBy, :creationTs)")
+    @AutoGeneratedKey("id")
+    AffectedRowCountAndKey<Long> insert(@Bind("eventId") int eventId,
+                                        @Bind("organizationId") int organizationId,
+                                        @Bind("categoryId") Integer categoryId,
+                                        @Bind("messages") @JSONData List<MessageModification> messages,
+                                        @Bind("recipientsCount") int recipientsCount,
+                                        @Bind("createdBy") String createdBy,
+                                        @Bind("creationTs") ZonedDateTime creationTimestamp);
+
+    @Query("select id from custom_message_campaign where status in ('WAITING', 'IN_PROGRESS') order by id")
+    List<Long> findPendingIds();
+
+    /**
+     * Locks the campaign for processing. Returns an empty result if the campaign has already been completed,
+     * or if it is currently being processed by another thread or node.
+     */
+    @Query("select * from custom_message_campaign where id = :id and status in ('WAITING', 'IN_PROGRESS') for update skip locked")
+    Optional<CustomMessageCampaign> lockPendingById(@Bind("id") long id);
+
+    @Query("update custom_message_campaign set status = 'IN_PROGRESS', last_ticket_id = :lastTicketId, processed_count = processed_count + :processed, update_ts = :updateTs where id = :id")
+    int updateProgress(@Bind("id") long id,
+                       @Bind("lastTicketId") int lastTicketId,
+                       @Bind("processed") int processed,
+                       @Bind("updateTs") ZonedDateTime updateTimestamp);
+
+    @Query("update custom_message_campaign set status = 'COMPLETED', update_ts = :completionTs, completion_ts = :completionTs where id = :id")
+    int markAsCompleted(@Bind("id") long id, @Bind("completionTs") ZonedDateTime completionTimestamp);
+
+    @Query("update custom_message_campaign set status = 'FAILED', update_ts = :updateTs, failure_message = :failureMessage where id = :id")
+    int markAsFailed(@Bind("id") long id, @Bind("updateTs") ZonedDateTime updateTimestamp, @Bind("failureMessage") String failureMessage);
+
+    @Query("select * from custom_message_campaign where event_id_fk = :eventId order by id desc")
+    List<CustomMessageCampaign> findByEventId(@Bind("eventId") int eventId);
+
+    @Query("select * from custom_message_campaign where id = :id and event_id_fk = :eventId")
+    Optional<CustomMessageCampaign> findByIdAndEventId(@Bind("id") long id, @Bind("eventId") int eventId);
+}
@@ -21,6 +21,8 @@ import alfio.model.LightweightMailMessage;
 import ch.digitalfondue.npjt.Bind;
 import ch.digitalfondue.npjt.Query;
 import ch.digitalfondue.npjt.QueryRepository;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 
 import java.time.ZonedDateTime;
 import java.util.Date;
@@ -30,26 +32,26 @@ import java.util.Optional;
 @QueryRepository
 public interface EmailMessageRepository {
 
+    String ENQUEUE = "insert into email_message (event_id, reservation_id, status, recipient, subject, message, attachments, checksum, request_ts, email_cc)" +
+        " values(:eventId, :reservationId, 'WAITING', :recipient, :subject, :message, :attachments, :checksum, :timestamp, :emailCC)" +
+        " on conflict (event_id, checksum) do update set status = 'WAITING'";
+
     /**
-     * This method returns a lightweight instance of EmailMessage. The property "Attachments" is always null.
-     * @param eventId
-     * @param checksum
-     * @return
+     * Inserts a new message. If an identical message has already been enqueued for the same event, it will be sent again.
+     * The parameter source must define all the parameters of {@link #ENQUEUE}.
      */
-    @Query("select id from email_message where event_id = :eventId and checksum = :checksum limit 1")
-    Optional<Integer> findIdByEventIdAndChecksum(@Bind("eventId") int eventId, @Bind("checksum") String checksum);
+    default int enqueue(MapSqlParameterSource message) {
+        return getNamedParameterJdbcTemplate().update(ENQUEUE, message);
+    }
 
-    @Query("insert into email_message (event_id, reservation_id, status, recipient, subject, message, attachments, checksum, request_ts, email_cc) values(:eventId, :reservationId, 'WAITING', :recipient, :subject, :message, :attachments, :checksum, :timestamp, :emailCC)")
-    int insert(@Bind("eventId") int eventId,
-               @Bind("reservationId") String reservationId,
-               @Bind("recipient") String recipient,
-               @Bind("emailCC") String cc,
-               @Bind("subject") String subject,
-               @Bind("message") String message,
-               @Bind("attachments") String attachments,
-               @Bind("checksum") String checksum,
-               @Bind("timestamp") ZonedDateTime requestTimestamp);
+    /**
+     * Same as {@link #enqueue(MapSqlParameterSource)}, using a single batch.
+     */
+    default int[] bulkEnqueue(List<MapSqlParameterSource> messages) {
+        return getNamedParameterJdbcTemplate().batchUpdate(ENQUEUE, messages.toArray(MapSqlParameterSource[]::new));
+    }
 
+    NamedParameterJdbcTemplate getNamedParameterJdbcTemplate();
 
     @Query("update email_message set status = :status where event_id = :eventId and checksum = :checksum and status in (:expectedStatuses)")
     int updateStatus(@Bind("eventId") int eventId, @Bind("checksum") String checksum, @Bind("status") String status, @Bind("expectedStatuses") List<String> expectedStatuses);
@@ -67,6 +69,9 @@ public interface EmailMessageRepository {
     @Query("select id from email_message where event_id = :eventId and (status = 'WAITING' or status = 'RETRY') and request_ts <= :date limit 100 for update skip locked")
     List<Integer> loadIdsWaitingForProcessing(@Bind("eventId") int eventId, @Bind("date") Date date);
 
+    @Query("select count(*) from email_message where status in ('WAITING', 'RETRY')")
+    int countWaiting();
+
     @Query("update email_message set status = 'SENT', sent_ts = :sentTimestamp where event_id = :eventId and checksum = :checksum and status in (:expectedStatuses)")
     int updateStatusToSent(@Bind("eventId") int eventId, @Bind("checksum") String checksum, @Bind("sentTimestamp") ZonedDateTime sentTimestamp, @Bind("expectedStatuses") List<String> expectedStatuses);
 
@@ -104,6 +104,12 @@ public interface EventDeleterRepository {
     @Query("delete from billing_document where event_id_fk = :eventId")
     int deleteBillingDocuments(@Bind("eventId") int eventId);
 
+    @Query("delete from invoice_archive where event_id_fk = :eventId")
+    int deleteInvoiceArchives(@Bind("eventId") int eventId);
+
+    @Query("delete from custom_message_campaign where event_id_fk = :eventId")
+    int deleteCustomMessageCampaigns(@Bind("eventId") int eventId);
+
     default void deleteAllForEvent(int eventId) {
         deleteWaitingQueue(eventId);
         deleteWhitelistedTickets(eventId);
@@ -111,6 +117,7 @@ public interface EventDeleterRepository {
         deleteConfigurationEvent(eventId);
         deleteConfigurationTicketCategory(eventId);
         deleteEmailMessage(eventId);
+        deleteCustomMessageCampaigns(eventId);
         deleteTicketFieldValue(eventId);
         deleteFieldDescription(eventId);
         deleteAdditionalServiceFieldValue(eventId);
@@ -122,6 +129,7 @@ public interface EventDeleterRepository {
         deleteSponsorScan(eventId);
         deleteTicket(eventId);
         deleteTransactions(eventId);
+        deleteInvoiceArchives(eventId);
         deleteBillingDocuments(eventId);
         deleteReservation(eventId);
         deleteSpecialPrice(eventId);
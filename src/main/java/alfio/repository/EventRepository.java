@@ -19,8 +19,10 @@ package alfio.repository;
 import alfio.manager.support.CheckInStatistics;
 import alfio.model.Event;
 import alfio.model.EventAndOrganizationId;
+import alfio.model.EventMetadataVersion;
 import alfio.model.EventStatisticView;
 import alfio.model.PriceContainer;
+import alfio.repository.support.IdentityMapped;
 import ch.digitalfondue.npjt.*;
 
 import java.math.BigDecimal;
@@ -31,6 +33,7 @@ import java.util.*;
 @QueryRepository
 public interface EventRepository {
 
+    @IdentityMapped("event")
     @Query("select * from event where id = :eventId")
     Event findById(@Bind("eventId") int eventId);
 
@@ -40,12 +43,25 @@ public interface EventRepository {
     @Query("select id, org_id from event where id = :eventId")
     EventAndOrganizationId findEventAndOrganizationIdById(@Bind("eventId") int eventId);
 
+    @IdentityMapped("event")
     @Query("select * from event where id = :eventId")
     Optional<Event> findOptionalById(@Bind("eventId") int eventId);
 
     @Query("select exists(select 1 from event where id = :eventId)")
     boolean existsById(@Bind("eventId") int eventId);
 
+    @Query("select metadata_version from event where id = :eventId")
+    Optional<Long> findMetadataVersion(@Bind("eventId") int eventId);
+
+    @Query("select metadata_version from event where short_name = :eventName")
+    Optional<Long> findMetadataVersionByShortName(@Bind("eventName") String eventName);
+
+    @Query("select id, metadata_version from event where id in (:eventIds)")
+    List<EventMetadataVersion> findMetadataVersions(@Bind("eventIds") Collection<Integer> eventIds);
+
+    @Query("select version from catalogue_version")
+    long getCatalogueVersion();
+
     @Query("select exists(select 1 from event where short_name = :eventName)")
     boolean existsByShortName(@Bind("eventName") String eventName);
 
@@ -83,6 +99,16 @@ public interface EventRepository {
     @Query("select * from event order by start_ts asc")
     List<Event> findAll();
 
+    /**
+     * Returns the events which have not yet been migrated to the given version, the most recent first
+     */
+    @Query("select * from event where not exists(select 1 from event_migration where event_migration.event_id = event.id" +
+        " and event_migration.current_version = :currentVersion and event_migration.build_ts >= :buildTs) order by end_ts desc")
+    List<Event> findAllWithStaleMigration(@Bind("currentVersion") String currentVersion, @Bind("buildTs") ZonedDateTime buildTs);
+
+    @Query("select * from event where id in (:eventIds)")
+    List<Event> findByIds(@Bind("eventIds") Collection<Integer> eventIds);
+
     @Query("select * from event where org_id in (:organizationIds)")
     List<Event> findByOrganizationIds(@Bind("organizationIds") Collection<Integer> organizationIds);
 
@@ -147,6 +173,7 @@ public interface EventRepository {
                      @Bind("vatStatus") PriceContainer.VatStatus vatStatus,
                      @Bind("srcPriceCts") int srcPriceCts);
 
+    @IdentityMapped({"event", "tickets_reservation"})
     @Query("select a.* from event a inner join tickets_reservation on event_id_fk = a.id where tickets_reservation.id = :reservationId")
     Event findByReservationId(@Bind("reservationId") String reservationId);
 
@@ -0,0 +1,95 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.repository;
+
+import alfio.model.BillingDocument;
+import alfio.model.InvoiceArchive;
+import ch.digitalfondue.npjt.AffectedRowCountAndKey;
+import ch.digitalfondue.npjt.AutoGeneratedKey;
+import ch.digitalfondue.npjt.Bind;
+import ch.digitalfondue.npjt.Query;
+import ch.digitalfondue.npjt.QueryRepository;
+
+import java.time.ZonedDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+@QueryRepository
+public interface InvoiceArchiveRepository {
+
+    @Query("insert into invoice_archive(event_id_fk, organization_id_fk, status, documents_count, created_by, creation_ts)" +
+        " values(:eventId, :organizationId, 'WAITING', :documentsCount, :createdBy, :creationTs)")
+    @AutoGeneratedKey("id")
+    AffectedRowCountAndKey<Long> insert(@Bind("eventId") int eventId,
+                                        @Bind("organizationId") int organizationId,
+                                        @Bind("documentsCount") int documentsCount,
+                                        @Bind("createdBy") String createdBy,
+                                        @Bind("creationTs") ZonedDateTime creationTimestamp);
+
+    @Query("select id from invoice_archive where status in ('WAITING', 'IN_PROGRESS') order by id")
+    List<Long> findPendingIds();
+
+    /**
+     * Locks the archive for processing. Returns an empty result if the archive has already been completed,
+     * or if it is currently being processed by another thread or node.
+     */
+    @Query("select * from invoice_archive where id = :id and status in ('WAITING', 'IN_PROGRESS') for update skip locked")
+    Optional<InvoiceArchive> lockPendingById(@Bind("id") long id);
+
+    /**
+     * Saves the progress of the archive, unless it has been saved in the meantime by another thread or node.
+     *
+     * @return 1 if the progress has been saved, 0 otherwise
+     */
+    @Query("update invoice_archive set status = 'IN_PROGRESS', last_document_id = :lastDocumentId, processed_count = processed_count + :processed, update_ts = :updateTs" +
+        " where id = :id and last_document_id = :previousDocumentId and status in ('WAITING', 'IN_PROGRESS')")
+    int updateProgress(@Bind("id") long id,
+                       @Bind("previousDocumentId") long previousDocumentId,
+                       @Bind("lastDocumentId") long lastDocumentId,
+                       @Bind("processed") int processed,
+                       @Bind("updateTs") ZonedDateTime updateTimestamp);
+
+    /**
+     * Adds the given documents to the archive. Only the documents whose PDF has been stored are added.
+     *
+     * @return the number of documents added
+     */
+    @Query("insert into invoice_archive_document(invoice_archive_id_fk, billing_document_id_fk, organization_id_fk)" +
+        " select :id, billing_document_id_fk, organization_id_fk from billing_document_pdf where billing_document_id_fk in (:documentIds)" +
+        " on conflict do nothing")
+    int addDocuments(@Bind("id") long id, @Bind("documentIds") Collection<Long> documentIds);
+
+    /**
+     * Pages through the documents of the archive, using the document id as cursor.
+     */
+    @Query("select d.* from invoice_archive_document a join billing_document d on d.id = a.billing_document_id_fk" +
+        " where a.invoice_archive_id_fk = :id and a.billing_document_id_fk > :lastId order by a.billing_document_id_fk limit :limit")
+    List<BillingDocument> findDocumentsAfterId(@Bind("id") long id, @Bind("lastId") long lastId, @Bind("limit") int limit);
+
+    @Query("update invoice_archive set status = 'COMPLETED', update_ts = :completionTs, completion_ts = :completionTs where id = :id")
+    int markAsCompleted(@Bind("id") long id, @Bind("completionTs") ZonedDateTime completionTimestamp);
+
+    @Query("update invoice_archive set status = 'FAILED', update_ts = :updateTs, failure_message = :failureMessage where id = :id")
+    int markAsFailed(@Bind("id") long id, @Bind("updateTs") ZonedDateTime updateTimestamp, @Bind("failureMessage") String failureMessage);
+
+    @Query("select * from invoice_archive where event_id_fk = :eventId order by id desc")
+    List<InvoiceArchive> findByEventId(@Bind("eventId") int eventId);
+
+    @Query("select * from invoice_archive where id = :id and event_id_fk = :eventId")
+    Optional<InvoiceArchive> findByIdAndEventId(@Bind("id") long id, @Bind("eventId") int eventId);
+}
@@ -19,6 +19,12 @@ package alfio.repository;
 import ch.digitalfondue.npjt.Bind;
 import ch.digitalfondue.npjt.Query;
 import ch.digitalfondue.npjt.QueryRepository;
+import ch.digitalfondue.npjt.QueryType;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
 
 @QueryRepository
 public interface InvoiceSequencesRepository {
@@ -26,9 +32,82 @@ public interface InvoiceSequencesRepository {
     @Query("select invoice_sequence from invoice_sequences where organization_id_fk = :orgId for update")
     int lockReservationForUpdate(@Bind("orgId") int orgId);
 
-    @Query("update invoice_sequences set invoice_sequence = invoice_sequence + 1 where organization_id_fk = :orgId")
-    int incrementSequenceFor(@Bind("orgId") int orgId);
-
     @Query("insert into invoice_sequences(organization_id_fk, invoice_sequence) values (:orgId, 1)")
     int initFor(@Bind("orgId") int orgId);
+
+    /**
+     * Takes the next value of the gapless sequence. The organization row stays locked until the end of
+     * the current transaction, which must therefore be as short as possible.
+     *
+     * @param floor the lowest acceptable value, used to skip the numbers already given by the database sequence
+     */
+    @Query(type = QueryType.MODIFYING_WITH_RETURN, value = "update invoice_sequences set invoice_sequence = greatest(invoice_sequence, :floor) + 1" +
+        " where organization_id_fk = :orgId returning invoice_sequence - 1")
+    List<Integer> incrementAndGet(@Bind("orgId") int orgId, @Bind("floor") int floor);
+
+    @Query("select invoice_sequence from invoice_number_reservation where reservation_id_fk = :reservationId")
+    Optional<Integer> findReservedSequence(@Bind("reservationId") String reservationId);
+
+    @Query(type = QueryType.MODIFYING_WITH_RETURN, value = "update invoice_number_reservation set reservation_id_fk = :reservationId, reservation_ts = now()" +
+        " where (organization_id_fk, invoice_sequence) = (select organization_id_fk, invoice_sequence from invoice_number_reservation" +
+        "   where organization_id_fk = :orgId and (reservation_id_fk is null or not exists(select 1 from tickets_reservation where id = reservation_id_fk))" +
+        "   order by invoice_sequence limit 1 for update skip locked)" +
+        " returning invoice_sequence")
+    List<Integer> claimReleasedSequence(@Bind("orgId") int orgId, @Bind("reservationId") String reservationId);
+
+    @Query("insert into invoice_number_reservation(organization_id_fk, invoice_sequence, reservation_id_fk) values(:orgId, :sequence, :reservationId)")
+    int reserveSequence(@Bind("orgId") int orgId, @Bind("sequence") int sequence, @Bind("reservationId") String reservationId);
+
+    @Query("delete from invoice_number_reservation where reservation_id_fk = :reservationId")
+    int confirmReservedSequence(@Bind("reservationId") String reservationId);
+
+    @Query("update invoice_number_reservation set reservation_id_fk = null where reservation_id_fk = :reservationId")
+    int releaseReservedSequence(@Bind("reservationId") String reservationId);
+
+    @Query("select to_regclass(:name) is not null")
+    boolean databaseSequenceExists(@Bind("name") String name);
+
+    NamedParameterJdbcTemplate getNamedParameterJdbcTemplate();
+
+    static String databaseSequenceName(int orgId) {
+        return "invoice_sequence_org_" + orgId;
+    }
+
+    /**
+     * Returns the next value of the (non transactional) database sequence of the given organization, creating it
+     * if needed. Values are never given back, so the numbers used by aborted transactions are lost.
+     */
+    default int nextFromDatabaseSequence(int orgId) {
+        var jdbcTemplate = getNamedParameterJdbcTemplate().getJdbcTemplate();
+        var name = databaseSequenceName(orgId);
+        if(!databaseSequenceExists(name)) {
+            // the lock ensures that the sequence is created only once, starting from the current value of the gapless sequence
+            int current = lockReservationForUpdate(orgId);
+            jdbcTemplate.execute("create sequence if not exists " + name + " start with " + current);
+        }
+        return Objects.requireNonNull(jdbcTemplate.queryForObject("select nextval('" + name + "')", Integer.class));
+    }
+
+    /**
+     * Returns the value that the database sequence would give next, or 0 if the organization has never used it.
+     */
+    default int peekDatabaseSequence(int orgId) {
+        var name = databaseSequenceName(orgId);
+        if(!databaseSequenceExists(name)) {
+            return 0;
+        }
+        return Objects.requireNonNull(getNamedParameterJdbcTemplate().getJdbcTemplate()
+            .queryForObject("select case when is_called then last_value + 1 else last_value end from " + name, Integer.class));
+    }
+
+    /**
+     * Moves the database sequence forward, so that it won't give again the numbers assigned by the gapless sequence.
+     */
+    default void advanceDatabaseSequence(int orgId, int lastUsed) {
+        var name = databaseSequenceName(orgId);
+        if(databaseSequenceExists(name)) {
+            getNamedParameterJdbcTemplate().getJdbcTemplate()
+                .queryForObject("select setval('" + name + "', greatest(" + lastUsed + ", (select last_value from " + name + ")))", Long.class);
+        }
+    }
 }
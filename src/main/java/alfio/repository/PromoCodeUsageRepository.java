@@ -0,0 +1,81 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.repository;
+
+import ch.digitalfondue.npjt.Bind;
+import ch.digitalfondue.npjt.Query;
+import ch.digitalfondue.npjt.QueryRepository;
+
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Usage counters of the promo codes having a max_usage. See V202_2.0.0.24__PROMO_CODE_USAGE.sql
+ */
+@QueryRepository
+public interface PromoCodeUsageRepository {
+
+    @Query("select used_count from promo_code_usage where promo_code_id_fk = :promoCodeId")
+    Optional<Integer> findUsedCount(@Bind("promoCodeId") int promoCodeId);
+
+    /**
+     * Creates or fixes the counter of the given promo code. Use {@link #reconcileWithReservations(int)} in order
+     * to fix also the counts of the reservations.
+     */
+    @Query("insert into promo_code_usage(promo_code_id_fk, organization_id_fk, used_count, last_update)" +
+        " select id, organization_id_fk, promo_code_usage_count(id), now() from promo_code where max_usage is not null and id = :promoCodeId" +
+        " on conflict(promo_code_id_fk) do update set used_count = excluded.used_count, last_update = excluded.last_update" +
+        " where promo_code_usage.used_count <> excluded.used_count")
+    int reconcile(@Bind("promoCodeId") int promoCodeId);
+
+    @Query("select id from promo_code where max_usage is not null")
+    List<Integer> findAllWithMaxUsage();
+
+    /**
+     * Locks the counter of the given promo code. The reservation triggers lock it as well before modifying it,
+     * so the statements executed afterwards count all the committed reservations.
+     */
+    @Query("select used_count from promo_code_usage where promo_code_id_fk = :promoCodeId for update")
+    Optional<Integer> lockUsedCount(@Bind("promoCodeId") int promoCodeId);
+
+    @Query("delete from promo_code_usage_reservation where promo_code_id_fk = :promoCodeId")
+    int deleteReservationCounts(@Bind("promoCodeId") int promoCodeId);
+
+    @Query("insert into promo_code_usage_reservation(reservation_id_fk, promo_code_id_fk, organization_id_fk, used_count)" +
+        " select tr.id, u.promo_code_id_fk, u.organization_id_fk, promo_code_usage_count(u.promo_code_id_fk, tr.id)" +
+        " from promo_code_usage u join tickets_reservation tr on tr.promo_code_id_fk = u.promo_code_id_fk" +
+        " where u.promo_code_id_fk = :promoCodeId and tr.status in ('OFFLINE_PAYMENT', 'COMPLETE', 'STUCK')")
+    int insertReservationCounts(@Bind("promoCodeId") int promoCodeId);
+
+    /**
+     * Creates or fixes the counter of the given promo code, together with the number of tickets counted for each
+     * reservation, which is subtracted by the triggers when the reservation is cancelled or deleted.
+     * Must be called in a transaction.
+     *
+     * @return {@code true} if the counter has been created or fixed
+     */
+    default boolean reconcileWithReservations(int promoCodeId) {
+        lockUsedCount(promoCodeId);
+        boolean fixed = reconcile(promoCodeId) > 0;
+        deleteReservationCounts(promoCodeId);
+        insertReservationCounts(promoCodeId);
+        return fixed;
+    }
+
+    @Query("delete from promo_code_usage u where not exists(select 1 from promo_code pc where pc.id = u.promo_code_id_fk and pc.max_usage is not null)")
+    int deleteUnlimited();
+}
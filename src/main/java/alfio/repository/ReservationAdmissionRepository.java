@@ -0,0 +1,100 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.repository;
+
+import alfio.model.ReservationAdmission;
+import ch.digitalfondue.npjt.Bind;
+import ch.digitalfondue.npjt.Query;
+import ch.digitalfondue.npjt.QueryRepository;
+import ch.digitalfondue.npjt.QueryType;
+
+import java.util.Optional;
+
+/**
+ * Admission queue of the reservation requests. See V202_2.0.0.26__RESERVATION_ADMISSION.sql
+ */
+@QueryRepository
+public interface ReservationAdmissionRepository {
+
+    String COLUMNS = "id, event_id_fk, token, status";
+    String EXPIRED = "((status in ('ADMITTED', 'IN_USE') and admission_ts < now() - :admissionValidity * interval '1 second')" +
+        " or (status = 'WAITING' and last_seen_ts < now() - :waitingValidity * interval '1 second'))";
+
+    /**
+     * Serializes the admission decisions for the given event until the end of the current transaction, on all the nodes
+     */
+    @Query("select pg_advisory_xact_lock(hashtext('reservation_admission'), :eventId) is null")
+    boolean lockEvent(@Bind("eventId") int eventId);
+
+    @Query(type = QueryType.MODIFYING_WITH_RETURN, value = "insert into reservation_admission(event_id_fk, token, status, admission_ts)" +
+        " values(:eventId, :token, :status, case when :status <> 'WAITING' then now() end) returning " + COLUMNS)
+    ReservationAdmission insert(@Bind("eventId") int eventId, @Bind("token") String token, @Bind("status") ReservationAdmission.Status status);
+
+    @Query("select " + COLUMNS + " from reservation_admission where event_id_fk = :eventId and token = :token")
+    Optional<ReservationAdmission> findByToken(@Bind("eventId") int eventId, @Bind("token") String token);
+
+    /**
+     * Consumes an admitted token. The update is conditional, so that a token can be used by one request only.
+     */
+    @Query("update reservation_admission set status = 'IN_USE' where id = :id and status = 'ADMITTED'")
+    int markInUse(@Bind("id") long id);
+
+    @Query("update reservation_admission set last_seen_ts = now() where id = :id")
+    int touch(@Bind("id") long id);
+
+    @Query("select count(*) from reservation_admission where event_id_fk = :eventId and status = :status")
+    int countByStatus(@Bind("eventId") int eventId, @Bind("status") ReservationAdmission.Status status);
+
+    /**
+     * @return the number of requests occupying a slot, either admitted or in use
+     */
+    @Query("select count(*) from reservation_admission where event_id_fk = :eventId and status in ('ADMITTED', 'IN_USE')")
+    int countActive(@Bind("eventId") int eventId);
+
+    @Query("select count(*) from reservation_admission where event_id_fk = :eventId and status in ('ADMITTED', 'IN_USE')" +
+        " and admission_ts >= now() - :admissionValidity * interval '1 second'")
+    int countValidAdmissions(@Bind("eventId") int eventId, @Bind("admissionValidity") long admissionValidity);
+
+    /**
+     * @return the number of requests waiting before the given one
+     */
+    @Query("select count(*) from reservation_admission where event_id_fk = :eventId and status = 'WAITING' and id < :id")
+    int countWaitingBefore(@Bind("eventId") int eventId, @Bind("id") long id);
+
+    /**
+     * Admits the oldest waiting requests
+     */
+    @Query("update reservation_admission set status = 'ADMITTED', admission_ts = now() where id in (" +
+        " select id from reservation_admission where event_id_fk = :eventId and status = 'WAITING' order by id limit :slots)")
+    int admitWaiting(@Bind("eventId") int eventId, @Bind("slots") int slots);
+
+    /**
+     * Removes the admissions not used within {@code admissionValidity} seconds and the waiting requests whose position
+     * has not been checked in the last {@code waitingValidity} seconds
+     */
+    @Query("delete from reservation_admission where event_id_fk = :eventId and " + EXPIRED)
+    int deleteExpired(@Bind("eventId") int eventId,
+                      @Bind("admissionValidity") long admissionValidity,
+                      @Bind("waitingValidity") long waitingValidity);
+
+    @Query("delete from reservation_admission where " + EXPIRED)
+    int deleteAllExpired(@Bind("admissionValidity") long admissionValidity,
+                         @Bind("waitingValidity") long waitingValidity);
+
+    @Query("delete from reservation_admission where id = :id")
+    int delete(@Bind("id") long id);
+}
@@ -18,6 +18,7 @@ package alfio.repository;
 
 import alfio.model.SpecialPrice;
 import alfio.model.TicketCategory;
+import alfio.util.BulkCopyLoader;
 import ch.digitalfondue.npjt.Bind;
 import ch.digitalfondue.npjt.Query;
 import ch.digitalfondue.npjt.QueryRepository;
@@ -68,9 +69,6 @@ public interface SpecialPriceRepository {
     @Query("select * from special_price where code = :code for update skip locked")
     Optional<SpecialPrice> getForUpdateByCode(@Bind("code") String code);
 
-    @Query("select count(*) from special_price where code = :code")
-    Integer countByCode(@Bind("code") String code);
-
     @Query("update special_price set status = :status, session_id = null, access_code_id_fk = :accessCodeId where id in (:ids)")
     int batchUpdateStatus(@Bind("ids") List<Integer> ids, @Bind("status") SpecialPrice.Status status, @Bind("accessCodeId") Integer accessCodeId);
 
@@ -89,24 +87,54 @@ public interface SpecialPriceRepository {
         " where id in (select special_price_id_fk from ticket where ticket.id in (:ticketIds) and special_price_id_fk is not null) ")
     int resetToFreeAndCleanupForTickets(@Bind("ticketIds") List<Integer> ticketIds);
 
-    @Query("update special_price set code = :code, status = 'FREE', sent_ts = null where id = :id")
-    int updateCode(@Bind("code") String code, @Bind("id") int id);
+    @Query("select code from special_price where code in (:codes)")
+    List<String> findExistingCodes(@Bind("codes") Collection<String> codes);
+
+    BulkCopyLoader SPECIAL_PRICE_CODE_LOADER = BulkCopyLoader.forTable("special_price",
+        Map.of("id", "id", "code", "code"),
+        "update special_price set code = s.code, status = 'FREE', sent_ts = null from " + BulkCopyLoader.STAGING_TABLE + " s where special_price.id = s.id");
+
+    /**
+     * Assigns the given codes using a single statement. Fails with a {@link org.springframework.dao.DuplicateKeyException}
+     * if one of the codes is already in use.
+     *
+     * @param codesById id -> code
+     * @return the number of modified rows
+     */
+    default int bulkUpdateCodes(Map<Integer, String> codesById) {
+        Stream<MapSqlParameterSource> params = codesById.entrySet().stream()
+            .map(e -> new MapSqlParameterSource("id", e.getKey()).addValue("code", e.getValue()));
+        if(codesById.size() >= BulkCopyLoader.MIN_ROWS) {
+            return SPECIAL_PRICE_CODE_LOADER.load(getNamedParameterJdbcTemplate().getJdbcOperations(), params, codesById.size());
+        }
+        return Arrays.stream(getNamedParameterJdbcTemplate().batchUpdate("update special_price set code = :code, status = 'FREE', sent_ts = null where id = :id", params.toArray(MapSqlParameterSource[]::new)))
+            .sum();
+    }
 
     NamedParameterJdbcTemplate getNamedParameterJdbcTemplate();
 
+    BulkCopyLoader SPECIAL_PRICE_COPY_LOADER = BulkCopyLoader.forTable("special_price",
+        Map.of("code", "code", "price_cts", "priceInCents", "ticket_category_id", "ticketCategoryId", "status", "status"),
+        "insert into special_price (code, price_cts, ticket_category_id, status, sent_ts) select code, price_cts, ticket_category_id, status, null from " + BulkCopyLoader.STAGING_TABLE);
+
     default void bulkInsert(TicketCategory ticketCategory, int requiredTokens) {
 
-        MapSqlParameterSource[] params = Stream.generate(MapSqlParameterSource::new)
+        Stream<MapSqlParameterSource> params = Stream.generate(MapSqlParameterSource::new)
             .limit(requiredTokens)
             .peek(ps -> {
                 ps.addValue("code", UUID.randomUUID().toString());
                 ps.addValue("priceInCents", ticketCategory.getSrcPriceCts());
                 ps.addValue("ticketCategoryId", ticketCategory.getId());
                 ps.addValue("status", SpecialPrice.Status.WAITING.name());
-            }).toArray(MapSqlParameterSource[]::new);
+            });
+
+        if(requiredTokens >= BulkCopyLoader.MIN_ROWS) {
+            SPECIAL_PRICE_COPY_LOADER.load(getNamedParameterJdbcTemplate().getJdbcOperations(), params, requiredTokens);
+            return;
+        }
 
         getNamedParameterJdbcTemplate()
-            .batchUpdate("insert into special_price (code, price_cts, ticket_category_id, status, sent_ts) values(:code, :priceInCents, :ticketCategoryId, :status, null)", params);
+            .batchUpdate("insert into special_price (code, price_cts, ticket_category_id, status, sent_ts) values(:code, :priceInCents, :ticketCategoryId, :status, null)", params.toArray(MapSqlParameterSource[]::new));
     }
 
 
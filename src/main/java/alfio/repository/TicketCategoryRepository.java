@@ -18,6 +18,7 @@ package alfio.repository;
 
 import alfio.model.TicketCategory;
 import alfio.model.TicketCategoryStatisticView;
+import alfio.repository.support.IdentityMapped;
 import ch.digitalfondue.npjt.*;
 
 import java.time.ZonedDateTime;
@@ -50,6 +51,7 @@ public interface TicketCategoryRepository {
                                            @Bind("ordinal") int ordinal,
                                            @Bind("ticketCheckInStrategy") TicketCategory.TicketCheckInStrategy ticketCheckInStrategy);
 
+    @IdentityMapped({"ticket_category", "event"})
     @Query("select * from ticket_category_with_currency where id = :id and event_id = :eventId and tc_status = 'ACTIVE'")
     TicketCategory getByIdAndActive(@Bind("id") int id, @Bind("eventId") int eventId);
 
@@ -59,6 +61,7 @@ public interface TicketCategoryRepository {
     @Query("select * from ticket_category_with_currency where id = :id and tc_status = 'ACTIVE'")
     Optional<TicketCategory> getByIdAndActive(@Bind("id") int id);
 
+    @IdentityMapped({"ticket_category", "event"})
     @Query("select * from ticket_category_with_currency where id = :id")
     TicketCategory getById(@Bind("id") int id);
 
@@ -23,6 +23,8 @@ import ch.digitalfondue.npjt.Bind;
 import ch.digitalfondue.npjt.Query;
 import ch.digitalfondue.npjt.QueryRepository;
 import org.apache.commons.lang3.StringUtils;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 
 import java.math.BigDecimal;
 import java.math.RoundingMode;
@@ -33,6 +35,10 @@ import java.util.stream.Collectors;
 @QueryRepository
 public interface TicketFieldRepository extends FieldRepository {
 
+    String UPDATE_VALUE = "update ticket_field_value set field_value = :value where ticket_id_fk = :ticketId and ticket_field_configuration_id_fk = :fieldConfigurationId";
+    String INSERT_VALUE = "insert into ticket_field_value(ticket_id_fk, ticket_field_configuration_id_fk, field_value) values (:ticketId, :fieldConfigurationId, :value)";
+    String DELETE_VALUE = "delete from ticket_field_value where ticket_id_fk = :ticketId and ticket_field_configuration_id_fk = :fieldConfigurationId";
+
     @Query("select count(*) from ticket_field_value where ticket_id_fk = :ticketId and field_value is not null and field_value <> ''")
     Integer countFilledOptionalData(@Bind("ticketId") int id);
 
@@ -53,13 +59,13 @@ public interface TicketFieldRepository extends FieldRepository {
         "and b.field_type = 'select'")
     List<TicketFieldValueAndDescription> findValueForTicketId(@Bind("ticketId") int id, @Bind("fieldNames") Set<String> fieldNames);
 
-    @Query("update ticket_field_value set field_value = :value where ticket_id_fk = :ticketId and ticket_field_configuration_id_fk = :fieldConfigurationId")
+    @Query(UPDATE_VALUE)
     int updateValue(@Bind("ticketId") int ticketId, @Bind("fieldConfigurationId") int fieldConfigurationId, @Bind("value") String value);
 
-    @Query("insert into ticket_field_value(ticket_id_fk, ticket_field_configuration_id_fk, field_value) values (:ticketId, :fieldConfigurationId, :value)")
+    @Query(INSERT_VALUE)
     int insertValue(@Bind("ticketId") int ticketId, @Bind("fieldConfigurationId") int fieldConfigurationId, @Bind("value") String value);
 
-    @Query("delete from ticket_field_value where ticket_id_fk = :ticketId and ticket_field_configuration_id_fk = :fieldConfigurationId")
+    @Query(DELETE_VALUE)
     int deleteValue(@Bind("ticketId") int ticketId, @Bind("fieldConfigurationId") int fieldConfigurationId);
 
     @Query("delete from ticket_field_value where ticket_id_fk = :ticketId")
@@ -94,14 +100,7 @@ public interface TicketFieldRepository extends FieldRepository {
         Map<String, Integer> fieldNameToId = additionalFieldsForEvent.stream().collect(Collectors.toMap(TicketFieldConfiguration::getName, TicketFieldConfiguration::getId));
 
         values.forEach((fieldName, fieldValues) -> {
-            String fieldValue;
-            if(fieldValues.size() == 1) {
-                fieldValue = fieldValues.get(0);
-            } else if(fieldValues.stream().anyMatch(StringUtils::isNotBlank)) {
-                fieldValue = Json.toJson(fieldValues);
-            } else {
-                fieldValue = "";
-            }
+            String fieldValue = toFieldValue(fieldValues);
 
             boolean isNotBlank = StringUtils.isNotBlank(fieldValue);
             if(toUpdate.containsKey(fieldName)) {
@@ -119,6 +118,72 @@ public interface TicketFieldRepository extends FieldRepository {
         });
     }
 
+    /**
+     * Same as {@link #updateOrInsert(Map, int, int)}, for many tickets at once: the existing values are loaded with
+     * a single query and the modifications are sent as JDBC batches.
+     *
+     * @param valuesByTicketId the values to save, by ticket id
+     * @param eventId the event id
+     */
+    default void bulkUpdateOrInsert(Map<Integer, Map<String, List<String>>> valuesByTicketId, int eventId) {
+        if(valuesByTicketId.isEmpty()) {
+            return;
+        }
+        Map<Integer, Map<String, TicketFieldValue>> existingValues = findAllValuesByTicketIds(valuesByTicketId.keySet()).stream()
+            .collect(Collectors.groupingBy(TicketFieldValue::getTicketId, Collectors.toMap(TicketFieldValue::getName, Function.identity())));
+        var additionalFieldsForEvent = findAdditionalFieldsForEvent(eventId);
+        var readOnlyFields = additionalFieldsForEvent.stream().filter(TicketFieldConfiguration::isReadOnly).map(TicketFieldConfiguration::getName).collect(Collectors.toSet());
+        Map<String, Integer> fieldNameToId = additionalFieldsForEvent.stream().collect(Collectors.toMap(TicketFieldConfiguration::getName, TicketFieldConfiguration::getId));
+
+        List<MapSqlParameterSource> toUpdate = new ArrayList<>();
+        List<MapSqlParameterSource> toDelete = new ArrayList<>();
+        List<MapSqlParameterSource> toInsert = new ArrayList<>();
+        valuesByTicketId.forEach((ticketId, values) -> {
+            var existing = existingValues.getOrDefault(ticketId, Map.of());
+            Optional.ofNullable(values).orElseGet(Collections::emptyMap).forEach((fieldName, fieldValues) -> {
+                String fieldValue = toFieldValue(fieldValues);
+                boolean isNotBlank = StringUtils.isNotBlank(fieldValue);
+                if(existing.containsKey(fieldName)) {
+                    if(!readOnlyFields.contains(fieldName)) {
+                        TicketFieldValue field = existing.get(fieldName);
+                        var params = new MapSqlParameterSource("ticketId", field.getTicketId())
+                            .addValue("fieldConfigurationId", field.getTicketFieldConfigurationId());
+                        if(isNotBlank) {
+                            toUpdate.add(params.addValue("value", fieldValue));
+                        } else {
+                            toDelete.add(params);
+                        }
+                    }
+                } else if(fieldNameToId.containsKey(fieldName) && isNotBlank) {
+                    toInsert.add(new MapSqlParameterSource("ticketId", ticketId)
+                        .addValue("fieldConfigurationId", fieldNameToId.get(fieldName))
+                        .addValue("value", fieldValue));
+                }
+            });
+        });
+        var jdbc = getNamedParameterJdbcTemplate();
+        if(!toUpdate.isEmpty()) {
+            jdbc.batchUpdate(UPDATE_VALUE, toUpdate.toArray(MapSqlParameterSource[]::new));
+        }
+        if(!toDelete.isEmpty()) {
+            jdbc.batchUpdate(DELETE_VALUE, toDelete.toArray(MapSqlParameterSource[]::new));
+        }
+        if(!toInsert.isEmpty()) {
+            jdbc.batchUpdate(INSERT_VALUE, toInsert.toArray(MapSqlParameterSource[]::new));
+        }
+    }
+
+    private static String toFieldValue(List<String> fieldValues) {
+        if(fieldValues.size() == 1) {
+            return fieldValues.get(0);
+        } else if(fieldValues.stream().anyMatch(StringUtils::isNotBlank)) {
+            return Json.toJson(fieldValues);
+        }
+        return "";
+    }
+
+    NamedParameterJdbcTemplate getNamedParameterJdbcTemplate();
+
     default Map<String, TicketFieldValue> findAllByTicketIdGroupedByName(int id) {
         return findAllByTicketId(id).stream().collect(Collectors.toMap(TicketFieldValue::getName, Function.identity()));
     }
@@ -17,6 +17,8 @@
 package alfio.repository;
 
 import alfio.model.*;
+import alfio.repository.support.IdentityMapped;
+import alfio.util.BulkCopyLoader;
 import ch.digitalfondue.npjt.Bind;
 import ch.digitalfondue.npjt.Query;
 import ch.digitalfondue.npjt.QueryRepository;
@@ -26,6 +28,7 @@ import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 
 import java.time.ZonedDateTime;
 import java.util.*;
+import java.util.stream.Stream;
 
 @QueryRepository
 public interface TicketRepository {
@@ -37,12 +40,32 @@ public interface TicketRepository {
     String SORT_TICKETS = "order by category_id asc, uuid asc";
 
 
+    BulkCopyLoader TICKET_COPY_LOADER = BulkCopyLoader.forTable("ticket",
+        Map.of("uuid", "uuid", "creation", "creation", "category_id", "categoryId", "event_id", "eventId", "status", "status", "src_price_cts", "srcPriceCts"),
+        "insert into ticket (uuid, creation, category_id, event_id, status, original_price_cts, paid_price_cts, src_price_cts)"
+            + " select uuid, creation, category_id, event_id, status, 0, 0, src_price_cts from " + BulkCopyLoader.STAGING_TABLE);
+
     //TODO: refactor, try to move the MapSqlParameterSource inside the default method!
     default void bulkTicketInitialization(MapSqlParameterSource[] args) {
+        if(args.length >= BulkCopyLoader.MIN_ROWS) {
+            TICKET_COPY_LOADER.load(getNamedParameterJdbcTemplate().getJdbcOperations(), Arrays.stream(args), args.length);
+            return;
+        }
         getNamedParameterJdbcTemplate().batchUpdate("insert into ticket (uuid, creation, category_id, event_id, status, original_price_cts, paid_price_cts, src_price_cts)"
             + "values(:uuid, :creation, :categoryId, :eventId, :status, 0, 0, :srcPriceCts)", args);
     }
 
+    /**
+     * Streams the tickets to the database using COPY, in chunks. Suitable for very large events.
+     */
+    default void bulkTicketInitialization(Stream<MapSqlParameterSource> args, int count) {
+        if(count < BulkCopyLoader.MIN_ROWS) {
+            bulkTicketInitialization(args.toArray(MapSqlParameterSource[]::new));
+            return;
+        }
+        TICKET_COPY_LOADER.load(getNamedParameterJdbcTemplate().getJdbcOperations(), args, count);
+    }
+
     default void bulkTicketUpdate(List<Integer> ids, TicketCategory ticketCategory) {
         MapSqlParameterSource[] params = ids.stream().map(id -> new MapSqlParameterSource("id", id)
             .addValue("categoryId", ticketCategory.getId())
@@ -134,6 +157,7 @@ public interface TicketRepository {
     @Query("update ticket set category_id = null where event_id = :eventId and category_id = :categoryId and id in (:ticketIds)")
     int unbindTicketsFromCategory(@Bind("eventId") int eventId, @Bind("categoryId") int categoryId, @Bind("ticketIds") List<Integer> ids);
 
+    @IdentityMapped("ticket")
     @Query("select * from ticket where tickets_reservation_id = :reservationId " + SORT_TICKETS)
     List<Ticket> findTicketsInReservation(@Bind("reservationId") String reservationId);
 
@@ -149,12 +173,14 @@ public interface TicketRepository {
     @Query("select count(*) from ticket where tickets_reservation_id = :reservationId ")
     Integer countTicketsInReservation(@Bind("reservationId") String reservationId);
     
+    @IdentityMapped("ticket")
     @Query("select * from ticket where uuid = :uuid")
     Ticket findByUUID(@Bind("uuid") String uuid);
 
     @Query("select category_id from ticket where uuid = :uuid")
     Integer getTicketCategoryByUIID(@Bind("uuid") String uuid);
 
+    @IdentityMapped("ticket")
     @Query("select * from ticket where uuid = :uuid")
     Optional<Ticket> findOptionalByUUID(@Bind("uuid") String uuid);
 
@@ -167,6 +193,9 @@ public interface TicketRepository {
     @Query("update ticket set email_address = :email, full_name = :fullName, first_name = :firstName, last_name = :lastName where id = :id")
     int updateTicketOwnerById(@Bind("id") int id, @Bind("email") String email, @Bind("fullName") String fullName, @Bind("firstName") String firstName, @Bind("lastName") String lastName);
 
+    @Query(type = QueryType.TEMPLATE, value = "update ticket set email_address = :email, full_name = :fullName, first_name = :firstName, last_name = :lastName where id = :id")
+    String batchUpdateTicketOwnerById();
+
     @Query("update ticket set locked_assignment = :lockedAssignment where id = :id and category_id = :categoryId")
     int toggleTicketLocking(@Bind("id") int ticketId, @Bind("categoryId") int categoryId, @Bind("lockedAssignment") boolean locked);
 
@@ -175,6 +204,12 @@ public interface TicketRepository {
 
     @Query("update ticket set ext_reference = :extReference, locked_assignment = :lockedAssignment where id = :id and category_id = :categoryId")
     int updateExternalReferenceAndLocking(@Bind("id") int ticketId, @Bind("categoryId") int categoryId, @Bind("extReference") String extReference, @Bind("lockedAssignment") boolean locked);
+
+    @Query(type = QueryType.TEMPLATE, value = "update ticket set ext_reference = :extReference, locked_assignment = :lockedAssignment where id = :id and category_id = :categoryId")
+    String batchUpdateExternalReferenceAndLocking();
+
+    @Query("select ext_reference from ticket where event_id = :eventId and ext_reference in (:references)")
+    List<String> findExistingExternalReferences(@Bind("eventId") int eventId, @Bind("references") Collection<String> references);
     
     @Query("update ticket set user_language = :userLanguage where uuid = :ticketIdentifier")
     int updateOptionalTicketInfo(@Bind("ticketIdentifier") String ticketIdentifier, @Bind("userLanguage") String userLanguage);
@@ -240,6 +275,13 @@ public interface TicketRepository {
     @Query("select count(*) from ticket where event_id = :eventId and status in(" + CONFIRMED + ") and full_name is not null and email_address is not null")
     Integer countAllAssigned(@Bind("eventId") int eventId);
 
+    @Query("select * from ticket where event_id = :eventId and status in(" + CONFIRMED + ") and (:categoryId is null or category_id = :categoryId)" +
+        " and full_name is not null and email_address is not null and id > :lastTicketId order by id limit :limit")
+    List<Ticket> findAssignedAfterId(@Bind("eventId") int eventId,
+                                     @Bind("categoryId") Integer categoryId,
+                                     @Bind("lastTicketId") int lastTicketId,
+                                     @Bind("limit") int limit);
+
     //
     @Query("select tickets_reservation_id from ticket where event_id = :eventId and status in('ACQUIRED', 'TO_BE_PAID') and (full_name is null or email_address is null) for update skip locked")
     List<String> internalFindAllReservationsConfirmedButNotAssignedForUpdate(@Bind("eventId") int eventId);
@@ -249,11 +291,18 @@ public interface TicketRepository {
     }
     //
 
-    @Query("select * from ticket where event_id = :eventId  and status in('ACQUIRED', 'TO_BE_PAID') and full_name is not null and email_address is not null and reminder_sent = false for update skip locked")
-    List<Ticket> findAllAssignedButNotYetNotifiedForUpdate(@Bind("eventId") int eventId);
-
-    @Query("update ticket set reminder_sent = true where id = :id and reminder_sent = false")
-    int flagTicketAsReminderSent(@Bind("id") int ticketId);
+    @Query("select t.* from ticket t join tickets_reservation tr on tr.id = t.tickets_reservation_id" +
+        " where t.event_id = :eventId and t.status in('ACQUIRED', 'TO_BE_PAID') and t.full_name is not null and t.email_address is not null and t.reminder_sent = false" +
+        " and (tr.latest_reminder_ts is null or tr.latest_reminder_ts < :notifiedBefore)" +
+        " and not exists(select 1 from ticket_field_value tfv where tfv.ticket_id_fk = t.id and tfv.field_value is not null and tfv.field_value <> '')" +
+        " and t.id > :lastTicketId order by t.id limit :limit for update of t skip locked")
+    List<Ticket> findAssignedWithoutOptionalDataForUpdate(@Bind("eventId") int eventId,
+                                                          @Bind("notifiedBefore") ZonedDateTime notifiedBefore,
+                                                          @Bind("lastTicketId") int lastTicketId,
+                                                          @Bind("limit") int limit);
+
+    @Query("update ticket set reminder_sent = true where id in(:ids) and reminder_sent = false")
+    int flagTicketsAsReminderSent(@Bind("ids") Collection<Integer> ticketIds);
 
     String RESET_TICKET = " TICKETS_RESERVATION_ID = null, FULL_NAME = null, EMAIL_ADDRESS = null, SPECIAL_PRICE_ID_FK = null, LOCKED_ASSIGNMENT = false, USER_LANGUAGE = null, REMINDER_SENT = false, SRC_PRICE_CTS = 0, FINAL_PRICE_CTS = 0, VAT_CTS = 0, DISCOUNT_CTS = 0, FIRST_NAME = null, LAST_NAME = null, EXT_REFERENCE = null ";
     String RELEASE_TICKET_QUERY = "update ticket set status = 'RELEASED', uuid = :newUuid, " + RESET_TICKET + " where id = :ticketId and status in('ACQUIRED', 'PENDING', 'TO_BE_PAID') and tickets_reservation_id = :reservationId and event_id = :eventId";
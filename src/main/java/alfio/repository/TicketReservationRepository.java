@@ -17,6 +17,7 @@
 package alfio.repository;
 
 import alfio.model.*;
+import alfio.repository.support.IdentityMapped;
 import ch.digitalfondue.npjt.Bind;
 import ch.digitalfondue.npjt.Query;
 import ch.digitalfondue.npjt.QueryRepository;
@@ -72,17 +73,28 @@ public interface TicketReservationRepository {
     @Query("select count(id) from tickets_reservation where status = 'OFFLINE_PAYMENT' and event_id_fk = :eventId")
     Integer findAllReservationsWaitingForPaymentCountInEventId(@Bind("eventId") int eventId);
 
-    @Query("select * from tickets_reservation where status = 'OFFLINE_PAYMENT' and date_trunc('day', validity) <= :expiration and offline_payment_reminder_sent = false for update skip locked")
-    List<TicketReservation> findAllOfflinePaymentReservationForNotificationForUpdate(@Bind("expiration") Date expiration);
+    @Query("select * from tickets_reservation where status = 'OFFLINE_PAYMENT' and date_trunc('day', validity) <= :expiration and offline_payment_reminder_sent = false" +
+        " and id > :lastReservationId order by id limit :limit for update skip locked")
+    List<TicketReservation> findOfflinePaymentReservationForNotificationForUpdate(@Bind("expiration") Date expiration,
+                                                                                 @Bind("lastReservationId") String lastReservationId,
+                                                                                 @Bind("limit") int limit);
+
+    @Query("select * from tickets_reservation where id in(select tickets_reservation_id from ticket where event_id = :eventId and status in('ACQUIRED', 'TO_BE_PAID') and (full_name is null or email_address is null))" +
+        " and (latest_reminder_ts is null or latest_reminder_ts < :notifiedBefore)" +
+        " and id > :lastReservationId order by id limit :limit for update skip locked")
+    List<TicketReservation> findConfirmedButNotAssignedForUpdate(@Bind("eventId") int eventId,
+                                                                 @Bind("notifiedBefore") ZonedDateTime notifiedBefore,
+                                                                 @Bind("lastReservationId") String lastReservationId,
+                                                                 @Bind("limit") int limit);
 
     @Query("select id, full_name, first_name, last_name, email_address, event_id_fk, validity from tickets_reservation where status = 'OFFLINE_PAYMENT' and date_trunc('day', validity) <= :expiration and event_id_fk = :eventId for update skip locked")
     List<TicketReservationInfo> findAllOfflinePaymentReservationWithExpirationBeforeForUpdate(@Bind("expiration") ZonedDateTime expiration, @Bind("eventId") int eventId);
 
-    @Query("update tickets_reservation set offline_payment_reminder_sent = true where id = :reservationId")
-    int flagAsOfflinePaymentReminderSent(@Bind("reservationId") String reservationId);
+    @Query("update tickets_reservation set offline_payment_reminder_sent = true where id in(:reservationIds)")
+    int flagAsOfflinePaymentReminderSent(@Bind("reservationIds") Collection<String> reservationIds);
 
-    @Query("update tickets_reservation set latest_reminder_ts = :latestReminderTimestamp where id = :reservationId")
-    int updateLatestReminderTimestamp(@Bind("reservationId") String reservationId, @Bind("latestReminderTimestamp") ZonedDateTime latestReminderTimestamp);
+    @Query("update tickets_reservation set latest_reminder_ts = :latestReminderTimestamp where id in(:reservationIds)")
+    int updateLatestReminderTimestamp(@Bind("reservationIds") Collection<String> reservationIds, @Bind("latestReminderTimestamp") ZonedDateTime latestReminderTimestamp);
 
     @Query("update tickets_reservation set validity = :validity where id = :reservationId")
     int updateValidity(@Bind("reservationId") String reservationId, @Bind("validity") Date validity);
@@ -99,15 +111,20 @@ public interface TicketReservationRepository {
     @Query("update tickets_reservation set registration_ts = :registrationTimestamp where id = :reservationId")
     int updateRegistrationTimestamp(@Bind("reservationId") String id, @Bind("registrationTimestamp") ZonedDateTime registrationTimestamp);
 
+    @IdentityMapped("tickets_reservation")
     @Query("select * from tickets_reservation where id = :id")
     TicketReservation findReservationById(@Bind("id") String id);
 
+    @IdentityMapped("tickets_reservation")
     @Query("select * from tickets_reservation where id = :id")
     Optional<TicketReservation> findOptionalReservationById(@Bind("id") String id);
 
     @Query("select status, validated_for_overview from tickets_reservation where id = :id")
     Optional<TicketReservationStatusAndValidation> findOptionalStatusAndValidationById(@Bind("id") String id);
 
+    @Query("select id, status, validated_for_overview from tickets_reservation where id in (:ids)")
+    List<TicketReservationIdStatusAndValidation> findStatusAndValidationByIds(@Bind("ids") Collection<String> ids);
+
     @Query("select id from tickets_reservation where validity < :date and status = 'PENDING' for update skip locked")
     List<String> findExpiredReservationForUpdate(@Bind("date") Date date);
 
@@ -0,0 +1,66 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.repository.support;
+
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.SavepointManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.DefaultTransactionStatus;
+
+import javax.sql.DataSource;
+
+/**
+ * {@link DataSourceTransactionManager} which empties the {@link RepositoryIdentityMap} when the transaction is rolled
+ * back to a savepoint, either explicitly or by a nested transaction. There is no {@link org.springframework.transaction.support.TransactionSynchronization}
+ * callback for savepoints, and the entries loaded after the savepoint could reflect modifications that don't exist anymore.
+ */
+public class IdentityMapTransactionManager extends DataSourceTransactionManager {
+
+    public IdentityMapTransactionManager(DataSource dataSource) {
+        super(dataSource);
+    }
+
+    @Override
+    protected DefaultTransactionStatus newTransactionStatus(TransactionDefinition definition, Object transaction, boolean newTransaction,
+                                                            boolean newSynchronization, boolean debug, Object suspendedResources) {
+        var status = super.newTransactionStatus(definition, transaction, newTransaction, newSynchronization, debug, suspendedResources);
+        return new DefaultTransactionStatus(status.getTransaction(), status.isNewTransaction(), status.isNewSynchronization(),
+            status.isReadOnly(), status.isDebug(), status.getSuspendedResources()) {
+            @Override
+            protected SavepointManager getSavepointManager() {
+                var savepointManager = super.getSavepointManager();
+                return new SavepointManager() {
+                    @Override
+                    public Object createSavepoint() {
+                        return savepointManager.createSavepoint();
+                    }
+
+                    @Override
+                    public void rollbackToSavepoint(Object savepoint) {
+                        savepointManager.rollbackToSavepoint(savepoint);
+                        RepositoryIdentityMap.evictAll();
+                    }
+
+                    @Override
+                    public void releaseSavepoint(Object savepoint) {
+                        savepointManager.releaseSavepoint(savepoint);
+                    }
+                };
+            }
+        };
+    }
+}
@@ -0,0 +1,262 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.repository.support;
+
+import alfio.repository.EventRepository;
+import alfio.repository.TicketCategoryRepository;
+import alfio.repository.TicketRepository;
+import alfio.repository.TicketReservationRepository;
+import ch.digitalfondue.npjt.Query;
+import ch.digitalfondue.npjt.QueryRepository;
+import ch.digitalfondue.npjt.QueryType;
+import lombok.AllArgsConstructor;
+import lombok.Value;
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import org.springframework.aop.framework.ProxyFactory;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.util.ClassUtils;
+
+import java.lang.reflect.Method;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+
+/**
+ * Transaction scoped identity map for the entities that are loaded over and over while processing a single request
+ * (reservation, tickets, categories and event).
+ * <p>
+ * Within a transaction, the methods annotated with {@link IdentityMapped} are executed once for each combination
+ * of arguments, the following invocations get the result stored in a map bound to the transaction itself.
+ * The map is discarded when the transaction completes, and emptied when the transaction is resumed after being suspended.
+ * <p>
+ * An entry is evicted as soon as a repository method modifies one of the tables it depends on. The modified tables are
+ * extracted from the statement defined in the {@link Query} annotation, while the methods without a {@link Query}
+ * (e.g. default methods doing batch updates) are assumed to modify the table owned by their repository. Templates are
+ * executed outside of the repositories, therefore the tables they modify are excluded from the identity map
+ * until the end of the transaction. Statements executed directly through the JdbcTemplate are not tracked.
+ * <p>
+ * Locking reads ({@code for update}, {@code for share}) always hit the database and evict the entries depending on
+ * the tables they read, since they can return rows that have been committed after the entries were loaded.
+ * Rolling back to a savepoint empties the map, see {@link IdentityMapTransactionManager}.
+ */
+public class RepositoryIdentityMap implements BeanPostProcessor {
+
+    private static final Pattern MODIFIED_TABLE = Pattern.compile("\\b(?:insert\\s+into|update|delete\\s+from)\\s+(\\w+)", Pattern.CASE_INSENSITIVE);
+    private static final Pattern LOCKING_CLAUSE = Pattern.compile("\\bfor\\s+(?:no\\s+key\\s+update|update|key\\s+share|share)\\b", Pattern.CASE_INSENSITIVE);
+    private static final Pattern READ_TABLE = Pattern.compile("\\b(?:from|join)\\s+(\\w+)", Pattern.CASE_INSENSITIVE);
+    private static final Map<Class<?>, String> OWNED_TABLES = Map.of(
+        EventRepository.class, "event",
+        TicketRepository.class, "ticket",
+        TicketReservationRepository.class, "tickets_reservation",
+        TicketCategoryRepository.class, "ticket_category"
+    );
+
+    private final Map<Method, Operation> operations = new ConcurrentHashMap<>();
+
+    @Override
+    public Object postProcessAfterInitialization(Object bean, String beanName) {
+        boolean isRepository = Arrays.stream(ClassUtils.getAllInterfaces(bean))
+            .anyMatch(i -> i.isAnnotationPresent(QueryRepository.class));
+        if(!isRepository) {
+            return bean;
+        }
+        var proxyFactory = new ProxyFactory(bean);
+        proxyFactory.addAdvice((MethodInterceptor) this::invoke);
+        return proxyFactory.getProxy(bean.getClass().getClassLoader());
+    }
+
+    /**
+     * Executes the given supplier ignoring the entries of the identity map. Modifications are still tracked.
+     */
+    public static <T> T bypass(Supplier<T> supplier) {
+        var identityMap = IdentityMap.current();
+        if(identityMap == null) {
+            return supplier.get();
+        }
+        identityMap.bypass++;
+        try {
+            return supplier.get();
+        } finally {
+            identityMap.bypass--;
+        }
+    }
+
+    /**
+     * Evicts all the entries of the current transaction. To be called after modifying data without going through
+     * the repositories.
+     */
+    public static void evictAll() {
+        var identityMap = IdentityMap.current();
+        if(identityMap != null) {
+            identityMap.entries.clear();
+        }
+    }
+
+    private Object invoke(MethodInvocation invocation) throws Throwable {
+        var identityMap = IdentityMap.current();
+        if(identityMap == null) {
+            return invocation.proceed();
+        }
+        var method = invocation.getMethod();
+        var operation = operations.computeIfAbsent(method, RepositoryIdentityMap::resolve);
+        switch(operation.type) {
+            case CACHED:
+                if(!identityMap.isEnabledFor(operation.tables)) {
+                    return invocation.proceed();
+                }
+                var key = new Key(method, Arrays.asList(invocation.getArguments()));
+                var entry = identityMap.entries.get(key);
+                if(entry == null) {
+                    entry = new Entry(operation.tables, copyOf(invocation.proceed()));
+                    identityMap.entries.put(key, entry);
+                }
+                return entry.value instanceof List ? new ArrayList<>((List<?>) entry.value) : entry.value;
+            case MODIFYING:
+            case LOCKING:
+                try {
+                    return invocation.proceed();
+                } finally {
+                    identityMap.evict(operation.tables);
+                }
+            case TEMPLATE:
+                identityMap.evict(operation.tables);
+                identityMap.excludedTables.addAll(operation.tables);
+                return invocation.proceed();
+            default:
+                return invocation.proceed();
+        }
+    }
+
+    private static Object copyOf(Object result) {
+        return result instanceof List ? List.copyOf((List<?>) result) : result;
+    }
+
+    private static Operation resolve(Method method) {
+        var query = method.getAnnotation(Query.class);
+        if(query != null && isLockingRead(query.value())) {
+            return new Operation(OperationType.LOCKING, readTables(query.value()));
+        }
+        var identityMapped = method.getAnnotation(IdentityMapped.class);
+        if(identityMapped != null) {
+            return new Operation(OperationType.CACHED, Set.of(identityMapped.value()));
+        }
+        if(query == null) {
+            var ownedTable = OWNED_TABLES.get(method.getDeclaringClass());
+            return ownedTable != null ? new Operation(OperationType.MODIFYING, Set.of(ownedTable)) : Operation.NONE;
+        }
+        var tables = modifiedTables(query.value());
+        if(tables.isEmpty()) {
+            return Operation.NONE;
+        }
+        return new Operation(query.type() == QueryType.TEMPLATE ? OperationType.TEMPLATE : OperationType.MODIFYING, tables);
+    }
+
+    static Set<String> modifiedTables(String statement) {
+        // "for update of t skip locked" must not be mistaken for an update of the tables "of" or "skip"
+        return findTables(MODIFIED_TABLE, LOCKING_CLAUSE.matcher(statement).replaceAll(""));
+    }
+
+    static boolean isLockingRead(String statement) {
+        return LOCKING_CLAUSE.matcher(statement).find() && modifiedTables(statement).isEmpty();
+    }
+
+    static Set<String> readTables(String statement) {
+        return findTables(READ_TABLE, statement);
+    }
+
+    private static Set<String> findTables(Pattern pattern, String statement) {
+        var matcher = pattern.matcher(statement);
+        var tables = new HashSet<String>();
+        while(matcher.find()) {
+            tables.add(matcher.group(1).toLowerCase(Locale.ROOT));
+        }
+        return tables;
+    }
+
+    private enum OperationType {
+        CACHED, MODIFYING, LOCKING, TEMPLATE, NONE
+    }
+
+    @AllArgsConstructor
+    private static class Operation {
+        private static final Operation NONE = new Operation(OperationType.NONE, Set.of());
+        private final OperationType type;
+        private final Set<String> tables;
+    }
+
+    @Value
+    private static class Key {
+        Method method;
+        List<Object> arguments;
+    }
+
+    @AllArgsConstructor
+    private static class Entry {
+        private final Set<String> tables;
+        private final Object value;
+    }
+
+    private static class IdentityMap extends TransactionSynchronizationAdapter {
+
+        private final Map<Key, Entry> entries = new HashMap<>();
+        private final Set<String> excludedTables = new HashSet<>();
+        private int bypass;
+
+        private boolean isEnabledFor(Set<String> tables) {
+            return bypass == 0 && Collections.disjoint(excludedTables, tables);
+        }
+
+        private void evict(Set<String> tables) {
+            entries.values().removeIf(e -> !Collections.disjoint(e.tables, tables));
+        }
+
+        @Override
+        public void suspend() {
+            TransactionSynchronizationManager.unbindResourceIfPossible(IdentityMap.class);
+        }
+
+        @Override
+        public void resume() {
+            // the transaction that caused the suspension (e.g. REQUIRES_NEW) could have committed modifications
+            // that are not tracked by this map
+            entries.clear();
+            TransactionSynchronizationManager.bindResource(IdentityMap.class, this);
+        }
+
+        @Override
+        public void afterCompletion(int status) {
+            TransactionSynchronizationManager.unbindResourceIfPossible(IdentityMap.class);
+        }
+
+        private static IdentityMap current() {
+            if(!TransactionSynchronizationManager.isActualTransactionActive() || !TransactionSynchronizationManager.isSynchronizationActive()) {
+                return null;
+            }
+            var identityMap = (IdentityMap) TransactionSynchronizationManager.getResource(IdentityMap.class);
+            if(identityMap == null) {
+                identityMap = new IdentityMap();
+                TransactionSynchronizationManager.bindResource(IdentityMap.class, identityMap);
+                TransactionSynchronizationManager.registerSynchronization(identityMap);
+            }
+            return identityMap;
+        }
+    }
+}
@@ -35,6 +35,12 @@ public interface EventMigrationRepository {
     @Query("insert into event_migration (event_id, current_version, build_ts, status) values(:eventId, :currentVersion, :currentTimestamp, :status)")
     int insertMigrationData(@Bind("eventId") int eventId, @Bind("currentVersion") String currentVersion, @Bind("currentTimestamp") ZonedDateTime currentTimestamp, @Bind("status") String status);
 
-
-
+    /**
+     * Ensures that only one node at a time migrates the data. The lock is held until the end of the current transaction
+     */
+    @Query("select pg_advisory_xact_lock(hashtext('event_migration')) is null")
+    boolean lockMigration();
+
+    @Query("select pg_try_advisory_xact_lock(hashtext('event_migration'))")
+    boolean tryLockMigration();
 }
@@ -0,0 +1,175 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.util;
+
+import lombok.extern.log4j.Log4j2;
+import org.postgresql.PGConnection;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcOperations;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.ZonedDateTime;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.stream.Stream;
+
+/**
+ * Loads a large amount of rows using the PostgreSQL COPY protocol.
+ * <p>
+ * Most of our tables have a "force row level security" policy, and COPY FROM is not supported for these tables.
+ * Therefore the rows are first copied into a temporary staging table, then moved to the final destination
+ * using a single set-based statement for each chunk. This way triggers and policies are still honored.
+ * <p>
+ * The statement must reference the staging table using the {@link #STAGING_TABLE} placeholder, e.g.
+ * <pre>insert into ticket(uuid, status) select uuid, status from {staging}</pre>
+ * Instances are immutable and can be shared.
+ */
+@Log4j2
+public class BulkCopyLoader {
+
+    public static final String STAGING_TABLE = "{staging}";
+    public static final int DEFAULT_CHUNK_SIZE = 10_000;
+    /**
+     * below this threshold a JDBC batch is faster than creating a staging table
+     */
+    public static final int MIN_ROWS = 500;
+
+    private final String sourceTable;
+    private final Map<String, String> columns;
+    private final String statement;
+    private final int chunkSize;
+
+    private BulkCopyLoader(String sourceTable, Map<String, String> columns, String statement, int chunkSize) {
+        this.sourceTable = sourceTable;
+        this.columns = columns;
+        this.statement = statement;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * @param sourceTable the table used as template for the staging table
+     * @param columns column name -> parameter name. Column types are copied from the source table
+     * @param statement statement to execute after each chunk has been copied
+     */
+    public static BulkCopyLoader forTable(String sourceTable, Map<String, String> columns, String statement) {
+        return new BulkCopyLoader(sourceTable, new LinkedHashMap<>(columns), statement, DEFAULT_CHUNK_SIZE);
+    }
+
+    public BulkCopyLoader withChunkSize(int chunkSize) {
+        return new BulkCopyLoader(sourceTable, columns, statement, chunkSize);
+    }
+
+    public int load(JdbcOperations jdbc, Stream<? extends SqlParameterSource> rows, int expectedRows) {
+        return load(jdbc, rows, expectedRows, BulkCopyLoader::logProgress);
+    }
+
+    /**
+     * Copies the given rows, using the connection bound to the current transaction (if any)
+     *
+     * @return the number of rows affected by the statement
+     */
+    public int load(JdbcOperations jdbc, Stream<? extends SqlParameterSource> rows, int expectedRows, ProgressListener progressListener) {
+        Integer result = jdbc.execute((ConnectionCallback<Integer>) connection -> {
+            String stagingTable = "alfio_copy_" + sourceTable;
+            String columnList = String.join(", ", columns.keySet());
+            String copyStatement = "copy " + stagingTable + " (" + columnList + ") from stdin with (format csv)";
+            String chunkStatement = statement.replace(STAGING_TABLE, stagingTable);
+            var copyApi = connection.unwrap(PGConnection.class).getCopyAPI();
+            execute(connection, "create temporary table if not exists " + stagingTable + " as select " + columnList + " from " + sourceTable + " with no data");
+            execute(connection, "truncate " + stagingTable);
+            try {
+                int copied = 0;
+                int affected = 0;
+                Iterator<? extends SqlParameterSource> iterator = rows.iterator();
+                StringBuilder chunk = new StringBuilder();
+                while(iterator.hasNext()) {
+                    int chunkRows = 0;
+                    chunk.setLength(0);
+                    while(iterator.hasNext() && chunkRows < chunkSize) {
+                        appendRow(chunk, iterator.next());
+                        chunkRows++;
+                    }
+                    copyApi.copyIn(copyStatement, new StringReader(chunk.toString()));
+                    affected += execute(connection, chunkStatement);
+                    execute(connection, "truncate " + stagingTable);
+                    copied += chunkRows;
+                    progressListener.onProgress(sourceTable, copied, expectedRows);
+                }
+                // in case of error the staging table is either rolled back or truncated by the next load
+                execute(connection, "drop table " + stagingTable);
+                return affected;
+            } catch (IOException e) {
+                throw new SQLException("error while copying rows into " + stagingTable, e);
+            }
+        });
+        return Objects.requireNonNull(result);
+    }
+
+    private void appendRow(StringBuilder builder, SqlParameterSource row) {
+        boolean first = true;
+        for (String parameterName : columns.values()) {
+            if(!first) {
+                builder.append(',');
+            }
+            first = false;
+            Object value = row.hasValue(parameterName) ? row.getValue(parameterName) : null;
+            appendValue(builder, value);
+        }
+        builder.append('\n');
+    }
+
+    static void appendValue(StringBuilder builder, Object value) {
+        if(value == null) {
+            // in CSV format an unquoted empty value is NULL
+            return;
+        }
+        String formatted;
+        if(value instanceof Date) {
+            formatted = ((Date) value).toInstant().toString();
+        } else if(value instanceof ZonedDateTime) {
+            formatted = ((ZonedDateTime) value).toOffsetDateTime().toString();
+        } else if(value instanceof Enum<?>) {
+            formatted = ((Enum<?>) value).name();
+        } else {
+            formatted = value.toString();
+        }
+        builder.append('"').append(formatted.replace("\"", "\"\"")).append('"');
+    }
+
+    private static int execute(Connection connection, String sql) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            return statement.executeUpdate(sql);
+        }
+    }
+
+    private static void logProgress(String table, int copied, int expected) {
+        log.info("{}: copied {}/{} rows", table, copied, expected);
+    }
+
+    @FunctionalInterface
+    public interface ProgressListener {
+        void onProgress(String table, int copied, int expected);
+    }
+}
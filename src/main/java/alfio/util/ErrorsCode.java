@@ -28,6 +28,7 @@ public interface ErrorsCode {
     String STEP_1_NOT_ENOUGH_TICKETS = "error.STEP_1_NOT_ENOUGH_TICKETS";
     
     String STEP_1_CODE_NOT_FOUND = "error.STEP_1_CODE_NOT_FOUND";
+    String STEP_1_QUEUED = "error.STEP_1_QUEUED";
 
     String STEP_2_PAYMENT_PROCESSING_ERROR = "error.STEP_2_PAYMENT_PROCESSING_ERROR";
     
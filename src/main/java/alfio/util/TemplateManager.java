@@ -38,6 +38,7 @@ import java.nio.charset.StandardCharsets;
 import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.function.Function;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -113,18 +114,61 @@ public class TemplateManager {
         return toEnrich;
     }
 
+    /**
+     * Compiles the given template once, in order to render it for many recipients.
+     * The returned function is equivalent to calling {@link #renderString(EventAndOrganizationId, String, Map, Locale, TemplateOutput)}
+     * with the same template.
+     *
+     * @return a function which renders the compiled template using the given model
+     */
+    public Function<Map<String, Object>, String> compileString(EventAndOrganizationId event, String template, Locale locale, TemplateOutput templateOutput) {
+        return precompile(event, new ByteArrayResource(template.getBytes(StandardCharsets.UTF_8)), locale, templateOutput);
+    }
+
+    /**
+     * Resolves and compiles the given template resource once, honoring the overrides uploaded for the event or its organization.
+     * The returned function is equivalent to calling {@link #renderTemplate(EventAndOrganizationId, TemplateResource, Map, Locale)}.
+     *
+     * @return a function which renders the compiled template using the given model
+     */
+    public Function<Map<String, Object>, String> compileTemplate(EventAndOrganizationId event, TemplateResource templateResource, Locale locale) {
+        Resource resource = uploadedResourceManager.findCascading(event.getOrganizationId(), event.getId(), templateResource.getSavedName(locale))
+            .<Resource>map(ByteArrayResource::new)
+            .orElseGet(() -> new ClassPathResource(templateResource.classPath()));
+        return precompile(event, resource, locale, templateResource.getTemplateOutput());
+    }
+
+    private Function<Map<String, Object>, String> precompile(EventAndOrganizationId event, Resource resource, Locale locale, TemplateOutput templateOutput) {
+        var compiledTemplate = compile(resource, templateOutput);
+        var messageSource = messageSourceManager.getMessageSourceForEvent(event);
+        var vatTranslation = event != null ? messageSource.getMessage("common.vat", null, locale) : null;
+        var translator = new CustomLocalizationMessageInterceptor(locale, messageSource).createTranslator();
+        return model -> {
+            Map<String, Object> toEnrich = new HashMap<>(model);
+            if(event != null) {
+                toEnrich.put(VAT_TRANSLATION_TEMPLATE_KEY, vatTranslation);
+            }
+            return execute(compiledTemplate, toEnrich, translator);
+        };
+    }
+
     private String render(Resource resource, Map<String, Object> model, Locale locale, EventAndOrganizationId eventAndOrganizationId, TemplateOutput templateOutput) {
+        var translator = new CustomLocalizationMessageInterceptor(locale, messageSourceManager.getMessageSourceForEvent(eventAndOrganizationId)).createTranslator();
+        return execute(compile(resource, templateOutput), model, translator);
+    }
+
+    private static String execute(Template template, Map<String, Object> model, Mustache.Lambda translator) {
         try {
             ModelAndView mv = new ModelAndView((String) null, model);
             mv.addObject("format-date", MustacheCustomTag.FORMAT_DATE);
             mv.addObject("country-name", COUNTRY_NAME);
             mv.addObject("additional-field-value", ADDITIONAL_FIELD_VALUE.apply(model.get("additional-fields")));
-            mv.addObject("i18n", new CustomLocalizationMessageInterceptor(locale, messageSourceManager.getMessageSourceForEvent(eventAndOrganizationId)).createTranslator());
+            mv.addObject("i18n", translator);
             var updatedModel = mv.getModel();
             updatedModel.putIfAbsent("custom-header-text", "");
             updatedModel.putIfAbsent("custom-body-text", "");
             updatedModel.putIfAbsent("custom-footer-text", "");
-            return compile(resource, templateOutput).execute(mv.getModel());
+            return template.execute(mv.getModel());
         } catch (Exception e) {
             throw new IllegalStateException(e);
         }
@@ -133,8 +177,8 @@ public class TemplateManager {
     private Template compile(Resource resource, TemplateOutput templateOutput) {
         try (InputStreamReader tmpl = new InputStreamReader(resource.getInputStream(), StandardCharsets.UTF_8)) {
             return compilers.get(templateOutput).compile(tmpl);
-        } catch (IOException ioe) {
-            throw new IllegalStateException(ioe);
+        } catch (IOException | RuntimeException e) {
+            throw new IllegalStateException(e);
         }
     }
 
@@ -0,0 +1,30 @@
+--
+-- This file is part of alf.io.
+--
+-- alf.io is free software: you can redistribute it and/or modify
+-- it under the terms of the GNU General Public License as published by
+-- the Free Software Foundation, either version 3 of the License, or
+-- (at your option) any later version.
+--
+-- alf.io is distributed in the hope that it will be useful,
+-- but WITHOUT ANY WARRANTY; without even the implied warranty of
+-- MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+-- GNU General Public License for more details.
+--
+-- You should have received a copy of the GNU General Public License
+-- along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+--
+
+-- incremented on every update, used for invalidating the cached event metadata on all the nodes
+alter table event add column metadata_version bigint not null default 0;
+
+create or replace function increment_event_metadata_version() returns trigger
+as $$ begin
+    new.metadata_version = old.metadata_version + 1;
+    return new;
+end;
+$$ language plpgsql;
+
+create trigger event_metadata_version_trigger
+    before update on event
+    for each row execute procedure increment_event_metadata_version();
@@ -0,0 +1,42 @@
+--
+-- This file is part of alf.io.
+--
+-- alf.io is free software: you can redistribute it and/or modify
+-- it under the terms of the GNU General Public License as published by
+-- the Free Software Foundation, either version 3 of the License, or
+-- (at your option) any later version.
+--
+-- alf.io is distributed in the hope that it will be useful,
+-- but WITHOUT ANY WARRANTY; without even the implied warranty of
+-- MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+-- GNU General Public License for more details.
+--
+-- You should have received a copy of the GNU General Public License
+-- along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+--
+
+create table custom_message_campaign (
+    id bigserial primary key not null,
+    event_id_fk integer not null references event(id),
+    organization_id_fk integer not null references organization(id),
+    category_id_fk integer references ticket_category(id),
+    messages jsonb not null,
+    status varchar(255) not null,
+    recipients_count integer not null,
+    processed_count integer not null default 0,
+    last_ticket_id integer not null default 0,
+    created_by varchar(255) not null,
+    creation_ts timestamp with time zone not null,
+    update_ts timestamp with time zone,
+    completion_ts timestamp with time zone,
+    failure_message text
+);
+
+create index custom_message_campaign_status_idx on custom_message_campaign(status) where status in ('WAITING', 'IN_PROGRESS');
+create index custom_message_campaign_event_idx on custom_message_campaign(event_id_fk);
+
+alter table custom_message_campaign enable row level security;
+alter table custom_message_campaign force row level security;
+create policy custom_message_campaign_access_policy on custom_message_campaign to public
+    using (alfio_check_row_access(organization_id_fk))
+    with check (alfio_check_row_access(organization_id_fk));
@@ -0,0 +1,26 @@
+--
+-- This file is part of alf.io.
+--
+-- alf.io is free software: you can redistribute it and/or modify
+-- it under the terms of the GNU General Public License as published by
+-- the Free Software Foundation, either version 3 of the License, or
+-- (at your option) any later version.
+--
+-- alf.io is distributed in the hope that it will be useful,
+-- but WITHOUT ANY WARRANTY; without even the implied warranty of
+-- MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+-- GNU General Public License for more details.
+--
+-- You should have received a copy of the GNU General Public License
+-- along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+--
+
+-- messages with the same checksum have the same recipient, subject, text and attachments.
+-- Duplicates could only be created by concurrent inserts, we keep the oldest one.
+delete from email_message a using email_message b
+    where a.event_id = b.event_id and a.checksum = b.checksum and a.id > b.id;
+
+create unique index email_message_event_id_checksum_uq on email_message(event_id, checksum);
+
+-- all the queries on checksum also filter by event_id, so they can use the new index
+drop index if exists idx_email_msg_checksum;
@@ -0,0 +1,75 @@
+--
+-- This file is part of alf.io.
+--
+-- alf.io is free software: you can redistribute it and/or modify
+-- it under the terms of the GNU General Public License as published by
+-- the Free Software Foundation, either version 3 of the License, or
+-- (at your option) any later version.
+--
+-- alf.io is distributed in the hope that it will be useful,
+-- but WITHOUT ANY WARRANTY; without even the implied warranty of
+-- MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+-- GNU General Public License for more details.
+--
+-- You should have received a copy of the GNU General Public License
+-- along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+--
+
+-- rendered PDFs of billing documents. A document never changes once generated, so its PDF can be reused
+create table billing_document_pdf (
+    billing_document_id_fk bigint primary key not null references billing_document(id) on delete cascade,
+    organization_id_fk integer not null references organization(id),
+    content bytea not null,
+    generation_ts timestamp with time zone not null
+);
+
+alter table billing_document_pdf enable row level security;
+alter table billing_document_pdf force row level security;
+create policy billing_document_pdf_access_policy on billing_document_pdf to public
+    using (alfio_check_row_access(organization_id_fk))
+    with check (alfio_check_row_access(organization_id_fk));
+
+create table invoice_archive (
+    id bigserial primary key not null,
+    event_id_fk integer not null references event(id),
+    organization_id_fk integer not null references organization(id),
+    status varchar(255) not null,
+    documents_count integer not null,
+    processed_count integer not null default 0,
+    last_document_id bigint not null default 0,
+    created_by varchar(255) not null,
+    creation_ts timestamp with time zone not null,
+    update_ts timestamp with time zone,
+    completion_ts timestamp with time zone,
+    failure_message text
+);
+
+create index invoice_archive_status_idx on invoice_archive(status) where status in ('WAITING', 'IN_PROGRESS');
+create index invoice_archive_event_idx on invoice_archive(event_id_fk);
+
+alter table invoice_archive enable row level security;
+alter table invoice_archive force row level security;
+create policy invoice_archive_access_policy on invoice_archive to public
+    using (alfio_check_row_access(organization_id_fk))
+    with check (alfio_check_row_access(organization_id_fk));
+
+-- documents included in an archive. A row is added once the PDF of the document has been stored, so that the download
+-- doesn't need to render anything, and contains exactly the documents that were valid while the archive was prepared
+create table invoice_archive_document (
+    invoice_archive_id_fk bigint not null references invoice_archive(id) on delete cascade,
+    billing_document_id_fk bigint not null references billing_document(id) on delete cascade,
+    organization_id_fk integer not null references organization(id),
+    primary key(invoice_archive_id_fk, billing_document_id_fk)
+);
+
+create index invoice_archive_document_billing_document_idx on invoice_archive_document(billing_document_id_fk);
+
+alter table invoice_archive_document enable row level security;
+alter table invoice_archive_document force row level security;
+create policy invoice_archive_document_access_policy on invoice_archive_document to public
+    using (alfio_check_row_access(organization_id_fk))
+    with check (alfio_check_row_access(organization_id_fk));
+
+-- support the cursor used for paging through the valid documents of an event
+create index billing_document_event_id_idx on billing_document(event_id_fk, type, id) where status = 'VALID';
+create index billing_document_reservation_id_idx on billing_document(reservation_id_fk);
@@ -0,0 +1,38 @@
+--
+-- This file is part of alf.io.
+--
+-- alf.io is free software: you can redistribute it and/or modify
+-- it under the terms of the GNU General Public License as published by
+-- the Free Software Foundation, either version 3 of the License, or
+-- (at your option) any later version.
+--
+-- alf.io is distributed in the hope that it will be useful,
+-- but WITHOUT ANY WARRANTY; without even the implied warranty of
+-- MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+-- GNU General Public License for more details.
+--
+-- You should have received a copy of the GNU General Public License
+-- along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+--
+
+-- indexes found missing by QueryPlanRegressionTest
+
+-- reservations of an event, filtered by status (payment reminders, statistics, reservation search)
+create index tickets_reservation_event_id_status_idx on tickets_reservation(event_id_fk, status);
+-- expired/stuck reservations lookup, performed by the scheduled jobs
+create index tickets_reservation_pending_validity_idx on tickets_reservation(status, validity)
+    where status in ('PENDING', 'OFFLINE_PAYMENT', 'IN_PAYMENT', 'EXTERNAL_PROCESSING_PAYMENT');
+
+create index special_price_ticket_category_id_status_idx on special_price(ticket_category_id, status);
+create index special_price_waiting_idx on special_price(id) where status = 'WAITING';
+
+create index ticket_pre_reserved_idx on ticket(event_id) where status = 'PRE_RESERVED';
+
+create index email_message_in_process_idx on email_message(request_ts) where status = 'IN_PROCESS';
+
+create index additional_service_item_reservation_uuid_idx on additional_service_item(tickets_reservation_uuid);
+create index ticket_field_value_configuration_id_idx on ticket_field_value(ticket_field_configuration_id_fk);
+create index waiting_queue_reservation_id_idx on waiting_queue(ticket_reservation_id);
+create index scan_audit_event_id_idx on scan_audit(event_id_fk);
+-- very few reservations are stuck, used by the ticket_category_statistics view
+create index tickets_reservation_stuck_idx on tickets_reservation(id) where status = 'STUCK';
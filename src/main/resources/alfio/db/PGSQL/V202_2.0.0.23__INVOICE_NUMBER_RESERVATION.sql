@@ -0,0 +1,39 @@
+--
+-- This file is part of alf.io.
+--
+-- alf.io is free software: you can redistribute it and/or modify
+-- it under the terms of the GNU General Public License as published by
+-- the Free Software Foundation, either version 3 of the License, or
+-- (at your option) any later version.
+--
+-- alf.io is distributed in the hope that it will be useful,
+-- but WITHOUT ANY WARRANTY; without even the implied warranty of
+-- MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+-- GNU General Public License for more details.
+--
+-- You should have received a copy of the GNU General Public License
+-- along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+--
+
+-- invoice numbers taken from invoice_sequences and not yet assigned to a confirmed reservation.
+-- A row is deleted as soon as the reservation is confirmed. If the payment fails, reservation_id_fk is set to null
+-- and the number is assigned to the next reservation of the same organization, so that the sequence has no gaps.
+-- The number is reserved in a separate transaction while the payment transaction holds a lock on the reservation.
+-- A foreign key on reservation_id_fk would wait for that lock, and PostgreSQL can't detect the deadlock since it
+-- involves two connections of the same thread. Numbers reserved for deleted reservations are considered as released
+-- (see InvoiceSequencesRepository#claimReleasedSequence)
+create table invoice_number_reservation (
+    organization_id_fk integer not null references organization(id),
+    invoice_sequence integer not null,
+    reservation_id_fk char(36),
+    reservation_ts timestamp with time zone not null default now(),
+    primary key(organization_id_fk, invoice_sequence)
+);
+
+create unique index invoice_number_reservation_reservation_id_uq on invoice_number_reservation(reservation_id_fk);
+
+alter table invoice_number_reservation enable row level security;
+alter table invoice_number_reservation force row level security;
+create policy invoice_number_reservation_access_policy on invoice_number_reservation to public
+    using (alfio_check_row_access(organization_id_fk))
+    with check (alfio_check_row_access(organization_id_fk));
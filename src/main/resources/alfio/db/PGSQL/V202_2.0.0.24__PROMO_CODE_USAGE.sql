@@ -0,0 +1,146 @@
+--
+-- This file is part of alf.io.
+--
+-- alf.io is free software: you can redistribute it and/or modify
+-- it under the terms of the GNU General Public License as published by
+-- the Free Software Foundation, either version 3 of the License, or
+-- (at your option) any later version.
+--
+-- alf.io is distributed in the hope that it will be useful,
+-- but WITHOUT ANY WARRANTY; without even the implied warranty of
+-- MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+-- GNU General Public License for more details.
+--
+-- You should have received a copy of the GNU General Public License
+-- along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+--
+
+-- number of tickets confirmed (OFFLINE_PAYMENT, COMPLETE, STUCK) using a promo code with a max_usage.
+-- The rows are kept up to date by the triggers on tickets_reservation, and periodically reconciled
+-- with the actual count by PromoCodeRequestManager.reconcileUsageCounters
+create table promo_code_usage (
+    promo_code_id_fk integer primary key references promo_code(id) on delete cascade,
+    organization_id_fk integer not null references organization(id),
+    used_count integer not null,
+    last_update timestamp with time zone not null default now()
+);
+
+alter table promo_code_usage enable row level security;
+alter table promo_code_usage force row level security;
+create policy promo_code_usage_access_policy on promo_code_usage to public
+    using (alfio_check_row_access(organization_id_fk))
+    with check (alfio_check_row_access(organization_id_fk));
+
+-- same rules of PromoCodeDiscount.categoriesOrNull
+create or replace function promo_code_applies_to_category(code promo_code, category_id integer) returns boolean as $$
+    select case
+        when code.code_type = 'ACCESS' then category_id = code.hidden_category_id
+        when coalesce(code.categories, 'null') in ('null', '[]') then true
+        else category_id in (select value::integer from json_array_elements_text(code.categories::json))
+    end
+$$ language sql stable;
+
+-- tickets of the confirmed reservations counted for the given promo code
+create or replace function promo_code_usage_count(code_id integer) returns integer as $$
+    select count(t.id)::integer
+    from promo_code pc
+    join tickets_reservation tr on tr.promo_code_id_fk = pc.id
+    join ticket t on t.tickets_reservation_id = tr.id
+    where pc.id = code_id
+      and tr.status in ('OFFLINE_PAYMENT', 'COMPLETE', 'STUCK')
+      and promo_code_applies_to_category(pc, t.category_id)
+$$ language sql stable;
+
+-- tickets of the given reservation counted for the given promo code
+create or replace function promo_code_usage_count(code_id integer, reservation_id char(36)) returns integer as $$
+    select count(t.id)::integer
+    from promo_code pc
+    join ticket t on t.tickets_reservation_id = reservation_id
+    where pc.id = code_id
+      and promo_code_applies_to_category(pc, t.category_id)
+$$ language sql stable;
+
+-- tickets counted for each confirmed reservation of a promo code having a max_usage. The same amount is subtracted
+-- when the reservation leaves the counted statuses or is deleted, even if its tickets have already been released
+create table promo_code_usage_reservation (
+    reservation_id_fk char(36) primary key,
+    promo_code_id_fk integer not null references promo_code_usage(promo_code_id_fk) on delete cascade,
+    organization_id_fk integer not null references organization(id),
+    used_count integer not null
+);
+create index promo_code_usage_reservation_promo_code_idx on promo_code_usage_reservation(promo_code_id_fk);
+
+alter table promo_code_usage_reservation enable row level security;
+alter table promo_code_usage_reservation force row level security;
+create policy promo_code_usage_reservation_access_policy on promo_code_usage_reservation to public
+    using (alfio_check_row_access(organization_id_fk))
+    with check (alfio_check_row_access(organization_id_fk));
+
+create or replace function promo_code_usage_subtract(reservation_id char(36)) returns void as $$
+declare
+    code_id integer;
+    counted integer;
+begin
+    select promo_code_id_fk into code_id from promo_code_usage_reservation where reservation_id_fk = reservation_id;
+    if not found then
+        return;
+    end if;
+    -- the counter is locked first, like the increment and the reconciliation do
+    perform 1 from promo_code_usage where promo_code_id_fk = code_id for update;
+    delete from promo_code_usage_reservation where reservation_id_fk = reservation_id returning used_count into counted;
+    if found then
+        update promo_code_usage set used_count = used_count - counted, last_update = now() where promo_code_id_fk = code_id;
+    end if;
+end
+$$ language plpgsql;
+
+create or replace function promo_code_usage_on_reservation_update() returns trigger as $$
+declare
+    counted_statuses text[] := array['OFFLINE_PAYMENT', 'COMPLETE', 'STUCK'];
+    counted integer;
+    organization_id integer;
+begin
+    if old.status = any(counted_statuses) then
+        perform promo_code_usage_subtract(old.id);
+    end if;
+    -- only the promo codes with a max_usage have a row in promo_code_usage, for the other ones the update is a no-op
+    if new.promo_code_id_fk is not null and new.status = any(counted_statuses) then
+        counted := promo_code_usage_count(new.promo_code_id_fk, new.id);
+        update promo_code_usage set used_count = used_count + counted, last_update = now()
+            where promo_code_id_fk = new.promo_code_id_fk
+            returning organization_id_fk into organization_id;
+        if found then
+            insert into promo_code_usage_reservation(reservation_id_fk, promo_code_id_fk, organization_id_fk, used_count)
+                values (new.id, new.promo_code_id_fk, organization_id, counted);
+        end if;
+    end if;
+    return new;
+end
+$$ language plpgsql;
+
+create or replace function promo_code_usage_on_reservation_delete() returns trigger as $$
+begin
+    if old.status in ('OFFLINE_PAYMENT', 'COMPLETE', 'STUCK') then
+        perform promo_code_usage_subtract(old.id);
+    end if;
+    return old;
+end
+$$ language plpgsql;
+
+create trigger promo_code_usage_trigger after update of status, promo_code_id_fk on tickets_reservation
+    for each row when (old.status is distinct from new.status or old.promo_code_id_fk is distinct from new.promo_code_id_fk)
+    execute procedure promo_code_usage_on_reservation_update();
+
+create trigger promo_code_usage_delete_trigger after delete on tickets_reservation
+    for each row execute procedure promo_code_usage_on_reservation_delete();
+
+-- used by the reconciliation, most of the codes don't have a max_usage
+create index promo_code_max_usage_idx on promo_code(id) where max_usage is not null;
+
+insert into promo_code_usage(promo_code_id_fk, organization_id_fk, used_count)
+    select id, organization_id_fk, promo_code_usage_count(id) from promo_code where max_usage is not null;
+insert into promo_code_usage_reservation(reservation_id_fk, promo_code_id_fk, organization_id_fk, used_count)
+    select tr.id, pc.id, pc.organization_id_fk, promo_code_usage_count(pc.id, tr.id)
+    from tickets_reservation tr
+    join promo_code pc on pc.id = tr.promo_code_id_fk
+    where pc.max_usage is not null and tr.status in ('OFFLINE_PAYMENT', 'COMPLETE', 'STUCK');
@@ -0,0 +1,53 @@
+--
+-- This file is part of alf.io.
+--
+-- alf.io is free software: you can redistribute it and/or modify
+-- it under the terms of the GNU General Public License as published by
+-- the Free Software Foundation, either version 3 of the License, or
+-- (at your option) any later version.
+--
+-- alf.io is distributed in the hope that it will be useful,
+-- but WITHOUT ANY WARRANTY; without even the implied warranty of
+-- MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+-- GNU General Public License for more details.
+--
+-- You should have received a copy of the GNU General Public License
+-- along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+--
+
+-- incremented on every modification of the data shown on the public event catalogue, used for invalidating
+-- the snapshots on all the nodes. The version is kept in a single-row table and updated in the same transaction
+-- as the data: a sequence is incremented outside of the transaction, so a reader could see the new version before
+-- the modified data is committed and cache an outdated snapshot under it. Moreover, a hot standby exposes the value
+-- WAL-logged in advance, which is ahead of the actual one. Concurrent modifications of the catalogue wait for each
+-- other on the row lock, which is acceptable since they are performed only by administrators.
+create table catalogue_version (
+    version bigint not null
+);
+insert into catalogue_version(version) values (1);
+
+create or replace function increment_catalogue_version() returns trigger
+as $$ begin
+    update catalogue_version set version = version + 1;
+    return null;
+end;
+$$ language plpgsql;
+
+create trigger event_catalogue_version_trigger after insert or update or delete on event
+    for each statement execute procedure increment_catalogue_version();
+create trigger event_description_text_catalogue_version_trigger after insert or update or delete on event_description_text
+    for each statement execute procedure increment_catalogue_version();
+create trigger organization_catalogue_version_trigger after insert or update or delete on organization
+    for each statement execute procedure increment_catalogue_version();
+create trigger ticket_category_catalogue_version_trigger after insert or update or delete on ticket_category
+    for each statement execute procedure increment_catalogue_version();
+create trigger promo_code_catalogue_version_trigger after insert or update or delete on promo_code
+    for each statement execute procedure increment_catalogue_version();
+create trigger configuration_catalogue_version_trigger after insert or update or delete on configuration
+    for each statement execute procedure increment_catalogue_version();
+create trigger configuration_organization_catalogue_version_trigger after insert or update or delete on configuration_organization
+    for each statement execute procedure increment_catalogue_version();
+create trigger configuration_event_catalogue_version_trigger after insert or update or delete on configuration_event
+    for each statement execute procedure increment_catalogue_version();
+create trigger configuration_ticket_category_catalogue_version_trigger after insert or update or delete on configuration_ticket_category
+    for each statement execute procedure increment_catalogue_version();
@@ -0,0 +1,41 @@
+--
+-- This file is part of alf.io.
+--
+-- alf.io is free software: you can redistribute it and/or modify
+-- it under the terms of the GNU General Public License as published by
+-- the Free Software Foundation, either version 3 of the License, or
+-- (at your option) any later version.
+--
+-- alf.io is distributed in the hope that it will be useful,
+-- but WITHOUT ANY WARRANTY; without even the implied warranty of
+-- MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+-- GNU General Public License for more details.
+--
+-- You should have received a copy of the GNU General Public License
+-- along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+--
+
+-- admission queue for the reservation requests, see ReservationAdmissionManager.
+-- ADMITTED rows are the requests currently allowed to create a reservation, WAITING rows are served in id order
+create table reservation_admission (
+    id bigserial primary key,
+    event_id_fk integer not null references event(id) on delete cascade,
+    organization_id_fk integer not null references organization(id),
+    token varchar(36) not null unique,
+    status varchar(16) not null,
+    creation_ts timestamp with time zone not null default now(),
+    admission_ts timestamp with time zone,
+    last_seen_ts timestamp with time zone not null default now()
+);
+
+create index reservation_admission_event_status_idx on reservation_admission(event_id_fk, status, id);
+
+create trigger reservation_admission_insert_org_id_fk_trigger
+    before insert on reservation_admission
+    for each row execute procedure set_organization_id_fk_from_event_id_fk();
+
+alter table reservation_admission enable row level security;
+alter table reservation_admission force row level security;
+create policy reservation_admission_access_policy on reservation_admission to public
+    using (alfio_check_row_access(organization_id_fk))
+    with check (alfio_check_row_access(organization_id_fk));
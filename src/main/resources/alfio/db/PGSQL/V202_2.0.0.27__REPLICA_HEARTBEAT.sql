@@ -0,0 +1,24 @@
+--
+-- This file is part of alf.io.
+--
+-- alf.io is free software: you can redistribute it and/or modify
+-- it under the terms of the GNU General Public License as published by
+-- the Free Software Foundation, either version 3 of the License, or
+-- (at your option) any later version.
+--
+-- alf.io is distributed in the hope that it will be useful,
+-- but WITHOUT ANY WARRANTY; without even the implied warranty of
+-- MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+-- GNU General Public License for more details.
+--
+-- You should have received a copy of the GNU General Public License
+-- along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+--
+-- written on the primary database while measuring the lag of the read replica. Since the value is replicated
+-- as any other modification, it works for streaming replicas as well as for logical subscribers (in that case,
+-- the table must be added to the publication)
+create table replica_heartbeat (
+    id integer primary key check (id = 1),
+    ts timestamp with time zone not null
+);
+insert into replica_heartbeat(id, ts) values (1, now());
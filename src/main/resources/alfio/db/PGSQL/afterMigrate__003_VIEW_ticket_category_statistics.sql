@@ -38,27 +38,25 @@ from
 
 (select max_tickets, bounded, id, event_id, expiration < now() as is_expired, access_restricted from ticket_category ) ticket_cat
 
-left join
+-- lateral joins let the planner push down the filters on ticket_category (i.e. event_id) to the ticket scan
+
+left join lateral
 
 (select
   sum(case(status = 'PENDING') when true then 1 else 0 end) as pending_count,
   sum(case(status = 'RELEASED') when true then 1 else 0 end) as released_count,
   sum(case(status = 'CHECKED_IN') when true then 1 else 0 end) checked_in_count,
-  sum(case(status in ('TO_BE_PAID', 'ACQUIRED')) when true then 1 else 0 end) as sold_tickets_count,
-  category_id
+  sum(case(status in ('TO_BE_PAID', 'ACQUIRED')) when true then 1 else 0 end) as sold_tickets_count
 from ticket
-inner join ticket_category tc
-on category_id = tc.id
-group by category_id
-) tickets_stats on ticket_cat.id = tickets_stats.category_id
+where category_id = ticket_cat.id
+) tickets_stats on true
 
-left join
+left join lateral
 
-(select count(*) stuck_count, category_id
+(select count(*) stuck_count
   from ticket
   inner join tickets_reservation on tickets_reservation.id = tickets_reservation_id
-  where tickets_reservation.status = 'STUCK'
-  group by category_id) stuck_count on ticket_cat.id = stuck_count.category_id
+  where tickets_reservation.status = 'STUCK' and category_id = ticket_cat.id) stuck_count on true
 
 
 ) as res);
\ No newline at end of file
@@ -41,7 +41,9 @@ create view events_statistics as (select
       is_containing_stuck_tickets_count > 0 as is_containing_stuck_tickets_count,
       public_and_valid_count > 0 as show_public_statistics
 
-from
+from event
+-- lateral, so that the filters on event (i.e. "id in (...)") are applied before computing the statistics
+inner join lateral
 (select
 	sum(sold_tickets_count) as sold_tickets_count,
 	sum(checked_in_count) as checked_in_count,
@@ -58,5 +60,4 @@ from
 	sum(case (is_containing_orphan_tickets) when true then 1 else 0 end) is_containing_orphan_tickets_count,
     sum(case (is_containing_stuck_tickets) when true then 1 else 0 end) is_containing_stuck_tickets_count,
     sum(case (access_restricted = false and is_expired = false) when true then 1 else 0 end) as public_and_valid_count,
-	event_id from ticket_category_statistics group by event_id) as stats
-inner join event on event_id = event.id);
\ No newline at end of file
+	event_id from ticket_category_statistics where event_id = event.id group by event_id) as stats on true);
\ No newline at end of file
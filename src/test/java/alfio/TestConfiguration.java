@@ -70,7 +70,7 @@ public class TestConfiguration {
         dataSource.setUsername(POSTGRES_USERNAME);
         dataSource.setPassword(POSTGRES_PASSWORD);
         dataSource.setDriverClassName("org.postgresql.Driver");
-        dataSource.setMaximumPoolSize(5);
+        dataSource.setMaximumPoolSize(Integer.getInteger("alfio.test.datasource.pool-size", 5));
         return dataSource;
     }
 
@@ -0,0 +1,125 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.config;
+
+import alfio.controller.api.admin.MetricsApiController;
+import alfio.repository.user.AuthorityRepository;
+import alfio.repository.user.UserRepository;
+import io.micrometer.prometheus.PrometheusConfig;
+import io.micrometer.prometheus.PrometheusMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Import;
+import org.springframework.mock.web.MockServletContext;
+import org.springframework.security.config.annotation.web.configuration.EnableWebSecurity;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.web.context.support.AnnotationConfigWebApplicationContext;
+
+import javax.servlet.Filter;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
+import java.util.Optional;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@DisplayName("WebSecurityConfig: metrics scraping")
+class MetricsWebSecurityTest {
+
+    private static final String METRICS = "/admin/api/metrics";
+
+    private AnnotationConfigWebApplicationContext context;
+    private MockMvc mockMvc;
+
+    @BeforeEach
+    void init() {
+        context = new AnnotationConfigWebApplicationContext();
+        context.setServletContext(new MockServletContext());
+        context.register(SecurityConfiguration.class);
+        context.refresh();
+        var passwordEncoder = context.getBean(PasswordEncoder.class);
+        var userRepository = context.getBean(UserRepository.class);
+        var authorityRepository = context.getBean(AuthorityRepository.class);
+        when(userRepository.findPasswordByUsername("admin")).thenReturn(Optional.of(passwordEncoder.encode("secret")));
+        when(authorityRepository.findRoles("admin")).thenReturn(List.of("ROLE_ADMIN"));
+        when(userRepository.findPasswordByUsername("owner")).thenReturn(Optional.of(passwordEncoder.encode("secret")));
+        when(authorityRepository.findRoles("owner")).thenReturn(List.of("ROLE_OWNER"));
+        mockMvc = MockMvcBuilders.standaloneSetup(new MetricsApiController(new PrometheusMeterRegistry(PrometheusConfig.DEFAULT)))
+            .addFilters(context.getBean("springSecurityFilterChain", Filter.class))
+            .build();
+    }
+
+    @AfterEach
+    void cleanup() {
+        context.close();
+    }
+
+    @Test
+    void administratorCanScrapeWithoutSession() throws Exception {
+        mockMvc.perform(get(METRICS).header("Authorization", basic("admin", "secret")))
+            .andExpect(status().isOk())
+            .andExpect(header().doesNotExist("Set-Cookie"));
+    }
+
+    @Test
+    void wrongCredentialsAreRejected() throws Exception {
+        mockMvc.perform(get(METRICS).header("Authorization", basic("admin", "wrong")))
+            .andExpect(status().isUnauthorized());
+    }
+
+    @Test
+    void otherRolesAreRejected() throws Exception {
+        mockMvc.perform(get(METRICS).header("Authorization", basic("owner", "secret")))
+            .andExpect(status().isForbidden());
+    }
+
+    private static String basic(String username, String password) {
+        return "Basic " + Base64.getEncoder().encodeToString((username + ":" + password).getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Configuration
+    @EnableWebSecurity
+    @Import(WebSecurityConfig.MetricsWebSecurity.class)
+    static class SecurityConfiguration {
+
+        @Bean
+        UserRepository userRepository() {
+            return mock(UserRepository.class);
+        }
+
+        @Bean
+        AuthorityRepository authorityRepository() {
+            return mock(AuthorityRepository.class);
+        }
+
+        @Bean
+        PasswordEncoder passwordEncoder() {
+            return new BCryptPasswordEncoder();
+        }
+    }
+}
@@ -0,0 +1,143 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.config.support;
+
+import com.opentable.db.postgres.embedded.EmbeddedPostgres;
+import org.junit.jupiter.api.*;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.SQLException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Measures the lag of an actual replica: a second database of the same server, subscribed to the heartbeat
+ * of the first one through logical replication. Disabling the subscription has the same effect as a replica
+ * disconnected from the primary.
+ */
+@DisplayName("ReplicaRoutingDataSource: replica lag")
+class ReplicaRoutingDataSourceIntegrationTest {
+
+    private static final String REPLICA_DATABASE = "alfio_replica";
+    private static final long MAX_LAG = 1000;
+
+    private static EmbeddedPostgres postgres;
+    private static DataSource primary;
+    private static DataSource replica;
+    private static JdbcTemplate replicaJdbcTemplate;
+
+    @BeforeAll
+    static void setUp() throws IOException {
+        Path pgsqlPath = Paths.get(".", "alfio-itest");
+        Files.createDirectories(pgsqlPath);
+        postgres = EmbeddedPostgres.builder()
+            .setDataDirectory(Files.createTempDirectory(pgsqlPath, "alfio-replica"))
+            .setServerConfig("wal_level", "logical")
+            .start();
+        primary = postgres.getPostgresDatabase();
+        var primaryJdbcTemplate = new JdbcTemplate(primary);
+        primaryJdbcTemplate.execute("create database " + REPLICA_DATABASE);
+        replica = new DriverManagerDataSource(postgres.getJdbcUrl("postgres", REPLICA_DATABASE), "postgres", "postgres");
+        replicaJdbcTemplate = new JdbcTemplate(replica);
+
+        var heartbeat = new ResourceDatabasePopulator(new ClassPathResource("alfio/db/PGSQL/V202_2.0.0.27__REPLICA_HEARTBEAT.sql"));
+        heartbeat.execute(primary);
+        heartbeat.execute(replica);
+        // the initial row is copied by the subscription
+        replicaJdbcTemplate.execute("truncate replica_heartbeat");
+
+        primaryJdbcTemplate.execute("create publication alfio_heartbeat for table replica_heartbeat");
+        // the slot must be created in advance if the subscriber is on the same server
+        primaryJdbcTemplate.queryForList("select pg_create_logical_replication_slot('alfio_replica', 'pgoutput')");
+        replicaJdbcTemplate.execute("create subscription alfio_replica connection 'host=localhost port=" + postgres.getPort()
+            + " dbname=postgres user=postgres' publication alfio_heartbeat with (create_slot = false, slot_name = 'alfio_replica')");
+    }
+
+    @AfterAll
+    static void tearDown() throws IOException {
+        if(postgres != null) {
+            postgres.close();
+        }
+    }
+
+    @AfterEach
+    void cleanup() {
+        ReplicaRoutingDataSource.setReadReplica(false);
+        replicaJdbcTemplate.execute("alter subscription alfio_replica enable");
+    }
+
+    @Test
+    void replicaIsUsedIfUpToDate() throws Exception {
+        awaitReplication();
+        var dataSource = new ReplicaRoutingDataSource(primary, replica, MAX_LAG);
+        ReplicaRoutingDataSource.setReadReplica(true);
+        assertEquals(REPLICA_DATABASE, currentDatabase(dataSource));
+        assertEquals("postgres", currentDatabase(primary));
+    }
+
+    @Test
+    void primaryIsUsedIfReplicaIsDisconnected() throws Exception {
+        awaitReplication();
+        replicaJdbcTemplate.execute("alter subscription alfio_replica disable");
+        var dataSource = new ReplicaRoutingDataSource(primary, replica, MAX_LAG);
+        // writes a heartbeat which won't be replicated
+        dataSource.loadReplicaLag();
+        Thread.sleep(MAX_LAG + 100);
+        ReplicaRoutingDataSource.setReadReplica(true);
+        assertEquals("postgres", currentDatabase(dataSource));
+        assertTrue(dataSource.loadReplicaLag() > MAX_LAG);
+    }
+
+    @Test
+    void lagIsZeroOnceReplicaCatchesUp() throws Exception {
+        awaitReplication();
+        replicaJdbcTemplate.execute("alter subscription alfio_replica disable");
+        var dataSource = new ReplicaRoutingDataSource(primary, replica, MAX_LAG);
+        dataSource.loadReplicaLag();
+        Thread.sleep(200);
+        assertTrue(dataSource.loadReplicaLag() >= 200);
+        replicaJdbcTemplate.execute("alter subscription alfio_replica enable");
+        awaitReplication();
+    }
+
+    /**
+     * Writes heartbeats until the replica has replayed the previous one.
+     */
+    private static void awaitReplication() throws InterruptedException {
+        var dataSource = new ReplicaRoutingDataSource(primary, replica, MAX_LAG);
+        long timeout = System.currentTimeMillis() + 30_000;
+        while(dataSource.loadReplicaLag() > 0) {
+            assertTrue(System.currentTimeMillis() < timeout, "the replica didn't catch up within 30 seconds");
+            Thread.sleep(100);
+        }
+    }
+
+    private static String currentDatabase(DataSource dataSource) throws SQLException {
+        try(var connection = dataSource.getConnection(); var statement = connection.createStatement(); var rs = statement.executeQuery("select current_database()")) {
+            assertTrue(rs.next());
+            return rs.getString(1);
+        }
+    }
+}
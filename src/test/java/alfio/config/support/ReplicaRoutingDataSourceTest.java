@@ -0,0 +1,232 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.config.support;
+
+import alfio.config.ReadReplicaAspect;
+import alfio.manager.AttendeeManager;
+import alfio.manager.EventManager;
+import alfio.manager.user.OrganizationMembershipCache;
+import alfio.manager.user.UserManager;
+import alfio.model.DetailedScanData;
+import alfio.model.EventAndOrganizationId;
+import alfio.model.Ticket;
+import alfio.model.TicketWithReservationAndTransaction;
+import alfio.model.user.Role;
+import alfio.model.user.User;
+import alfio.repository.EventRepository;
+import alfio.repository.SponsorScanRepository;
+import alfio.repository.TicketFieldRepository;
+import alfio.repository.TicketRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.aop.framework.ProxyFactory;
+import org.springframework.aop.aspectj.annotation.AspectJProxyFactory;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DataSourceUtils;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.transaction.annotation.AnnotationTransactionAttributeSource;
+import org.springframework.transaction.interceptor.TransactionInterceptor;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+@DisplayName("ReplicaRoutingDataSource: connection routing")
+class ReplicaRoutingDataSourceTest {
+
+    private DataSource primary;
+    private DataSource replica;
+    private long lag;
+    private int lagChecks;
+    private DataSource dataSource;
+    private DataSourceTransactionManager transactionManager;
+    private TransactionTemplate transactionTemplate;
+
+    @BeforeEach
+    void init() throws SQLException {
+        primary = mockDataSource();
+        replica = mockDataSource();
+        lag = 0;
+        lagChecks = 0;
+        dataSource = new LazyConnectionDataSourceProxy(new ReplicaRoutingDataSource(primary, replica, 1000) {
+            @Override
+            long loadReplicaLag() {
+                lagChecks++;
+                if(lag < 0) {
+                    throw new IllegalStateException("replica not available");
+                }
+                return lag;
+            }
+        });
+        transactionManager = new DataSourceTransactionManager(dataSource);
+        transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    @AfterEach
+    void cleanup() {
+        ReplicaRoutingDataSource.setReadReplica(false);
+    }
+
+    @Test
+    void primaryIsUsedByDefault() {
+        assertSame(primary, executeStatement());
+        assertSame(primary, transactionTemplate.execute(status -> executeStatement()));
+        assertEquals(0, lagChecks);
+    }
+
+    @Test
+    void readOnlyTransactionsAreExecutedOnReplica() {
+        transactionTemplate.setReadOnly(true);
+        assertSame(replica, transactionTemplate.execute(status -> executeStatement()));
+    }
+
+    @Test
+    void readReplicaMethodsAreExecutedOnReplica() {
+        ReplicaRoutingDataSource.setReadReplica(true);
+        assertSame(replica, executeStatement());
+        // read-write transactions are not affected
+        assertSame(primary, transactionTemplate.execute(status -> executeStatement()));
+    }
+
+    @Test
+    void fallbackToPrimaryIfReplicaIsLagging() {
+        lag = 5000;
+        ReplicaRoutingDataSource.setReadReplica(true);
+        assertSame(primary, executeStatement());
+        // the lag is checked at most once per second
+        lag = 0;
+        assertSame(primary, executeStatement());
+        assertEquals(1, lagChecks);
+    }
+
+    @Test
+    void fallbackToPrimaryIfReplicaIsNotAvailable() {
+        lag = -1;
+        ReplicaRoutingDataSource.setReadReplica(true);
+        assertSame(primary, executeStatement());
+    }
+
+    @Test
+    void annotatedMethodsAreExecutedOnReplica() {
+        var factory = new AspectJProxyFactory(new Reports());
+        factory.addAspect(new ReadReplicaAspect());
+        Reports reports = factory.getProxy();
+        assertSame(replica, reports.load(this::executeStatement));
+        assertSame(primary, reports.loadFromPrimary(this::executeStatement));
+    }
+
+    @Test
+    void exportsAreExecutedOnReplica() {
+        var pools = new ArrayList<DataSource>();
+        var eventRepository = mock(EventRepository.class);
+        var ticketRepository = mock(TicketRepository.class);
+        var ticketFieldRepository = mock(TicketFieldRepository.class);
+        var sponsorScanRepository = mock(SponsorScanRepository.class);
+        var organizationMembershipCache = mock(OrganizationMembershipCache.class);
+        var userManager = mock(UserManager.class);
+        when(eventRepository.findOptionalEventAndOrganizationIdByShortName("event"))
+            .thenReturn(Optional.of(new EventAndOrganizationId(1, 2)));
+        when(organizationMembershipCache.isMemberOf("user", 2)).thenReturn(true);
+        var ticket = mock(Ticket.class);
+        when(ticket.getId()).thenReturn(3);
+        var ticketWithReservation = mock(TicketWithReservationAndTransaction.class);
+        when(ticketWithReservation.getTicket()).thenReturn(ticket);
+        when(ticketRepository.findAllConfirmedForCSV(1)).then(invocation -> {
+            pools.add(executeStatement());
+            return List.of(ticketWithReservation);
+        });
+        var sponsor = mock(User.class);
+        when(sponsor.getId()).thenReturn(4);
+        when(userManager.findAllEnabledUsers("user")).thenReturn(List.of(sponsor));
+        when(userManager.getUserRole(sponsor)).thenReturn(Role.SPONSOR);
+        var scan = mock(DetailedScanData.class);
+        when(scan.getTicket()).thenReturn(ticket);
+        when(sponsorScanRepository.loadSponsorData(1, 4, SponsorScanRepository.DEFAULT_TIMESTAMP)).then(invocation -> {
+            pools.add(executeStatement());
+            return List.of(scan);
+        });
+        when(ticketFieldRepository.findAllValuesForTicketId(3)).then(invocation -> {
+            pools.add(executeStatement());
+            return Map.of();
+        });
+
+        EventManager eventManager = transactional(new EventManager(null, eventRepository, null, null, null, ticketRepository, null, null, null,
+            ticketFieldRepository, null, null, null, null, null, organizationMembershipCache, null, null, null, null, null, null, null, null, null));
+        AttendeeManager attendeeManager = transactional(new AttendeeManager(sponsorScanRepository, null, null, null, userManager, ticketFieldRepository, null));
+
+        assertEquals(1, eventManager.findAllConfirmedTicketsForCSV("event", "user").size());
+        assertEquals(1, attendeeManager.findSponsorScansForExport(1, "user").size());
+        assertEquals(List.of(replica, replica, replica, replica), pools);
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T transactional(T target) {
+        var factory = new ProxyFactory(target);
+        factory.setProxyTargetClass(true);
+        factory.addAdvice(new TransactionInterceptor(transactionManager, new AnnotationTransactionAttributeSource()));
+        return (T) factory.getProxy();
+    }
+
+    /**
+     * @return the target DataSource of the connection used for executing the statement
+     */
+    private DataSource executeStatement() {
+        Connection connection = DataSourceUtils.getConnection(dataSource);
+        try {
+            connection.createStatement();
+            return connection.unwrap(DataSource.class);
+        } catch (SQLException e) {
+            throw new IllegalStateException(e);
+        } finally {
+            DataSourceUtils.releaseConnection(connection, dataSource);
+        }
+    }
+
+    private static DataSource mockDataSource() throws SQLException {
+        DataSource dataSource = mock(DataSource.class);
+        Connection connection = mock(Connection.class);
+        when(connection.getAutoCommit()).thenReturn(true);
+        when(connection.getTransactionIsolation()).thenReturn(Connection.TRANSACTION_READ_COMMITTED);
+        when(connection.unwrap(DataSource.class)).thenReturn(dataSource);
+        when(dataSource.getConnection()).thenReturn(connection);
+        return dataSource;
+    }
+
+    public static class Reports {
+        @ReadReplica
+        public DataSource load(Supplier<DataSource> query) {
+            return query.get();
+        }
+
+        public DataSource loadFromPrimary(Supplier<DataSource> query) {
+            return query.get();
+        }
+    }
+}
@@ -0,0 +1,117 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.controller.api.v2.user;
+
+import alfio.controller.support.CatalogueSnapshots;
+import alfio.manager.*;
+import alfio.manager.i18n.I18nManager;
+import alfio.manager.i18n.MessageSourceManager;
+import alfio.manager.system.ConfigurationLevel;
+import alfio.manager.system.ConfigurationManager;
+import alfio.model.Event;
+import alfio.model.ReservationAdmission;
+import alfio.model.system.ConfigurationKeyValuePathLevel;
+import alfio.repository.*;
+import alfio.repository.user.OrganizationRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.util.Optional;
+import java.util.UUID;
+
+import static alfio.model.system.ConfigurationKeys.RESERVATION_ADMISSION_CONCURRENCY;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+class EventApiV2ControllerAdmissionTest {
+
+    private static final String EVENT_NAME = "eventName";
+    private static final int EVENT_ID = 1;
+
+    private Event event;
+    private ReservationAdmissionRepository reservationAdmissionRepository;
+    private ReservationAdmissionManager reservationAdmissionManager;
+    private MockMvc mockMvc;
+
+    @BeforeEach
+    void setUp() {
+        event = mock(Event.class);
+        when(event.getId()).thenReturn(EVENT_ID);
+        when(event.getShortName()).thenReturn(EVENT_NAME);
+        when(event.getPrivateKey()).thenReturn("private-key");
+        var configurationManager = mock(ConfigurationManager.class);
+        when(configurationManager.getFor(eq(RESERVATION_ADMISSION_CONCURRENCY), any(ConfigurationLevel.class)))
+            .thenReturn(new ConfigurationManager.MaybeConfiguration(RESERVATION_ADMISSION_CONCURRENCY,
+                new ConfigurationKeyValuePathLevel(RESERVATION_ADMISSION_CONCURRENCY.getValue(), "1", null)));
+        reservationAdmissionRepository = mock(ReservationAdmissionRepository.class);
+        reservationAdmissionManager = new ReservationAdmissionManager(reservationAdmissionRepository, configurationManager, mock(PlatformTransactionManager.class));
+        var eventMetadataCache = mock(EventMetadataCache.class);
+        when(eventMetadataCache.findByShortName(EVENT_NAME)).thenReturn(Optional.of(event));
+        var controller = new EventApiV2Controller(mock(EventManager.class), eventMetadataCache, configurationManager,
+            mock(OrganizationRepository.class), mock(EventDescriptionRepository.class), mock(TicketCategoryDescriptionRepository.class),
+            mock(PaymentManager.class), mock(MessageSourceManager.class), mock(AdditionalServiceRepository.class),
+            mock(AdditionalServiceTextRepository.class), mock(WaitingQueueManager.class), mock(I18nManager.class),
+            mock(TicketCategoryRepository.class), mock(TicketRepository.class), mock(TicketReservationManager.class),
+            mock(PromoCodeDiscountRepository.class), mock(EventStatisticsManager.class), mock(RecaptchaService.class),
+            mock(PromoCodeRequestManager.class), mock(CatalogueSnapshots.class), reservationAdmissionManager,
+            mock(EventRepository.class));
+        mockMvc = MockMvcBuilders.standaloneSetup(controller).build();
+    }
+
+    @Test
+    @DisplayName("a queued request can poll its position using the signed token")
+    void pollPositionWithSignedToken() throws Exception {
+        var waiting = new ReservationAdmission(2L, EVENT_ID, UUID.randomUUID().toString(), ReservationAdmission.Status.WAITING);
+        when(reservationAdmissionRepository.countByStatus(EVENT_ID, ReservationAdmission.Status.WAITING)).thenReturn(1);
+        when(reservationAdmissionRepository.insert(eq(EVENT_ID), any(), eq(ReservationAdmission.Status.WAITING))).thenReturn(waiting);
+        when(reservationAdmissionRepository.findByToken(EVENT_ID, waiting.getToken())).thenReturn(Optional.of(waiting));
+        when(reservationAdmissionRepository.countValidAdmissions(eq(EVENT_ID), anyLong())).thenReturn(1);
+        when(reservationAdmissionRepository.countWaitingBefore(EVENT_ID, waiting.getId())).thenReturn(2);
+
+        var admission = reservationAdmissionManager.admit(event, null);
+        assertFalse(admission.isAdmitted());
+        assertTrue(admission.getToken().contains("."));
+
+        mockMvc.perform(get("/api/v2/public/event/{eventName}/admission/{token}", EVENT_NAME, admission.getToken()))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.admitted").value(false))
+            .andExpect(jsonPath("$.position").value(3));
+    }
+
+    @Test
+    @DisplayName("a tampered token is rejected")
+    void rejectTamperedToken() throws Exception {
+        var token = UUID.randomUUID().toString();
+        when(reservationAdmissionRepository.findByToken(EVENT_ID, token))
+            .thenReturn(Optional.of(new ReservationAdmission(2L, EVENT_ID, token, ReservationAdmission.Status.WAITING)));
+
+        mockMvc.perform(get("/api/v2/public/event/{eventName}/admission/{token}", EVENT_NAME, token + ".c2lnbmF0dXJl"))
+            .andExpect(status().isNotFound());
+    }
+}
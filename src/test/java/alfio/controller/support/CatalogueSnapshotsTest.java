@@ -0,0 +1,104 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.controller.support;
+
+import alfio.repository.EventRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+@DisplayName("CatalogueSnapshots: rebuild and ETag")
+class CatalogueSnapshotsTest {
+
+    private EventRepository eventRepository;
+    private CatalogueSnapshots catalogueSnapshots;
+    private AtomicInteger builds;
+
+    @BeforeEach
+    void init() {
+        eventRepository = mock(EventRepository.class);
+        when(eventRepository.getCatalogueVersion()).thenReturn(1L);
+        catalogueSnapshots = new CatalogueSnapshots(eventRepository);
+        builds = new AtomicInteger();
+    }
+
+    @Test
+    void snapshotIsReusedUntilCatalogueChanges() {
+        var first = catalogueSnapshots.get("events", this::build).orElseThrow();
+        var second = catalogueSnapshots.get("events", this::build).orElseThrow();
+        assertSame(first, second);
+        assertEquals(1, builds.get());
+
+        when(eventRepository.getCatalogueVersion()).thenReturn(2L);
+        var third = catalogueSnapshots.get("events", this::build).orElseThrow();
+        assertNotSame(first, third);
+        assertEquals(2, builds.get());
+        // same content, same ETag
+        assertEquals(first.getEtag(), third.getEtag());
+    }
+
+    @Test
+    void etagDependsOnContent() {
+        var first = catalogueSnapshots.get("first", () -> List.of("a")).orElseThrow();
+        var second = catalogueSnapshots.get("second", () -> List.of("b")).orElseThrow();
+        assertNotEquals(first.getEtag(), second.getEtag());
+        assertTrue(first.getEtag().startsWith("\"") && first.getEtag().endsWith("\""));
+    }
+
+    @Test
+    void emptyResultIsNotCached() {
+        assertTrue(catalogueSnapshots.get("event/not-existing", () -> { builds.incrementAndGet(); return null; }).isEmpty());
+        assertTrue(catalogueSnapshots.get("event/not-existing", () -> { builds.incrementAndGet(); return null; }).isEmpty());
+        assertEquals(2, builds.get());
+    }
+
+    @Test
+    void outdatedSnapshotDoesNotReplaceNewerOne() {
+        // the catalogue is modified, and the new version is cached, while the first snapshot is still being built
+        var outdated = catalogueSnapshots.get("events", () -> {
+            when(eventRepository.getCatalogueVersion()).thenReturn(2L);
+            catalogueSnapshots.get("events", () -> List.of("updated")).orElseThrow();
+            return List.of("event");
+        }).orElseThrow();
+        assertEquals(List.of("event"), outdated.getPayload());
+
+        var current = catalogueSnapshots.get("events", this::build).orElseThrow();
+        assertEquals(List.of("updated"), current.getPayload());
+        assertEquals(0, builds.get());
+    }
+
+    @Test
+    void snapshotIsNotCachedIfVersionChangesWhileBuilding() {
+        // the version is read from the primary database, then the payload and the version from a lagging replica
+        when(eventRepository.getCatalogueVersion()).thenReturn(2L, 1L, 2L);
+        catalogueSnapshots.get("events", this::build).orElseThrow();
+        catalogueSnapshots.get("events", this::build).orElseThrow();
+        assertEquals(2, builds.get());
+    }
+
+    private List<String> build() {
+        builds.incrementAndGet();
+        return List.of("event");
+    }
+}
@@ -0,0 +1,131 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.loadtest;
+
+import alfio.manager.TicketReservationManager.NotEnoughTicketsException;
+import org.springframework.dao.DeadlockLoserDataAccessException;
+
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.IntConsumer;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+final class LoadTestSupport {
+
+    private static final String DEADLOCK_DETECTED = "40P01";
+
+    private LoadTestSupport() {
+    }
+
+    static void runConcurrently(int parallelism, IntConsumer worker) throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+        List<Callable<Void>> calls = IntStream.range(0, parallelism)
+            .mapToObj(i -> (Callable<Void>) () -> {
+                worker.accept(i);
+                return null;
+            }).collect(Collectors.toList());
+        try {
+            for (Future<Void> future : executor.invokeAll(calls)) {
+                future.get();
+            }
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    static class Stats {
+        final ConcurrentLinkedQueue<Long> latencies = new ConcurrentLinkedQueue<>();
+        final AtomicInteger successful = new AtomicInteger();
+        final AtomicInteger failed = new AtomicInteger();
+        final AtomicInteger notEnoughTickets = new AtomicInteger();
+        final AtomicInteger deadlocks = new AtomicInteger();
+        final AtomicInteger errors = new AtomicInteger();
+        final AtomicInteger soldTickets = new AtomicInteger();
+        final AtomicLong firstStart = new AtomicLong(Long.MAX_VALUE);
+        final AtomicLong lastEnd = new AtomicLong();
+
+        boolean measure(Callable<Boolean> operation) {
+            long start = System.nanoTime();
+            firstStart.accumulateAndGet(start, Math::min);
+            try {
+                if(operation.call()) {
+                    successful.incrementAndGet();
+                    return true;
+                }
+                failed.incrementAndGet();
+            } catch (NotEnoughTicketsException e) {
+                notEnoughTickets.incrementAndGet();
+            } catch (Exception e) {
+                if(isDeadlock(e)) {
+                    deadlocks.incrementAndGet();
+                } else {
+                    errors.incrementAndGet();
+                }
+            } finally {
+                long end = System.nanoTime();
+                latencies.add(end - start);
+                lastEnd.accumulateAndGet(end, Math::max);
+            }
+            return false;
+        }
+
+        String report(String name, int threads) {
+            List<Long> sorted = latencies.stream().sorted().collect(Collectors.toList());
+            int total = sorted.size();
+            double elapsedSeconds = Math.max(lastEnd.get() - firstStart.get(), 1) / 1_000_000_000.0;
+            Function<Integer, String> rate = count -> total == 0 ? "0.00%" : String.format("%.2f%%", count * 100.0 / total);
+            return String.format("%n%s, %d threads%n" +
+                    "  operations: %d in %.2fs, throughput %.1f ops/s%n" +
+                    "  latency: p50 %.1fms, p99 %.1fms, max %.1fms%n" +
+                    "  successful: %d, failed: %d, NotEnoughTickets: %d (%s), deadlocks: %d (%s), other errors: %d (%s)",
+                name, threads,
+                total, elapsedSeconds, total / elapsedSeconds,
+                percentile(sorted, 50), percentile(sorted, 99), percentile(sorted, 100),
+                successful.get(), failed.get(), notEnoughTickets.get(), rate.apply(notEnoughTickets.get()),
+                deadlocks.get(), rate.apply(deadlocks.get()), errors.get(), rate.apply(errors.get()));
+        }
+
+        double percentile(int percentile) {
+            return percentile(latencies.stream().sorted().collect(Collectors.toList()), percentile);
+        }
+
+        private static double percentile(List<Long> sorted, int percentile) {
+            if(sorted.isEmpty()) {
+                return 0;
+            }
+            int index = (int) Math.ceil(percentile / 100.0 * sorted.size()) - 1;
+            return sorted.get(Math.max(index, 0)) / 1_000_000.0;
+        }
+
+        private static boolean isDeadlock(Throwable e) {
+            for(Throwable t = e; t != null; t = t.getCause()) {
+                if(t instanceof DeadlockLoserDataAccessException
+                    || (t instanceof SQLException && DEADLOCK_DETECTED.equals(((SQLException) t).getSQLState()))) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
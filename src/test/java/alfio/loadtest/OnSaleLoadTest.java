@@ -0,0 +1,216 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.loadtest;
+
+import alfio.TestConfiguration;
+import alfio.config.DataSourceConfiguration;
+import alfio.config.Initializer;
+import alfio.loadtest.LoadTestSupport.Stats;
+import alfio.manager.CheckInManager;
+import alfio.manager.EventManager;
+import alfio.manager.TicketReservationManager;
+import alfio.manager.TicketReservationManager.NotEnoughTicketsException;
+import alfio.manager.payment.PaymentSpecification;
+import alfio.manager.support.CheckInStatus;
+import alfio.manager.support.PaymentResult;
+import alfio.manager.user.UserManager;
+import alfio.model.*;
+import alfio.model.modification.DateTimeModification;
+import alfio.model.modification.TicketCategoryModification;
+import alfio.model.modification.TicketReservationModification;
+import alfio.model.modification.TicketReservationWithOptionalCodeModification;
+import alfio.model.system.ConfigurationKeys;
+import alfio.model.transaction.PaymentProxy;
+import alfio.repository.EventRepository;
+import alfio.repository.TicketRepository;
+import alfio.repository.system.ConfigurationRepository;
+import alfio.repository.user.OrganizationRepository;
+import alfio.test.util.IntegrationTestUtil;
+import alfio.util.BaseIntegrationTest;
+import org.apache.commons.lang3.time.DateUtils;
+import org.apache.commons.lang3.tuple.Pair;
+import lombok.extern.log4j.Log4j2;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static alfio.loadtest.LoadTestSupport.runConcurrently;
+import static alfio.test.util.IntegrationTestUtil.DESCRIPTION;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Simulates an on-sale against an embedded PostgreSQL: concurrent buyers go through
+ * {@link TicketReservationManager#createTicketReservation} and {@link TicketReservationManager#performPayment},
+ * then concurrent scanners check in the sold tickets through {@link CheckInManager#checkIn(int, String, Optional, String)}.
+ * <p>
+ * This is excluded from the regular test run, use {@code ./gradlew loadTest} to execute it. The load can be tuned with the
+ * following system properties:
+ * <ul>
+ *     <li>{@code alfio.loadtest.categories} number of categories (default 4)</li>
+ *     <li>{@code alfio.loadtest.tickets} total number of tickets, evenly split between categories (default 400)</li>
+ *     <li>{@code alfio.loadtest.buyers} concurrent buyers (default 16)</li>
+ *     <li>{@code alfio.loadtest.max-tickets-per-reservation} (default 3)</li>
+ *     <li>{@code alfio.loadtest.scanners} concurrent scanners (default 8)</li>
+ *     <li>{@code alfio.loadtest.scans-per-ticket} how many times each ticket is scanned (default 2)</li>
+ *     <li>{@code alfio.loadtest.on-site} if true, categories are not free and payment goes through {@link PaymentProxy#ON_SITE}</li>
+ *     <li>{@code alfio.test.datasource.pool-size} size of the connection pool (default 5)</li>
+ * </ul>
+ * Buyers issue 1.5 times as many reservation requests as needed to sell out, so that the last part of the run
+ * is executed under contention and produces {@link NotEnoughTicketsException}s.
+ */
+@Log4j2
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(classes = {DataSourceConfiguration.class, TestConfiguration.class})
+@ActiveProfiles({Initializer.PROFILE_DEV, Initializer.PROFILE_DISABLE_JOBS, Initializer.PROFILE_INTEGRATION_TEST})
+public class OnSaleLoadTest extends BaseIntegrationTest {
+
+    private final int categories = Integer.getInteger("alfio.loadtest.categories", 4);
+    private final int tickets = Integer.getInteger("alfio.loadtest.tickets", 400);
+    private final int buyers = Integer.getInteger("alfio.loadtest.buyers", 16);
+    private final int maxTicketsPerReservation = Integer.getInteger("alfio.loadtest.max-tickets-per-reservation", 3);
+    private final int scanners = Integer.getInteger("alfio.loadtest.scanners", 8);
+    private final int scansPerTicket = Integer.getInteger("alfio.loadtest.scans-per-ticket", 2);
+    private final boolean onSite = Boolean.getBoolean("alfio.loadtest.on-site");
+
+    @Autowired
+    private ConfigurationRepository configurationRepository;
+    @Autowired
+    private OrganizationRepository organizationRepository;
+    @Autowired
+    private UserManager userManager;
+    @Autowired
+    private EventManager eventManager;
+    @Autowired
+    private EventRepository eventRepository;
+    @Autowired
+    private TicketRepository ticketRepository;
+    @Autowired
+    private TicketReservationManager ticketReservationManager;
+    @Autowired
+    private CheckInManager checkInManager;
+
+    @Test
+    public void onSale() throws Exception {
+        IntegrationTestUtil.ensureMinimalConfiguration(configurationRepository);
+        if(onSite) {
+            configurationRepository.deleteByKey(ConfigurationKeys.ON_SITE_ENABLED.getValue());
+            configurationRepository.insert(ConfigurationKeys.ON_SITE_ENABLED.getValue(), "true", "");
+        }
+
+        int ticketsPerCategory = tickets / categories;
+        List<TicketCategoryModification> categoryModifications = IntStream.range(0, categories)
+            .mapToObj(i -> new TicketCategoryModification(null, "category-" + i, ticketsPerCategory,
+                new DateTimeModification(LocalDate.now().minusDays(1), LocalTime.now()),
+                new DateTimeModification(LocalDate.now().plusDays(1), LocalTime.now()),
+                DESCRIPTION, onSite ? BigDecimal.TEN : BigDecimal.ZERO, false, "", true, null, null, null, null, null, i, null, null))
+            .collect(Collectors.toList());
+        List<PaymentProxy> paymentProxies = onSite ? List.of(PaymentProxy.ON_SITE) : List.of();
+        Pair<Event, String> eventAndUser = IntegrationTestUtil.initEvent(categoryModifications, organizationRepository, userManager,
+            eventManager, eventRepository, null, ticketsPerCategory * categories, paymentProxies, !onSite);
+        Event event = eventAndUser.getLeft();
+        List<Integer> categoryIds = eventManager.loadTicketCategories(event).stream().map(TicketCategory::getId).collect(Collectors.toList());
+
+        Stats sale = runBuyers(event, categoryIds, (int) Math.ceil(ticketsPerCategory * categories * 1.5 / averageAmount()));
+        log.info(sale.report("buyers (reservation + payment)", buyers));
+
+        List<Ticket> sold = ticketRepository.findAllConfirmed(event.getId());
+        assertEquals("sold tickets do not match successful reservations", sale.soldTickets.get(), sold.size());
+        assertTrue("oversold: " + sold.size() + " tickets sold out of " + ticketsPerCategory * categories, sold.size() <= ticketsPerCategory * categories);
+        assertEquals("deadlocks detected during the sale", 0, sale.deadlocks.get());
+
+        Stats scan = runScanners(event, eventAndUser.getRight(), assignAll(sold));
+        log.info(scan.report("scanners (check-in)", scanners));
+
+        assertEquals("deadlocks detected during check-in", 0, scan.deadlocks.get());
+        if(!onSite) {
+            assertEquals("each ticket must be checked in exactly once", sold.size(), scan.successful.get());
+        }
+    }
+
+    private Stats runBuyers(Event event, List<Integer> categoryIds, int attempts) throws InterruptedException {
+        Stats stats = new Stats();
+        AtomicInteger remaining = new AtomicInteger(attempts);
+        Optional<PaymentProxy> paymentProxy = onSite ? Optional.of(PaymentProxy.ON_SITE) : Optional.empty();
+        runConcurrently(buyers, buyer -> {
+            var random = ThreadLocalRandom.current();
+            while(remaining.getAndDecrement() > 0) {
+                int amount = random.nextInt(maxTicketsPerReservation) + 1;
+                int categoryId = categoryIds.get(random.nextInt(categoryIds.size()));
+                stats.measure(() -> {
+                    var modification = new TicketReservationModification();
+                    modification.setAmount(amount);
+                    modification.setTicketCategoryId(categoryId);
+                    String reservationId = ticketReservationManager.createTicketReservation(event,
+                        List.of(new TicketReservationWithOptionalCodeModification(modification, Optional.empty())), List.of(),
+                        DateUtils.addDays(new Date(), 1), Optional.empty(), Locale.ENGLISH, false);
+                    TotalPrice cost = ticketReservationManager.totalReservationCostWithVAT(reservationId);
+                    String email = "buyer-" + buyer + "@example.com";
+                    var specification = new PaymentSpecification(reservationId, null, cost.getPriceWithVAT(), event, email,
+                        new CustomerName("buyer " + buyer, "buyer", Integer.toString(buyer), event.mustUseFirstAndLastName()),
+                        "billing address", null, Locale.ENGLISH, true, false, null, "IT", "123456", PriceContainer.VatStatus.INCLUDED, true, false);
+                    PaymentResult result = ticketReservationManager.performPayment(specification, cost, paymentProxy);
+                    if(result.isSuccessful()) {
+                        stats.soldTickets.addAndGet(amount);
+                    }
+                    return result.isSuccessful();
+                });
+            }
+        });
+        return stats;
+    }
+
+    private List<Ticket> assignAll(List<Ticket> sold) {
+        sold.forEach(t -> ticketRepository.updateTicketOwnerById(t.getId(), "attendee-" + t.getId() + "@example.com", "attendee " + t.getId(), "attendee", Integer.toString(t.getId())));
+        return ticketRepository.findByIds(sold.stream().map(Ticket::getId).collect(Collectors.toList()));
+    }
+
+    private Stats runScanners(Event event, String username, List<Ticket> sold) throws InterruptedException {
+        Stats stats = new Stats();
+        List<Ticket> scans = new ArrayList<>(sold.size() * scansPerTicket);
+        for(int i = 0; i < scansPerTicket; i++) {
+            scans.addAll(sold);
+        }
+        Collections.shuffle(scans);
+        var queue = new ConcurrentLinkedQueue<>(scans);
+        runConcurrently(scanners, scanner -> {
+            Ticket ticket;
+            while((ticket = queue.poll()) != null) {
+                String uuid = ticket.getUuid();
+                String code = ticket.ticketCode(event.getPrivateKey());
+                stats.measure(() -> checkInManager.checkIn(event.getId(), uuid, Optional.of(code), username).getResult().getStatus() == CheckInStatus.SUCCESS);
+            }
+        });
+        return stats;
+    }
+
+    private double averageAmount() {
+        return (maxTicketsPerReservation + 1) / 2.0;
+    }
+}
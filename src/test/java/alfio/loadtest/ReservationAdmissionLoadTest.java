@@ -0,0 +1,260 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.loadtest;
+
+import alfio.TestConfiguration;
+import alfio.config.DataSourceConfiguration;
+import alfio.config.Initializer;
+import alfio.controller.api.v2.user.EventApiV2Controller;
+import alfio.controller.api.v2.user.ReservationFlowIntegrationTest;
+import alfio.controller.form.ReservationForm;
+import alfio.loadtest.LoadTestSupport.Stats;
+import alfio.manager.EventManager;
+import alfio.manager.ReservationAdmissionManager;
+import alfio.manager.system.ConfigurationManager;
+import alfio.manager.user.UserManager;
+import alfio.model.Event;
+import alfio.model.modification.DateTimeModification;
+import alfio.model.modification.TicketCategoryModification;
+import alfio.model.modification.TicketReservationModification;
+import alfio.model.system.ConfigurationKeys;
+import alfio.repository.EventRepository;
+import alfio.repository.ReservationAdmissionRepository;
+import alfio.repository.TicketRepository;
+import alfio.repository.system.ConfigurationRepository;
+import alfio.repository.user.OrganizationRepository;
+import alfio.test.util.IntegrationTestUtil;
+import alfio.util.BaseIntegrationTest;
+import lombok.extern.log4j.Log4j2;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.validation.BeanPropertyBindingResult;
+import org.springframework.web.context.request.ServletWebRequest;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static alfio.loadtest.LoadTestSupport.runConcurrently;
+import static alfio.test.util.IntegrationTestUtil.DESCRIPTION;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Simulates a sale opening with more buyers than the event can serve at the same time, first without and then with
+ * the admission control of {@link ReservationAdmissionManager}. Buyers call the reservation endpoint
+ * ({@link EventApiV2Controller#reserveTickets}): a queued request polls its position and is sent again with the same
+ * token once admitted.
+ * <p>
+ * The p99 latency of the requests served with admission control is compared with the one measured with as many buyers
+ * as the admission concurrency, i.e. without oversubscription: it must stay within the given ratio.
+ * <p>
+ * This is excluded from the regular test run, use {@code ./gradlew loadTest} to execute it. The load can be tuned with the
+ * following system properties:
+ * <ul>
+ *     <li>{@code alfio.loadtest.admission-concurrency} value of {@link ConfigurationKeys#RESERVATION_ADMISSION_CONCURRENCY} (default 4)</li>
+ *     <li>{@code alfio.loadtest.oversubscription} concurrent buyers, as a multiple of the admission concurrency (default 10)</li>
+ *     <li>{@code alfio.loadtest.reservations-per-buyer} (default 5)</li>
+ *     <li>{@code alfio.loadtest.poll-interval} milliseconds between two position checks (default 20)</li>
+ *     <li>{@code alfio.loadtest.max-p99-ratio} highest accepted ratio between the p99 latency of the served requests
+ *     under oversubscription and the one without oversubscription (default 3)</li>
+ *     <li>{@code alfio.test.datasource.pool-size} size of the connection pool (default 5)</li>
+ * </ul>
+ */
+@Log4j2
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(classes = {DataSourceConfiguration.class, TestConfiguration.class, ReservationFlowIntegrationTest.ControllerConfiguration.class})
+@ActiveProfiles({Initializer.PROFILE_DEV, Initializer.PROFILE_DISABLE_JOBS, Initializer.PROFILE_INTEGRATION_TEST})
+public class ReservationAdmissionLoadTest extends BaseIntegrationTest {
+
+    private final int concurrency = Integer.getInteger("alfio.loadtest.admission-concurrency", 4);
+    private final int buyers = concurrency * Integer.getInteger("alfio.loadtest.oversubscription", 10);
+    private final int reservationsPerBuyer = Integer.getInteger("alfio.loadtest.reservations-per-buyer", 5);
+    private final int pollInterval = Integer.getInteger("alfio.loadtest.poll-interval", 20);
+    private final double maxP99Ratio = Double.parseDouble(System.getProperty("alfio.loadtest.max-p99-ratio", "3"));
+
+    @Autowired
+    private ConfigurationRepository configurationRepository;
+    @Autowired
+    private ConfigurationManager configurationManager;
+    @Autowired
+    private OrganizationRepository organizationRepository;
+    @Autowired
+    private UserManager userManager;
+    @Autowired
+    private EventManager eventManager;
+    @Autowired
+    private EventRepository eventRepository;
+    @Autowired
+    private TicketRepository ticketRepository;
+    @Autowired
+    private EventApiV2Controller eventApiV2Controller;
+    @Autowired
+    private ReservationAdmissionRepository reservationAdmissionRepository;
+
+    @Test
+    public void oversubscribedSale() throws Exception {
+        IntegrationTestUtil.ensureMinimalConfiguration(configurationRepository);
+        int reservations = buyers * reservationsPerBuyer;
+        int seats = reservations * 2 + concurrency * reservationsPerBuyer;
+        List<TicketCategoryModification> categoryModifications = List.of(new TicketCategoryModification(null, "default", seats,
+            new DateTimeModification(LocalDate.now().minusDays(1), LocalTime.now()),
+            new DateTimeModification(LocalDate.now().plusDays(1), LocalTime.now()),
+            DESCRIPTION, BigDecimal.ZERO, false, "", true, null, null, null, null, null, 0, null, null));
+        Event event = IntegrationTestUtil.initEvent(categoryModifications, organizationRepository, userManager,
+            eventManager, eventRepository, null, seats, List.of(), true).getLeft();
+        int categoryId = eventManager.loadTicketCategories(event).get(0).getId();
+
+        try {
+            Run baseline = runBuyers(event, categoryId, concurrency);
+            log.info(baseline.report("without oversubscription"));
+
+            Run unlimited = runBuyers(event, categoryId, buyers);
+            log.info(unlimited.report("without admission control"));
+
+            configurationManager.saveSystemConfiguration(ConfigurationKeys.RESERVATION_ADMISSION_CONCURRENCY, Integer.toString(concurrency));
+            Run limited = runBuyers(event, categoryId, buyers);
+            log.info(limited.report("admission concurrency " + concurrency));
+
+            assertEquals("all the reservations must be created", reservations, limited.reservations.successful.get());
+            assertEquals("errors detected", 0, limited.requests.errors.get());
+            assertTrue("admitted " + limited.maxAdmitted.get() + " requests at the same time", limited.maxAdmitted.get() <= concurrency);
+            double baselineP99 = baseline.served.percentile(99);
+            double limitedP99 = limited.served.percentile(99);
+            assertTrue(String.format("p99 of the served requests is %.1fms, more than %.1f times %.1fms measured without oversubscription", limitedP99, maxP99Ratio, baselineP99),
+                limitedP99 <= baselineP99 * maxP99Ratio);
+            int sold = baseline.reservations.successful.get() + unlimited.reservations.successful.get() + reservations;
+            assertEquals(seats - sold, ticketRepository.findFreeByEventId(event.getId()).size());
+        } finally {
+            configurationManager.deleteKey(ConfigurationKeys.RESERVATION_ADMISSION_CONCURRENCY.getValue());
+        }
+    }
+
+    private Run runBuyers(Event event, int categoryId, int buyers) throws InterruptedException {
+        Run run = new Run(buyers);
+        var sampler = Executors.newSingleThreadScheduledExecutor();
+        sampler.scheduleAtFixedRate(() -> run.maxAdmitted.accumulateAndGet(reservationAdmissionRepository.countActive(event.getId()), Math::max),
+            0, 5, TimeUnit.MILLISECONDS);
+        try {
+            runConcurrently(buyers, buyer -> {
+                for(int i = 0; i < reservationsPerBuyer; i++) {
+                    run.reservations.measure(() -> reserve(event, categoryId, run));
+                }
+            });
+        } finally {
+            sampler.shutdownNow();
+        }
+        return run;
+    }
+
+    /**
+     * Sends the reservation request until it is admitted, following the protocol of the reservation endpoint.
+     */
+    private boolean reserve(Event event, int categoryId, Run run) throws InterruptedException {
+        String[] token = new String[1];
+        while(true) {
+            String previous = token[0];
+            token[0] = null;
+            long start = System.nanoTime();
+            boolean reserved = run.requests.measure(() -> send(event, categoryId, previous, token));
+            if(token[0] == null) {
+                run.served.latencies.add(System.nanoTime() - start);
+            }
+            if(reserved) {
+                return true;
+            }
+            if(token[0] == null) {
+                // the request has not been queued, but it failed
+                return false;
+            }
+            while(token[0] != null && !isAdmitted(event, token)) {
+                TimeUnit.MILLISECONDS.sleep(pollInterval);
+            }
+        }
+    }
+
+    private boolean send(Event event, int categoryId, String previousToken, String[] token) {
+        var modification = new TicketReservationModification();
+        modification.setAmount(1);
+        modification.setTicketCategoryId(categoryId);
+        var form = new ReservationForm();
+        form.setReservation(List.of(modification));
+        var request = new MockHttpServletRequest();
+        if(previousToken != null) {
+            request.addHeader(EventApiV2Controller.ADMISSION_TOKEN_HEADER, previousToken);
+        }
+        var response = eventApiV2Controller.reserveTickets(event.getShortName(), "en", form, new BeanPropertyBindingResult(form, "reservation"),
+            new ServletWebRequest(request, new MockHttpServletResponse()));
+        if(response.getStatusCode() == HttpStatus.TOO_MANY_REQUESTS) {
+            token[0] = response.getHeaders().getFirst(EventApiV2Controller.ADMISSION_TOKEN_HEADER);
+            return false;
+        }
+        return response.getStatusCode() == HttpStatus.OK;
+    }
+
+    private boolean isAdmitted(Event event, String[] token) {
+        var status = eventApiV2Controller.getAdmissionStatus(event.getShortName(), token[0]);
+        if(status.getStatusCode() != HttpStatus.OK) {
+            // expired, the request will be queued again
+            token[0] = null;
+            return true;
+        }
+        return Objects.requireNonNull(status.getBody()).isAdmitted();
+    }
+
+    private static class Run {
+        private final int buyers;
+        /**
+         * every call to the reservation endpoint, queued ones are counted as failed
+         */
+        private final Stats requests = new Stats();
+        /**
+         * latency of the calls to the reservation endpoint which have not been queued
+         */
+        private final Stats served = new Stats();
+        /**
+         * time needed for creating a reservation, including the time spent in the queue
+         */
+        private final Stats reservations = new Stats();
+        /**
+         * highest number of admitted requests, sampled from the reservation_admission table
+         */
+        private final AtomicInteger maxAdmitted = new AtomicInteger();
+
+        private Run(int buyers) {
+            this.buyers = buyers;
+        }
+
+        String report(String name) {
+            return requests.report("reserve-tickets requests (failed = queued), " + name, buyers)
+                + reservations.report("reservations, " + name, buyers)
+                + String.format("%n  served requests: p99 %.1fms", served.percentile(99))
+                + String.format("%n  max admitted requests: %d", maxAdmitted.get());
+        }
+    }
+}
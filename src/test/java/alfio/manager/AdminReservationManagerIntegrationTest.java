@@ -29,6 +29,7 @@ import alfio.repository.system.ConfigurationRepository;
 import alfio.repository.user.OrganizationRepository;
 import alfio.test.util.IntegrationTestUtil;
 import alfio.util.BaseIntegrationTest;
+import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.time.DateUtils;
 import org.apache.commons.lang3.tuple.Pair;
 import org.apache.commons.lang3.tuple.Triple;
@@ -36,6 +37,8 @@ import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
@@ -50,7 +53,7 @@ import java.util.stream.IntStream;
 
 import static alfio.model.modification.AdminReservationModification.Notification.EMPTY;
 import static alfio.test.util.IntegrationTestUtil.*;
-import static java.util.stream.Collectors.toList;
+import static java.util.stream.Collectors.*;
 import static org.junit.Assert.*;
 
 @RunWith(SpringJUnit4ClassRunner.class)
@@ -81,6 +84,14 @@ public class AdminReservationManagerIntegrationTest extends BaseIntegrationTest
     private EventRepository eventRepository;
     @Autowired
     private ConfigurationRepository configurationRepository;
+    @Autowired
+    private TicketReservationRepository ticketReservationRepository;
+    @Autowired
+    private TicketFieldRepository ticketFieldRepository;
+    @Autowired
+    private SpecialPriceTokenGenerator specialPriceTokenGenerator;
+    @Autowired
+    private NamedParameterJdbcTemplate jdbcTemplate;
 
     @Before
     public void init() {
@@ -280,6 +291,58 @@ public class AdminReservationManagerIntegrationTest extends BaseIntegrationTest
         assertFalse(ticketRepository.findAllReservationsConfirmedButNotAssignedForUpdate(triple.getRight().getId()).contains(triple.getLeft().getId()));
     }
 
+    @Test
+    public void testBulkAssignmentIsEquivalent() {
+        List<TicketCategoryModification> categories = Collections.singletonList(
+            new TicketCategoryModification(null, "default", 10,
+                new DateTimeModification(LocalDate.now(), LocalTime.now()),
+                new DateTimeModification(LocalDate.now(), LocalTime.now()),
+                DESCRIPTION, BigDecimal.TEN, true, "", true, null, null, null, null, null, 0, null, null));
+        Pair<Event, String> eventWithUsername = initEvent(categories, organizationRepository, userManager, eventManager, eventRepository);
+        Event event = eventWithUsername.getKey();
+        for (String name : List.of("field1", "field2")) {
+            eventManager.addAdditionalField(event, new EventModification.AdditionalField(0, true, name, "text", false, false, null, null, null,
+                Map.of("en", new EventModification.Description(name + " en", "", null)), null, null));
+        }
+        TicketCategory category = ticketCategoryRepository.findAllTicketCategories(event.getId()).get(0);
+        specialPriceTokenGenerator.generatePendingCodesForCategory(category.getId());
+
+        assertEquals(assignTickets(event, category, "per-row", false), assignTickets(event, category, "bulk", true));
+    }
+
+    private List<String> assignTickets(Event event, TicketCategory category, String referencePrefix, boolean bulk) {
+        List<Attendee> attendees = Arrays.asList(
+            new Attendee(null, "First", "Attendee", "first@test.ch", "en", false, referencePrefix + "-1", Map.of("field1", List.of("value1"), "field2", List.of("a", "b"))),
+            new Attendee(null, "Second", "Attendee", "second@test.ch", "en", true, null, Map.of("field1", List.of(""), "field2", List.of("value2"))),
+            new Attendee(null, "", "", "", "en", false, null, Collections.emptyMap()),
+            new Attendee(null, "Fourth", "Attendee", "fourth@test.ch", "en", true, referencePrefix + "-4", Map.of("notExisting", List.of("value"))));
+        String reservationId = UUID.randomUUID().toString();
+        ticketReservationRepository.createNewReservation(reservationId, ZonedDateTime.now(event.getZoneId()), DateUtils.addDays(new Date(), 1), null,
+            "en", event.getId(), event.getVat(), event.isVatIncluded(), event.getCurrency());
+        List<Integer> ticketIds = ticketReservationManager.reserveTickets(event.getId(), category.getId(), attendees.size(), Collections.singletonList(Ticket.TicketStatus.FREE));
+        ticketRepository.reserveTickets(reservationId, ticketIds, category.getId(), "en", category.getSrcPriceCts(), category.getCurrencyCode());
+        List<SpecialPrice> codes = specialPriceRepository.findActiveNotAssignedByCategoryId(category.getId(), attendees.size());
+        assertEquals(attendees.size(), codes.size());
+        specialPriceRepository.batchUpdateStatus(codes.stream().map(SpecialPrice::getId).collect(toList()), SpecialPrice.Status.PENDING, null);
+        if(bulk) {
+            adminReservationManager.bulkAssignTickets(event, attendees, category.getId(), ticketIds, codes, reservationId, "en", category.getSrcPriceCts());
+        } else {
+            adminReservationManager.assignTickets(event, attendees, category.getId(), ticketIds, codes, reservationId, "en", category.getSrcPriceCts());
+        }
+
+        Map<Integer, Map<String, String>> values = ticketFieldRepository.findAllValuesByTicketIds(ticketIds).stream()
+            .collect(groupingBy(TicketFieldValue::getTicketId, TreeMap::new, toMap(TicketFieldValue::getName, TicketFieldValue::getValue, (a, b) -> a, TreeMap::new)));
+        return ticketIds.stream().map(id -> {
+            Ticket t = ticketRepository.findById(id, category.getId());
+            boolean specialPriceBound = Boolean.TRUE.equals(jdbcTemplate.queryForObject("select special_price_id_fk is not null from ticket where id = :id", new MapSqlParameterSource("id", id), Boolean.class));
+            return String.join("|", t.getStatus().name(), t.getTicketsReservationId().equals(reservationId) ? "reservation" : "other",
+                String.valueOf(t.getEmail()), String.valueOf(t.getFullName()), String.valueOf(t.getFirstName()), String.valueOf(t.getLastName()),
+                String.valueOf(StringUtils.removeStart(t.getExtReference(), referencePrefix)), String.valueOf(t.getLockedAssignment()),
+                t.getUserLanguage(), String.valueOf(t.getSrcPriceCts()), t.getCurrencyCode(), String.valueOf(specialPriceBound),
+                String.valueOf(values.getOrDefault(id, Collections.emptyMap())));
+        }).collect(toList());
+    }
+
     private Triple<Event, String, TicketReservation> performExistingCategoryTest(List<TicketCategoryModification> categories, boolean bounded,
                                                                                  List<Integer> attendeesNr, boolean addSeatsIfNotAvailable, boolean expectSuccess,
                                                                                  int reservedTickets, int expectedEventSeats) {
@@ -0,0 +1,127 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.manager;
+
+import alfio.model.AdminReservationRequest;
+import alfio.model.Event;
+import alfio.model.TicketReservation;
+import alfio.model.modification.AdminReservationModification;
+import alfio.model.result.ErrorCode;
+import alfio.model.result.Result;
+import alfio.model.user.User;
+import alfio.repository.AdminReservationRequestRepository;
+import alfio.repository.EventRepository;
+import alfio.repository.user.UserRepository;
+import org.apache.commons.lang3.tuple.Pair;
+import org.apache.commons.lang3.tuple.Triple;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class AdminReservationRequestManagerTest {
+
+    private AdminReservationManager adminReservationManager;
+    private UserRepository userRepository;
+    private AdminReservationRequestRepository requestRepository;
+    private EventRepository eventRepository;
+    private AdminReservationRequestManager manager;
+
+    @BeforeEach
+    void init() {
+        adminReservationManager = mock(AdminReservationManager.class);
+        userRepository = mock(UserRepository.class);
+        requestRepository = mock(AdminReservationRequestRepository.class);
+        eventRepository = mock(EventRepository.class);
+        PlatformTransactionManager transactionManager = mock(PlatformTransactionManager.class);
+        when(transactionManager.getTransaction(any())).thenReturn(mock(TransactionStatus.class));
+        manager = new AdminReservationRequestManager(adminReservationManager, mock(EventManager.class), userRepository, requestRepository, eventRepository, transactionManager);
+
+        Event event = mock(Event.class);
+        when(event.getShortName()).thenReturn("event");
+        when(eventRepository.findOptionalById(1)).thenReturn(Optional.of(event));
+        User user = mock(User.class);
+        when(user.getId()).thenReturn(2);
+        when(user.getUsername()).thenReturn("user");
+        when(userRepository.findByIds(anyCollection())).thenReturn(List.of(user));
+        when(requestRepository.lockPendingById(anyLong())).thenAnswer(invocation -> List.of((Long) invocation.getArgument(0)));
+    }
+
+    @Test
+    void processRequestsGroupingLookups() {
+        var requests = List.of(request(1L, 1L), request(2L, 1L), request(3L, 1L), request(4L, 99L));
+        when(requestRepository.findPending(anyInt())).thenReturn(requests);
+        var reservation = mock(TicketReservation.class);
+        when(reservation.getId()).thenReturn("reservation");
+        when(adminReservationManager.createReservation(any(), eq("event"), eq("user"))).thenReturn(Result.success(Pair.of(reservation, List.of())));
+        when(adminReservationManager.confirmReservation(eq("event"), eq("reservation"), eq("user"), any()))
+            .thenReturn(Result.success(Triple.of(reservation, List.of(), mock(Event.class))))
+            .thenReturn(Result.error(ErrorCode.ReservationError.UPDATE_FAILED));
+        // only the first confirmation succeeds, the other two fail as well as the request for the missing event
+
+        var result = manager.processPendingReservations();
+
+        assertEquals(Pair.of(1, 3), result);
+        verify(eventRepository).findOptionalById(1);
+        verify(eventRepository).findOptionalById(99);
+        verify(userRepository).findByIds(anyCollection());
+        verify(requestRepository, times(4)).updateStatus(anyList());
+    }
+
+    @Test
+    void skipRequestsLockedByAnotherNode() {
+        var requests = List.of(request(1L, 1L));
+        when(requestRepository.findPending(anyInt())).thenReturn(requests);
+        when(requestRepository.lockPendingById(anyLong())).thenReturn(List.of());
+
+        var result = manager.processPendingReservations();
+
+        assertEquals(Pair.of(0, 0), result);
+        verify(requestRepository, never()).updateStatus(anyList());
+        verifyNoInteractions(adminReservationManager);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    void statusIsUpdatedForEachRequest() {
+        var requests = List.of(request(1L, 99L));
+        when(requestRepository.findPending(anyInt())).thenReturn(requests);
+
+        manager.processPendingReservations();
+
+        verify(requestRepository).updateStatus(argThat((List<MapSqlParameterSource> list) -> list.size() == 1
+            && AdminReservationRequest.Status.ERROR.name().equals(list.get(0).getValue("status"))
+            && ErrorCode.EventError.NOT_FOUND.getCode().equals(list.get(0).getValue("failureCode"))));
+    }
+
+    private static AdminReservationRequest request(long id, long eventId) {
+        var request = mock(AdminReservationRequest.class);
+        when(request.getId()).thenReturn(id);
+        when(request.getEventId()).thenReturn(eventId);
+        when(request.getUserId()).thenReturn(2L);
+        when(request.getBody()).thenReturn(mock(AdminReservationModification.class));
+        return request;
+    }
+}
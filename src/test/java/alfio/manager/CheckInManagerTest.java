@@ -19,15 +19,17 @@ package alfio.manager;
 import alfio.manager.support.CheckInStatistics;
 import alfio.manager.system.ConfigurationLevel;
 import alfio.manager.system.ConfigurationManager;
+import alfio.manager.user.OrganizationMembershipCache;
 import alfio.model.Event;
 import alfio.model.system.ConfigurationKeyValuePathLevel;
-import alfio.model.user.Organization;
 import alfio.repository.EventRepository;
+import alfio.repository.user.AuthorityRepository;
 import alfio.repository.user.OrganizationRepository;
 import org.junit.Before;
 import org.junit.Test;
 
 import java.util.Date;
+import java.util.List;
 import java.util.Optional;
 
 import static alfio.model.system.ConfigurationKeys.CHECK_IN_STATS;
@@ -54,15 +56,13 @@ public class CheckInManagerTest {
         configurationManager = mock(ConfigurationManager.class);
         OrganizationRepository organizationRepository = mock(OrganizationRepository.class);
         event = mock(Event.class);
-        Organization organization = mock(Organization.class);
         when(eventRepository.findOptionalByShortName(EVENT_NAME)).thenReturn(Optional.of(event));
         when(event.getId()).thenReturn(EVENT_ID);
         when(event.getOrganizationId()).thenReturn(ORG_ID);
-        when(organizationRepository.findOrganizationForUser(USERNAME, ORG_ID)).thenReturn(Optional.of(organization));
-        when(organization.getId()).thenReturn(ORG_ID);
+        when(organizationRepository.findAllOrganizationIdForUser(USERNAME)).thenReturn(List.of(ORG_ID));
         when(eventRepository.retrieveCheckInStatisticsForEvent(EVENT_ID)).thenReturn(new CheckInStatistics(0, 0, new Date()));
         checkInManager = new CheckInManager(null, eventRepository, null, null, null, null,
-            null, configurationManager, organizationRepository, null, null, null, null);
+            null, configurationManager, new OrganizationMembershipCache(organizationRepository, mock(AuthorityRepository.class)), null, null, null, null);
     }
 
     @Test
@@ -40,6 +40,7 @@ public class EventManagerHandleTicketModificationTest {
     private TicketCategory original;
     private TicketCategory updated;
     private TicketRepository ticketRepository;
+    private WaitingQueueManager waitingQueueManager;
     private EventManager eventManager;
     private final int eventId = 10;
     private int originalCategoryId = 20;
@@ -52,9 +53,10 @@ public class EventManagerHandleTicketModificationTest {
         original = mock(TicketCategory.class);
         updated = mock(TicketCategory.class);
         ticketRepository = mock(TicketRepository.class);
+        waitingQueueManager = mock(WaitingQueueManager.class);
 
         when(event.getId()).thenReturn(eventId);
-        eventManager = new EventManager(null, null, null, null, null, ticketRepository, null, null, null, null, null, null, null, null, null, null, null, null, null, null, null);
+        eventManager = new EventManager(null, null, null, null, null, ticketRepository, null, null, null, null, null, null, null, null, null, null, null, null, null, null, null, null, null, null, waitingQueueManager);
         when(original.getId()).thenReturn(originalCategoryId);
         when(updated.getId()).thenReturn(updatedCategoryId);
         when(original.getSrcPriceCts()).thenReturn(1000);
@@ -80,6 +82,7 @@ public class EventManagerHandleTicketModificationTest {
         when(ticketRepository.lockTicketsToInvalidate(eventId, updatedCategoryId, 2)).thenReturn(ids);
         eventManager.handleTicketNumberModification(event, updated, -2, false);
         verify(ticketRepository, times(1)).invalidateTickets(ids);
+        verify(waitingQueueManager).fireSeatsReleased(eventId);
     }
 
     @Test
@@ -88,6 +91,7 @@ public class EventManagerHandleTicketModificationTest {
         eventManager.handleTicketNumberModification(event, updated, 0, false);
         verify(ticketRepository, never()).invalidateTickets(anyList());
         verify(ticketRepository, never()).bulkTicketUpdate(any(), any());
+        verify(waitingQueueManager, never()).fireSeatsReleased(anyInt());
     }
 
     @Test
@@ -97,6 +101,7 @@ public class EventManagerHandleTicketModificationTest {
         eventManager.handleTicketNumberModification(event, updated, 1, false);
         verify(ticketRepository, never()).invalidateTickets(anyList());
         verify(ticketRepository, times(1)).bulkTicketUpdate(any(), any());
+        verify(waitingQueueManager).fireSeatsReleased(eventId);
     }
 
     @Test
@@ -30,6 +30,7 @@ import alfio.repository.*;
 import alfio.repository.system.ConfigurationRepository;
 import alfio.repository.user.OrganizationRepository;
 import alfio.util.BaseIntegrationTest;
+import alfio.util.BulkCopyLoader;
 import org.apache.commons.lang3.time.DateUtils;
 import org.apache.commons.lang3.tuple.Pair;
 import org.junit.Assert;
@@ -296,6 +297,28 @@ public class EventManagerIntegrationTest extends BaseIntegrationTest {
         assertEquals(10, tickets.stream().filter(t -> t.getCategoryId() != null).count());
     }
 
+    @Test
+    public void testIncreaseEventSeatsUsingBulkCopy() {
+        List<TicketCategoryModification> categories = Collections.singletonList(
+                new TicketCategoryModification(null, "default", 10,
+                        new DateTimeModification(LocalDate.now(), LocalTime.now()),
+                        new DateTimeModification(LocalDate.now(), LocalTime.now()),
+                        DESCRIPTION, BigDecimal.TEN, false, "", true, null, null, null, null, null, 0, null, null));
+        Pair<Event, String> pair = initEvent(categories, organizationRepository, userManager, eventManager, eventRepository);
+        Event event = pair.getKey();
+        int availableSeats = AVAILABLE_SEATS + BulkCopyLoader.MIN_ROWS * 3;
+        EventModification update = new EventModification(event.getId(), Event.EventType.INTERNAL, null, null, null, null, null, null, null, null, event.getOrganizationId(), null,
+            "0.0", "0.0", ZoneId.systemDefault().getId(), null,
+                DateTimeModification.fromZonedDateTime(event.getBegin()), DateTimeModification.fromZonedDateTime(event.getEnd()),
+                event.getRegularPrice(), event.getCurrency(), availableSeats, event.getVat(), event.isVatIncluded(), event.getAllowedPaymentProxies(), null, event.isFreeOfCharge(), null, 7, null, null);
+        eventManager.updateEventPrices(event, update, pair.getValue());
+        assertEquals(availableSeats, eventRepository.countExistingTickets(event.getId()).intValue());
+        assertEquals(BulkCopyLoader.MIN_ROWS * 3, ticketRepository.countReleasedUnboundedTickets(event.getId()).intValue());
+        List<Ticket> tickets = ticketRepository.findFreeByEventId(event.getId());
+        assertEquals(AVAILABLE_SEATS, tickets.size());
+        assertEquals(10, tickets.stream().filter(t -> t.getCategoryId() != null).count());
+    }
+
     @Test
     public void testDecreaseEventSeatsWithAnUnboundedCategory() {
         List<TicketCategoryModification> categories = Collections.singletonList(
@@ -16,6 +16,7 @@
  */
 package alfio.manager;
 
+import alfio.manager.user.OrganizationMembershipCache;
 import alfio.manager.user.UserManager;
 import alfio.model.Event;
 import alfio.model.Ticket;
@@ -23,6 +24,7 @@ import alfio.model.TicketCategory;
 import alfio.model.TicketCategoryStatisticView;
 import alfio.model.user.Organization;
 import alfio.repository.*;
+import alfio.repository.user.AuthorityRepository;
 import alfio.repository.user.OrganizationRepository;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
@@ -78,13 +80,13 @@ public class EventManagerUnbindTicketsTest {
         when(organization.getId()).thenReturn(organizationId);
         when(eventRepository.findOptionalEventAndOrganizationIdByShortName(eq(eventName))).thenReturn(Optional.of(event));
         when(ticketCategory.getId()).thenReturn(categoryId);
-        when(organizationRepository.findOrganizationForUser(anyString(), anyInt())).thenReturn(Optional.of(organization));
+        when(organizationRepository.findAllOrganizationIdForUser(anyString())).thenReturn(List.of(organizationId));
         eventManager = new EventManager(userManager, eventRepository,
             eventDescriptionRepository, ticketCategoryRepository, ticketCategoryDescriptionRepository,
             ticketRepository, specialPriceRepository, null, null, null,
             null, null, null,
-            null, null, organizationRepository,
-            null, null, null, null, null);
+            null, null, new OrganizationMembershipCache(organizationRepository, mock(AuthorityRepository.class)),
+            null, null, null, null, null, null, null, null, null);
     }
 
     @Test
@@ -94,7 +96,7 @@ public class EventManagerUnbindTicketsTest {
         when(userManager.findUserOrganizations(eq(username))).thenReturn(singletonList(organization));
         assertThrows(IllegalArgumentException.class, () -> eventManager.unbindTickets(eventName, categoryId, username));
         verify(ticketCategoryRepository).countUnboundedCategoriesByEventId(eq(eventId));
-        verify(organizationRepository).findOrganizationForUser(eq(username), eq(organizationId));
+        verify(organizationRepository).findAllOrganizationIdForUser(eq(username));
         verify(eventRepository).findOptionalEventAndOrganizationIdByShortName(eq(eventName));
         verifyNoMoreInteractions(ticketCategoryRepository, userManager, eventRepository, ticketRepository);
     }
@@ -111,7 +113,7 @@ public class EventManagerUnbindTicketsTest {
 
         assertThrows(IllegalArgumentException.class, () -> eventManager.unbindTickets(eventName, categoryId, username));
         verify(ticketCategoryRepository).countUnboundedCategoriesByEventId(eq(eventId));
-        verify(organizationRepository).findOrganizationForUser(eq(username), eq(organizationId));
+        verify(organizationRepository).findAllOrganizationIdForUser(eq(username));
         verify(eventRepository).findOptionalEventAndOrganizationIdByShortName(eq(eventName));
     }
 
@@ -136,7 +138,7 @@ public class EventManagerUnbindTicketsTest {
         eventManager.unbindTickets(eventName, categoryId, username);
 
         verify(ticketCategoryRepository).countUnboundedCategoriesByEventId(eq(eventId));
-        verify(organizationRepository).findOrganizationForUser(eq(username), eq(organizationId));
+        verify(organizationRepository).findAllOrganizationIdForUser(eq(username));
         verify(eventRepository).findOptionalEventAndOrganizationIdByShortName(eq(eventName));
         verify(ticketRepository).selectTicketInCategoryForUpdate(eq(eventId), eq(categoryId), eq(notSold), eq(singletonList(Ticket.TicketStatus.FREE.name())));
         verify(ticketRepository).unbindTicketsFromCategory(eq(eventId), eq(categoryId), eq(lockedTickets));
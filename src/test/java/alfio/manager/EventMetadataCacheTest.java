@@ -0,0 +1,90 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.manager;
+
+import alfio.model.Event;
+import alfio.model.EventMetadataVersion;
+import alfio.repository.EventRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.Mockito.*;
+
+class EventMetadataCacheTest {
+
+    private EventRepository eventRepository;
+    private EventMetadataCache cache;
+    private Event event;
+
+    @BeforeEach
+    void init() {
+        eventRepository = mock(EventRepository.class);
+        cache = new EventMetadataCache(eventRepository);
+        event = mock(Event.class);
+        when(event.getId()).thenReturn(1);
+        when(event.getShortName()).thenReturn("event");
+        when(eventRepository.findMetadataVersion(1)).thenReturn(Optional.of(0L));
+        when(eventRepository.findMetadataVersionByShortName("event")).thenReturn(Optional.of(0L));
+        when(eventRepository.findOptionalById(1)).thenReturn(Optional.of(event));
+        when(eventRepository.findOptionalByShortName("event")).thenReturn(Optional.of(event));
+    }
+
+    @Test
+    void loadOnlyOnce() {
+        assertSame(event, cache.getById(1));
+        assertSame(event, cache.findByShortName("event").orElseThrow());
+        assertTrue(cache.existsByShortName("event"));
+        verify(eventRepository, times(1)).findOptionalById(1);
+        verify(eventRepository, never()).findOptionalByShortName("event");
+    }
+
+    @Test
+    void doNotCacheMissingEvents() {
+        when(eventRepository.findMetadataVersionByShortName("missing")).thenReturn(Optional.empty());
+        assertFalse(cache.existsByShortName("missing"));
+        assertFalse(cache.existsByShortName("missing"));
+        verify(eventRepository, times(2)).findMetadataVersionByShortName("missing");
+        verify(eventRepository, never()).findOptionalByShortName("missing");
+    }
+
+    @Test
+    void invalidate() {
+        cache.findByShortName("event");
+        cache.invalidate(1);
+        cache.findByShortName("event");
+        verify(eventRepository, times(2)).findOptionalByShortName("event");
+    }
+
+    @Test
+    void evictStaleEntries() {
+        cache.getById(1);
+        when(eventRepository.findMetadataVersions(anyCollection())).thenReturn(List.of(new EventMetadataVersion(1, 0L)));
+        cache.evictStaleEntries();
+        cache.getById(1);
+        verify(eventRepository, times(1)).findOptionalById(1);
+
+        when(eventRepository.findMetadataVersions(anyCollection())).thenReturn(List.of(new EventMetadataVersion(1, 1L)));
+        cache.evictStaleEntries();
+        cache.getById(1);
+        verify(eventRepository, times(2)).findOptionalById(1);
+    }
+}
@@ -0,0 +1,206 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.manager;
+
+import alfio.model.BillingDocument;
+import alfio.model.Event;
+import alfio.model.InvoiceArchive;
+import alfio.model.TicketReservation;
+import alfio.repository.BillingDocumentPdfRepository;
+import alfio.repository.BillingDocumentRepository;
+import alfio.repository.EventRepository;
+import alfio.repository.InvoiceArchiveRepository;
+import alfio.repository.TicketReservationRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static alfio.manager.InvoiceArchiveManager.PAGE_SIZE;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class InvoiceArchiveManagerTest {
+
+    private static final int EVENT_ID = 1;
+    private static final long ARCHIVE_ID = 42L;
+
+    private BillingDocumentRepository billingDocumentRepository;
+    private InvoiceArchiveRepository invoiceArchiveRepository;
+    private BillingDocumentPdfManager billingDocumentPdfManager;
+    private BillingDocumentPdfRepository billingDocumentPdfRepository;
+    private Event event;
+    private InvoiceArchiveManager invoiceArchiveManager;
+
+    @BeforeEach
+    void init() {
+        billingDocumentRepository = mock(BillingDocumentRepository.class);
+        invoiceArchiveRepository = mock(InvoiceArchiveRepository.class);
+        billingDocumentPdfManager = mock(BillingDocumentPdfManager.class);
+        billingDocumentPdfRepository = mock(BillingDocumentPdfRepository.class);
+        var ticketReservationRepository = mock(TicketReservationRepository.class);
+        var eventRepository = mock(EventRepository.class);
+        event = mock(Event.class);
+        when(event.getId()).thenReturn(EVENT_ID);
+        when(event.getShortName()).thenReturn("event");
+        when(eventRepository.findById(EVENT_ID)).thenReturn(event);
+        var reservation = mock(TicketReservation.class);
+        when(reservation.getId()).thenReturn("reservation");
+        when(reservation.getUserLanguage()).thenReturn("en");
+        when(ticketReservationRepository.findByIds(anyCollection())).thenReturn(List.of(reservation));
+        when(billingDocumentPdfManager.getPdfs(eq(event), anyList(), any())).thenAnswer(invocation -> {
+            List<BillingDocument> documents = invocation.getArgument(1);
+            return documents.stream()
+                .map(d -> d.getId() == 1L ? delayedPdf(d) : CompletableFuture.completedFuture(pdf(d)))
+                .collect(Collectors.toList());
+        });
+        when(invoiceArchiveRepository.updateProgress(anyLong(), anyLong(), anyLong(), anyInt(), any())).thenReturn(1);
+        when(invoiceArchiveRepository.addDocuments(anyLong(), anyCollection())).thenAnswer(invocation -> invocation.<List<Long>>getArgument(1).size());
+        invoiceArchiveManager = new InvoiceArchiveManager(billingDocumentRepository, ticketReservationRepository, invoiceArchiveRepository,
+            eventRepository, mock(EventManager.class), billingDocumentPdfManager, billingDocumentPdfRepository, mock(PlatformTransactionManager.class));
+    }
+
+    @Test
+    void writeArchiveInDocumentOrder() throws IOException {
+        var firstPage = documents(1, PAGE_SIZE);
+        var secondPage = documents(PAGE_SIZE + 1, PAGE_SIZE + 3);
+        when(billingDocumentRepository.findLatestOfTypeForEventAfterId(BillingDocument.Type.INVOICE, EVENT_ID, 0L, PAGE_SIZE)).thenReturn(firstPage);
+        when(billingDocumentRepository.findLatestOfTypeForEventAfterId(BillingDocument.Type.INVOICE, EVENT_ID, PAGE_SIZE, PAGE_SIZE)).thenReturn(secondPage);
+
+        var out = new ByteArrayOutputStream();
+        invoiceArchiveManager.writeArchive(event, out);
+
+        var entries = new ArrayList<String>();
+        try(var zip = new ZipInputStream(new ByteArrayInputStream(out.toByteArray()))) {
+            ZipEntry entry;
+            while((entry = zip.getNextEntry()) != null) {
+                entries.add(entry.getName());
+                var number = entry.getName().substring(entry.getName().lastIndexOf('-') + 1, entry.getName().length() - 4);
+                assertArrayEquals(("pdf-" + number).getBytes(StandardCharsets.UTF_8), zip.readAllBytes());
+            }
+        }
+        assertEquals(PAGE_SIZE + 3, entries.size());
+        // the first document is rendered last, but is still the first entry in the archive
+        assertEquals("event-2020-01-10-100000-1.pdf", entries.get(0));
+        assertEquals("event-2020-01-10-100000-" + (PAGE_SIZE + 3) + ".pdf", entries.get(entries.size() - 1));
+        verify(billingDocumentRepository, never()).findLatestOfTypeForEventAfterId(any(), anyInt(), eq((long) PAGE_SIZE + 3), anyInt());
+    }
+
+    @Test
+    void processArchiveInChunks() {
+        when(invoiceArchiveRepository.findPendingIds()).thenReturn(List.of(ARCHIVE_ID));
+        when(invoiceArchiveRepository.lockPendingById(ARCHIVE_ID)).thenReturn(Optional.of(archive(0)), Optional.of(archive(PAGE_SIZE)));
+        when(billingDocumentRepository.findLatestOfTypeForEventAfterId(BillingDocument.Type.INVOICE, EVENT_ID, 0L, PAGE_SIZE)).thenReturn(documents(1, PAGE_SIZE));
+        when(billingDocumentRepository.findLatestOfTypeForEventAfterId(BillingDocument.Type.INVOICE, EVENT_ID, PAGE_SIZE, PAGE_SIZE)).thenReturn(documents(PAGE_SIZE + 1, PAGE_SIZE + 2));
+
+        invoiceArchiveManager.processPendingArchives();
+
+        verify(billingDocumentPdfManager, times(2)).getPdfs(eq(event), anyList(), any());
+        verify(invoiceArchiveRepository).updateProgress(eq(ARCHIVE_ID), eq(0L), eq((long) PAGE_SIZE), eq(PAGE_SIZE), any());
+        verify(invoiceArchiveRepository).updateProgress(eq(ARCHIVE_ID), eq((long) PAGE_SIZE), eq((long) PAGE_SIZE + 2), eq(2), any());
+        verify(invoiceArchiveRepository, times(2)).addDocuments(eq(ARCHIVE_ID), anyCollection());
+        verify(invoiceArchiveRepository).markAsCompleted(eq(ARCHIVE_ID), any());
+        verify(invoiceArchiveRepository, never()).markAsFailed(anyLong(), any(), any());
+    }
+
+    @Test
+    void discardChunkProcessedByAnotherNode() {
+        when(invoiceArchiveRepository.findPendingIds()).thenReturn(List.of(ARCHIVE_ID));
+        when(invoiceArchiveRepository.lockPendingById(ARCHIVE_ID)).thenReturn(Optional.of(archive(0)));
+        when(billingDocumentRepository.findLatestOfTypeForEventAfterId(BillingDocument.Type.INVOICE, EVENT_ID, 0L, PAGE_SIZE)).thenReturn(documents(1, 2));
+        when(invoiceArchiveRepository.updateProgress(eq(ARCHIVE_ID), eq(0L), anyLong(), anyInt(), any())).thenReturn(0);
+
+        invoiceArchiveManager.processPendingArchives();
+
+        verify(invoiceArchiveRepository, never()).addDocuments(anyLong(), anyCollection());
+        verify(invoiceArchiveRepository, never()).markAsCompleted(anyLong(), any());
+    }
+
+    @Test
+    void writeCompletedArchiveFromStoredPdfs() throws IOException {
+        var completed = archive(PAGE_SIZE + 2);
+        var firstPage = documents(1, PAGE_SIZE);
+        var secondPage = documents(PAGE_SIZE + 1, PAGE_SIZE + 2);
+        when(invoiceArchiveRepository.findDocumentsAfterId(ARCHIVE_ID, 0L, PAGE_SIZE)).thenReturn(firstPage);
+        when(invoiceArchiveRepository.findDocumentsAfterId(ARCHIVE_ID, PAGE_SIZE, PAGE_SIZE)).thenReturn(secondPage);
+        when(billingDocumentPdfRepository.findContents(anyCollection())).thenAnswer(invocation -> invocation.<List<Long>>getArgument(0).stream()
+            .collect(Collectors.toMap(id -> id, id -> ("pdf-" + id).getBytes(StandardCharsets.UTF_8))));
+
+        var out = new ByteArrayOutputStream();
+        invoiceArchiveManager.writeCompletedArchive(event, completed, out);
+
+        var entries = new ArrayList<String>();
+        try(var zip = new ZipInputStream(new ByteArrayInputStream(out.toByteArray()))) {
+            ZipEntry entry;
+            while((entry = zip.getNextEntry()) != null) {
+                entries.add(entry.getName());
+            }
+        }
+        assertEquals(PAGE_SIZE + 2, entries.size());
+        assertEquals("event-2020-01-10-100000-1.pdf", entries.get(0));
+        verify(billingDocumentPdfManager, never()).getPdfs(any(), anyList(), any());
+        verify(billingDocumentRepository, never()).findLatestOfTypeForEventAfterId(any(), anyInt(), anyLong(), anyInt());
+        verify(invoiceArchiveRepository, never()).findDocumentsAfterId(anyLong(), eq((long) PAGE_SIZE + 2), anyInt());
+    }
+
+    @Test
+    void skipArchiveLockedByAnotherNode() {
+        when(invoiceArchiveRepository.findPendingIds()).thenReturn(List.of(ARCHIVE_ID));
+        when(invoiceArchiveRepository.lockPendingById(ARCHIVE_ID)).thenReturn(Optional.empty());
+
+        invoiceArchiveManager.processPendingArchives();
+
+        verify(billingDocumentRepository, never()).findLatestOfTypeForEventAfterId(any(), anyInt(), anyLong(), anyInt());
+        verify(invoiceArchiveRepository, never()).markAsCompleted(anyLong(), any());
+    }
+
+    private static List<BillingDocument> documents(long from, long to) {
+        return LongStream.rangeClosed(from, to)
+            .mapToObj(id -> new BillingDocument(id, EVENT_ID, "reservation", Long.toString(id), BillingDocument.Type.INVOICE,
+                "{\"confirmationDate\": \"2020-01-10T10:00:00Z\"}", ZonedDateTime.now(), BillingDocument.Status.VALID, null))
+            .collect(Collectors.toList());
+    }
+
+    private static Optional<byte[]> pdf(BillingDocument document) {
+        return Optional.of(("pdf-" + document.getNumber()).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static CompletableFuture<Optional<byte[]>> delayedPdf(BillingDocument document) {
+        return CompletableFuture.supplyAsync(() -> pdf(document), CompletableFuture.delayedExecutor(50, TimeUnit.MILLISECONDS));
+    }
+
+    private static InvoiceArchive archive(long lastDocumentId) {
+        return new InvoiceArchive(ARCHIVE_ID, EVENT_ID, 2, InvoiceArchive.Status.IN_PROGRESS, PAGE_SIZE + 2, (int) lastDocumentId,
+            lastDocumentId, "admin", ZonedDateTime.now(), null, null, null);
+    }
+}
@@ -0,0 +1,237 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.manager;
+
+import alfio.TestConfiguration;
+import alfio.config.DataSourceConfiguration;
+import alfio.config.Initializer;
+import alfio.manager.user.UserManager;
+import alfio.model.Event;
+import alfio.model.TicketCategory;
+import alfio.model.modification.DateTimeModification;
+import alfio.model.modification.TicketCategoryModification;
+import alfio.model.modification.TicketReservationModification;
+import alfio.model.modification.TicketReservationWithOptionalCodeModification;
+import alfio.repository.EventRepository;
+import alfio.repository.TicketCategoryRepository;
+import alfio.repository.TicketReservationRepository;
+import alfio.repository.system.ConfigurationRepository;
+import alfio.repository.user.OrganizationRepository;
+import lombok.extern.log4j.Log4j2;
+import org.apache.commons.lang3.time.DateUtils;
+import org.apache.commons.lang3.tuple.Pair;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.DefaultTransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static alfio.manager.TicketReservationManagerIntegrationTest.DESCRIPTION;
+import static alfio.model.system.ConfigurationKeys.ALLOW_GAPS_IN_INVOICE_NUMBERS;
+import static alfio.test.util.IntegrationTestUtil.AVAILABLE_SEATS;
+import static alfio.test.util.IntegrationTestUtil.initEvent;
+import static org.junit.Assert.*;
+
+/**
+ * Simulates concurrent checkouts for a single organization, where every payment confirmation takes
+ * {@link #GATEWAY_LATENCY_MS} and one payment out of four fails at the first attempt.
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(classes = {DataSourceConfiguration.class, TestConfiguration.class})
+@ActiveProfiles({Initializer.PROFILE_DEV, Initializer.PROFILE_DISABLE_JOBS, Initializer.PROFILE_INTEGRATION_TEST})
+@Log4j2
+public class InvoiceNumberManagerConcurrentTest {
+
+    private static final long GATEWAY_LATENCY_MS = 100;
+
+    @Autowired
+    private OrganizationRepository organizationRepository;
+    @Autowired
+    private UserManager userManager;
+    @Autowired
+    private TicketReservationManager ticketReservationManager;
+    @Autowired
+    private TicketCategoryRepository ticketCategoryRepository;
+    @Autowired
+    private TicketReservationRepository ticketReservationRepository;
+    @Autowired
+    private EventRepository eventRepository;
+    @Autowired
+    private EventManager eventManager;
+    @Autowired
+    private InvoiceNumberManager invoiceNumberManager;
+    @Autowired
+    private ConfigurationRepository configurationRepository;
+    @Autowired
+    private NamedParameterJdbcTemplate jdbcTemplate;
+    @Autowired
+    private PlatformTransactionManager platformTransactionManager;
+
+    private Event event;
+    private String username;
+    private List<String> reservationIds;
+    private TransactionTemplate transactionTemplate;
+
+    @Before
+    public void setUp() {
+        transactionTemplate = new TransactionTemplate(platformTransactionManager, new DefaultTransactionDefinition(TransactionDefinition.PROPAGATION_REQUIRES_NEW));
+        List<TicketCategoryModification> categories = Collections.singletonList(
+            new TicketCategoryModification(null, "default", AVAILABLE_SEATS,
+                new DateTimeModification(LocalDate.now(), LocalTime.now()),
+                new DateTimeModification(LocalDate.now().plusDays(1), LocalTime.now()),
+                DESCRIPTION, BigDecimal.TEN, false, "", true, null,
+                null, null, null, null, null, TicketCategory.TicketCheckInStrategy.ONCE_PER_EVENT, null));
+        transactionTemplate.execute(tx -> {
+            Pair<Event, String> eventAndUser = initEvent(categories, organizationRepository, userManager, eventManager, eventRepository);
+            event = eventAndUser.getLeft();
+            username = eventAndUser.getRight();
+            return null;
+        });
+        int categoryId = ticketCategoryRepository.findAllTicketCategories(event.getId()).get(0).getId();
+        reservationIds = IntStream.range(0, AVAILABLE_SEATS).mapToObj(i -> {
+            TicketReservationModification tr = new TicketReservationModification();
+            tr.setAmount(1);
+            tr.setTicketCategoryId(categoryId);
+            var mod = new TicketReservationWithOptionalCodeModification(tr, Optional.empty());
+            return ticketReservationManager.createTicketReservation(event, List.of(mod), List.of(), DateUtils.addHours(new Date(), 1), Optional.empty(), Locale.ENGLISH, false);
+        }).collect(Collectors.toList());
+    }
+
+    @After
+    public void tearDown() {
+        transactionTemplate.execute(tx -> {
+            eventManager.deleteEvent(event.getId(), username);
+            return null;
+        });
+    }
+
+    @Test
+    public void gaplessNumbersAreNotSerialized() throws Exception {
+        var result = runCheckouts();
+        var expected = IntStream.rangeClosed(1, AVAILABLE_SEATS).boxed().collect(Collectors.toList());
+        assertEquals("numbers must be gapless, even if some payments failed", expected, result.numbers);
+        assertEquals(0, countReservedNumbers());
+        // holding the organization lock during the payment would take at least AVAILABLE_SEATS * GATEWAY_LATENCY_MS
+        assertTrue("checkouts have been serialized: " + result.elapsedMillis + " ms", result.elapsedMillis < AVAILABLE_SEATS * GATEWAY_LATENCY_MS);
+    }
+
+    @Test
+    public void numbersWithGapsAreUnique() throws Exception {
+        configurationRepository.insertOrganizationLevel(event.getOrganizationId(), ALLOW_GAPS_IN_INVOICE_NUMBERS.name(), "true", "");
+        var result = runCheckouts();
+        assertEquals(AVAILABLE_SEATS, new HashSet<>(result.numbers).size());
+        assertEquals(0, countReservedNumbers());
+
+        // switching back to gapless numbers must not reuse the numbers given by the database sequence
+        configurationRepository.deleteOrganizationLevelByKey(ALLOW_GAPS_IN_INVOICE_NUMBERS.name(), event.getOrganizationId());
+        int next = Integer.parseInt(invoiceNumberManager.reserveInvoiceNumber(event, reservationIds.get(0)));
+        assertTrue(next > Collections.max(result.numbers));
+    }
+
+    private CheckoutResult runCheckouts() throws InterruptedException, ExecutionException {
+        var pool = Executors.newFixedThreadPool(AVAILABLE_SEATS);
+        var checkouts = new ArrayList<Callable<String>>();
+        for (int i = 0; i < reservationIds.size(); i++) {
+            var reservationId = reservationIds.get(i);
+            boolean failFirstAttempt = i % 4 == 0;
+            checkouts.add(() -> {
+                if(failFirstAttempt) {
+                    assertTrue(checkout(reservationId, true).isEmpty());
+                }
+                return checkout(reservationId, false).orElseThrow();
+            });
+        }
+        long start = System.currentTimeMillis();
+        var futures = pool.invokeAll(checkouts);
+        var numbers = new ArrayList<Integer>();
+        for (Future<String> future : futures) {
+            numbers.add(Integer.parseInt(future.get()));
+        }
+        long elapsed = System.currentTimeMillis() - start;
+        pool.shutdown();
+        Collections.sort(numbers);
+        log.info("{} checkouts in {} ms ({} checkouts/s)", numbers.size(), elapsed, numbers.size() * 1000 / Math.max(1, elapsed));
+        return new CheckoutResult(numbers, elapsed);
+    }
+
+    /**
+     * same sequence of operations performed by {@link TicketReservationManager} when confirming a payment
+     */
+    private Optional<String> checkout(String reservationId, boolean paymentFails) {
+        try {
+            return Optional.ofNullable(transactionTemplate.execute(tx -> {
+                // the payment transaction holds the reservation lock while the number is reserved
+                ticketReservationRepository.lockReservationForUpdate(reservationId);
+                String invoiceNumber = invoiceNumberManager.reserveInvoiceNumber(event, reservationId);
+                simulateGatewayRoundTrip();
+                if(paymentFails) {
+                    throw new IllegalStateException("payment failed");
+                }
+                ticketReservationRepository.setInvoiceNumber(reservationId, invoiceNumber);
+                invoiceNumberManager.confirm(reservationId);
+                return invoiceNumber;
+            }));
+        } catch (IllegalStateException e) {
+            invoiceNumberManager.release(reservationId);
+            return Optional.empty();
+        }
+    }
+
+    private static void simulateGatewayRoundTrip() {
+        try {
+            Thread.sleep(GATEWAY_LATENCY_MS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private int countReservedNumbers() {
+        return Objects.requireNonNull(jdbcTemplate.queryForObject("select count(*) from invoice_number_reservation where organization_id_fk = :orgId",
+            new MapSqlParameterSource("orgId", event.getOrganizationId()), Integer.class));
+    }
+
+    private static class CheckoutResult {
+        private final List<Integer> numbers;
+        private final long elapsedMillis;
+
+        private CheckoutResult(List<Integer> numbers, long elapsedMillis) {
+            this.numbers = numbers;
+            this.elapsedMillis = elapsedMillis;
+        }
+    }
+}
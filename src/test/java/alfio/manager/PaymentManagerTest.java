@@ -0,0 +1,108 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.manager;
+
+import alfio.manager.system.ConfigurationManager;
+import alfio.model.Event;
+import alfio.model.system.ConfigurationKeys;
+import alfio.model.transaction.PaymentMethod;
+import alfio.model.transaction.PaymentProvider;
+import alfio.model.transaction.PaymentProxy;
+import alfio.repository.AuditingRepository;
+import alfio.repository.TransactionRepository;
+import alfio.repository.user.UserRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.ZonedDateTime;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class PaymentManagerTest {
+
+    private ConfigurationManager configurationManager;
+    private PaymentProvider paymentProvider;
+    private PaymentManager paymentManager;
+    private Event event;
+
+    @BeforeEach
+    void init() {
+        configurationManager = mock(ConfigurationManager.class);
+        paymentProvider = mock(PaymentProvider.class);
+        event = mock(Event.class);
+        when(event.getId()).thenReturn(1);
+        when(event.getOrganizationId()).thenReturn(2);
+        when(event.getCurrency()).thenReturn("CHF");
+        when(event.getBegin()).thenReturn(ZonedDateTime.now().plusMonths(1));
+        when(event.getAllowedPaymentProxies()).thenReturn(List.of(PaymentProxy.STRIPE));
+        when(configurationManager.getFor(eq(ConfigurationKeys.PAYMENT_METHODS_BLACKLIST), any())).thenReturn(new ConfigurationManager.MaybeConfiguration(ConfigurationKeys.PAYMENT_METHODS_BLACKLIST));
+        when(configurationManager.getBlacklistedMethodsForReservation(any(), anyCollection())).thenReturn(List.of());
+        when(paymentProvider.accept(eq(PaymentMethod.CREDIT_CARD), any())).thenReturn(true);
+        doReturn(Map.of("stripe_p_key", "pk")).when(paymentProvider).getModelOptions(any());
+        paymentManager = new PaymentManager(mock(TransactionRepository.class), configurationManager, mock(AuditingRepository.class),
+            mock(UserRepository.class), mock(ExtensionManager.class), List.of(paymentProvider));
+    }
+
+    @Test
+    void resolveActivePaymentMethods() {
+        var result = paymentManager.getActivePaymentMethods(event, List.of(1, 2));
+        assertEquals(1, result.size());
+        assertEquals(PaymentMethod.CREDIT_CARD, result.get(0).getPaymentMethod());
+        assertEquals(PaymentProxy.STRIPE, result.get(0).getPaymentProxy());
+        assertEquals(Map.of("stripe_p_key", "pk"), result.get(0).getOptions());
+    }
+
+    @Test
+    void doNotResolveTwiceForTheSameCategories() {
+        int requests = 100;
+        for (int i = 0; i < requests; i++) {
+            paymentManager.getActivePaymentMethods(event, i % 2 == 0 ? List.of(1, 2) : List.of(2, 1));
+        }
+        // before caching, each request would have performed these calls
+        verify(configurationManager, times(1)).getBlacklistedMethodsForReservation(any(), anyCollection());
+        verify(configurationManager, times(1)).getFor(eq(ConfigurationKeys.PAYMENT_METHODS_BLACKLIST), any());
+        verify(paymentProvider, times(2)).accept(eq(PaymentMethod.CREDIT_CARD), any());
+        verify(paymentProvider, times(1)).getModelOptions(any());
+    }
+
+    @Test
+    void resolveAgainAfterConfigurationChange() {
+        paymentManager.getActivePaymentMethods(event, List.of(1));
+        when(configurationManager.getConfigurationVersion()).thenReturn(1L);
+        when(configurationManager.getBlacklistedMethodsForReservation(any(), anyCollection())).thenReturn(List.of(PaymentMethod.CREDIT_CARD));
+        assertTrue(paymentManager.getActivePaymentMethods(event, List.of(1)).isEmpty());
+        verify(configurationManager, times(2)).getBlacklistedMethodsForReservation(any(), anyCollection());
+    }
+
+    @Test
+    void differentCategoriesAreResolvedSeparately() {
+        paymentManager.getActivePaymentMethods(event, List.of(1));
+        paymentManager.getActivePaymentMethods(event, List.of(2));
+        verify(configurationManager, times(2)).getBlacklistedMethodsForReservation(any(), anyCollection());
+    }
+
+    @Test
+    void freeOfChargeEvents() {
+        when(event.isFreeOfCharge()).thenReturn(true);
+        assertTrue(paymentManager.getActivePaymentMethods(event, List.of(1)).isEmpty());
+        verifyNoInteractions(paymentProvider);
+    }
+}
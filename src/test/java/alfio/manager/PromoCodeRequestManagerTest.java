@@ -0,0 +1,103 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.manager;
+
+import alfio.model.Event;
+import alfio.model.PromoCodeDiscount;
+import alfio.repository.PromoCodeDiscountRepository;
+import alfio.repository.PromoCodeUsageRepository;
+import alfio.repository.SpecialPriceRepository;
+import alfio.repository.TicketCategoryRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.time.ZoneId;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@DisplayName("PromoCodeRequestManager: code resolution and usage")
+class PromoCodeRequestManagerTest {
+
+    private static final int EVENT_ID = 1;
+    private static final int PROMO_CODE_ID = 2;
+    private static final String CODE = "MYPROMOCODE";
+
+    private PromoCodeDiscountRepository promoCodeRepository;
+    private PromoCodeUsageRepository promoCodeUsageRepository;
+    private PromoCodeResolutionCache promoCodeResolutionCache;
+    private PromoCodeRequestManager promoCodeRequestManager;
+    private PromoCodeDiscount discount;
+    private Event event;
+
+    @BeforeEach
+    void init() {
+        promoCodeRepository = mock(PromoCodeDiscountRepository.class);
+        promoCodeUsageRepository = mock(PromoCodeUsageRepository.class);
+        var specialPriceRepository = mock(SpecialPriceRepository.class);
+        when(specialPriceRepository.getByCode(anyString())).thenReturn(Optional.empty());
+        promoCodeResolutionCache = new PromoCodeResolutionCache(promoCodeRepository, mock(TicketCategoryRepository.class));
+        promoCodeRequestManager = new PromoCodeRequestManager(specialPriceRepository, promoCodeRepository, null, null, null,
+            promoCodeResolutionCache, promoCodeUsageRepository, mock(PlatformTransactionManager.class));
+        discount = mock(PromoCodeDiscount.class);
+        when(discount.getId()).thenReturn(PROMO_CODE_ID);
+        when(discount.getMaxUsage()).thenReturn(10);
+        when(discount.isCurrentlyValid(any(), any())).thenReturn(true);
+        when(promoCodeRepository.findPromoCodeInEventOrOrganization(EVENT_ID, CODE)).thenReturn(Optional.of(discount));
+        event = mock(Event.class);
+        when(event.getId()).thenReturn(EVENT_ID);
+        when(event.getZoneId()).thenReturn(ZoneId.systemDefault());
+    }
+
+    @Test
+    void usageIsReadFromCounter() {
+        when(promoCodeUsageRepository.findUsedCount(PROMO_CODE_ID)).thenReturn(Optional.of(3));
+        assertEquals(3, promoCodeRequestManager.countUsage(discount));
+        verify(promoCodeUsageRepository, never()).reconcileWithReservations(anyInt());
+        verify(promoCodeRepository, never()).countConfirmedPromoCode(anyInt(), any(), any(), any());
+    }
+
+    @Test
+    void missingCounterIsCreated() {
+        when(promoCodeUsageRepository.findUsedCount(PROMO_CODE_ID)).thenReturn(Optional.empty(), Optional.of(4));
+        assertEquals(4, promoCodeRequestManager.countUsage(discount));
+        verify(promoCodeUsageRepository).reconcileWithReservations(PROMO_CODE_ID);
+    }
+
+    @Test
+    void exceededCodeIsRejected() {
+        when(promoCodeUsageRepository.findUsedCount(PROMO_CODE_ID)).thenReturn(Optional.of(10));
+        assertFalse(promoCodeRequestManager.checkCode(event, CODE).isSuccess());
+        when(promoCodeUsageRepository.findUsedCount(PROMO_CODE_ID)).thenReturn(Optional.of(9));
+        assertTrue(promoCodeRequestManager.checkCode(event, CODE).isSuccess());
+    }
+
+    @Test
+    void resolutionIsCachedUntilInvalidated() {
+        when(promoCodeUsageRepository.findUsedCount(PROMO_CODE_ID)).thenReturn(Optional.of(0));
+        promoCodeRequestManager.checkCode(event, CODE);
+        promoCodeRequestManager.checkCode(event, " " + CODE + " ");
+        verify(promoCodeRepository, times(1)).findPromoCodeInEventOrOrganization(EVENT_ID, CODE);
+        promoCodeResolutionCache.invalidateAll();
+        promoCodeRequestManager.checkCode(event, CODE);
+        verify(promoCodeRepository, times(2)).findPromoCodeInEventOrOrganization(EVENT_ID, CODE);
+    }
+}
@@ -0,0 +1,166 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.manager;
+
+import alfio.TestConfiguration;
+import alfio.config.DataSourceConfiguration;
+import alfio.config.Initializer;
+import alfio.manager.ReservationAdmissionManager.Admission;
+import alfio.manager.system.ConfigurationManager;
+import alfio.manager.user.UserManager;
+import alfio.model.Event;
+import alfio.model.modification.DateTimeModification;
+import alfio.model.modification.TicketCategoryModification;
+import alfio.model.system.ConfigurationKeys;
+import alfio.repository.EventRepository;
+import alfio.repository.system.ConfigurationRepository;
+import alfio.repository.user.OrganizationRepository;
+import alfio.test.util.IntegrationTestUtil;
+import alfio.util.BaseIntegrationTest;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static alfio.test.util.IntegrationTestUtil.AVAILABLE_SEATS;
+import static alfio.test.util.IntegrationTestUtil.initEvent;
+import static org.junit.Assert.*;
+
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(classes = {DataSourceConfiguration.class, TestConfiguration.class})
+@ActiveProfiles({Initializer.PROFILE_DEV, Initializer.PROFILE_DISABLE_JOBS, Initializer.PROFILE_INTEGRATION_TEST})
+@Transactional
+public class ReservationAdmissionManagerIntegrationTest extends BaseIntegrationTest {
+
+    private static final Map<String, String> DESCRIPTION = Collections.singletonMap("en", "desc");
+
+    @Autowired
+    private EventManager eventManager;
+    @Autowired
+    private OrganizationRepository organizationRepository;
+    @Autowired
+    private UserManager userManager;
+    @Autowired
+    private EventRepository eventRepository;
+    @Autowired
+    private ConfigurationRepository configurationRepository;
+    @Autowired
+    private ConfigurationManager configurationManager;
+    @Autowired
+    private ReservationAdmissionManager reservationAdmissionManager;
+
+    private Event event;
+
+    @Before
+    public void setUp() {
+        IntegrationTestUtil.ensureMinimalConfiguration(configurationRepository);
+        List<TicketCategoryModification> categories = Collections.singletonList(
+            new TicketCategoryModification(null, "default", AVAILABLE_SEATS,
+                new DateTimeModification(LocalDate.now(), LocalTime.now()),
+                new DateTimeModification(LocalDate.now(), LocalTime.now()),
+                DESCRIPTION, BigDecimal.TEN, false, "", false, null,
+                null, null, null, null, 0, null, null));
+        event = initEvent(categories, organizationRepository, userManager, eventManager, eventRepository).getKey();
+    }
+
+    @Test
+    public void admissionIsNotRequiredIfConcurrencyIsNotDefined() {
+        Admission admission = reservationAdmissionManager.admit(event, null);
+        assertTrue(admission.isAdmitted());
+        assertNull(admission.getToken());
+    }
+
+    @Test
+    public void requestsAreQueuedAndAdmittedInOrder() {
+        configurationManager.saveSystemConfiguration(ConfigurationKeys.RESERVATION_ADMISSION_CONCURRENCY, "2");
+        Admission first = reservationAdmissionManager.admit(event, null);
+        Admission second = reservationAdmissionManager.admit(event, null);
+        Admission third = reservationAdmissionManager.admit(event, null);
+        Admission fourth = reservationAdmissionManager.admit(event, null);
+
+        assertTrue(first.isAdmitted());
+        assertTrue(second.isAdmitted());
+        assertFalse(third.isAdmitted());
+        assertEquals(1, third.getPosition());
+        assertFalse(fourth.isAdmitted());
+        assertEquals(2, fourth.getPosition());
+
+        reservationAdmissionManager.release(event, first);
+
+        Admission fourthStatus = reservationAdmissionManager.checkStatus(event, fourth.getToken()).orElseThrow();
+        assertFalse(fourthStatus.isAdmitted());
+        assertEquals(1, fourthStatus.getPosition());
+
+        Admission thirdRetry = reservationAdmissionManager.admit(event, third.getToken());
+        assertTrue(thirdRetry.isAdmitted());
+        assertEquals(third.getId(), thirdRetry.getId());
+
+        reservationAdmissionManager.release(event, second);
+        assertTrue(reservationAdmissionManager.checkStatus(event, fourth.getToken()).orElseThrow().isAdmitted());
+    }
+
+    @Test
+    public void admittedTokenCanBeUsedOnlyOnce() {
+        configurationManager.saveSystemConfiguration(ConfigurationKeys.RESERVATION_ADMISSION_CONCURRENCY, "1");
+        Admission first = reservationAdmissionManager.admit(event, null);
+        Admission queued = reservationAdmissionManager.admit(event, null);
+        assertTrue(first.isAdmitted());
+        assertFalse(queued.isAdmitted());
+
+        reservationAdmissionManager.release(event, first);
+        assertTrue(reservationAdmissionManager.checkStatus(event, queued.getToken()).orElseThrow().isAdmitted());
+
+        Admission retry = reservationAdmissionManager.admit(event, queued.getToken());
+        assertTrue(retry.isAdmitted());
+        assertEquals(queued.getId(), retry.getId());
+        assertTrue(reservationAdmissionManager.checkStatus(event, queued.getToken()).isEmpty());
+
+        // the slot is still in use, so the replayed token is queued as a new request
+        Admission replay = reservationAdmissionManager.admit(event, queued.getToken());
+        assertFalse(replay.isAdmitted());
+        assertNotEquals(queued.getId(), replay.getId());
+        assertEquals(1, replay.getPosition());
+    }
+
+    @Test
+    public void tamperedTokensAreIgnored() {
+        configurationManager.saveSystemConfiguration(ConfigurationKeys.RESERVATION_ADMISSION_CONCURRENCY, "1");
+        reservationAdmissionManager.admit(event, null);
+        Admission queued = reservationAdmissionManager.admit(event, null);
+        assertFalse(queued.isAdmitted());
+
+        String token = queued.getToken();
+        String tampered = token.substring(0, token.lastIndexOf('.') + 1) + "invalid";
+        assertTrue(reservationAdmissionManager.checkStatus(event, tampered).isEmpty());
+        assertTrue(reservationAdmissionManager.checkStatus(event, "not-a-token").isEmpty());
+
+        Admission retry = reservationAdmissionManager.admit(event, tampered);
+        assertFalse(retry.isAdmitted());
+        assertEquals(2, retry.getPosition());
+    }
+}
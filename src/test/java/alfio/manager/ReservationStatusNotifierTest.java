@@ -0,0 +1,106 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.manager;
+
+import alfio.model.TicketReservation.TicketReservationStatus;
+import alfio.model.TicketReservationIdStatusAndValidation;
+import alfio.model.TicketReservationStatusAndValidation;
+import alfio.repository.TicketReservationRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.Mockito.*;
+
+class ReservationStatusNotifierTest {
+
+    private static final String RESERVATION_ID = "reservation";
+
+    private TicketReservationRepository ticketReservationRepository;
+    private ReservationStatusNotifier notifier;
+    private List<Optional<TicketReservationStatusAndValidation>> received;
+
+    @BeforeEach
+    void init() {
+        ticketReservationRepository = mock(TicketReservationRepository.class);
+        notifier = new ReservationStatusNotifier(ticketReservationRepository);
+        received = new ArrayList<>();
+        when(ticketReservationRepository.findOptionalStatusAndValidationById(RESERVATION_ID))
+            .thenReturn(Optional.of(new TicketReservationStatusAndValidation(TicketReservationStatus.PENDING, false)));
+    }
+
+    @Test
+    void sendCurrentStatusOnSubscribe() {
+        notifier.subscribe(RESERVATION_ID, received::add);
+        assertEquals(1, received.size());
+        assertEquals(TicketReservationStatus.PENDING, received.get(0).orElseThrow().getStatus());
+        assertEquals(1, notifier.countSubscriptions());
+    }
+
+    @Test
+    void notifyOnlyChanges() {
+        notifier.subscribe(RESERVATION_ID, received::add);
+        returnStatus(TicketReservationStatus.PENDING);
+        notifier.checkSubscribedReservations();
+        assertEquals(1, received.size());
+
+        returnStatus(TicketReservationStatus.EXTERNAL_PROCESSING_PAYMENT);
+        notifier.checkSubscribedReservations();
+        notifier.checkSubscribedReservations();
+        assertEquals(2, received.size());
+        assertEquals(TicketReservationStatus.EXTERNAL_PROCESSING_PAYMENT, received.get(1).orElseThrow().getStatus());
+
+        // reservation has been deleted
+        when(ticketReservationRepository.findStatusAndValidationByIds(anyCollection())).thenReturn(List.of());
+        notifier.checkSubscribedReservations();
+        assertEquals(3, received.size());
+        assertTrue(received.get(2).isEmpty());
+    }
+
+    @Test
+    void unsubscribe() {
+        var unsubscribe = notifier.subscribe(RESERVATION_ID, received::add);
+        unsubscribe.run();
+        assertEquals(0, notifier.countSubscriptions());
+        notifier.checkSubscribedReservations();
+        notifier.fireStatusChanged(RESERVATION_ID);
+        verify(ticketReservationRepository, never()).findStatusAndValidationByIds(anyCollection());
+    }
+
+    @Test
+    void failingListenerDoesNotAffectOthers() {
+        notifier.subscribe(RESERVATION_ID, status -> {
+            if(status.map(s -> s.getStatus() == TicketReservationStatus.COMPLETE).orElse(false)) {
+                throw new IllegalStateException("client has gone away");
+            }
+        });
+        notifier.subscribe(RESERVATION_ID, received::add);
+        returnStatus(TicketReservationStatus.COMPLETE);
+        notifier.checkSubscribedReservations();
+        assertEquals(2, received.size());
+    }
+
+    private void returnStatus(TicketReservationStatus status) {
+        when(ticketReservationRepository.findStatusAndValidationByIds(anyCollection()))
+            .thenReturn(List.of(new TicketReservationIdStatusAndValidation(RESERVATION_ID, status, false)));
+    }
+}
@@ -0,0 +1,147 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.manager;
+
+import alfio.manager.system.ConfigurationManager;
+import alfio.model.*;
+import alfio.repository.*;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static alfio.model.system.ConfigurationKeys.ALLOW_FREE_TICKETS_CANCELLATION;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class ReservationViewLoaderTest {
+
+    private static final String RESERVATION_ID = "reservation";
+    private static final int EVENT_ID = 1;
+
+    private TicketReservationRepository ticketReservationRepository;
+    private TicketRepository ticketRepository;
+    private TicketCategoryRepository ticketCategoryRepository;
+    private TicketFieldRepository ticketFieldRepository;
+    private AdditionalServiceItemRepository additionalServiceItemRepository;
+    private ConfigurationManager configurationManager;
+    private PaymentManager paymentManager;
+    private GroupManager groupManager;
+    private ReservationViewLoader loader;
+    private Event event;
+
+    @BeforeEach
+    void init() {
+        ticketReservationRepository = mock(TicketReservationRepository.class);
+        ticketRepository = mock(TicketRepository.class);
+        ticketCategoryRepository = mock(TicketCategoryRepository.class);
+        ticketFieldRepository = mock(TicketFieldRepository.class);
+        additionalServiceItemRepository = mock(AdditionalServiceItemRepository.class);
+        configurationManager = mock(ConfigurationManager.class);
+        paymentManager = mock(PaymentManager.class);
+        groupManager = mock(GroupManager.class);
+        loader = new ReservationViewLoader(ticketReservationRepository, ticketRepository, ticketCategoryRepository,
+            ticketFieldRepository, additionalServiceItemRepository, configurationManager, paymentManager, groupManager);
+
+        event = mock(Event.class);
+        when(event.getId()).thenReturn(EVENT_ID);
+        when(event.getShortName()).thenReturn("event");
+        var reservation = mock(TicketReservation.class);
+        when(reservation.getId()).thenReturn(RESERVATION_ID);
+        when(ticketReservationRepository.findOptionalReservationById(RESERVATION_ID)).thenReturn(Optional.of(reservation));
+        when(paymentManager.getPaymentToken(RESERVATION_ID)).thenReturn(Optional.empty());
+        when(ticketCategoryRepository.countUnboundedCategoriesByEventId(EVENT_ID)).thenReturn(0);
+    }
+
+    @Test
+    void queryCountDoesNotDependOnTickets() {
+        var single = load(1, 1);
+        assertEquals(1, single.getTickets().size());
+        long singleTicketQueries = countInvocations();
+
+        clearInvocations(ticketReservationRepository, ticketRepository, ticketCategoryRepository, ticketFieldRepository,
+            additionalServiceItemRepository, configurationManager, paymentManager, groupManager);
+
+        var many = load(200, 10);
+        assertEquals(200, many.getTickets().size());
+        assertEquals(10, many.getCategoriesById().size());
+        assertEquals(singleTicketQueries, countInvocations());
+    }
+
+    @Test
+    void cancellationEnabledOnlyForFreeTicketsOfUnrestrictedCategories() {
+        var view = load(4, 2);
+        // category 0 is restricted, and there are no unbounded categories
+        var tickets = view.getTickets();
+        assertFalse(view.isCancellationEnabled(tickets.get(0)));
+        assertTrue(view.isCancellationEnabled(tickets.get(1)));
+        assertFalse(view.isCancellationEnabled(tickets.get(2)));
+        assertTrue(view.isCancellationEnabled(tickets.get(3)));
+        verify(ticketCategoryRepository).countUnboundedCategoriesByEventId(EVENT_ID);
+    }
+
+    @Test
+    void cancellationDisabledIfReservationHasPaidSupplements() {
+        when(additionalServiceItemRepository.hasPaidSupplements(RESERVATION_ID)).thenReturn(true);
+        var view = load(4, 2);
+        assertTrue(view.getTickets().stream().noneMatch(view::isCancellationEnabled));
+        verify(configurationManager, never()).getBooleanForCategories(any(), anyCollection(), any(), anyBoolean());
+    }
+
+    private ReservationViewLoader.ReservationView load(int ticketsCount, int categoriesCount) {
+        var categories = IntStream.range(0, categoriesCount).mapToObj(this::category).collect(Collectors.toList());
+        var tickets = IntStream.range(0, ticketsCount).mapToObj(i -> ticket(i, i % categoriesCount)).collect(Collectors.toList());
+        when(ticketRepository.findTicketsInReservation(RESERVATION_ID)).thenReturn(tickets);
+        when(ticketCategoryRepository.findByIds(anyCollection())).thenReturn(categories);
+        Map<Integer, Boolean> freeCancellation = IntStream.range(0, categoriesCount).boxed().collect(Collectors.toMap(Function.identity(), id -> true));
+        when(configurationManager.getBooleanForCategories(eq(event), anyCollection(), eq(ALLOW_FREE_TICKETS_CANCELLATION), eq(false)))
+            .thenReturn(freeCancellation);
+        return loader.load(event, RESERVATION_ID).orElseThrow();
+    }
+
+    private long countInvocations() {
+        return Stream.of(ticketReservationRepository, ticketRepository, ticketCategoryRepository, ticketFieldRepository,
+            additionalServiceItemRepository, configurationManager, paymentManager, groupManager)
+            .mapToLong(m -> mockingDetails(m).getInvocations().size())
+            .sum();
+    }
+
+    private TicketCategory category(int id) {
+        var category = mock(TicketCategory.class);
+        when(category.getId()).thenReturn(id);
+        when(category.getEventId()).thenReturn(EVENT_ID);
+        when(category.isAccessRestricted()).thenReturn(id == 0);
+        return category;
+    }
+
+    private Ticket ticket(int id, int categoryId) {
+        var ticket = mock(Ticket.class);
+        when(ticket.getId()).thenReturn(id);
+        when(ticket.getUuid()).thenReturn("ticket-" + id);
+        when(ticket.getCategoryId()).thenReturn(categoryId);
+        when(ticket.getStatus()).thenReturn(Ticket.TicketStatus.ACQUIRED);
+        when(ticket.getFinalPriceCts()).thenReturn(0);
+        return ticket;
+    }
+}
@@ -0,0 +1,113 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.manager;
+
+import alfio.manager.system.ConfigurationManager;
+import alfio.model.EventAndOrganizationId;
+import alfio.model.SpecialPrice;
+import alfio.model.TicketCategory;
+import alfio.model.system.ConfigurationKeys;
+import alfio.repository.EventRepository;
+import alfio.repository.SpecialPriceRepository;
+import alfio.repository.TicketCategoryRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@SuppressWarnings("unchecked")
+class SpecialPriceTokenGeneratorTest {
+
+    private static final int CATEGORY_ID = 1;
+    private SpecialPriceRepository specialPriceRepository;
+    private TicketCategoryRepository ticketCategoryRepository;
+    private EventRepository eventRepository;
+    private SpecialPriceTokenGenerator generator;
+
+    @BeforeEach
+    void init() {
+        specialPriceRepository = mock(SpecialPriceRepository.class);
+        ticketCategoryRepository = mock(TicketCategoryRepository.class);
+        eventRepository = mock(EventRepository.class);
+        ConfigurationManager configurationManager = mock(ConfigurationManager.class);
+        PlatformTransactionManager transactionManager = mock(PlatformTransactionManager.class);
+        when(transactionManager.getTransaction(any())).thenReturn(mock(TransactionStatus.class));
+        TicketCategory ticketCategory = mock(TicketCategory.class);
+        when(ticketCategory.getId()).thenReturn(CATEGORY_ID);
+        when(ticketCategory.getEventId()).thenReturn(2);
+        when(ticketCategoryRepository.getByIdAndActive(CATEGORY_ID)).thenReturn(Optional.of(ticketCategory));
+        when(eventRepository.findEventAndOrganizationIdById(2)).thenReturn(new EventAndOrganizationId(2, 3));
+        var configuration = mock(ConfigurationManager.MaybeConfiguration.class);
+        when(configuration.getValueAsIntOrDefault(6)).thenReturn(6);
+        when(configurationManager.getFor(eq(ConfigurationKeys.SPECIAL_PRICE_CODE_LENGTH), any())).thenReturn(configuration);
+        generator = new SpecialPriceTokenGenerator(configurationManager, specialPriceRepository, ticketCategoryRepository, eventRepository, transactionManager);
+    }
+
+    @Test
+    void generateCodesInBatch() {
+        when(specialPriceRepository.findWaitingElementsForCategory(CATEGORY_ID)).thenReturn(waitingElements(100));
+        generator.generatePendingCodesForCategory(CATEGORY_ID);
+        ArgumentCaptor<Map<Integer, String>> captor = ArgumentCaptor.forClass(Map.class);
+        verify(specialPriceRepository).bulkUpdateCodes(captor.capture());
+        Map<Integer, String> codes = captor.getValue();
+        assertEquals(100, codes.size());
+        assertEquals(100, codes.values().stream().distinct().count());
+        assertTrue(codes.values().stream().allMatch(c -> c.length() == 6));
+        verify(ticketCategoryRepository, times(1)).getByIdAndActive(CATEGORY_ID);
+        verify(specialPriceRepository, never()).findExistingCodes(any());
+    }
+
+    @Test
+    void replaceOnlyDuplicateCodes() {
+        when(specialPriceRepository.findWaitingElementsForCategory(CATEGORY_ID)).thenReturn(waitingElements(10));
+        List<Map<Integer, String>> attempts = new ArrayList<>();
+        when(specialPriceRepository.bulkUpdateCodes(any())).thenAnswer(invocation -> {
+            attempts.add(new HashMap<>(invocation.getArgument(0)));
+            if(attempts.size() == 1) {
+                throw new DuplicateKeyException("duplicate");
+            }
+            return 10;
+        });
+        when(specialPriceRepository.findExistingCodes(any())).thenAnswer(invocation -> List.of(attempts.get(0).get(1)));
+        generator.generatePendingCodesForCategory(CATEGORY_ID);
+        assertEquals(2, attempts.size());
+        var first = attempts.get(0);
+        var second = attempts.get(1);
+        assertNotEquals(first.get(1), second.get(1));
+        assertEquals(9, IntStream.rangeClosed(2, 10).filter(id -> first.get(id).equals(second.get(id))).count());
+    }
+
+    private static List<SpecialPrice.SpecialPriceTicketCategoryId> waitingElements(int count) {
+        return IntStream.rangeClosed(1, count)
+            .mapToObj(id -> new SpecialPrice.SpecialPriceTicketCategoryId(id, CATEGORY_ID))
+            .collect(Collectors.toList());
+    }
+}
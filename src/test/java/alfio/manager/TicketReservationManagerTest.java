@@ -47,6 +47,7 @@ import alfio.util.Json;
 import alfio.util.TemplateManager;
 import alfio.util.WorkingDaysAdjusters;
 import ch.digitalfondue.npjt.AffectedRowCountAndKey;
+import org.apache.commons.lang3.time.DateUtils;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.context.MessageSource;
@@ -71,7 +72,6 @@ import static alfio.model.Audit.EventType.PAYMENT_CONFIRMED;
 import static alfio.model.TicketReservation.TicketReservationStatus.*;
 import static alfio.model.system.ConfigurationKeys.*;
 import static java.util.Arrays.asList;
-import static java.util.Collections.singleton;
 import static java.util.Collections.singletonList;
 import static org.junit.Assert.*;
 import static org.junit.jupiter.api.Assertions.assertThrows;
@@ -154,12 +154,13 @@ class TicketReservationManagerTest {
         specialPriceRepository = mock(SpecialPriceRepository.class);
         transactionRepository = mock(TransactionRepository.class);
         TemplateManager templateManager = mock(TemplateManager.class);
+        when(templateManager.compileTemplate(any(), any(), any())).thenReturn(model -> "text");
         PlatformTransactionManager transactionManager = mock(PlatformTransactionManager.class);
         waitingQueueManager = mock(WaitingQueueManager.class);
         AdditionalServiceRepository additionalServiceRepository = mock(AdditionalServiceRepository.class);
         AdditionalServiceTextRepository additionalServiceTextRepository = mock(AdditionalServiceTextRepository.class);
         AdditionalServiceItemRepository additionalServiceItemRepository = mock(AdditionalServiceItemRepository.class);
-        InvoiceSequencesRepository invoiceSequencesRepository = mock(InvoiceSequencesRepository.class);
+        InvoiceNumberManager invoiceNumberManager = mock(InvoiceNumberManager.class);
         auditingRepository = mock(AuditingRepository.class);
         event = mock(Event.class);
         specialPrice = mock(SpecialPrice.class);
@@ -219,7 +220,7 @@ class TicketReservationManagerTest {
             additionalServiceRepository,
             additionalServiceItemRepository,
             additionalServiceTextRepository,
-            invoiceSequencesRepository,
+            invoiceNumberManager,
             auditingRepository,
             userRepository,
             extensionManager,
@@ -227,7 +228,7 @@ class TicketReservationManagerTest {
             groupManager,
             billingDocumentRepository,
             jdbcTemplate,
-            json, promoCodeDiscountRepository);
+            json, promoCodeDiscountRepository, mock(ReservationStatusNotifier.class));
 
         when(event.getId()).thenReturn(EVENT_ID);
         when(event.getOrganizationId()).thenReturn(ORGANIZATION_ID);
@@ -394,9 +395,10 @@ class TicketReservationManagerTest {
         when(eventRepository.findByReservationId("abcd")).thenReturn(event);
 
         when(eventRepository.findAll()).thenReturn(singletonList(event));
-        when(ticketRepository.findAllReservationsConfirmedButNotAssignedForUpdate(anyInt())).thenReturn(singleton("abcd"));
+        when(ticketReservationRepository.findConfirmedButNotAssignedForUpdate(anyInt(), any(), eq(""), anyInt())).thenReturn(singletonList(reservation));
         trm.sendReminderForTicketAssignment();
-        verify(notificationManager, times(1)).sendSimpleEmail(eq(event), eq("abcd"), eq("ciccio"), anyString(), any(TextTemplateGenerator.class));
+        verify(ticketReservationRepository).updateLatestReminderTimestamp(eq(List.of("abcd")), any());
+        verify(notificationManager, times(1)).sendSimpleEmails(eq(event), argThat(messages -> isReminder(messages, "abcd", "ciccio", null)));
     }
 
     @Test
@@ -412,9 +414,10 @@ class TicketReservationManagerTest {
         when(event.getZoneId()).thenReturn(ZoneId.systemDefault());
         when(event.getBegin()).thenReturn(ZonedDateTime.now().minusDays(1));
         when(eventRepository.findAll()).thenReturn(singletonList(event));
-        when(ticketRepository.findAllReservationsConfirmedButNotAssignedForUpdate(anyInt())).thenReturn(singleton("abcd"));
+        when(ticketReservationRepository.findConfirmedButNotAssignedForUpdate(anyInt(), any(), eq(""), anyInt())).thenReturn(singletonList(reservation));
         trm.sendReminderForTicketAssignment();
-        verify(notificationManager, never()).sendSimpleEmail(eq(event), anyString(), anyString(), anyString(), any(TextTemplateGenerator.class));
+        verify(ticketReservationRepository, never()).findConfirmedButNotAssignedForUpdate(anyInt(), any(), any(), anyInt());
+        verify(notificationManager, never()).sendSimpleEmails(eq(event), argThat(messages -> !messages.isEmpty()));
     }
 
     @Test
@@ -434,10 +437,10 @@ class TicketReservationManagerTest {
         when(event.getZoneId()).thenReturn(ZoneId.of("GMT-4"));
         when(event.getBegin()).thenReturn(ZonedDateTime.now(ZoneId.of("GMT-4")).plusDays(1));
         when(eventRepository.findAll()).thenReturn(singletonList(event));
-        when(ticketRepository.findAllReservationsConfirmedButNotAssignedForUpdate(anyInt())).thenReturn(singleton("abcd"));
+        when(ticketReservationRepository.findConfirmedButNotAssignedForUpdate(anyInt(), any(), eq(""), anyInt())).thenReturn(singletonList(reservation));
         when(reservation.getEmail()).thenReturn("ciccio");
         trm.sendReminderForTicketAssignment();
-        verify(notificationManager, times(1)).sendSimpleEmail(eq(event), eq("abcd"), anyString(), anyString(), any(TextTemplateGenerator.class));
+        verify(notificationManager, times(1)).sendSimpleEmails(eq(event), argThat(messages -> isReminder(messages, "abcd", null, null)));
     }
 
     @Test
@@ -453,9 +456,10 @@ class TicketReservationManagerTest {
         when(event.getZoneId()).thenReturn(ZoneId.of("UTC-8"));
         when(event.getBegin()).thenReturn(ZonedDateTime.now(ZoneId.of("UTC-8")));//same day
         when(eventRepository.findAll()).thenReturn(singletonList(event));
-        when(ticketRepository.findAllReservationsConfirmedButNotAssignedForUpdate(anyInt())).thenReturn(singleton("abcd"));
+        when(ticketReservationRepository.findConfirmedButNotAssignedForUpdate(anyInt(), any(), eq(""), anyInt())).thenReturn(singletonList(reservation));
         trm.sendReminderForTicketAssignment();
-        verify(notificationManager, never()).sendSimpleEmail(eq(event), anyString(), anyString(), anyString(), any(TextTemplateGenerator.class));
+        verify(ticketReservationRepository, never()).findConfirmedButNotAssignedForUpdate(anyInt(), any(), any(), anyInt());
+        verify(notificationManager, never()).sendSimpleEmails(eq(event), argThat(messages -> !messages.isEmpty()));
     }
 
     @Test
@@ -471,10 +475,32 @@ class TicketReservationManagerTest {
         when(event.getZoneId()).thenReturn(ZoneId.of("UTC-8"));
         when(event.getBegin()).thenReturn(ZonedDateTime.now(ZoneId.of("UTC-8")).plusMonths(3).plusDays(1));
         when(eventRepository.findAll()).thenReturn(singletonList(event));
-        when(ticketRepository.findAllReservationsConfirmedButNotAssignedForUpdate(anyInt())).thenReturn(singleton("abcd"));
         List<Event> events = trm.getNotifiableEventsStream().collect(Collectors.toList());
         assertEquals(0, events.size());
-        verify(notificationManager, never()).sendSimpleEmail(eq(event), anyString(), anyString(), anyString(), any(TextTemplateGenerator.class));
+        verify(notificationManager, never()).sendSimpleEmails(eq(event), argThat(messages -> !messages.isEmpty()));
+    }
+
+    @Test
+    void sendReminderForOfflinePaymentsFlagsReservationsInBatch() {
+        TicketReservation expiring = mock(TicketReservation.class);
+        when(expiring.getId()).thenReturn("abcd");
+        when(expiring.getUserLanguage()).thenReturn("en");
+        when(expiring.getEmail()).thenReturn("ciccio");
+        when(expiring.getValidity()).thenReturn(new Date());
+        TicketReservation notYetExpiring = mock(TicketReservation.class);
+        when(notYetExpiring.getId()).thenReturn("efgh");
+        when(notYetExpiring.getValidity()).thenReturn(DateUtils.addDays(new Date(), 10));
+        when(configurationManager.getForSystem(OFFLINE_REMINDER_HOURS)).thenReturn(new ConfigurationManager.MaybeConfiguration(OFFLINE_REMINDER_HOURS));
+        when(configurationManager.getFor(eq(OFFLINE_REMINDER_HOURS), any())).thenReturn(new ConfigurationManager.MaybeConfiguration(OFFLINE_REMINDER_HOURS));
+        when(configurationManager.getFor(eq(BANKING_KEY), any())).thenReturn(BANKING_INFO);
+        when(ticketReservationRepository.findOfflinePaymentReservationForNotificationForUpdate(any(), eq(""), anyInt())).thenReturn(List.of(expiring, notYetExpiring));
+        when(ticketReservationRepository.getReservationIdAndEventId(any())).thenReturn(List.of(new ReservationIdAndEventId("abcd", EVENT_ID), new ReservationIdAndEventId("efgh", EVENT_ID)));
+        when(ticketReservationRepository.findReservationById("abcd")).thenReturn(expiring);
+        when(eventRepository.findByIds(any())).thenReturn(List.of(event));
+        when(eventRepository.findByReservationId("abcd")).thenReturn(event);
+        trm.sendReminderForOfflinePayments();
+        verify(ticketReservationRepository).flagAsOfflinePaymentReminderSent(eq(List.of("abcd")));
+        verify(notificationManager, times(1)).sendSimpleEmails(eq(event), argThat(messages -> isReminder(messages, "abcd", "ciccio", null)));
     }
 
     private void initOfflinePaymentTest() {
@@ -1107,22 +1133,21 @@ class TicketReservationManagerTest {
         when(ticket.getId()).thenReturn(ticketId);
         when(ticket.getUuid()).thenReturn("uuid");
         when(ticket.getEmail()).thenReturn("ciccio");
-        when(ticketRepository.findAllAssignedButNotYetNotifiedForUpdate(EVENT_ID)).thenReturn(singletonList(ticket));
+        when(ticketRepository.findAssignedWithoutOptionalDataForUpdate(eq(EVENT_ID), any(), eq(0), anyInt())).thenReturn(singletonList(ticket));
         when(ticketReservationRepository.findOptionalReservationById(eq(RESERVATION_ID))).thenReturn(Optional.of(ticketReservation));
 
         when(eventRepository.findByReservationId(RESERVATION_ID)).thenReturn(event);
         when(event.getZoneId()).thenReturn(ZoneId.systemDefault());
         when(event.getBegin()).thenReturn(ZonedDateTime.now().plusDays(1));
         when(eventRepository.findAll()).thenReturn(singletonList(event));
-        when(ticketRepository.findAllReservationsConfirmedButNotAssignedForUpdate(anyInt())).thenReturn(singleton(RESERVATION_ID));
-        when(ticketRepository.flagTicketAsReminderSent(ticketId)).thenReturn(1);
+        when(ticketRepository.flagTicketsAsReminderSent(List.of(ticketId))).thenReturn(1);
         when(ticketRepository.findByUUID(anyString())).thenReturn(ticket);
         when(messageSource.getMessage(eq("reminder.ticket-additional-info.subject"), any(), any())).thenReturn("subject");
         when(configurationManager.getFor(eq(OPTIONAL_DATA_REMINDER_ENABLED), any())).thenReturn(
             new ConfigurationManager.MaybeConfiguration(OPTIONAL_DATA_REMINDER_ENABLED)
         );
         trm.sendReminderForOptionalData();
-        verify(notificationManager, times(1)).sendSimpleEmail(eq(event), eq(RESERVATION_ID), eq("ciccio"), eq("subject"), any(TextTemplateGenerator.class));
+        verify(notificationManager, times(1)).sendSimpleEmails(eq(event), argThat(messages -> isReminder(messages, RESERVATION_ID, "ciccio", "subject")));
     }
 
     @Test
@@ -1134,22 +1159,26 @@ class TicketReservationManagerTest {
         when(configurationManager.getFor(eq(OPTIONAL_DATA_REMINDER_ENABLED), any())).thenReturn(
             new ConfigurationManager.MaybeConfiguration(OPTIONAL_DATA_REMINDER_ENABLED)
         );
-        when(ticketReservation.latestNotificationTimestamp(any())).thenReturn(Optional.of(ZonedDateTime.now().minusDays(10)));
+        ZonedDateTime latestReminder = ZonedDateTime.now().minusDays(10);
         String RESERVATION_ID = "abcd";
         when(ticketReservation.getId()).thenReturn(RESERVATION_ID);
         when(ticket.getTicketsReservationId()).thenReturn(RESERVATION_ID);
         int ticketId = 2;
         when(ticket.getId()).thenReturn(ticketId);
-        when(ticketRepository.findAllAssignedButNotYetNotifiedForUpdate(EVENT_ID)).thenReturn(singletonList(ticket));
+        // the query returns only the tickets whose reservation has not been notified after the given threshold
+        when(ticketRepository.findAssignedWithoutOptionalDataForUpdate(eq(EVENT_ID), any(), eq(0), anyInt())).thenAnswer(invocation -> {
+            ZonedDateTime notifiedBefore = invocation.getArgument(1);
+            return latestReminder.isBefore(notifiedBefore) ? singletonList(ticket) : List.of();
+        });
         when(ticketReservationRepository.findReservationById(eq(RESERVATION_ID))).thenReturn(ticketReservation);
 
         when(eventRepository.findByReservationId(RESERVATION_ID)).thenReturn(event);
         when(event.getZoneId()).thenReturn(ZoneId.systemDefault());
         when(event.getBegin()).thenReturn(ZonedDateTime.now().plusDays(1));
         when(eventRepository.findAll()).thenReturn(singletonList(event));
-        when(ticketRepository.flagTicketAsReminderSent(ticketId)).thenReturn(1);
+        when(ticketRepository.flagTicketsAsReminderSent(List.of(ticketId))).thenReturn(1);
         trm.sendReminderForOptionalData();
-        verify(notificationManager, never()).sendSimpleEmail(eq(event), anyString(), anyString(), anyString(), any(TextTemplateGenerator.class));
+        verify(notificationManager, never()).sendSimpleEmails(eq(event), argThat(messages -> !messages.isEmpty()));
     }
 
     @Test
@@ -1167,16 +1196,16 @@ class TicketReservationManagerTest {
         when(ticket.getTicketsReservationId()).thenReturn(RESERVATION_ID);
         int ticketId = 2;
         when(ticket.getId()).thenReturn(ticketId);
-        when(ticketRepository.findAllAssignedButNotYetNotifiedForUpdate(EVENT_ID)).thenReturn(singletonList(ticket));
+        when(ticketRepository.findAssignedWithoutOptionalDataForUpdate(eq(EVENT_ID), any(), eq(0), anyInt())).thenReturn(singletonList(ticket));
         when(ticketReservationRepository.findReservationById(eq(RESERVATION_ID))).thenReturn(ticketReservation);
 
         when(eventRepository.findByReservationId(RESERVATION_ID)).thenReturn(event);
         when(event.getZoneId()).thenReturn(ZoneId.systemDefault());
         when(event.getBegin()).thenReturn(ZonedDateTime.now().plusDays(1));
         when(eventRepository.findAll()).thenReturn(singletonList(event));
-        when(ticketRepository.flagTicketAsReminderSent(ticketId)).thenReturn(0);
+        when(ticketRepository.flagTicketsAsReminderSent(List.of(ticketId))).thenReturn(0);
         trm.sendReminderForOptionalData();
-        verify(notificationManager, never()).sendSimpleEmail(eq(event), anyString(), anyString(), anyString(), any(TextTemplateGenerator.class));
+        verify(notificationManager, never()).sendSimpleEmails(eq(event), argThat(messages -> !messages.isEmpty()));
     }
 
     @Test
@@ -1268,4 +1297,14 @@ class TicketReservationManagerTest {
         when(paymentManager.getPaymentMethods(eq(event))).thenReturn(Arrays.stream(PaymentProxy.values()).map(pp -> new PaymentMethodDTO(pp, PaymentMethodStatus.ACTIVE)).collect(Collectors.toList()));
         assertTrue(trm.canProceedWithPayment(event, totalPrice, RESERVATION_ID));
     }
-}
\ No newline at end of file
+
+    private static boolean isReminder(List<NotificationManager.SimpleEmail> messages, String reservationId, String recipient, String subject) {
+        if(messages.size() != 1) {
+            return false;
+        }
+        var message = messages.get(0);
+        return reservationId.equals(message.getReservationId())
+            && (recipient == null || recipient.equals(message.getRecipient()))
+            && (subject == null || subject.equals(message.getSubject()));
+    }
+}
@@ -70,7 +70,7 @@ public class TicketReservationManagerUnitTest {
     private AdditionalServiceRepository additionalServiceRepository;
     private AdditionalServiceItemRepository additionalServiceItemRepository;
     private AdditionalServiceTextRepository additionalServiceTextRepository;
-    private InvoiceSequencesRepository invoiceSequencesRepository;
+    private InvoiceNumberManager invoiceNumberManager;
     private AuditingRepository auditingRepository;
     private UserRepository userRepository;
     private ExtensionManager extensionManager;
@@ -106,7 +106,7 @@ public class TicketReservationManagerUnitTest {
         additionalServiceRepository = mock(AdditionalServiceRepository.class);
         additionalServiceItemRepository = mock(AdditionalServiceItemRepository.class);
         additionalServiceTextRepository = mock(AdditionalServiceTextRepository.class);
-        invoiceSequencesRepository = mock(InvoiceSequencesRepository.class);
+        invoiceNumberManager = mock(InvoiceNumberManager.class);
         auditingRepository = mock(AuditingRepository.class);
         userRepository = mock(UserRepository.class);
         extensionManager = mock(ExtensionManager.class);
@@ -137,7 +137,7 @@ public class TicketReservationManagerUnitTest {
             additionalServiceRepository,
             additionalServiceItemRepository,
             additionalServiceTextRepository,
-            invoiceSequencesRepository,
+            invoiceNumberManager,
             auditingRepository,
             userRepository,
             extensionManager,
@@ -145,7 +145,7 @@ public class TicketReservationManagerUnitTest {
             groupManager,
             billingDocumentRepository,
             mock(NamedParameterJdbcTemplate.class),
-            json, promoCodeDiscountRepository);
+            json, promoCodeDiscountRepository, mock(ReservationStatusNotifier.class));
 
     }
 
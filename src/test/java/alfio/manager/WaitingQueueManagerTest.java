@@ -42,6 +42,7 @@ import java.time.ZonedDateTime;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.Set;
 import java.util.stream.Stream;
 
 import static alfio.model.system.ConfigurationKeys.ENABLE_PRE_REGISTRATION;
@@ -119,6 +120,15 @@ public class WaitingQueueManagerTest {
         verify(waitingQueueRepository).bulkUpdateExpiredReservations(eq(reservationIds));
     }
 
+    @Test
+    @DisplayName("collect released seats signals")
+    void collectReleasedSeatsSignals() {
+        manager.fireSeatsReleased(eventId);
+        manager.fireSeatsReleased(eventId);
+        assertEquals(Set.of(eventId), manager.drainEventsWithReleasedSeats());
+        assertEquals(Set.of(), manager.drainEventsWithReleasedSeats());
+    }
+
     @Test
     @DisplayName("revert tickets to free if there isn't any subscriber")
     void revertTicketsIfNoSubscribers() {
@@ -24,6 +24,7 @@ import alfio.model.Event;
 import alfio.model.WaitingQueueSubscription;
 import alfio.model.modification.TicketReservationWithOptionalCodeModification;
 import alfio.model.system.ConfigurationKeyValuePathLevel;
+import alfio.repository.EventRepository;
 import alfio.repository.TicketRepository;
 import alfio.repository.WaitingQueueRepository;
 import alfio.util.TemplateManager;
@@ -60,6 +61,7 @@ public class WaitingQueueSubscriptionProcessorTest {
     private WaitingQueueSubscriptionProcessor processor;
     private TicketRepository ticketRepository;
     private MessageSourceManager messageSourceManager;
+    private EventRepository eventRepository;
 
 
     @BeforeEach
@@ -78,6 +80,7 @@ public class WaitingQueueSubscriptionProcessorTest {
         subscription = mock(WaitingQueueSubscription.class);
         reservation = mock(TicketReservationWithOptionalCodeModification.class);
         ticketRepository = mock(TicketRepository.class);
+        eventRepository = mock(EventRepository.class);
         int eventId = 1;
         when(event.getId()).thenReturn(eventId);
         when(event.getZoneId()).thenReturn(ZoneId.systemDefault());
@@ -93,7 +96,8 @@ public class WaitingQueueSubscriptionProcessorTest {
             messageSourceManager,
             templateManager,
             ticketRepository,
-            transactionManager);
+            transactionManager,
+            eventRepository);
     }
 
     @Test
@@ -128,4 +132,39 @@ public class WaitingQueueSubscriptionProcessorTest {
         verify(ticketReservationManager).createTicketReservation(eq(event), eq(Collections.singletonList(reservation)), anyList(), eq(Date.from(expiration.toInstant())), eq(Optional.empty()), eq(Locale.ENGLISH), eq(true));
         verify(notificationManager).sendSimpleEmail(eq(event), eq(reservationId), eq("me"), eq("subject"), any(TextTemplateGenerator.class));
     }
-}
\ No newline at end of file
+
+    @Test
+    void processOnlyEventsWithReleasedSeats() {
+        when(configurationManager.getFor(eq(Set.of(ENABLE_WAITING_QUEUE, ENABLE_PRE_REGISTRATION)), any()))
+            .thenReturn(Map.of(
+                ENABLE_WAITING_QUEUE, new ConfigurationManager.MaybeConfiguration(ENABLE_WAITING_QUEUE, new ConfigurationKeyValuePathLevel( "", "true", null)),
+                ENABLE_PRE_REGISTRATION, new ConfigurationManager.MaybeConfiguration(ENABLE_PRE_REGISTRATION)
+            ));
+        when(waitingQueueManager.drainEventsWithReleasedSeats()).thenReturn(Set.of(1)).thenReturn(Set.of());
+        when(eventRepository.findByIds(eq(Set.of(1)))).thenReturn(List.of(event));
+        when(waitingQueueManager.distributeSeats(eq(event))).thenReturn(Stream.empty());
+
+        processor.handleReleasedSeats();
+        processor.handleReleasedSeats();
+
+        verify(eventRepository).findByIds(eq(Set.of(1)));
+        verify(waitingQueueManager).distributeSeats(eq(event));
+        verify(eventManager, never()).getActiveEvents();
+    }
+
+    @Test
+    void resetReleasedSeatsOfEventsWithoutWaitingList() {
+        when(configurationManager.getFor(eq(Set.of(ENABLE_WAITING_QUEUE, ENABLE_PRE_REGISTRATION)), any()))
+            .thenReturn(Map.of(
+                ENABLE_WAITING_QUEUE, new ConfigurationManager.MaybeConfiguration(ENABLE_WAITING_QUEUE, new ConfigurationKeyValuePathLevel( "", "false", null)),
+                ENABLE_PRE_REGISTRATION, new ConfigurationManager.MaybeConfiguration(ENABLE_PRE_REGISTRATION)
+            ));
+        when(waitingQueueManager.drainEventsWithReleasedSeats()).thenReturn(Set.of(1));
+        when(eventRepository.findByIds(eq(Set.of(1)))).thenReturn(List.of(event));
+
+        processor.handleReleasedSeats();
+
+        verify(eventManager).resetReleasedTickets(eq(event));
+        verify(waitingQueueManager, never()).distributeSeats(any());
+    }
+}
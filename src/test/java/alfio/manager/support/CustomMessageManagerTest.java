@@ -0,0 +1,174 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.manager.support;
+
+import alfio.manager.EventManager;
+import alfio.manager.NotificationManager;
+import alfio.manager.system.ConfigurationManager;
+import alfio.manager.system.ConfigurationManager.MaybeConfiguration;
+import alfio.model.*;
+import alfio.model.modification.MessageModification;
+import alfio.model.system.ConfigurationKeys;
+import alfio.model.user.Organization;
+import alfio.repository.*;
+import alfio.repository.user.OrganizationRepository;
+import alfio.util.TemplateManager;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.time.ZonedDateTime;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static alfio.model.system.ConfigurationKeys.*;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class CustomMessageManagerTest {
+
+    private static final int EVENT_ID = 1;
+    private static final long CAMPAIGN_ID = 42L;
+
+    private TemplateManager templateManager;
+    private TicketRepository ticketRepository;
+    private CustomMessageCampaignRepository campaignRepository;
+    private NotificationManager notificationManager;
+    private CustomMessageManager customMessageManager;
+
+    @BeforeEach
+    void init() {
+        templateManager = mock(TemplateManager.class);
+        ticketRepository = mock(TicketRepository.class);
+        campaignRepository = mock(CustomMessageCampaignRepository.class);
+        notificationManager = mock(NotificationManager.class);
+        var eventRepository = mock(EventRepository.class);
+        var organizationRepository = mock(OrganizationRepository.class);
+        var ticketReservationRepository = mock(TicketReservationRepository.class);
+        var configurationManager = mock(ConfigurationManager.class);
+
+        var event = mock(Event.class);
+        when(event.getId()).thenReturn(EVENT_ID);
+        when(event.getOrganizationId()).thenReturn(2);
+        when(event.getShortName()).thenReturn("event");
+        when(eventRepository.findById(EVENT_ID)).thenReturn(event);
+        when(organizationRepository.getById(2)).thenReturn(mock(Organization.class));
+
+        var reservation = mock(TicketReservation.class);
+        when(reservation.getId()).thenReturn("reservation");
+        when(ticketReservationRepository.findByIds(anyCollection())).thenReturn(List.of(reservation));
+
+        var baseUrl = mock(MaybeConfiguration.class);
+        when(baseUrl.getRequiredValue()).thenReturn("https://example.org");
+        when(configurationManager.getFor(anySet(), any())).thenReturn(Map.of(BASE_URL, baseUrl,
+            USE_INVOICE_NUMBER_AS_ID, new MaybeConfiguration(USE_INVOICE_NUMBER_AS_ID),
+            PARTIAL_RESERVATION_ID_LENGTH, new MaybeConfiguration(PARTIAL_RESERVATION_ID_LENGTH)));
+
+        Function<Map<String, Object>, String> template = model -> "Hello " + model.get("fullName");
+        when(templateManager.compileString(any(), anyString(), any(), any())).thenReturn(template);
+
+        customMessageManager = new CustomMessageManager(templateManager, mock(EventManager.class), eventRepository, organizationRepository,
+            ticketRepository, ticketReservationRepository, mock(TicketCategoryRepository.class), campaignRepository,
+            notificationManager, configurationManager, mock(PlatformTransactionManager.class));
+        when(campaignRepository.findPendingIds()).thenReturn(List.of(CAMPAIGN_ID));
+    }
+
+    @Test
+    void processCampaignInOneChunk() {
+        when(campaignRepository.lockPendingById(CAMPAIGN_ID)).thenReturn(Optional.of(campaign(0)));
+        var tickets = tickets(1, 3);
+        when(ticketRepository.findAssignedAfterId(EVENT_ID, null, 0, CustomMessageManager.CHUNK_SIZE)).thenReturn(tickets);
+
+        customMessageManager.processPendingCampaigns();
+
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<List<NotificationManager.SimpleEmail>> captor = ArgumentCaptor.forClass(List.class);
+        verify(notificationManager).sendSimpleEmails(any(), captor.capture());
+        var messages = captor.getValue();
+        assertEquals(3, messages.size());
+        assertEquals("Hello Attendee 1", messages.get(0).getSubject());
+        assertEquals("attendee1@example.org", messages.get(0).getRecipient());
+        // templates are compiled once per language, not once per recipient
+        verify(templateManager, times(2)).compileString(any(), anyString(), any(), any());
+        verify(templateManager, never()).renderString(any(), anyString(), any(), any(), any());
+        verify(campaignRepository).updateProgress(eq(CAMPAIGN_ID), eq(3), eq(3), any());
+        verify(campaignRepository).markAsCompleted(eq(CAMPAIGN_ID), any());
+    }
+
+    @Test
+    void resumeFromLastProcessedTicket() {
+        when(campaignRepository.lockPendingById(CAMPAIGN_ID)).thenReturn(Optional.of(campaign(500)), Optional.of(campaign(1000)));
+        var tickets = tickets(501, CustomMessageManager.CHUNK_SIZE);
+        when(ticketRepository.findAssignedAfterId(EVENT_ID, null, 500, CustomMessageManager.CHUNK_SIZE)).thenReturn(tickets);
+        when(ticketRepository.findAssignedAfterId(EVENT_ID, null, 1000, CustomMessageManager.CHUNK_SIZE)).thenReturn(List.of());
+
+        customMessageManager.processPendingCampaigns();
+
+        verify(notificationManager, times(1)).sendSimpleEmails(any(), anyList());
+        verify(campaignRepository).updateProgress(eq(CAMPAIGN_ID), eq(1000), eq(CustomMessageManager.CHUNK_SIZE), any());
+        verify(campaignRepository).markAsCompleted(eq(CAMPAIGN_ID), any());
+    }
+
+    @Test
+    void skipCampaignLockedByAnotherNode() {
+        when(campaignRepository.lockPendingById(CAMPAIGN_ID)).thenReturn(Optional.empty());
+        customMessageManager.processPendingCampaigns();
+        verifyNoInteractions(ticketRepository, notificationManager);
+        verify(campaignRepository, never()).markAsCompleted(anyLong(), any());
+    }
+
+    @Test
+    void markAsFailedInCaseOfError() {
+        when(campaignRepository.lockPendingById(CAMPAIGN_ID)).thenReturn(Optional.of(campaign(0)));
+        var tickets = tickets(1, 3);
+        when(ticketRepository.findAssignedAfterId(EVENT_ID, null, 0, CustomMessageManager.CHUNK_SIZE)).thenReturn(tickets);
+        when(notificationManager.sendSimpleEmails(any(), anyList())).thenThrow(new IllegalStateException("boom"));
+
+        customMessageManager.processPendingCampaigns();
+
+        verify(campaignRepository).markAsFailed(eq(CAMPAIGN_ID), any(), eq("boom"));
+        verify(campaignRepository, never()).updateProgress(anyLong(), anyInt(), anyInt(), any());
+    }
+
+    private static CustomMessageCampaign campaign(int lastTicketId) {
+        var message = new MessageModification(Locale.ENGLISH, "subject", "text", null, null, false);
+        return new CustomMessageCampaign(CAMPAIGN_ID, EVENT_ID, 2, null, new MessageModification[] { message },
+            CustomMessageCampaign.Status.IN_PROGRESS, 1000, lastTicketId, lastTicketId, "admin", ZonedDateTime.now(), null, null, null);
+    }
+
+    private static List<Ticket> tickets(int firstId, int count) {
+        return IntStream.range(firstId, firstId + count)
+            .mapToObj(id -> {
+                var ticket = mock(Ticket.class);
+                when(ticket.getId()).thenReturn(id);
+                when(ticket.getUuid()).thenReturn("uuid-" + id);
+                when(ticket.getFullName()).thenReturn("Attendee " + id);
+                when(ticket.getEmail()).thenReturn("attendee" + id + "@example.org");
+                when(ticket.getTicketsReservationId()).thenReturn("reservation");
+                when(ticket.getUserLanguage()).thenReturn("en");
+                return ticket;
+            })
+            .collect(Collectors.toList());
+    }
+}
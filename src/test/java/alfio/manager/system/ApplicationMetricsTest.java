@@ -0,0 +1,61 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.manager.system;
+
+import alfio.repository.AdminReservationRequestRepository;
+import alfio.repository.EmailMessageRepository;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.prometheus.PrometheusConfig;
+import io.micrometer.prometheus.PrometheusMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class ApplicationMetricsTest {
+
+    private PrometheusMeterRegistry registry;
+
+    @BeforeEach
+    void setUp() {
+        registry = new PrometheusMeterRegistry(PrometheusConfig.DEFAULT);
+        Metrics.addRegistry(registry);
+    }
+
+    @AfterEach
+    void tearDown() {
+        Metrics.removeRegistry(registry);
+    }
+
+    @Test
+    void exposeQueueGauges() {
+        var emailMessageRepository = mock(EmailMessageRepository.class);
+        var adminReservationRequestRepository = mock(AdminReservationRequestRepository.class);
+        when(emailMessageRepository.countWaiting()).thenReturn(42);
+        when(adminReservationRequestRepository.countPending()).thenReturn(3);
+
+        new ApplicationMetrics(emailMessageRepository, adminReservationRequestRepository);
+
+        assertEquals(42.0, registry.get("alfio.email.queue").gauge().value());
+        assertEquals(3.0, registry.get("alfio.admin_reservation_request.pending").gauge().value());
+        assertTrue(registry.scrape().contains("alfio_email_queue 42.0"));
+    }
+}
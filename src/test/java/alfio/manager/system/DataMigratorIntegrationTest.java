@@ -56,6 +56,7 @@ import java.time.LocalTime;
 import java.time.ZoneId;
 import java.time.ZonedDateTime;
 import java.util.*;
+import java.util.stream.Collectors;
 
 import static org.junit.Assert.*;
 
@@ -215,6 +216,35 @@ public class DataMigratorIntegrationTest extends BaseIntegrationTest {
         }
     }
 
+    @Test
+    public void testFindEventsWithStaleMigration() {
+        List<TicketCategoryModification> categories = Collections.singletonList(
+                new TicketCategoryModification(null, "default", AVAILABLE_SEATS,
+                        new DateTimeModification(LocalDate.now(), LocalTime.now()),
+                        new DateTimeModification(LocalDate.now(), LocalTime.now()),
+                        DESCRIPTION, BigDecimal.TEN, false, "", false, null, null, null, null, null, 0, null, null));
+        Pair<Event, String> migrated = initEvent(categories);
+        Pair<Event, String> stale = initEvent(categories);
+        Pair<Event, String> neverMigrated = initEvent(categories);
+
+        try {
+            ZonedDateTime buildTs = ZonedDateTime.parse(buildTimestamp);
+            eventMigrationRepository.insertMigrationData(migrated.getKey().getId(), currentVersion, buildTs, EventMigration.Status.COMPLETE.toString());
+            eventMigrationRepository.insertMigrationData(stale.getKey().getId(), "1.4", buildTs.minusDays(1), EventMigration.Status.COMPLETE.toString());
+            Set<Integer> ids = eventRepository.findAllWithStaleMigration(currentVersion, buildTs).stream().map(Event::getId).collect(Collectors.toSet());
+            assertFalse(ids.contains(migrated.getKey().getId()));
+            assertTrue(ids.contains(stale.getKey().getId()));
+            assertTrue(ids.contains(neverMigrated.getKey().getId()));
+
+            dataMigrator.migrateEventsToCurrentVersion();
+            assertTrue(eventRepository.findAllWithStaleMigration(currentVersion, buildTs).isEmpty());
+        } finally {
+            eventManager.deleteEvent(migrated.getKey().getId(), migrated.getValue());
+            eventManager.deleteEvent(stale.getKey().getId(), stale.getValue());
+            eventManager.deleteEvent(neverMigrated.getKey().getId(), neverMigrated.getValue());
+        }
+    }
+
     @Test
     public void testUpdateDisplayName() {
         List<TicketCategoryModification> categories = Collections.singletonList(
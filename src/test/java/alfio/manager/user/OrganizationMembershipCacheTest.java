@@ -0,0 +1,86 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.manager.user;
+
+import alfio.model.user.Role;
+import alfio.repository.user.AuthorityRepository;
+import alfio.repository.user.OrganizationRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class OrganizationMembershipCacheTest {
+
+    private static final String USERNAME = "username";
+
+    private OrganizationRepository organizationRepository;
+    private OrganizationMembershipCache cache;
+
+    @BeforeEach
+    void init() {
+        organizationRepository = mock(OrganizationRepository.class);
+        AuthorityRepository authorityRepository = mock(AuthorityRepository.class);
+        when(organizationRepository.findAllOrganizationIdForUser(USERNAME)).thenReturn(List.of(1, 2));
+        when(authorityRepository.findRoles(USERNAME)).thenReturn(List.of(Role.OWNER.getRoleName()));
+        cache = new OrganizationMembershipCache(organizationRepository, authorityRepository);
+    }
+
+    @AfterEach
+    void tearDown() {
+        RequestContextHolder.resetRequestAttributes();
+    }
+
+    @Test
+    void loadMembershipOnlyOnce() {
+        RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(new MockHttpServletRequest()));
+        for(int i = 0; i < 100; i++) {
+            assertTrue(cache.isMemberOf(USERNAME, 1));
+            assertFalse(cache.isMemberOf(USERNAME, 3));
+        }
+        assertFalse(cache.isMemberOf(USERNAME, null));
+        assertTrue(cache.getMembership(USERNAME).hasRole(Role.OWNER));
+        assertFalse(cache.getMembership(USERNAME).hasRole(Role.ADMIN));
+        verify(organizationRepository, times(1)).findAllOrganizationIdForUser(USERNAME);
+    }
+
+    @Test
+    void invalidate() {
+        assertTrue(cache.isMemberOf(USERNAME, 2));
+        when(organizationRepository.findAllOrganizationIdForUser(USERNAME)).thenReturn(List.of(1));
+        assertTrue(cache.isMemberOf(USERNAME, 2));
+        cache.invalidate(USERNAME);
+        assertFalse(cache.isMemberOf(USERNAME, 2));
+        verify(organizationRepository, times(2)).findAllOrganizationIdForUser(USERNAME);
+    }
+
+    @Test
+    void invalidateAllRemovesRequestScopedMembership() {
+        RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(new MockHttpServletRequest()));
+        assertTrue(cache.isMemberOf(USERNAME, 2));
+        when(organizationRepository.findAllOrganizationIdForUser(USERNAME)).thenReturn(List.of(1));
+        cache.invalidateAll();
+        assertFalse(cache.isMemberOf(USERNAME, 2));
+    }
+}
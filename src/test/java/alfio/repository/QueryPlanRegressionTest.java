@@ -0,0 +1,272 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.repository;
+
+import alfio.config.DataSourceConfiguration;
+import alfio.test.util.IntegrationTestUtil;
+import ch.digitalfondue.npjt.Bind;
+import ch.digitalfondue.npjt.Query;
+import ch.digitalfondue.npjt.QueryRepository;
+import ch.digitalfondue.npjt.QueryType;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.opentable.db.postgres.embedded.EmbeddedPostgres;
+import lombok.extern.log4j.Log4j2;
+import org.apache.commons.lang3.StringUtils;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.AnnotatedBeanDefinition;
+import org.springframework.context.annotation.ClassPathScanningCandidateComponentProvider;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.core.type.filter.AnnotationTypeFilter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.lang.reflect.*;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Runs {@code EXPLAIN (FORMAT JSON)} on every statement declared in a {@link QueryRepository} interface against a
+ * database seeded with a realistic data set (see {@code queryplan/seed.sql}) and fails if a statement reads one of
+ * the big tables with a sequential scan, or if its estimated cost is higher than {@link #COST_BUDGET}.
+ * <p>
+ * By default it starts an embedded PostgreSQL. With {@code -Dspring.profiles.active=travis} it uses a dedicated
+ * database on the PGSQL-TRAVIS server instead.
+ * <p>
+ * This is excluded from the regular test run, use {@code ./gradlew queryPlanTest} to execute it.
+ */
+@Log4j2
+public class QueryPlanRegressionTest {
+
+    private static final String DATABASE_NAME = "alfio_query_plan";
+    /**
+     * the most expensive legitimate statements are the ones reading the statistics views for a couple of events,
+     * which are estimated at ~110k with the seeded data set.
+     */
+    private static final double COST_BUDGET = 150_000;
+
+    /**
+     * tables which are expected to grow with the number of reservations.
+     */
+    private static final Set<String> LARGE_TABLES = Set.of("ticket", "tickets_reservation", "email_message", "auditing", "b_transaction",
+        "billing_document", "promo_code", "special_price", "ticket_field_value", "scan_audit", "waiting_queue", "additional_service_item");
+
+    /**
+     * statements which are expected to read a whole table (exports, statistics, batch jobs...), with the reason why.
+     */
+    private static final Map<String, String> ALLOWED = Map.ofEntries(
+        Map.entry("EventDeleterRepository.deleteAdditionalServiceItems", "event deletion is a one-off administrative operation"),
+        Map.entry("EventDeleterRepository.deleteSpecialPrice", "event deletion is a one-off administrative operation"),
+        Map.entry("EventDeleterRepository.deleteTransactions", "event deletion is a one-off administrative operation"),
+        Map.entry("EventDeleterRepository.deleteBillingDocuments", "event deletion is a one-off administrative operation"),
+        Map.entry("TicketRepository.findAllConfirmedForCSV", "export of all the confirmed tickets of an event, hash joined with special_price"),
+        Map.entry("TicketReservationRepository.getSoldStatistic", "reads all the reservations of an event, a hash join is cheaper than an index lookup for each ticket"),
+        Map.entry("TicketReservationRepository.getReservedStatistic", "reads all the reservations of an event, a hash join is cheaper than an index lookup for each ticket"),
+        Map.entry("TicketSearchRepository.findReservationsForEvent", "admin full-text search, matches also the promo code of each reservation"),
+        Map.entry("TicketSearchRepository.countReservationsForEvent", "admin full-text search, matches also the promo code of each reservation")
+    );
+
+    static final String RESERVATION_ID = "00000000-0000-4000-8000-000000000003";
+    static final String TICKET_UUID = "10000000-0000-4000-8000-000000000003";
+
+    private static EmbeddedPostgres postgres;
+    private static NamedParameterJdbcTemplate jdbc;
+
+    @BeforeAll
+    static void setUp() throws IOException {
+        DataSource dataSource;
+        var profiles = System.getProperty("spring.profiles.active", "");
+        if(profiles.contains("travis")) {
+            var conf = IntegrationTestUtil.DB_CONF.get("PGSQL-TRAVIS");
+            var url = conf.get("datasource.url");
+            var template = new JdbcTemplate(new DriverManagerDataSource(url, conf.get("datasource.username"), conf.get("datasource.password")));
+            template.execute("drop database if exists " + DATABASE_NAME);
+            template.execute("create database " + DATABASE_NAME);
+            dataSource = new DriverManagerDataSource(StringUtils.substringBeforeLast(url, "/") + "/" + DATABASE_NAME, conf.get("datasource.username"), conf.get("datasource.password"));
+        } else {
+            Path pgsqlPath = Paths.get(".", "alfio-itest");
+            Files.createDirectories(pgsqlPath);
+            postgres = EmbeddedPostgres.builder().setDataDirectory(Files.createTempDirectory(pgsqlPath, "alfio-query-plan")).start();
+            dataSource = postgres.getPostgresDatabase();
+        }
+        new DataSourceConfiguration().migrator(dataSource);
+        long start = System.currentTimeMillis();
+        new ResourceDatabasePopulator(new ClassPathResource("queryplan/seed.sql")).execute(dataSource);
+        log.info("seeded query plan database in {} ms", System.currentTimeMillis() - start);
+        jdbc = new NamedParameterJdbcTemplate(dataSource);
+    }
+
+    @AfterAll
+    static void tearDown() throws IOException {
+        if(postgres != null) {
+            postgres.close();
+        }
+    }
+
+    @Test
+    void queriesOnLargeTablesUseIndexes() {
+        var violations = new ArrayList<String>();
+        int checked = 0;
+        for (var repository : findRepositories()) {
+            for (var method : repository.getDeclaredMethods()) {
+                var query = method.getAnnotation(Query.class);
+                if(query == null || query.type() == QueryType.TEMPLATE) {
+                    continue;
+                }
+                String key = repository.getSimpleName() + "." + method.getName();
+                checked++;
+                var result = explain(key, query.value(), method);
+                if(result.isPresent() && !ALLOWED.containsKey(key)) {
+                    violations.add(result.get());
+                }
+            }
+        }
+        log.info("checked {} statements, {} violations", checked, violations.size());
+        assertTrue(violations.isEmpty(), "query plan regressions:\n" + String.join("\n", violations));
+    }
+
+    private static Optional<String> explain(String key, String sql, Method method) {
+        try {
+            var plan = new ObjectMapper().readTree(jdbc.queryForObject("explain (format json) " + sql, parametersFor(method), String.class))
+                .get(0).get("Plan");
+            var seqScans = new TreeSet<String>();
+            collectSequentialScans(plan, seqScans);
+            double cost = plan.get("Total Cost").asDouble();
+            if(!seqScans.isEmpty() || cost > COST_BUDGET) {
+                return Optional.of(String.format("%s: cost %.0f, sequential scan on %s", key, cost, seqScans));
+            }
+            return Optional.empty();
+        } catch (Exception e) {
+            return Optional.of(key + ": cannot explain statement: " + e.getMessage());
+        }
+    }
+
+    private static void collectSequentialScans(JsonNode node, Set<String> result) {
+        if("Seq Scan".equals(node.path("Node Type").asText()) && LARGE_TABLES.contains(node.path("Relation Name").asText())) {
+            result.add(node.path("Relation Name").asText());
+        }
+        node.path("Plans").forEach(child -> collectSequentialScans(child, result));
+    }
+
+    private static List<Class<?>> findRepositories() {
+        var provider = new ClassPathScanningCandidateComponentProvider(false) {
+            @Override
+            protected boolean isCandidateComponent(AnnotatedBeanDefinition beanDefinition) {
+                return beanDefinition.getMetadata().isInterface();
+            }
+        };
+        provider.addIncludeFilter(new AnnotationTypeFilter(QueryRepository.class));
+        return provider.findCandidateComponents("alfio").stream()
+            .map(bd -> {
+                try {
+                    return Class.forName(bd.getBeanClassName());
+                } catch (ClassNotFoundException e) {
+                    throw new IllegalStateException(e);
+                }
+            })
+            .sorted(Comparator.comparing(Class::getName))
+            .collect(Collectors.toList());
+    }
+
+    private static MapSqlParameterSource parametersFor(Method method) {
+        var source = new MapSqlParameterSource();
+        for (var parameter : method.getParameters()) {
+            var bind = parameter.getAnnotation(Bind.class);
+            if(bind != null) {
+                source.addValue(bind.value(), sampleValue(bind.value(), parameter.getParameterizedType()));
+            }
+        }
+        return source;
+    }
+
+    /**
+     * returns a representative value for the given parameter, pointing to the data of event 1 / organization 1
+     */
+    static Object sampleValue(String name, Type type) {
+        var lowerCaseName = name.toLowerCase(Locale.ROOT);
+        if(type instanceof ParameterizedType && Collection.class.isAssignableFrom((Class<?>) ((ParameterizedType) type).getRawType())) {
+            var elementType = ((ParameterizedType) type).getActualTypeArguments()[0];
+            var first = sampleValue(name, elementType);
+            return first instanceof Integer ? List.of(first, 2) : List.of(first);
+        }
+        var raw = type instanceof ParameterizedType ? (Class<?>) ((ParameterizedType) type).getRawType() : (Class<?>) type;
+        if(raw == int.class || raw == Integer.class || raw == long.class || raw == Long.class) {
+            Number value = lowerCaseName.contains("limit") || lowerCaseName.startsWith("max") ? 100
+                : lowerCaseName.contains("offset") ? 0 : 1;
+            return raw == long.class || raw == Long.class ? (Object) value.longValue() : (Object) value.intValue();
+        }
+        if(raw == boolean.class || raw == Boolean.class) {
+            return true;
+        }
+        if(raw == BigDecimal.class) {
+            return BigDecimal.ONE;
+        }
+        if(raw.isEnum()) {
+            return ((Enum<?>) raw.getEnumConstants()[0]).name();
+        }
+        if(raw == byte[].class) {
+            return new byte[0];
+        }
+        if(raw.getName().startsWith("java.time") || Date.class.isAssignableFrom(raw)) {
+            return Timestamp.from(Instant.now());
+        }
+        if(raw == String.class || raw == Object.class) {
+            if(lowerCaseName.contains("currency")) {
+                return "CHF";
+            }
+            if(lowerCaseName.contains("language") || lowerCaseName.contains("locale") || lowerCaseName.contains("country")) {
+                return "en";
+            }
+            if(lowerCaseName.equals("info") || lowerCaseName.contains("json") || lowerCaseName.contains("model")) {
+                return "{}";
+            }
+            if(lowerCaseName.contains("reservation")) {
+                return RESERVATION_ID;
+            }
+            if(lowerCaseName.contains("uuid") || lowerCaseName.contains("ticketidentifier")) {
+                return TICKET_UUID;
+            }
+            if(lowerCaseName.contains("promocode")) {
+                return "PROMO-000001";
+            }
+            if(lowerCaseName.contains("email")) {
+                return "buyer1@example.org";
+            }
+            if(lowerCaseName.contains("status")) {
+                return "COMPLETE";
+            }
+            return "event-1";
+        }
+        // json payloads, serialized by the application before reaching the database
+        return "{}";
+    }
+}
@@ -0,0 +1,267 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.repository;
+
+import alfio.TestConfiguration;
+import alfio.config.DataSourceConfiguration;
+import alfio.config.Initializer;
+import alfio.manager.EventManager;
+import alfio.manager.user.UserManager;
+import alfio.model.Event;
+import alfio.model.Ticket;
+import alfio.model.TicketCategory;
+import alfio.model.TicketReservation;
+import alfio.model.modification.DateTimeModification;
+import alfio.model.modification.TicketCategoryModification;
+import alfio.repository.system.ConfigurationRepository;
+import alfio.repository.user.OrganizationRepository;
+import alfio.test.util.IntegrationTestUtil;
+import alfio.util.BaseIntegrationTest;
+import org.apache.commons.lang3.time.DateUtils;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.ZonedDateTime;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import static alfio.test.util.IntegrationTestUtil.AVAILABLE_SEATS;
+import static alfio.test.util.IntegrationTestUtil.DESCRIPTION;
+import static java.util.stream.Collectors.toList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs the keyset-paginated "for update skip locked" queries used by the reminder jobs
+ * (see TicketReservationManager#sendReminderForOfflinePayments and the other reminders) against PostgreSQL:
+ * the candidates must be returned page by page in id order, and the rows locked by another transaction must be skipped.
+ * <p>
+ * Data must be committed in order to be visible to the locking transaction, so this test is not transactional.
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(classes = {DataSourceConfiguration.class, TestConfiguration.class})
+@ActiveProfiles({Initializer.PROFILE_DEV, Initializer.PROFILE_DISABLE_JOBS, Initializer.PROFILE_INTEGRATION_TEST})
+public class ReminderQueriesIntegrationTest extends BaseIntegrationTest {
+
+    private static final int PAGE_SIZE = 1;
+
+    @Autowired
+    private ConfigurationRepository configurationRepository;
+    @Autowired
+    private OrganizationRepository organizationRepository;
+    @Autowired
+    private UserManager userManager;
+    @Autowired
+    private EventManager eventManager;
+    @Autowired
+    private EventRepository eventRepository;
+    @Autowired
+    private TicketRepository ticketRepository;
+    @Autowired
+    private TicketReservationRepository ticketReservationRepository;
+    @Autowired
+    private TicketCategoryRepository ticketCategoryRepository;
+    @Autowired
+    private NamedParameterJdbcTemplate jdbcTemplate;
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private TransactionTemplate transactionTemplate;
+    private Event event;
+    private TicketCategory category;
+
+    @Before
+    public void setUp() {
+        transactionTemplate = new TransactionTemplate(transactionManager);
+        IntegrationTestUtil.ensureMinimalConfiguration(configurationRepository);
+        List<TicketCategoryModification> categories = Collections.singletonList(
+            new TicketCategoryModification(null, "default", AVAILABLE_SEATS,
+                new DateTimeModification(LocalDate.now(), LocalTime.now()),
+                new DateTimeModification(LocalDate.now(), LocalTime.now()),
+                DESCRIPTION, BigDecimal.TEN, false, "", false, null,
+                null, null, null, null, 0, null, null));
+        event = transactionTemplate.execute(status -> IntegrationTestUtil.initEvent(categories, organizationRepository, userManager, eventManager, eventRepository).getKey());
+        category = ticketCategoryRepository.findAllTicketCategories(event.getId()).get(0);
+    }
+
+    @Test
+    public void confirmedButNotAssigned() {
+        var notifiedBefore = ZonedDateTime.now().minusHours(1);
+        var first = createAcquiredReservation(false);
+        var recentlyNotified = createAcquiredReservation(false);
+        var assigned = createAcquiredReservation(true);
+        var second = createAcquiredReservation(false);
+        var third = createAcquiredReservation(false);
+        transactionTemplate.execute(status -> ticketReservationRepository.updateLatestReminderTimestamp(List.of(recentlyNotified), ZonedDateTime.now()));
+
+        Function<String, List<TicketReservation>> page = lastId -> ticketReservationRepository.findConfirmedButNotAssignedForUpdate(event.getId(), notifiedBefore, lastId, PAGE_SIZE);
+        var expected = sorted(first, second, third);
+        assertEquals(expected, readAllPages(page, TicketReservation::getId, ""));
+        assertFalse(expected.contains(assigned));
+
+        var lockedId = expected.get(1);
+        var unlocked = whileLocked("select id from tickets_reservation where id = :id for update", lockedId,
+            () -> readAllPages(page, TicketReservation::getId, ""));
+        assertEquals(List.of(expected.get(0), expected.get(2)), unlocked);
+    }
+
+    @Test
+    public void assignedWithoutOptionalData() {
+        var notifiedBefore = ZonedDateTime.now().minusHours(1);
+        createAcquiredReservation(false);
+        var first = createAcquiredReservation(true);
+        var second = createAcquiredReservation(true);
+        var third = createAcquiredReservation(true);
+        var firstTicket = ticketIds(first).get(0);
+        var secondTicket = ticketIds(second).get(0);
+        var thirdTicket = ticketIds(third).get(0);
+        var reminderSent = ticketIds(createAcquiredReservation(true)).get(0);
+        transactionTemplate.execute(status -> jdbcTemplate.update("update ticket set reminder_sent = true where id = :id", new MapSqlParameterSource("id", reminderSent)));
+
+        Function<Integer, List<Ticket>> page = lastId -> ticketRepository.findAssignedWithoutOptionalDataForUpdate(event.getId(), notifiedBefore, lastId, PAGE_SIZE);
+        assertEquals(List.of(firstTicket, secondTicket, thirdTicket), readAllPages(page, Ticket::getId, 0));
+
+        var unlocked = whileLocked("select id from ticket where id = :id for update", secondTicket,
+            () -> readAllPages(page, Ticket::getId, 0));
+        assertEquals(List.of(firstTicket, thirdTicket), unlocked);
+    }
+
+    @Test
+    public void offlinePaymentReservationsToNotify() {
+        var today = new Date();
+        var first = createOfflinePaymentReservation(today);
+        var notExpiring = createOfflinePaymentReservation(DateUtils.addDays(today, 10));
+        var second = createOfflinePaymentReservation(today);
+        var third = createOfflinePaymentReservation(DateUtils.addDays(today, -1));
+
+        // the query is not restricted to the event, so the reservations created by other tests are ignored
+        var created = Set.of(first, notExpiring, second, third);
+        Function<String, List<TicketReservation>> page = lastId -> ticketReservationRepository.findOfflinePaymentReservationForNotificationForUpdate(today, lastId, PAGE_SIZE);
+        Supplier<List<String>> candidates = () -> readAllPages(page, TicketReservation::getId, "").stream().filter(created::contains).collect(toList());
+        var expected = sorted(first, second, third);
+        assertEquals(expected, candidates.get());
+
+        var lockedId = expected.get(0);
+        var unlocked = whileLocked("select id from tickets_reservation where id = :id for update", lockedId, candidates);
+        assertEquals(expected.subList(1, 3), unlocked);
+    }
+
+    private String createAcquiredReservation(boolean assigned) {
+        return transactionTemplate.execute(status -> {
+            var reservationId = createReservation(DateUtils.addDays(new Date(), 1));
+            ticketRepository.updateTicketsStatusWithReservationId(reservationId, Ticket.TicketStatus.ACQUIRED.name());
+            ticketReservationRepository.updateReservationStatus(reservationId, TicketReservation.TicketReservationStatus.COMPLETE.name());
+            if(assigned) {
+                ticketIds(reservationId).forEach(id -> ticketRepository.updateTicketOwnerById(id, "test@example.org", "Full Name", "Full", "Name"));
+            }
+            return reservationId;
+        });
+    }
+
+    private String createOfflinePaymentReservation(Date validity) {
+        return transactionTemplate.execute(status -> {
+            var reservationId = createReservation(validity);
+            ticketRepository.updateTicketsStatusWithReservationId(reservationId, Ticket.TicketStatus.PENDING.name());
+            ticketReservationRepository.updateReservationStatus(reservationId, TicketReservation.TicketReservationStatus.OFFLINE_PAYMENT.name());
+            return reservationId;
+        });
+    }
+
+    private String createReservation(Date validity) {
+        var reservationId = UUID.randomUUID().toString();
+        ticketReservationRepository.createNewReservation(reservationId, ZonedDateTime.now(event.getZoneId()), validity, null,
+            "en", event.getId(), event.getVat(), event.isVatIncluded(), event.getCurrency());
+        var ticketIds = ticketRepository.selectNotAllocatedTicketsForUpdate(event.getId(), 1, List.of(TicketRepository.FREE));
+        ticketRepository.reserveTickets(reservationId, ticketIds, category.getId(), "en", category.getSrcPriceCts(), category.getCurrencyCode());
+        return reservationId;
+    }
+
+    private List<Integer> ticketIds(String reservationId) {
+        return ticketRepository.findTicketsInReservation(reservationId).stream().map(Ticket::getId).collect(toList());
+    }
+
+    /**
+     * Reads all the pages in a single transaction, as the reminder jobs do
+     */
+    private <T, K> List<K> readAllPages(Function<K, List<T>> page, Function<T, K> key, K first) {
+        return transactionTemplate.execute(status -> {
+            List<K> result = new ArrayList<>();
+            K lastId = first;
+            List<T> current;
+            do {
+                current = page.apply(lastId);
+                current.stream().map(key).forEach(result::add);
+                if(!current.isEmpty()) {
+                    lastId = key.apply(current.get(current.size() - 1));
+                }
+            } while(current.size() == PAGE_SIZE);
+            return result;
+        });
+    }
+
+    /**
+     * Locks a row in another transaction, which is kept open until the given query has been executed
+     */
+    private <R> R whileLocked(String lockQuery, Object id, Supplier<R> query) {
+        var locked = new CountDownLatch(1);
+        var release = new CountDownLatch(1);
+        var executor = Executors.newSingleThreadExecutor();
+        try {
+            var lock = executor.submit(() -> transactionTemplate.execute(status -> {
+                jdbcTemplate.queryForList(lockQuery, new MapSqlParameterSource("id", id));
+                locked.countDown();
+                try {
+                    return release.await(30, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }));
+            assertTrue("row not locked", locked.await(30, TimeUnit.SECONDS));
+            R result = query.get();
+            release.countDown();
+            assertTrue(lock.get(30, TimeUnit.SECONDS));
+            return result;
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        } finally {
+            release.countDown();
+            executor.shutdownNow();
+        }
+    }
+
+    private static List<String> sorted(String... ids) {
+        return Arrays.stream(ids).sorted().collect(toList());
+    }
+}
@@ -0,0 +1,140 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.repository.support;
+
+import alfio.TestConfiguration;
+import alfio.config.DataSourceConfiguration;
+import alfio.config.Initializer;
+import alfio.manager.EventManager;
+import alfio.manager.TicketReservationManager;
+import alfio.manager.user.UserManager;
+import alfio.model.Event;
+import alfio.model.TicketCategory;
+import alfio.model.TicketReservation;
+import alfio.model.modification.DateTimeModification;
+import alfio.model.modification.TicketCategoryModification;
+import alfio.model.modification.TicketReservationModification;
+import alfio.model.modification.TicketReservationWithOptionalCodeModification;
+import alfio.repository.EventRepository;
+import alfio.repository.TicketCategoryRepository;
+import alfio.repository.TicketReservationRepository;
+import alfio.repository.system.ConfigurationRepository;
+import alfio.repository.user.OrganizationRepository;
+import alfio.test.util.IntegrationTestUtil;
+import alfio.util.BaseIntegrationTest;
+import alfio.util.Json;
+import org.apache.commons.lang3.time.DateUtils;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.namedparam.EmptySqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.*;
+
+import static alfio.test.util.IntegrationTestUtil.AVAILABLE_SEATS;
+import static alfio.test.util.IntegrationTestUtil.initEvent;
+import static org.junit.Assert.*;
+
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(classes = {DataSourceConfiguration.class, TestConfiguration.class})
+@ActiveProfiles({Initializer.PROFILE_DEV, Initializer.PROFILE_DISABLE_JOBS, Initializer.PROFILE_INTEGRATION_TEST})
+@Transactional
+public class RepositoryIdentityMapIntegrationTest extends BaseIntegrationTest {
+
+    private static final Map<String, String> DESCRIPTION = Collections.singletonMap("en", "desc");
+
+    @Autowired
+    private EventManager eventManager;
+    @Autowired
+    private OrganizationRepository organizationRepository;
+    @Autowired
+    private UserManager userManager;
+    @Autowired
+    private EventRepository eventRepository;
+    @Autowired
+    private TicketCategoryRepository ticketCategoryRepository;
+    @Autowired
+    private TicketReservationRepository ticketReservationRepository;
+    @Autowired
+    private TicketReservationManager ticketReservationManager;
+    @Autowired
+    private ConfigurationRepository configurationRepository;
+    @Autowired
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    private Event event;
+    private String reservationId;
+
+    @Before
+    public void setUp() {
+        IntegrationTestUtil.ensureMinimalConfiguration(configurationRepository);
+        List<TicketCategoryModification> categories = Collections.singletonList(
+            new TicketCategoryModification(null, "default", AVAILABLE_SEATS,
+                new DateTimeModification(LocalDate.now(), LocalTime.now()),
+                new DateTimeModification(LocalDate.now(), LocalTime.now()),
+                DESCRIPTION, BigDecimal.TEN, false, "", false, null,
+                null, null, null, null, 0, null, null));
+        event = initEvent(categories, organizationRepository, userManager, eventManager, eventRepository).getKey();
+        TicketCategory category = ticketCategoryRepository.findAllTicketCategories(event.getId()).get(0);
+        TicketReservationModification tr = new TicketReservationModification();
+        tr.setAmount(2);
+        tr.setTicketCategoryId(category.getId());
+        var mod = new TicketReservationWithOptionalCodeModification(tr, Optional.empty());
+        reservationId = ticketReservationManager.createTicketReservation(event, Collections.singletonList(mod), Collections.emptyList(),
+            DateUtils.addDays(new Date(), 1), Optional.empty(), Locale.ENGLISH, false);
+    }
+
+    @Test
+    public void orderSummaryIsComputedWithLessStatements() {
+        long initial = countScans();
+        var withoutIdentityMap = RepositoryIdentityMap.bypass(() -> ticketReservationManager.orderSummaryForReservationId(reservationId, event));
+        long withoutIdentityMapScans = countScans() - initial;
+
+        initial = countScans();
+        var withIdentityMap = ticketReservationManager.orderSummaryForReservationId(reservationId, event);
+        long withIdentityMapScans = countScans() - initial;
+
+        assertEquals(Json.toJson(withoutIdentityMap), Json.toJson(withIdentityMap));
+        assertTrue("expected less than " + withoutIdentityMapScans + " scans, got " + withIdentityMapScans,
+            withIdentityMapScans < withoutIdentityMapScans);
+    }
+
+    @Test
+    public void entriesAreEvictedOnUpdate() {
+        TicketReservation reservation = ticketReservationRepository.findReservationById(reservationId);
+        assertSame(reservation, ticketReservationRepository.findReservationById(reservationId));
+        ticketReservationRepository.updateReservationStatus(reservationId, TicketReservation.TicketReservationStatus.CANCELLED.name());
+        var updated = ticketReservationRepository.findReservationById(reservationId);
+        assertNotSame(reservation, updated);
+        assertEquals(TicketReservation.TicketReservationStatus.CANCELLED, updated.getStatus());
+    }
+
+    private long countScans() {
+        // statistics of the current transaction for the tables covered by the identity map
+        return jdbcTemplate.queryForObject("select coalesce(sum(coalesce(seq_scan, 0) + coalesce(idx_scan, 0)), 0) from pg_stat_xact_user_tables" +
+            " where relname in ('event', 'ticket', 'tickets_reservation', 'ticket_category')", new EmptySqlParameterSource(), Long.class);
+    }
+}
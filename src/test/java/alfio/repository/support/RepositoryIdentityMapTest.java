@@ -0,0 +1,155 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.repository.support;
+
+import alfio.model.TicketReservation;
+import alfio.repository.TicketReservationRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.util.Date;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+@DisplayName("RepositoryIdentityMap: transaction scope")
+class RepositoryIdentityMapTest {
+
+    private static final String RESERVATION_ID = "reservation";
+
+    private TicketReservationRepository target;
+    private TicketReservationRepository repository;
+    private IdentityMapTransactionManager transactionManager;
+
+    @BeforeEach
+    void init() throws SQLException {
+        target = mock(TicketReservationRepository.class);
+        repository = (TicketReservationRepository) new RepositoryIdentityMap().postProcessAfterInitialization(target, "ticketReservationRepository");
+        var dataSource = mock(DataSource.class);
+        when(dataSource.getConnection()).then(invocation -> {
+            var connection = mock(Connection.class);
+            var metaData = mock(DatabaseMetaData.class);
+            when(connection.getAutoCommit()).thenReturn(true);
+            when(connection.getMetaData()).thenReturn(metaData);
+            when(metaData.supportsSavepoints()).thenReturn(true);
+            when(connection.setSavepoint(anyString())).then(i -> mock(Savepoint.class));
+            return connection;
+        });
+        transactionManager = new IdentityMapTransactionManager(dataSource);
+    }
+
+    @Test
+    void entriesAreReusedWithinTransaction() {
+        var reservation = mock(TicketReservation.class);
+        when(target.findReservationById(RESERVATION_ID)).thenReturn(reservation);
+        new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+            assertSame(reservation, repository.findReservationById(RESERVATION_ID));
+            when(target.findReservationById(RESERVATION_ID)).thenReturn(mock(TicketReservation.class));
+            assertSame(reservation, repository.findReservationById(RESERVATION_ID));
+        });
+    }
+
+    @Test
+    void entriesAreEvictedWhenTransactionIsResumed() {
+        var reservation = mock(TicketReservation.class);
+        var updated = mock(TicketReservation.class);
+        when(target.findReservationById(RESERVATION_ID)).thenReturn(reservation);
+        var requiresNew = new TransactionTemplate(transactionManager);
+        requiresNew.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+            assertSame(reservation, repository.findReservationById(RESERVATION_ID));
+            requiresNew.executeWithoutResult(inner -> {
+                repository.updateReservationStatus(RESERVATION_ID, TicketReservation.TicketReservationStatus.IN_PAYMENT.name());
+                when(target.findReservationById(RESERVATION_ID)).thenReturn(updated);
+            });
+            // the modification committed by the inner transaction must be visible
+            assertSame(updated, repository.findReservationById(RESERVATION_ID));
+        });
+    }
+
+    @Test
+    void lockingReadsEvictEntries() {
+        var reservation = mock(TicketReservation.class);
+        var updated = mock(TicketReservation.class);
+        when(target.findReservationById(RESERVATION_ID)).thenReturn(reservation);
+        new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+            assertSame(reservation, repository.findReservationById(RESERVATION_ID));
+            when(target.findReservationById(RESERVATION_ID)).thenReturn(updated);
+            repository.findExpiredReservationForUpdate(new Date());
+            assertSame(updated, repository.findReservationById(RESERVATION_ID));
+        });
+    }
+
+    @Test
+    void lockingClauseIsNotAModification() {
+        assertEquals(Set.of(), RepositoryIdentityMap.modifiedTables("select id from ticket where event_id = :eventId for update skip locked"));
+        assertEquals(Set.of(), RepositoryIdentityMap.modifiedTables("select t.id from ticket t join tickets_reservation r on r.id = t.tickets_reservation_id for update of t"));
+        assertTrue(RepositoryIdentityMap.isLockingRead("select id from tickets_reservation where id = :id for share"));
+        assertEquals(Set.of("ticket", "tickets_reservation"), RepositoryIdentityMap.readTables("select t.id from ticket t join tickets_reservation r on r.id = t.tickets_reservation_id for update of t"));
+        assertFalse(RepositoryIdentityMap.isLockingRead("update ticket set status = 'FREE' where id in (select id from ticket where event_id = :eventId for update skip locked)"));
+        assertEquals(Set.of("ticket"), RepositoryIdentityMap.modifiedTables("update ticket set status = 'FREE' where id in (select id from ticket where event_id = :eventId for update skip locked)"));
+    }
+
+    @Test
+    void entriesAreEvictedWhenRollingBackToSavepoint() {
+        var reservation = mock(TicketReservation.class);
+        var updated = mock(TicketReservation.class);
+        when(target.findReservationById(RESERVATION_ID)).thenReturn(reservation);
+        new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+            assertSame(reservation, repository.findReservationById(RESERVATION_ID));
+            var savepoint = status.createSavepoint();
+            repository.updateReservationStatus(RESERVATION_ID, TicketReservation.TicketReservationStatus.IN_PAYMENT.name());
+            when(target.findReservationById(RESERVATION_ID)).thenReturn(updated);
+            assertSame(updated, repository.findReservationById(RESERVATION_ID));
+            status.rollbackToSavepoint(savepoint);
+            // the modification has been rolled back
+            when(target.findReservationById(RESERVATION_ID)).thenReturn(reservation);
+            assertSame(reservation, repository.findReservationById(RESERVATION_ID));
+        });
+    }
+
+    @Test
+    void entriesAreEvictedWhenNestedTransactionIsRolledBack() {
+        var reservation = mock(TicketReservation.class);
+        var updated = mock(TicketReservation.class);
+        when(target.findReservationById(RESERVATION_ID)).thenReturn(reservation);
+        var nested = new TransactionTemplate(transactionManager);
+        nested.setPropagationBehavior(TransactionDefinition.PROPAGATION_NESTED);
+        new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+            assertSame(reservation, repository.findReservationById(RESERVATION_ID));
+            assertThrows(IllegalStateException.class, () -> nested.executeWithoutResult(inner -> {
+                repository.updateReservationStatus(RESERVATION_ID, TicketReservation.TicketReservationStatus.IN_PAYMENT.name());
+                when(target.findReservationById(RESERVATION_ID)).thenReturn(updated);
+                assertSame(updated, repository.findReservationById(RESERVATION_ID));
+                throw new IllegalStateException();
+            }));
+            when(target.findReservationById(RESERVATION_ID)).thenReturn(reservation);
+            assertSame(reservation, repository.findReservationById(RESERVATION_ID));
+        });
+    }
+}
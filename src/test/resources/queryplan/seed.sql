@@ -0,0 +1,150 @@
+--
+-- This file is part of alf.io.
+--
+-- alf.io is free software: you can redistribute it and/or modify
+-- it under the terms of the GNU General Public License as published by
+-- the Free Software Foundation, either version 3 of the License, or
+-- (at your option) any later version.
+--
+-- alf.io is distributed in the hope that it will be useful,
+-- but WITHOUT ANY WARRANTY; without even the implied warranty of
+-- MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+-- GNU General Public License for more details.
+--
+-- You should have received a copy of the GNU General Public License
+-- along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+--
+
+-- Deterministic data set used by QueryPlanRegressionTest.
+-- Event 1 / organization 1 are the "representative" keys used as query parameters; the other rows are there
+-- to make the planner see realistic cardinalities, so that a missing index shows up as a sequential scan.
+-- ids are generated by the following scheme:
+--   reservation: 00000000-0000-4000-8000-<12 digits>
+--   ticket:      10000000-0000-4000-8000-<12 digits>
+
+-- organization_id_fk is set explicitly, so we can skip the per-row triggers (and FK checks) to speed up the load
+set session_replication_role = replica;
+
+insert into organization(id, name, description, email)
+    select i, 'org-' || i, 'organization ' || i, 'org' || i || '@example.org' from generate_series(1, 20) i;
+
+insert into event(id, short_name, display_name, location, start_ts, end_ts, time_zone, regular_price_cts, currency,
+                  available_seats, vat_included, vat, allowed_payment_proxies, private_key, org_id, src_price_cts)
+    select i, 'event-' || i, 'Event ' || i, 'Lugano', now() + (i || ' days')::interval, now() + (i || ' days')::interval + interval '8 hours',
+           'Europe/Zurich', 1000, 'CHF', 2000, true, 7.7, 'OFFLINE,STRIPE', 'key-' || i, 1 + (i - 1) % 20, 1000
+    from generate_series(1, 200) i;
+
+insert into ticket_category(id, inception, expiration, max_tickets, name, price_cts, src_price_cts, access_restricted, event_id, organization_id_fk, tc_status, bounded, ordinal)
+    select i, now() - interval '30 days', now() + interval '300 days', 400, 'category-' || i, 1000, 1000, i % 5 = 0,
+           1 + (i - 1) / 5, 1 + ((i - 1) / 5 - 1 + 20) % 20, 'ACTIVE', true, i % 5
+    from generate_series(1, 1000) i;
+
+insert into promo_code(id, promo_code, event_id_fk, valid_from, valid_to, discount_amount, discount_type, organization_id_fk, max_usage)
+    select i, 'PROMO-' || lpad(i::text, 6, '0'), case when i % 10 = 0 then null else 1 + (i - 1) % 200 end,
+           now() - interval '30 days', now() + interval '300 days', 10, 'PERCENTAGE', 1 + ((i - 1) % 200) % 20,
+           case when i % 20 = 0 then 100 end
+    from generate_series(1, 20000) i;
+
+insert into tickets_reservation(id, validity, status, event_id_fk, organization_id_fk, full_name, first_name, last_name, email_address,
+                                 confirmation_ts, creation_ts, registration_ts, payment_method, user_language, invoice_number, promo_code_id_fk,
+                                 src_price_cts, final_price_cts, vat_cts, currency_code)
+    select '00000000-0000-4000-8000-' || lpad(i::text, 12, '0'), now() + interval '25 minutes',
+           case when i % 20 = 0 then 'OFFLINE_PAYMENT' when i % 20 = 1 then 'PENDING' when i % 50 = 2 then 'CANCELLED' else 'COMPLETE' end,
+           1 + (i - 1) % 200, 1 + ((i - 1) % 200) % 20, 'Buyer ' || i, 'Buyer', '' || i, 'buyer' || i || '@example.org',
+           now() - (i || ' minutes')::interval, now() - (i || ' minutes')::interval, now() - (i || ' minutes')::interval,
+           'STRIPE', 'en', case when i % 20 > 2 then 'INV-' || i end, case when i % 97 = 0 then 1 + i % 20000 end,
+           2000, 2000, 143, 'CHF'
+    from generate_series(1, 100000) i;
+
+insert into special_price(id, code, price_cts, ticket_category_id, status, organization_id_fk)
+    select i, 'SP-' || lpad(i::text, 8, '0'), 1000, 5 * (1 + (i - 1) % 200), case when i % 3 = 0 then 'TAKEN' else 'FREE' end, 1 + ((i - 1) % 200) % 20
+    from generate_series(1, 50000) i;
+
+insert into ticket(id, uuid, creation, category_id, event_id, status, original_price_cts, paid_price_cts, src_price_cts, final_price_cts, vat_cts,
+                   tickets_reservation_id, full_name, first_name, last_name, email_address, user_language, organization_id_fk, currency_code, ext_reference)
+    select i, '10000000-0000-4000-8000-' || lpad(i::text, 12, '0'), now() - (i || ' minutes')::interval,
+           (1 + (i - 1) % 200 - 1) * 5 + 1 + (i / 200) % 5, 1 + (i - 1) % 200,
+           case when i <= 200000 then (case when i % 20 = 0 then 'CHECKED_IN' when i % 20 = 1 then 'PENDING' else 'ACQUIRED' end) else 'FREE' end,
+           1000, 1000, 1000, 1000, 71,
+           case when i <= 200000 then '00000000-0000-4000-8000-' || lpad((1 + (i - 1) % 100000)::text, 12, '0') end,
+           case when i <= 200000 then 'Attendee ' || i end, 'Attendee', '' || i, case when i <= 200000 then 'attendee' || i || '@example.org' end,
+           'en', 1 + ((i - 1) % 200) % 20, 'CHF', null
+    from generate_series(1, 260000) i;
+
+insert into ticket_field_configuration(id, event_id_fk, field_name, field_order, field_type, field_required, organization_id_fk)
+    select i, i, 'company', 1, 'input:text', false, 1 + (i - 1) % 20 from generate_series(1, 200) i;
+
+insert into ticket_field_value(ticket_id_fk, ticket_field_configuration_id_fk, field_value, organization_id_fk)
+    select i, 1 + (i - 1) % 200, 'company ' || i, 1 + ((i - 1) % 200) % 20 from generate_series(1, 200000) i;
+
+insert into additional_service(id, event_id_fk, price_cts, src_price_cts, fix_price, ordinal, vat_type, organization_id_fk, service_type, supplement_policy,
+                               inception_ts, expiration_ts)
+    select i, i, 500, 500, true, 0, 'INHERITED', 1 + (i - 1) % 20, 'DONATION', 'OPTIONAL_UNLIMITED_AMOUNT',
+           now() - interval '30 days', now() + interval '300 days'
+    from generate_series(1, 200) i;
+
+insert into additional_service_item(id, uuid, creation, tickets_reservation_uuid, additional_service_id_fk, original_price_cts, paid_price_cts, status,
+                                    event_id_fk, src_price_cts, final_price_cts, organization_id_fk, currency_code)
+    select i, '20000000-0000-4000-8000-' || lpad(i::text, 12, '0'), now(), '00000000-0000-4000-8000-' || lpad((1 + (i - 1) % 100000)::text, 12, '0'),
+           1 + (i - 1) % 200, 500, 500, 'ACQUIRED', 1 + (i - 1) % 200, 500, 500, 1 + ((i - 1) % 200) % 20, 'CHF'
+    from generate_series(1, 20000) i;
+
+insert into b_transaction(id, gtw_tx_id, gtw_payment_id, reservation_id, t_timestamp, price_cts, currency, description, payment_proxy, organization_id_fk)
+    select i, 'tx-' || i, 'pay-' || i, '00000000-0000-4000-8000-' || lpad(i::text, 12, '0'), now() - (i || ' minutes')::interval,
+           2000, 'CHF', 'payment', 'STRIPE', 1 + ((i - 1) % 200) % 20
+    from generate_series(1, 100000) i where i % 20 > 2;
+
+insert into billing_document(id, event_id_fk, number, reservation_id_fk, type, model, generation_ts, status, organization_id_fk)
+    select i, 1 + (i - 1) % 200, 'INV-' || i, '00000000-0000-4000-8000-' || lpad(i::text, 12, '0'), 'INVOICE', '{}',
+           now() - (i || ' minutes')::interval, 'VALID', 1 + ((i - 1) % 200) % 20
+    from generate_series(1, 100000) i where i % 20 > 2;
+
+insert into email_message(id, event_id, reservation_id, status, recipient, subject, message, checksum, request_ts, sent_ts, attempts, organization_id_fk)
+    select i, 1 + (i - 1) % 200, '00000000-0000-4000-8000-' || lpad((1 + (i - 1) % 100000)::text, 12, '0'),
+           case when i % 100 = 0 then 'WAITING' when i % 100 = 1 then 'RETRY' when i % 100 = 2 then 'ERROR' else 'SENT' end,
+           'buyer' || i || '@example.org', 'subject ' || i, 'message ' || i, md5(i::text), now() - (i || ' minutes')::interval,
+           now() - (i || ' minutes')::interval, 1, 1 + ((i - 1) % 200) % 20
+    from generate_series(1, 200000) i;
+
+insert into auditing(reservation_id, user_id, event_type, event_time, entity_type, entity_id, modifications, event_id, organization_id_fk)
+    select '00000000-0000-4000-8000-' || lpad((1 + (i - 1) % 100000)::text, 12, '0'), null,
+           case i % 3 when 0 then 'RESERVATION_CREATE' when 1 then 'RESERVATION_COMPLETE' else 'UPDATE_TICKET' end,
+           now() - (i || ' minutes')::interval, 'RESERVATION', '00000000-0000-4000-8000-' || lpad((1 + (i - 1) % 100000)::text, 12, '0'),
+           null, 1 + (i - 1) % 200, 1 + ((i - 1) % 200) % 20
+    from generate_series(1, 300000) i;
+
+insert into scan_audit(ticket_uuid, event_id_fk, scan_ts, username, check_in_status, operation, organization_id_fk)
+    select '10000000-0000-4000-8000-' || lpad((i * 20)::text, 12, '0'), 1 + (i * 20 - 1) % 200, now() - (i || ' minutes')::interval,
+           'scanner', 'SUCCESS', 'SCAN', 1 + ((i * 20 - 1) % 200) % 20
+    from generate_series(1, 10000) i;
+
+insert into waiting_queue(id, creation, event_id, status, full_name, first_name, last_name, email_address, user_language, subscription_type, organization_id_fk)
+    select i, now() - (i || ' minutes')::interval, 1 + (i - 1) % 200, case when i % 10 = 0 then 'WAITING' else 'EXPIRED' end,
+           'Waiting ' || i, 'Waiting', '' || i, 'waiting' || i || '@example.org', 'en', 'SOLD_OUT', 1 + ((i - 1) % 200) % 20
+    from generate_series(1, 20000) i;
+
+select setval('organization_id_seq', 20);
+select setval('event_id_seq', 200);
+select setval('ticket_category_id_seq', 1000);
+select setval('promo_code_id_seq', 20000);
+select setval('special_price_id_seq', 50000);
+select setval('ticket_id_seq', 260000);
+select setval('billing_document_id_seq', 100000);
+select setval('b_transaction_id_seq', 100000);
+select setval('email_message_id_seq', 200000);
+select setval('waiting_queue_id_seq', 20000);
+select setval('ticket_field_configuration_id_seq', 200);
+select setval('additional_service_id_seq', 200);
+select setval('additional_service_item_id_seq', 20000);
+
+set session_replication_role = default;
+
+insert into promo_code_usage(promo_code_id_fk, organization_id_fk, used_count)
+    select id, organization_id_fk, promo_code_usage_count(id) from promo_code where max_usage is not null;
+insert into promo_code_usage_reservation(reservation_id_fk, promo_code_id_fk, organization_id_fk, used_count)
+    select tr.id, pc.id, pc.organization_id_fk, promo_code_usage_count(pc.id, tr.id)
+    from tickets_reservation tr
+    join promo_code pc on pc.id = tr.promo_code_id_fk
+    where pc.max_usage is not null and tr.status in ('OFFLINE_PAYMENT', 'COMPLETE', 'STUCK');
+
+analyze;